@@ -28,6 +28,8 @@ import org.jetbrains.kotlin.utils.keysToMap
 import java.io.File
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
 
 
 open class LookupStorage(
@@ -37,6 +39,7 @@ open class LookupStorage(
     companion object {
         private val DELETED_TO_SIZE_TRESHOLD = 0.5
         private val MINIMUM_GARBAGE_COLLECTIBLE_SIZE = 10000
+        private val COMPACTION_BATCH_SIZE = 1000
     }
 
     private val countersFile = "counters".storageFile
@@ -50,12 +53,19 @@ open class LookupStorage(
     @Volatile
     private var deletedCount: Int = 0
 
+    // Ids of deleted files that were already removed from the lookups by a background compaction, but are still counted in [size]
+    @Volatile
+    private var compactedCount: Int = 0
+
+    private var compaction: Compaction? = null
+
     init {
         try {
             if (countersFile.exists()) {
                 val lines = countersFile.readLines()
                 size = lines[0].toInt()
                 deletedCount = lines[1].toInt()
+                compactedCount = lines.getOrNull(2)?.toInt() ?: 0
             }
         } catch (e: Exception) {
             throw IOException("Could not read $countersFile", e)
@@ -68,7 +78,7 @@ open class LookupStorage(
         val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
         val fileIds = lookupMap[key] ?: return emptySet()
 
-        return fileIds.mapNotNull {
+        return fileIds.asList().mapNotNull {
             // null means it's outdated
             idToFile[it]?.path
         }
@@ -80,9 +90,13 @@ open class LookupStorage(
 
         for ((lookupSymbol, paths) in lookups) {
             val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
-            val fileIds = paths.mapTo(HashSet<Int>()) { pathToId[it]!! }
-            fileIds.addAll(lookupMap[key] ?: emptySet())
-            lookupMap[key] = fileIds
+            val fileIds = IntArray(paths.size)
+            var index = 0
+            for (path in paths) {
+                fileIds[index++] = pathToId[path]!!
+            }
+            // Duplicates are dropped on read, so there is no need to read and rewrite the existing ids
+            lookupMap.addAll(key, fileIds)
         }
     }
 
@@ -98,12 +112,15 @@ open class LookupStorage(
 
     @Synchronized
     override fun clean() {
+        cancelCompaction()
+
         if (countersFile.exists()) {
             countersFile.delete()
         }
 
         size = 0
         deletedCount = 0
+        compactedCount = 0
 
         super.clean()
     }
@@ -112,21 +129,35 @@ open class LookupStorage(
     override fun flush(memoryCachesOnly: Boolean) {
         try {
             removeGarbageIfNeeded()
-
-            if (size > 0) {
-                if (!countersFile.exists()) {
-                    countersFile.parentFile.mkdirs()
-                    countersFile.createNewFile()
-                }
-
-                countersFile.writeText("$size\n$deletedCount")
-            }
+            writeCounters()
         }
         finally {
             super.flush(memoryCachesOnly)
         }
     }
 
+    override fun close() {
+        // Caches are flushed right before they are closed, so a compaction started by the flush is finished before closing,
+        // otherwise the garbage would never be removed
+        synchronized(this) { compaction }?.await()
+
+        synchronized(this) {
+            cancelCompaction()
+            super.close()
+        }
+    }
+
+    private fun writeCounters() {
+        if (size > 0) {
+            if (!countersFile.exists()) {
+                countersFile.parentFile.mkdirs()
+                countersFile.createNewFile()
+            }
+
+            countersFile.writeText("$size\n$deletedCount\n$compactedCount")
+        }
+    }
+
     private fun addFileIfNeeded(file: File): Int {
         val existing = fileToId[file]
         if (existing != null) return existing
@@ -138,14 +169,100 @@ open class LookupStorage(
     }
 
     private fun removeGarbageIfNeeded(force: Boolean = false) {
-        if (force || (size > MINIMUM_GARBAGE_COLLECTIBLE_SIZE && deletedCount.toDouble() / size > DELETED_TO_SIZE_TRESHOLD)) {
+        if (force) {
+            cancelCompaction()
             doRemoveGarbage()
         }
+        else if (size > MINIMUM_GARBAGE_COLLECTIBLE_SIZE && deletedCount.toDouble() / (size - compactedCount) > DELETED_TO_SIZE_TRESHOLD) {
+            startCompaction()
+        }
+    }
+
+    private fun startCompaction() {
+        if (compaction?.isFinished == false) return
+
+        val newCompaction = Compaction(deletedCount)
+        compaction = newCompaction
+        thread(isDaemon = true, name = "Kotlin lookups compaction") { newCompaction.run() }
+    }
+
+    private fun cancelCompaction() {
+        compaction?.isCancelled = true
+        compaction = null
+    }
+
+    /**
+     * Removes ids of deleted files from the lookups in the background, taking the lock of the storage only for a batch of lookups,
+     * so that the compilation isn't blocked. Unlike [doRemoveGarbage], the ids of remaining files are not renumbered: the removed ids
+     * are moved from [deletedCount] to [compactedCount], which is written right away, so that the next flush or the next build
+     * doesn't start the same compaction again.
+     *
+     * [close] waits for the compaction to finish. It is cancelled by [clean] and by a forced garbage collection. A cancelled compaction
+     * doesn't touch the storage anymore, and the ids it didn't remove are just filtered out on read until the next compaction.
+     */
+    private inner class Compaction(private val deletedAtStart: Int) {
+        @Volatile
+        var isCancelled = false
+
+        private val finished = CountDownLatch(1)
+
+        val isFinished: Boolean
+            get() = finished.count == 0L
+
+        fun await() {
+            finished.await()
+        }
+
+        fun run() {
+            try {
+                val keys = synchronized(this@LookupStorage) {
+                    if (isCancelled) return
+                    lookupMap.keys.toList()
+                }
+
+                for (batch in keys.chunked(COMPACTION_BATCH_SIZE)) {
+                    synchronized(this@LookupStorage) {
+                        if (isCancelled) return
+                        batch.forEach(::removeDeletedFileIds)
+                    }
+                }
+
+                synchronized(this@LookupStorage) {
+                    if (isCancelled) return
+                    deletedCount -= deletedAtStart
+                    compactedCount += deletedAtStart
+                    writeCounters()
+                }
+            }
+            finally {
+                finished.countDown()
+            }
+        }
+    }
+
+    private fun removeDeletedFileIds(key: LookupSymbolKey) {
+        val fileIds = lookupMap[key] ?: return
+        val liveFileIds = fileIds.filter { it in idToFile }
+
+        when {
+            liveFileIds.isEmpty() -> lookupMap.remove(key)
+            liveFileIds.size < fileIds.size -> lookupMap[key] = liveFileIds.toIntArray()
+        }
+    }
+
+    @TestOnly
+    fun isCompactionRunning(): Boolean = synchronized(this) { compaction?.isFinished == false }
+
+    @TestOnly
+    fun awaitCompaction() {
+        while (isCompactionRunning()) {
+            Thread.sleep(10)
+        }
     }
 
     private fun doRemoveGarbage() {
         for (hash in lookupMap.keys) {
-            lookupMap[hash] = lookupMap[hash]!!.filter { it in idToFile }.toSet()
+            lookupMap[hash] = lookupMap[hash]!!.filter { it in idToFile }.toIntArray()
         }
 
         val oldFileToId = fileToId.toMap()
@@ -154,6 +271,7 @@ open class LookupStorage(
         fileToId.clean()
         size = 0
         deletedCount = 0
+        compactedCount = 0
 
         for ((file, oldId) in oldFileToId.entries.sortedBy { it.key.path }) {
             val newId = addFileIfNeeded(file)
@@ -161,7 +279,7 @@ open class LookupStorage(
         }
 
         for (lookup in lookupMap.keys) {
-            val fileIds = lookupMap[lookup]!!.mapNotNull { oldIdToNewId[it] }.toSet()
+            val fileIds = lookupMap[lookup]!!.asList().mapNotNull { oldIdToNewId[it] }.toIntArray()
 
             if (fileIds.isEmpty()) {
                 lookupMap.remove(lookup)
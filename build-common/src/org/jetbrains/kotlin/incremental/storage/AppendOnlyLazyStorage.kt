@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.IOUtil
+import com.intellij.util.io.KeyDescriptor
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * Stores a map in the [AppendOnlySegment] shared by all maps of the [directory] which use the same [segments],
+ * i.e. the maps of one [BasicMapsOwner], which gives them its segments when they are registered.
+ * Like [PersistentHashMapLazyStorage], it's lazy in a sense that the segment file is created only on write
+ */
+class AppendOnlyLazyStorage<K, V> internal constructor(
+        private val directory: File,
+        private val mapName: String,
+        private val keyDescriptor: KeyDescriptor<K>,
+        private val valueExternalizer: DataExternalizer<V>,
+        segments: AppendOnlySegments? = null
+) : LazyStorage<K, V> {
+    private var segment: AppendOnlySegment? = null
+
+    internal var segments: AppendOnlySegments? = segments
+        @Synchronized set(value) {
+            check(segment == null) { "Segment of $mapName in $directory is already open" }
+            field = value
+        }
+
+    // Segments of a map are never created for it alone, otherwise two maps could write the same segment file independently
+    private fun sharedSegments(): AppendOnlySegments =
+        checkNotNull(segments) { "Map $mapName in $directory is not registered in a BasicMapsOwner, so it has no shared segments" }
+
+    @Synchronized
+    private fun getSegmentIfExists(): AppendOnlySegment? {
+        if (segment == null) {
+            segment = sharedSegments().acquire(directory, createIfAbsent = false)
+        }
+        return segment
+    }
+
+    @Synchronized
+    private fun getSegmentOrCreateNew(): AppendOnlySegment {
+        if (segment == null) {
+            segment = sharedSegments().acquire(directory, createIfAbsent = true)
+        }
+        return segment!!
+    }
+
+    override val keys: Collection<K>
+        get() = getSegmentIfExists()?.keys(mapName)?.map { keyDescriptor.read(DataInputStream(ByteArrayInputStream(it))) } ?: listOf()
+
+    override operator fun contains(key: K): Boolean =
+            getSegmentIfExists()?.contains(mapName, serialize(key, keyDescriptor)) ?: false
+
+    override operator fun get(key: K): V? =
+            getSegmentIfExists()?.get(mapName, serialize(key, keyDescriptor))?.let {
+                valueExternalizer.read(DataInputStream(ByteArrayInputStream(it)))
+            }
+
+    override operator fun set(key: K, value: V) {
+        getSegmentOrCreateNew().put(mapName, serialize(key, keyDescriptor), serialize(value, valueExternalizer))
+    }
+
+    override fun remove(key: K) {
+        getSegmentIfExists()?.remove(mapName, serialize(key, keyDescriptor))
+    }
+
+    override fun append(key: K, value: String) {
+        append(key) { out -> IOUtil.writeUTF(out, value) }
+    }
+
+    override fun append(key: K, value: Int) {
+        append(key) { out -> out.writeInt(value) }
+    }
+
+    override fun append(key: K, value: IntArray) {
+        append(key) { out -> value.forEach(out::writeInt) }
+    }
+
+    @Synchronized
+    override fun clean() {
+        getSegmentIfExists()?.clear(mapName)
+    }
+
+    @Synchronized
+    override fun flush(memoryCachesOnly: Boolean) {
+        val existingSegment = segment ?: return
+
+        if (memoryCachesOnly) {
+            existingSegment.flushBatch()
+        }
+        else {
+            existingSegment.flush(force = true)
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        segment?.let(sharedSegments()::release)
+        segment = null
+    }
+
+    private fun append(key: K, append: (DataOutput) -> Unit) {
+        val bytes = ByteArrayOutputStream()
+        append(DataOutputStream(bytes))
+        getSegmentOrCreateNew().append(mapName, serialize(key, keyDescriptor), bytes.toByteArray())
+    }
+
+    private fun <T> serialize(value: T, externalizer: DataExternalizer<T>): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        externalizer.save(DataOutputStream(bytes), value)
+        return bytes.toByteArray()
+    }
+}
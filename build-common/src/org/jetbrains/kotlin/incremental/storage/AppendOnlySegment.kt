@@ -0,0 +1,396 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * A single append-only file holding all maps of a cache directory.
+ *
+ * The file is a log of records `(operation, map name, key, value)`, where keys and values are stored in their serialized form.
+ * On open, the log is replayed into an in-memory index from keys to locations of value chunks, after which lookups
+ * are served from the memory-mapped file. Writes are accumulated in memory and appended to the file in one batch on flush.
+ * When the last storage using the segment is closed, the segment is rewritten if most of it is occupied by overwritten data.
+ *
+ * Keys are compared by their serialized form.
+ */
+internal class AppendOnlySegment private constructor(val file: File) {
+    private class Location(val offset: Long, val length: Int)
+
+    private class Key(val bytes: ByteArray) {
+        private val hashCode = bytes.contentHashCode()
+
+        override fun hashCode(): Int = hashCode
+
+        override fun equals(other: Any?): Boolean = other is Key && bytes.contentEquals(other.bytes)
+    }
+
+    private class PendingOutput : ByteArrayOutputStream() {
+        fun read(position: Int, length: Int): ByteArray = buf.copyOfRange(position, position + length)
+
+        fun writeTo(channel: FileChannel, position: Long) {
+            val buffer = ByteBuffer.wrap(buf, 0, count)
+            var offset = position
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer, offset)
+            }
+        }
+    }
+
+    private val maps = HashMap<String, LinkedHashMap<Key, MutableList<Location>>>()
+
+    private var channel: FileChannel? = null
+    private var mapped: MappedByteBuffer? = null
+    private var persistedSize = HEADER_SIZE.toLong()
+
+    private val pending = PendingOutput()
+    private val pendingOutput = DataOutputStream(pending)
+
+    private var liveSize = 0L
+    private var users = 0
+
+    @Synchronized
+    fun keys(mapName: String): List<ByteArray> = maps[mapName]?.keys?.map { it.bytes } ?: emptyList()
+
+    @Synchronized
+    fun contains(mapName: String, key: ByteArray): Boolean = maps[mapName]?.containsKey(Key(key)) ?: false
+
+    @Synchronized
+    fun get(mapName: String, key: ByteArray): ByteArray? {
+        val chunks = maps[mapName]?.get(Key(key)) ?: return null
+        if (chunks.size == 1) return read(chunks[0])
+
+        val result = ByteArray(chunks.sumBy { it.length })
+        var position = 0
+        for (chunk in chunks) {
+            val bytes = read(chunk)
+            System.arraycopy(bytes, 0, result, position, bytes.size)
+            position += bytes.size
+        }
+        return result
+    }
+
+    @Synchronized
+    fun put(mapName: String, key: ByteArray, value: ByteArray) {
+        apply(mapName, PUT, Key(key), write(PUT, mapName, key, value))
+    }
+
+    @Synchronized
+    fun append(mapName: String, key: ByteArray, value: ByteArray) {
+        apply(mapName, APPEND, Key(key), write(APPEND, mapName, key, value))
+    }
+
+    @Synchronized
+    fun remove(mapName: String, key: ByteArray) {
+        if (contains(mapName, key)) {
+            apply(mapName, REMOVE, Key(key), write(REMOVE, mapName, key, EMPTY))
+        }
+    }
+
+    @Synchronized
+    fun clear(mapName: String) {
+        if (maps[mapName].orEmpty().isNotEmpty()) {
+            apply(mapName, CLEAR, Key(EMPTY), write(CLEAR, mapName, EMPTY, EMPTY))
+        }
+    }
+
+    @Synchronized
+    fun flush(force: Boolean) {
+        if (pending.size() == 0) {
+            if (force) channel?.force(false)
+            return
+        }
+
+        if (persistedSize + pending.size() > MAX_SIZE) {
+            throw IOException("Incremental caches segment $file would exceed the maximum size of $MAX_SIZE bytes")
+        }
+
+        val channel = channel ?: openChannel()
+        pending.writeTo(channel, persistedSize)
+        persistedSize += pending.size()
+        pending.reset()
+        if (force) {
+            channel.force(false)
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, persistedSize)
+    }
+
+    /**
+     * Flushes the pending writes only if there are enough of them to make a reasonable batch
+     */
+    @Synchronized
+    fun flushBatch() {
+        if (pending.size() >= BATCH_SIZE) {
+            flush(force = false)
+        }
+    }
+
+    private fun openChannel(): FileChannel {
+        val channel = RandomAccessFile(file, "rw").channel
+        if (channel.size() < HEADER_SIZE) {
+            val header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION)
+            header.flip()
+            channel.write(header, 0)
+        }
+        channel.truncate(persistedSize)
+        this.channel = channel
+        return channel
+    }
+
+    private fun write(operation: Byte, mapName: String, key: ByteArray, value: ByteArray): Location {
+        with(pendingOutput) {
+            writeByte(operation.toInt())
+            writeMapName(mapName)
+            writeInt(key.size)
+            write(key)
+            writeInt(value.size)
+            write(value)
+        }
+        return Location(persistedSize + pending.size() - value.size, value.size)
+    }
+
+    private fun apply(mapName: String, operation: Byte, key: Key, location: Location) {
+        val map = maps.getOrPut(mapName) { LinkedHashMap() }
+        when (operation) {
+            PUT -> {
+                map.put(key, arrayListOf(location))?.let { liveSize -= it.sumBy(Location::length) }
+                liveSize += location.length
+            }
+            APPEND -> {
+                map.getOrPut(key) { arrayListOf() }.add(location)
+                liveSize += location.length
+            }
+            REMOVE -> {
+                map.remove(key)?.let { liveSize -= it.sumBy(Location::length) }
+            }
+            CLEAR -> {
+                map.values.forEach { chunks -> liveSize -= chunks.sumBy(Location::length) }
+                map.clear()
+            }
+            else -> throw IllegalStateException("Unexpected operation $operation in $file")
+        }
+    }
+
+    private fun read(location: Location): ByteArray {
+        if (location.offset >= persistedSize) {
+            return pending.read((location.offset - persistedSize).toInt(), location.length)
+        }
+
+        val buffer = mapped!!.duplicate()
+        buffer.position(location.offset.toInt())
+        return ByteArray(location.length).also { buffer.get(it) }
+    }
+
+    private fun load() {
+        if (!file.exists()) return
+
+        val channel = RandomAccessFile(file, "rw").channel
+        var isLoaded = false
+        try {
+            isLoaded = load(channel)
+        } finally {
+            if (isLoaded) this.channel = channel else channel.close()
+        }
+    }
+
+    /**
+     * Returns false if nothing has been written to the segment yet, so the header will be written by the first flush
+     */
+    private fun load(channel: FileChannel): Boolean {
+        val size = channel.size()
+        if (size < HEADER_SIZE) return false
+
+        if (size > MAX_SIZE) {
+            throw IOException("Incremental caches segment $file exceeds the maximum size of $MAX_SIZE bytes")
+        }
+
+        var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw IOException("Unsupported format of incremental caches segment $file")
+        }
+
+        // A record can be cut if the process was terminated during flush: such records are dropped and overwritten by the next flush
+        var validSize = buffer.position().toLong()
+        persistedSize = size
+        while (buffer.hasRemaining()) {
+            val record = readRecord(buffer) ?: break
+            apply(record.mapName, record.operation, Key(record.key), record.value)
+            validSize = buffer.position().toLong()
+        }
+        if (validSize < size) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, validSize)
+            channel.truncate(validSize)
+        }
+        persistedSize = validSize
+        mapped = buffer
+        return true
+    }
+
+    // Map names are read back as UTF-8, so they are written as plain UTF-8 and not by `writeUTF`, which uses modified UTF-8
+    private fun DataOutputStream.writeMapName(mapName: String) {
+        val bytes = mapName.toByteArray(Charsets.UTF_8)
+        if (bytes.size > 0xFFFF) throw IOException("Map name is too long: $mapName")
+        writeShort(bytes.size)
+        write(bytes)
+    }
+
+    private class Record(val operation: Byte, val mapName: String, val key: ByteArray, val value: Location)
+
+    private fun readRecord(buffer: MappedByteBuffer): Record? {
+        try {
+            val operation = buffer.get()
+            if (operation !in PUT..CLEAR) return null
+            val mapName = ByteArray(buffer.getShort().toInt() and 0xFFFF).also { buffer.get(it) }
+            val key = ByteArray(buffer.getInt()).also { buffer.get(it) }
+            val valueLength = buffer.getInt()
+            val valueOffset = buffer.position()
+            buffer.position(valueOffset + valueLength)
+            return Record(operation, String(mapName, Charsets.UTF_8), key, Location(valueOffset.toLong(), valueLength))
+        }
+        catch (e: RuntimeException) {
+            // BufferUnderflowException, IllegalArgumentException or NegativeArraySizeException for a truncated record
+            return null
+        }
+    }
+
+    /**
+     * Rewrites the segment with the live data only, if overwritten data takes most of it. Failures are ignored,
+     * because the segment stays valid: e.g. on Windows a file cannot be replaced while it's mapped
+     */
+    private fun compactIfNeeded() {
+        val garbage = persistedSize - HEADER_SIZE - liveSize
+        if (garbage < MIN_GARBAGE_TO_COMPACT || garbage < liveSize) return
+
+        val compacted = File(file.path + ".tmp")
+        try {
+            if (maps.values.all { it.isEmpty() }) {
+                file.delete()
+                return
+            }
+
+            DataOutputStream(compacted.outputStream().buffered()).use { output ->
+                output.writeInt(MAGIC)
+                output.writeInt(VERSION)
+                for ((mapName, map) in maps) {
+                    for ((key, chunks) in map) {
+                        val value = ByteArray(chunks.sumBy { it.length })
+                        var position = 0
+                        for (chunk in chunks) {
+                            read(chunk).copyInto(value, position)
+                            position += chunk.length
+                        }
+
+                        output.writeByte(PUT.toInt())
+                        output.writeMapName(mapName)
+                        output.writeInt(key.bytes.size)
+                        output.write(key.bytes)
+                        output.writeInt(value.size)
+                        output.write(value)
+                    }
+                }
+            }
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+        }
+        catch (e: IOException) {
+            compacted.delete()
+        }
+    }
+
+    @Synchronized
+    fun acquire() {
+        users++
+    }
+
+    /**
+     * Returns true if the segment was used by its last user and is closed
+     */
+    @Synchronized
+    fun release(): Boolean {
+        if (--users > 0) return false
+
+        close()
+        return true
+    }
+
+    private fun close() {
+        try {
+            flush(force = false)
+            channel?.close()
+            compactIfNeeded()
+        }
+        finally {
+            channel = null
+            mapped = null
+            maps.clear()
+        }
+    }
+
+    companion object {
+        const val FILE_NAME = "caches.segment"
+
+        private const val MAGIC = 0x4B494353
+        private const val VERSION = 1
+        private const val HEADER_SIZE = 8
+
+        private const val PUT: Byte = 0
+        private const val APPEND: Byte = 1
+        private const val REMOVE: Byte = 2
+        private const val CLEAR: Byte = 3
+
+        private val EMPTY = ByteArray(0)
+
+        // Offsets are positions in a single mapped buffer, which is limited to 2 GB
+        private const val MAX_SIZE = Int.MAX_VALUE.toLong()
+
+        private const val BATCH_SIZE = 1 shl 20
+        private const val MIN_GARBAGE_TO_COMPACT = 1L shl 16
+
+        fun exists(directory: File): Boolean = File(directory, FILE_NAME).exists()
+
+        fun open(file: File): AppendOnlySegment = AppendOnlySegment(file).apply { load() }
+    }
+}
+
+/**
+ * Segments opened by the storages of one cache owner, see [BasicMapsOwner]. All maps of a directory share its segment,
+ * which is closed when the last of them is closed. Different owners should not use the same directory at the same time
+ */
+internal class AppendOnlySegments {
+    private val openSegments = HashMap<File, AppendOnlySegment>()
+
+    /**
+     * Returns the segment of the [directory], opening it if needed. Each call should be paired with [release]
+     */
+    fun acquire(directory: File, createIfAbsent: Boolean): AppendOnlySegment? {
+        synchronized(openSegments) {
+            val file = File(directory, AppendOnlySegment.FILE_NAME).canonicalFile
+            val segment = openSegments[file] ?: run {
+                if (!createIfAbsent && !file.exists()) return null
+
+                AppendOnlySegment.open(file).also { openSegments[file] = it }
+            }
+            segment.acquire()
+            return segment
+        }
+    }
+
+    fun release(segment: AppendOnlySegment) {
+        synchronized(openSegments) {
+            if (segment.release()) {
+                openSegments.remove(segment.file)
+            }
+        }
+    }
+}
@@ -28,7 +28,7 @@ abstract class BasicMap<K : Comparable<K>, V>(
         keyDescriptor: KeyDescriptor<K>,
         valueExternalizer: DataExternalizer<V>
 ) {
-    protected val storage = LazyStorage(storageFile, keyDescriptor, valueExternalizer)
+    protected val storage: LazyStorage<K, V> = createLazyStorage(storageFile, keyDescriptor, valueExternalizer)
 
     fun clean() {
         storage.clean()
@@ -42,6 +42,10 @@ abstract class BasicMap<K : Comparable<K>, V>(
         storage.close()
     }
 
+    internal fun useSegments(segments: AppendOnlySegments) {
+        (storage as? AppendOnlyLazyStorage<*, *>)?.segments = segments
+    }
+
     @TestOnly
     fun dump(): String {
         return with(StringBuilder()) {
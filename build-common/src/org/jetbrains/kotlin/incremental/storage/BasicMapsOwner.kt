@@ -22,6 +22,9 @@ import java.io.File
 open class BasicMapsOwner(val cachesDir: File) {
     private val maps = arrayListOf<BasicMap<*, *>>()
 
+    // Maps of the owner stored in append-only segments share the segment of their directory
+    private val segments = AppendOnlySegments()
+
     companion object {
         val CACHE_EXTENSION = "tab"
     }
@@ -31,6 +34,7 @@ open class BasicMapsOwner(val cachesDir: File) {
 
     protected fun <K, V, M : BasicMap<K, V>> registerMap(map: M): M {
         maps.add(map)
+        map.useSegments(segments)
         return map
     }
 
@@ -25,14 +25,62 @@ import java.io.File
 import java.io.IOException
 
 
+interface LazyStorage<K, V> {
+    val keys: Collection<K>
+
+    operator fun contains(key: K): Boolean
+
+    operator fun get(key: K): V?
+
+    operator fun set(key: K, value: V)
+
+    fun remove(key: K)
+
+    fun append(key: K, value: String)
+
+    fun append(key: K, value: Int)
+
+    fun append(key: K, value: IntArray)
+
+    fun clean()
+
+    fun flush(memoryCachesOnly: Boolean)
+
+    fun close()
+}
+
+/**
+ * Set to "append-only" to store new incremental caches in a single memory-mapped segment file per cache directory
+ * (see [AppendOnlyLazyStorage]) instead of a PersistentHashMap per map
+ */
+const val INCREMENTAL_STORAGE_PROPERTY = "kotlin.incremental.storage"
+
+/**
+ * Existing caches keep their format: a map already stored in a PersistentHashMap is never read from a segment and vice versa
+ */
+fun <K, V> createLazyStorage(
+        storageFile: File,
+        keyDescriptor: KeyDescriptor<K>,
+        valueExternalizer: DataExternalizer<V>
+): LazyStorage<K, V> {
+    val directory = storageFile.absoluteFile.parentFile
+    val useSegment = !storageFile.exists() &&
+                     (System.getProperty(INCREMENTAL_STORAGE_PROPERTY) == "append-only" || AppendOnlySegment.exists(directory))
+
+    return if (useSegment)
+        AppendOnlyLazyStorage(directory, storageFile.name, keyDescriptor, valueExternalizer)
+    else
+        PersistentHashMapLazyStorage(storageFile, keyDescriptor, valueExternalizer)
+}
+
 /**
  * It's lazy in a sense that PersistentHashMap is created only on write
  */
-class LazyStorage<K, V>(
+class PersistentHashMapLazyStorage<K, V>(
         private val storageFile: File,
         private val keyDescriptor: KeyDescriptor<K>,
         private val valueExternalizer: DataExternalizer<V>
-) {
+) : LazyStorage<K, V> {
     @Volatile
     private var storage: PersistentHashMap<K, V>? = null
 
@@ -57,33 +105,37 @@ class LazyStorage<K, V>(
         return storage!!
     }
 
-    val keys: Collection<K>
+    override val keys: Collection<K>
         get() = getStorageIfExists()?.allKeysWithExistingMapping ?: listOf()
 
-    operator fun contains(key: K): Boolean =
+    override operator fun contains(key: K): Boolean =
             getStorageIfExists()?.containsMapping(key) ?: false
 
-    operator fun get(key: K): V? =
+    override operator fun get(key: K): V? =
             getStorageIfExists()?.get(key)
 
-    operator fun set(key: K, value: V) {
+    override operator fun set(key: K, value: V) {
         getStorageOrCreateNew().put(key, value)
     }
 
-    fun remove(key: K) {
+    override fun remove(key: K) {
         getStorageIfExists()?.remove(key)
     }
 
-    fun append(key: K, value: String) {
+    override fun append(key: K, value: String) {
         append(key) { out -> IOUtil.writeUTF(out, value) }
     }
 
-    fun append(key: K, value: Int) {
+    override fun append(key: K, value: Int) {
         append(key) { out -> out.writeInt(value) }
     }
 
+    override fun append(key: K, value: IntArray) {
+        append(key) { out -> value.forEach(out::writeInt) }
+    }
+
     @Synchronized
-    fun clean() {
+    override fun clean() {
         try {
             storage?.close()
         }
@@ -95,7 +147,7 @@ class LazyStorage<K, V>(
     }
 
     @Synchronized
-    fun flush(memoryCachesOnly: Boolean) {
+    override fun flush(memoryCachesOnly: Boolean) {
         val existingStorage = storage ?: return
 
         if (memoryCachesOnly) {
@@ -109,7 +161,7 @@ class LazyStorage<K, V>(
     }
 
     @Synchronized
-    fun close() {
+    override fun close() {
         storage?.close()
     }
 
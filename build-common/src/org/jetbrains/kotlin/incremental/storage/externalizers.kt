@@ -24,6 +24,7 @@ import com.intellij.util.io.KeyDescriptor
 import java.io.DataInput
 import java.io.DataInputStream
 import java.io.DataOutput
+import java.io.EOFException
 import java.io.File
 import java.util.*
 
@@ -171,6 +172,43 @@ object IntExternalizer : DataExternalizer<Int> {
     }
 }
 
+/**
+ * Reads ints appended in any order and possibly with duplicates into a sorted array of distinct values
+ */
+object SortedIntArrayExternalizer : DataExternalizer<IntArray> {
+    override fun read(input: DataInput): IntArray {
+        var values = IntArray(16)
+        var size = 0
+
+        // The input ends with the value, and DataInput can't tell how many bytes are left before that
+        while (true) {
+            val value = try {
+                input.readInt()
+            } catch (e: EOFException) {
+                break
+            }
+            if (size == values.size) {
+                values = values.copyOf(size * 2)
+            }
+            values[size++] = value
+        }
+
+        Arrays.sort(values, 0, size)
+
+        var distinct = 0
+        for (i in 0 until size) {
+            if (distinct == 0 || values[distinct - 1] != values[i]) {
+                values[distinct++] = values[i]
+            }
+        }
+        return if (distinct == values.size) values else values.copyOf(distinct)
+    }
+
+    override fun save(output: DataOutput, value: IntArray) {
+        value.forEach(output::writeInt)
+    }
+}
+
 object PathStringDescriptor : EnumeratorStringDescriptor() {
     override fun getHashCode(value: String) = FileUtil.pathHashCode(value)
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.jetbrains.kotlin.incremental.storage.FileToCanonicalPathConverter
+import org.junit.Test
+import java.io.File
+
+class LookupStorageTest : TestWithWorkingDir() {
+    private val symbol = LookupSymbol("foo", "bar")
+    private val otherSymbol = LookupSymbol("baz", "bar")
+
+    private fun LookupStorage.add(symbol: LookupSymbol, paths: List<String>) {
+        addAll(mapOf(symbol to paths).entries, paths.toSet())
+    }
+
+    @Test
+    fun testFileIdsAreAppended() {
+        val storage = LookupStorage(workingDir, FileToCanonicalPathConverter)
+        val first = File(workingDir, "first.kt").canonicalPath
+        val second = File(workingDir, "second.kt").canonicalPath
+
+        storage.add(symbol, listOf(first))
+        storage.add(symbol, listOf(second, first))
+        storage.close()
+
+        val reopened = LookupStorage(workingDir, FileToCanonicalPathConverter)
+        assertEquals(setOf(first, second), reopened.get(symbol).toSet())
+        assertEquals(2, reopened.get(symbol).size)
+        reopened.close()
+    }
+
+    @Test
+    fun testDeletedFilesAreRemovedInBackground() {
+        val storage = LookupStorage(workingDir, FileToCanonicalPathConverter)
+        val files = (0..20000).map { File(workingDir, "file$it.kt").canonicalPath }
+        storage.add(symbol, files)
+        storage.add(otherSymbol, files.take(100))
+
+        val removed = files.filterIndexed { index, _ -> index % 4 != 0 }
+        storage.removeLookupsFrom(removed.asSequence().map(::File))
+        storage.flush(false)
+        storage.awaitCompaction()
+
+        val remaining = files - removed
+        assertEquals(remaining.toSet(), storage.get(symbol).toSet())
+        assertEquals(remaining.take(25).toSet(), storage.get(otherSymbol).toSet())
+
+        val dump = storage.dump(setOf(symbol, otherSymbol))
+        val fileIds = dump.lines().single { it.startsWith("bar#foo -> ") }.removePrefix("bar#foo -> ").split(", ")
+        assertEquals("Ids of deleted files are not removed", remaining.size, fileIds.size)
+        storage.close()
+    }
+
+    @Test
+    fun testCompactionIsFinishedOnClose() {
+        val storage = LookupStorage(workingDir, FileToCanonicalPathConverter)
+        val files = (0..20000).map { File(workingDir, "file$it.kt").canonicalPath }
+        storage.add(symbol, files)
+        storage.removeLookupsFrom(files.drop(100).asSequence().map(::File))
+        // Caches are closed right after they are flushed at the end of a build
+        storage.flush(false)
+        storage.close()
+
+        val reopened = LookupStorage(workingDir, FileToCanonicalPathConverter)
+        assertEquals(files.take(100).toSet(), reopened.get(symbol).toSet())
+        val dump = reopened.dump(setOf(symbol))
+        val fileIds = dump.lines().single { it.startsWith("bar#foo -> ") }.removePrefix("bar#foo -> ").split(", ")
+        assertEquals("Ids of deleted files are not removed", 100, fileIds.size)
+        reopened.flush(false)
+        assertFalse("Compaction is started again after reopening the storage", reopened.isCompactionRunning())
+        reopened.close()
+    }
+
+    @Test
+    fun testFinishedCompactionIsNotRestarted() {
+        val storage = LookupStorage(workingDir, FileToCanonicalPathConverter)
+        val files = (0..20000).map { File(workingDir, "file$it.kt").canonicalPath }
+        storage.add(symbol, files)
+        storage.removeLookupsFrom(files.drop(100).asSequence().map(::File))
+        storage.flush(false)
+        storage.awaitCompaction()
+
+        storage.flush(false)
+        assertFalse("Compaction is started again after it has finished", storage.isCompactionRunning())
+        storage.close()
+
+        val reopened = LookupStorage(workingDir, FileToCanonicalPathConverter)
+        reopened.flush(false)
+        assertFalse("Compaction is started again after reopening the storage", reopened.isCompactionRunning())
+        assertEquals(files.take(100).toSet(), reopened.get(symbol).toSet())
+
+        reopened.removeLookupsFrom(files.take(90).asSequence().map(::File))
+        reopened.flush(false)
+        assertTrue("Compaction doesn't take ids removed by the previous compaction into account", reopened.isCompactionRunning())
+        reopened.awaitCompaction()
+        assertEquals(files.drop(90).take(10).toSet(), reopened.get(symbol).toSet())
+        reopened.close()
+    }
+}
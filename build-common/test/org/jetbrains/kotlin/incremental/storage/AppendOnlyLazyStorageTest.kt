@@ -0,0 +1,214 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.util.io.EnumeratorStringDescriptor
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.junit.Test
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+
+class AppendOnlyLazyStorageTest : TestWithWorkingDir() {
+    private val segments = AppendOnlySegments()
+
+    private fun segmentStorage(name: String, directory: File = workingDir) =
+        AppendOnlyLazyStorage(directory, name, EnumeratorStringDescriptor.INSTANCE, IntCollectionExternalizer, segments)
+
+    private fun persistentHashMapStorage(name: String, directory: File = workingDir) =
+        PersistentHashMapLazyStorage(File(directory, name), EnumeratorStringDescriptor.INSTANCE, IntCollectionExternalizer)
+
+    private fun LazyStorage<String, Collection<Int>>.dump(): String =
+        keys.sorted().joinToString("\n") { key -> "$key -> ${this[key]!!.sorted()}" }
+
+    private fun LazyStorage<String, Collection<Int>>.fill() {
+        for (i in 0 until 100) {
+            this["key$i"] = listOf(i)
+            append("key$i", i + 1)
+        }
+        for (i in 0 until 100 step 3) {
+            remove("key$i")
+        }
+        for (i in 0 until 100 step 5) {
+            this["key$i"] = listOf(-i)
+        }
+        append("appended", 1)
+        append("appended", 2)
+    }
+
+    @Test
+    fun testSameContentAsPersistentHashMap() {
+        val expected = persistentHashMapStorage("expected", File(workingDir, "persistentHashMap"))
+        val actual = segmentStorage("actual")
+        try {
+            expected.fill()
+            actual.fill()
+            assertEquals(expected.dump(), actual.dump())
+
+            actual.flush(memoryCachesOnly = false)
+            actual.append("appended", 3)
+            expected.append("appended", 3)
+            assertEquals(expected.dump(), actual.dump())
+        }
+        finally {
+            expected.close()
+            actual.close()
+        }
+    }
+
+    @Test
+    fun testReopen() {
+        val storage = segmentStorage("map")
+        storage.fill()
+        val expected = storage.dump()
+        storage.close()
+
+        val reopened = segmentStorage("map")
+        assertEquals(expected, reopened.dump())
+        reopened.close()
+    }
+
+    @Test
+    fun testNotCreatedUntilWrite() {
+        val storage = segmentStorage("map")
+        assertFalse("key" in storage)
+        assertNull(storage["key"])
+        storage.flush(memoryCachesOnly = false)
+        storage.close()
+        assertFalse(AppendOnlySegment.exists(workingDir))
+    }
+
+    @Test
+    fun testMapsShareSegment() {
+        val first = segmentStorage("first.tab")
+        val second = segmentStorage("second.tab")
+        first["key"] = listOf(1)
+        second["key"] = listOf(2)
+        first.close()
+        second.close()
+
+        assertEquals(listOf(AppendOnlySegment.FILE_NAME), workingDir.list()!!.toList())
+
+        val reopened = segmentStorage("second.tab")
+        reopened.clean()
+        assertNull(reopened["key"])
+        reopened.close()
+
+        assertEquals(setOf(1), segmentStorage("first.tab").run { this["key"].also { close() } })
+    }
+
+    @Test
+    fun testMapWithoutSharedSegmentsIsRejected() {
+        val storage = AppendOnlyLazyStorage(workingDir, "map", EnumeratorStringDescriptor.INSTANCE, IntCollectionExternalizer)
+        try {
+            storage["key"] = listOf(1)
+            fail("A map must not write a segment of its own")
+        }
+        catch (e: IllegalStateException) {
+        }
+        assertFalse(AppendOnlySegment.exists(workingDir))
+    }
+
+    @Test
+    fun testUnsupportedFormatIsReported() {
+        val file = File(workingDir, AppendOnlySegment.FILE_NAME)
+        file.writeBytes(ByteArray(16))
+        try {
+            segmentStorage("map")["key"]
+            fail("A segment of an unsupported format must not be read")
+        }
+        catch (e: IOException) {
+        }
+
+        // The segment is not left open, so it can be replaced by a new one
+        assertTrue(file.delete())
+        segmentStorage("map").run {
+            this["key"] = listOf(1)
+            close()
+        }
+        assertEquals(setOf(1), segmentStorage("map").run { this["key"].also { close() } })
+    }
+
+    @Test
+    fun testCutRecordIsDropped() {
+        val storage = segmentStorage("map")
+        storage["first"] = listOf(1)
+        storage.flush(memoryCachesOnly = false)
+        storage["second"] = listOf(2)
+        storage.close()
+
+        val file = File(workingDir, AppendOnlySegment.FILE_NAME)
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 1) }
+
+        val reopened = segmentStorage("map")
+        assertEquals("first -> [1]", reopened.dump())
+        reopened["third"] = listOf(3)
+        reopened.close()
+
+        assertEquals("first -> [1]\nthird -> [3]", segmentStorage("map").run { dump().also { close() } })
+    }
+
+    @Test
+    fun testCompaction() {
+        val storage = segmentStorage("map")
+        for (i in 0 until 100_000) {
+            storage["key${i % 10}"] = listOf(i)
+        }
+        val expected = storage.dump()
+        storage.close()
+
+        val file = File(workingDir, AppendOnlySegment.FILE_NAME)
+        assertTrue("Segment is not compacted: ${file.length()} bytes", file.length() < 1024)
+        assertEquals(expected, segmentStorage("map").run { dump().also { close() } })
+    }
+
+    @Test
+    fun testMapNamesRoundTrip() {
+        val names = listOf("map\u0000.tab", "\uD83D\uDE00.tab", "карта.tab")
+        for ((index, name) in names.withIndex()) {
+            segmentStorage(name).run {
+                this["key"] = listOf(index)
+                close()
+            }
+        }
+        for ((index, name) in names.withIndex()) {
+            assertEquals(setOf(index), segmentStorage(name).run { this["key"].also { close() } })
+        }
+    }
+
+    @Test
+    fun testManyMapsInBothLayouts() {
+        for ((directory, createStorage) in listOf(
+            File(workingDir, "persistentHashMap") to ::persistentHashMapStorage,
+            File(workingDir, "segment") to ::segmentStorage
+        )) {
+            directory.mkdirs()
+            val mapNames = (0 until MAPS).map { "map$it.tab" }
+
+            var maps = mapNames.map { createStorage(it, directory) }
+            for ((index, map) in maps.withIndex()) {
+                for (key in 0 until KEYS) {
+                    map["key$key"] = listOf(index, key)
+                }
+            }
+            maps.forEach { it.flush(memoryCachesOnly = false) }
+            maps.forEach { it.close() }
+
+            maps = mapNames.map { createStorage(it, directory) }
+            for ((index, map) in maps.withIndex()) {
+                for (key in 0 until KEYS) {
+                    assertEquals(setOf(index, key), map["key$key"]!!.toSet())
+                }
+            }
+            maps.forEach { it.close() }
+        }
+    }
+
+    companion object {
+        private const val MAPS = 20
+        private const val KEYS = 1_000
+    }
+}
@@ -64,6 +64,9 @@ public class ClassFileFactory implements OutputFileCollection {
     private final Set<File> sourceFiles = new HashSet<>();
     private final PackagePartRegistry packagePartRegistry = new PackagePartRegistry();
 
+    // Output of the generation unit which is being generated on the current thread, see generateUnit
+    private final ThreadLocal<UnitOutput> currentUnit = new ThreadLocal<>();
+
     public ClassFileFactory(@NotNull GenerationState state, @NotNull ClassBuilderFactory builderFactory) {
         this.state = state;
         this.builderFactory = builderFactory;
@@ -75,7 +78,8 @@ public class ClassFileFactory implements OutputFileCollection {
 
     @NotNull
     public PackagePartRegistry getPackagePartRegistry() {
-        return packagePartRegistry;
+        UnitOutput unit = currentUnit.get();
+        return unit != null ? unit.packagePartRegistry : packagePartRegistry;
     }
 
     @NotNull
@@ -93,7 +97,7 @@ public class ClassFileFactory implements OutputFileCollection {
             @NotNull Collection<? extends PsiFile> sourceFiles
     ) {
         ClassBuilder answer = builderFactory.newClassBuilder(origin);
-        generators.put(
+        registerOutput(
                 asmType.getInternalName() + ".class",
                 new ClassBuilderAndSourceFileList(answer, toIoFilesIgnoringNonPhysical(sourceFiles))
         );
@@ -107,13 +111,60 @@ public class ClassFileFactory implements OutputFileCollection {
             @NotNull List<File> sourceFiles
     ) {
         ClassBuilder answer = builderFactory.newClassBuilder(origin);
-        generators.put(
+        registerOutput(
                 asmType.getInternalName() + ".class",
                 new ClassBuilderAndSourceFileList(answer, sourceFiles)
         );
         return answer;
     }
 
+    private void registerOutput(@NotNull String relativePath, @NotNull OutAndSourceFileList output) {
+        UnitOutput unit = currentUnit.get();
+        if (unit != null) {
+            unit.generators.put(relativePath, output);
+        }
+        else {
+            synchronized (generators) {
+                generators.put(relativePath, output);
+            }
+        }
+    }
+
+    /**
+     * Runs the given generation on the current thread, collecting all class files and package parts it produces
+     * into a separate {@link UnitOutput} instead of this factory. Several units may be generated concurrently;
+     * their output becomes visible only after {@link #commitUnit(UnitOutput)}, so the order of the resulting files
+     * is determined by the order of commits, not by the order in which the units were finished.
+     */
+    @NotNull
+    public UnitOutput generateUnit(@NotNull Runnable generation) {
+        assert currentUnit.get() == null : "Generation units cannot be nested";
+        UnitOutput unit = new UnitOutput();
+        currentUnit.set(unit);
+        try {
+            generation.run();
+        }
+        finally {
+            currentUnit.remove();
+        }
+        return unit;
+    }
+
+    public void commitUnit(@NotNull UnitOutput unit) {
+        synchronized (generators) {
+            // Classes removed by the unit could have been generated by any unit committed before it, as in a serial build
+            for (String relativePath : unit.removedClasses) {
+                generators.remove(relativePath);
+            }
+            generators.putAll(unit.generators);
+        }
+        synchronized (packagePartRegistry) {
+            for (PackageParts parts : unit.packagePartRegistry.getParts().values()) {
+                packagePartRegistry.addParts(parts);
+            }
+        }
+    }
+
     public void done() {
         if (!isDone) {
             isDone = true;
@@ -264,7 +315,10 @@ public class ClassFileFactory implements OutputFileCollection {
     }
 
     private void registerSourceFiles(Collection<KtFile> files) {
-        sourceFiles.addAll(toIoFilesIgnoringNonPhysical(files));
+        List<File> ioFiles = toIoFilesIgnoringNonPhysical(files);
+        synchronized (sourceFiles) {
+            sourceFiles.addAll(ioFiles);
+        }
     }
 
     @NotNull
@@ -366,9 +420,29 @@ public class ClassFileFactory implements OutputFileCollection {
         public abstract String asText(ClassBuilderFactory factory);
     }
 
+    public static final class UnitOutput {
+        private final Map<String, OutAndSourceFileList> generators = new LinkedHashMap<>();
+        private final PackagePartRegistry packagePartRegistry = new PackagePartRegistry();
+        private final Set<String> removedClasses = new LinkedHashSet<>();
+
+        private UnitOutput() {
+        }
+    }
+
     public void removeClasses(Set<String> classNamesToRemove) {
-        for (String classInternalName : classNamesToRemove) {
-            generators.remove(classInternalName + ".class");
+        UnitOutput unit = currentUnit.get();
+        if (unit != null) {
+            for (String classInternalName : classNamesToRemove) {
+                unit.generators.remove(classInternalName + ".class");
+                unit.removedClasses.add(classInternalName + ".class");
+            }
+        }
+        else {
+            synchronized (generators) {
+                for (String classInternalName : classNamesToRemove) {
+                    generators.remove(classInternalName + ".class");
+                }
+            }
         }
     }
 
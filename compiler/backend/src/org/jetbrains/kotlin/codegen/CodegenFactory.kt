@@ -22,6 +22,10 @@ import org.jetbrains.kotlin.fileClasses.JvmFileClassUtil
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
 interface CodegenFactory {
     fun generateModule(state: GenerationState, files: Collection<KtFile>, errorHandler: CompilationErrorHandler)
@@ -55,16 +59,51 @@ object DefaultCodegenFactory : CodegenFactory {
             }
         }
 
+        val units = ArrayList<() -> Unit>()
+
         val obsoleteMultifileClasses = HashSet(state.obsoleteMultifileClasses)
         for (multifileClassFqName in filesInMultifileClasses.keySet() + obsoleteMultifileClasses) {
-            CodegenFactory.doCheckCancelled(state)
-            generateMultifileClass(state, multifileClassFqName, filesInMultifileClasses.get(multifileClassFqName), errorHandler)
+            units.add { generateMultifileClass(state, multifileClassFqName, filesInMultifileClasses.get(multifileClassFqName), errorHandler) }
         }
 
         val packagesWithObsoleteParts = HashSet(state.packagesWithObsoleteParts)
         for (packageFqName in packagesWithObsoleteParts + filesInPackages.keySet()) {
-            CodegenFactory.doCheckCancelled(state)
-            generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler)
+            units.add { generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler) }
+        }
+
+        if (state.parallelBackendThreads > 1 && units.size > 1) {
+            generateUnitsInParallel(state, units)
+        } else {
+            for (unit in units) {
+                CodegenFactory.doCheckCancelled(state)
+                unit()
+            }
+        }
+    }
+
+    // Each unit is generated into its own ClassFileFactory.UnitOutput, and the outputs are committed in the same order
+    // in which the units would have been generated serially, so that the resulting class files do not depend on scheduling
+    private fun generateUnitsInParallel(state: GenerationState, units: List<() -> Unit>) {
+        val executor = Executors.newFixedThreadPool(minOf(state.parallelBackendThreads, units.size)) { runnable ->
+            Thread(runnable, "Kotlin JVM codegen").apply { isDaemon = true }
+        }
+        try {
+            val futures: List<Future<ClassFileFactory.UnitOutput>> = units.map { unit ->
+                executor.submit(ProgressIndicatorAndCompilationCanceledStatus.withCurrentCanceledStatus(Callable {
+                    CodegenFactory.doCheckCancelled(state)
+                    state.factory.generateUnit { unit() }
+                }))
+            }
+            for (future in futures) {
+                val output = try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+                state.factory.commitUnit(output)
+            }
+        } finally {
+            executor.shutdownNow()
         }
     }
 
@@ -25,4 +25,8 @@ class PackagePartRegistry {
     fun addPart(packageFqName: FqName, partInternalName: String, facadeInternalName: String?) {
         parts.computeIfAbsent(packageFqName) { PackageParts(it.asString()) }.addPart(partInternalName, facadeInternalName)
     }
+
+    fun addParts(packageParts: PackageParts) {
+        parts.computeIfAbsent(FqName(packageParts.packageFqName)) { PackageParts(it.asString()) } += packageParts
+    }
 }
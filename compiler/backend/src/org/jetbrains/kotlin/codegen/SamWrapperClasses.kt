@@ -30,6 +30,7 @@ class SamWrapperClasses(private val state: GenerationState) {
 
     private val samInterfaceToWrapperClass = hashMapOf<WrapperKey, Type>()
 
+    @Synchronized
     fun getSamWrapperClass(
         samType: SamType,
         file: KtFile,
@@ -12,17 +12,21 @@ import java.util.*
 
 class GlobalInlineContext(diagnostics: DiagnosticSink) {
 
-    private val inlineCycleReporter: InlineCycleReporter = InlineCycleReporter(diagnostics)
+    // Inlining state is kept per thread, because several files of a module may be generated concurrently
+    private val inlineCycleReporter = ThreadLocal.withInitial { InlineCycleReporter(diagnostics) }
 
-    private val typesUsedInInlineFunctions = LinkedList<MutableSet<String>>()
+    private val typesUsedInInlineFunctionsByThread = ThreadLocal.withInitial { LinkedList<MutableSet<String>>() }
+
+    private val typesUsedInInlineFunctions: LinkedList<MutableSet<String>>
+        get() = typesUsedInInlineFunctionsByThread.get()
 
     fun enterIntoInlining(call: ResolvedCall<*>?) =
-        inlineCycleReporter.enterIntoInlining(call).also {
+        inlineCycleReporter.get().enterIntoInlining(call).also {
             if (it) typesUsedInInlineFunctions.push(hashSetOf())
         }
 
     fun exitFromInliningOf(call: ResolvedCall<*>?) {
-        inlineCycleReporter.exitFromInliningOf(call)
+        inlineCycleReporter.get().exitFromInliningOf(call)
         val pop = typesUsedInInlineFunctions.pop()
         typesUsedInInlineFunctions.peek()?.addAll(pop)
     }
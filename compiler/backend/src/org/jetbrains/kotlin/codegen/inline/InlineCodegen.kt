@@ -585,9 +585,10 @@ abstract class InlineCodegen<out T : BaseExpressionCodegen>(
             return (directMember as? ImportedFromObjectCallableDescriptor<*>)?.callableFromObject ?: directMember
         }
 
-        private fun cloneMethodNode(methodNode: MethodNode): MethodNode {
+        // Cached nodes may be cloned from several threads, and labels are reset and recreated while cloning
+        private fun cloneMethodNode(methodNode: MethodNode): MethodNode = synchronized(methodNode) {
             methodNode.instructions.resetLabels()
-            return MethodNode(
+            MethodNode(
                 Opcodes.API_VERSION, methodNode.access, methodNode.name, methodNode.desc, methodNode.signature,
                 ArrayUtil.toStringArray(methodNode.exceptions)
             ).also(methodNode::accept)
@@ -614,14 +615,28 @@ abstract class InlineCodegen<out T : BaseExpressionCodegen>(
                 KotlinTypeMapper.getContainingClassesForDeserializedCallable(callableDescriptor as DeserializedCallableMemberDescriptor)
 
             val containerId = containingClasses.implClassId
-
-            val bytes = state.inlineCache.classBytes.getOrPut(containerId) {
-                findVirtualFile(state, containerId)?.contentsToByteArray()
-                    ?: throw IllegalStateException("Couldn't find declaration file for " + containerId)
+            val containerType = AsmUtil.asmTypeByClassId(containerId)
+
+            val file = findVirtualFile(state, containerId)
+                ?: throw IllegalStateException("Couldn't find declaration file for " + containerId)
+            val readBytes = { state.inlineCache.classBytes.getOrPut(containerId) { file.contentsToByteArray() } }
+
+            // Bodies from library jars are the same for all compilations, so they're parsed once per process
+            val library = SharedInlineCache.libraryKey(file)
+                ?: return parseMethodNode(callableDescriptor, readBytes(), asmMethod, containerType)
+            val key = SharedInlineCache.Key(library, MethodId(containerType.internalName, asmMethod))
+            return SharedInlineCache.INSTANCE.getOrPut(key) {
+                parseMethodNode(callableDescriptor, readBytes(), asmMethod, containerType)
             }
+        }
 
-            val methodNode =
-                getMethodNode(bytes, asmMethod.name, asmMethod.descriptor, AsmUtil.asmTypeByClassId(containerId)) ?: return null
+        private fun parseMethodNode(
+            callableDescriptor: CallableMemberDescriptor,
+            bytes: ByteArray,
+            asmMethod: Method,
+            containerType: Type
+        ): SMAPAndMethodNode? {
+            val methodNode = getMethodNode(bytes, asmMethod.name, asmMethod.descriptor, containerType) ?: return null
 
             // KLUDGE: Inline suspend function built with compiler version less than 1.1.4/1.2-M1 did not contain proper
             // before/after suspension point marks, so we detect those functions here and insert the corresponding marks
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen.inline
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Bodies of inline functions from library jars, shared by all compilations in the process (e.g. in the daemon), so that hot inline
+ * functions of the standard library are read and parsed once. Unlike [InlineCache], which lives as long as a [GenerationState],
+ * entries are bounded by an approximate [memoryBudget] in bytes, least recently used ones are evicted first.
+ *
+ * Cached nodes are shared between threads: they must not be modified, and are copied while holding their monitor, as copying
+ * resets labels of instructions.
+ */
+class SharedInlineCache(private val memoryBudget: Long) {
+    data class Key(val library: String, val methodId: MethodId)
+
+    private class Entry(val value: SMAPAndMethodNode, val size: Long)
+
+    private val entries = LinkedHashMap<Key, Entry>(256, 0.75f, true)
+    private var totalSize = 0L
+
+    private val hitCounter = AtomicLong()
+    private val missCounter = AtomicLong()
+    private val evictionCounter = AtomicLong()
+
+    val hits: Long get() = hitCounter.get()
+    val misses: Long get() = missCounter.get()
+    val evictions: Long get() = evictionCounter.get()
+
+    val size: Long
+        @Synchronized get() = totalSize
+
+    fun getOrPut(key: Key, compute: () -> SMAPAndMethodNode?): SMAPAndMethodNode? {
+        synchronized(this) { entries[key] }?.let {
+            hitCounter.incrementAndGet()
+            return it.value
+        }
+
+        missCounter.incrementAndGet()
+        // Computed outside of the lock: two threads may parse the same method, but then only one result is kept
+        val value = compute() ?: return null
+        val size = estimateSize(value)
+        if (size > memoryBudget) return value
+
+        synchronized(this) {
+            entries[key]?.let { return it.value }
+            entries[key] = Entry(value, size)
+            totalSize += size
+            evictIfNeeded()
+        }
+        return value
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        totalSize = 0
+    }
+
+    private fun evictIfNeeded() {
+        val iterator = entries.values.iterator()
+        while (totalSize > memoryBudget && iterator.hasNext()) {
+            totalSize -= iterator.next().size
+            iterator.remove()
+            evictionCounter.incrementAndGet()
+        }
+    }
+
+    override fun toString(): String =
+        "SharedInlineCache(hits = $hits, misses = $misses, evictions = $evictions, size = $size of $memoryBudget)"
+
+    companion object {
+        const val MEMORY_BUDGET_PROPERTY = "kotlin.inline.cache.memory.budget.mb"
+
+        private const val DEFAULT_MEMORY_BUDGET_MB = 64L
+
+        val INSTANCE = SharedInlineCache(
+            (System.getProperty(MEMORY_BUDGET_PROPERTY)?.toLongOrNull() ?: DEFAULT_MEMORY_BUDGET_MB) * 1024 * 1024
+        )
+
+        /**
+         * Identity of the jar containing [file], or null if the class file is not in a jar: class files in directories may be
+         * rewritten by other compilations and are cached only per [GenerationState]
+         */
+        fun libraryKey(file: VirtualFile): String? {
+            if (file.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL) return null
+            val jar = File(file.path.substringBefore(URLUtil.JAR_SEPARATOR))
+            val length = jar.length()
+            if (length == 0L) return null
+            return "${jar.path}:$length:${jar.lastModified()}"
+        }
+
+        // Rough estimate of a retained size of an ASM tree: instruction nodes with their operands dominate
+        internal fun estimateSize(value: SMAPAndMethodNode): Long {
+            val node = value.node
+            return 256L + 64L * node.instructions.size() +
+                    48L * (node.localVariables?.size ?: 0) +
+                    48L * (node.tryCatchBlocks?.size ?: 0) +
+                    32L * value.sortedRanges.size
+        }
+    }
+}
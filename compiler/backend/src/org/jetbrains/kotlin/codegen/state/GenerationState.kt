@@ -137,6 +137,8 @@ class GenerationState private constructor(
 
     val inlineCache: InlineCache = InlineCache()
 
+    val parallelBackendThreads: Int = configuration.get(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS) ?: 1
+
     val incrementalCacheForThisTarget: IncrementalCache?
     val packagesWithObsoleteParts: Set<FqName>
     val obsoleteMultifileClasses: List<FqName>
@@ -169,7 +171,10 @@ class GenerationState private constructor(
     }
 
     val extraJvmDiagnosticsTrace: BindingTrace =
-        DelegatingBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false)
+        if (parallelBackendThreads > 1)
+            SynchronizedBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false)
+        else
+            DelegatingBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false)
     private val interceptedBuilderFactory: ClassBuilderFactory
     private var used = false
 
@@ -185,10 +190,13 @@ class GenerationState private constructor(
 
     val moduleName: String = moduleName ?: JvmCodegenUtil.getModuleName(module)
     val classBuilderMode: ClassBuilderMode = builderFactory.classBuilderMode
-    val bindingTrace: BindingTrace = DelegatingBindingTrace(
-        bindingContext, "trace in GenerationState",
-        filter = if (wantsDiagnostics) BindingTraceFilter.ACCEPT_ALL else BindingTraceFilter.NO_DIAGNOSTICS
-    )
+    val bindingTrace: BindingTrace = run {
+        val filter = if (wantsDiagnostics) BindingTraceFilter.ACCEPT_ALL else BindingTraceFilter.NO_DIAGNOSTICS
+        if (parallelBackendThreads > 1)
+            SynchronizedBindingTrace(bindingContext, "trace in GenerationState", filter = filter)
+        else
+            DelegatingBindingTrace(bindingContext, "trace in GenerationState", filter = filter)
+    }
     val bindingContext: BindingContext = bindingTrace.bindingContext
     val mainFunctionDetector = MainFunctionDetector(bindingContext, languageVersionSettings)
     private val isIrBackend = configuration.get(JVMConfigurationKeys.IR) ?: false
@@ -32,7 +32,6 @@ import org.jetbrains.org.objectweb.asm.FieldVisitor
 import org.jetbrains.org.objectweb.asm.MethodVisitor
 import org.jetbrains.kotlin.codegen.coroutines.unwrapInitialDescriptorForSuspendFunction
 import org.jetbrains.kotlin.descriptors.CallableDescriptor
-import java.io.BufferedWriter
 import java.io.File
 
 
@@ -52,17 +51,22 @@ class SignatureDumpingBuilderFactory(
         }
     }
 
-    private val outputStream: BufferedWriter by lazy {
+    // Classes of a module may be generated concurrently, see GenerationState.parallelBackendThreads,
+    // so the classes are written sorted by name when all of them are generated
+    private val dumpedClasses = mutableListOf<Pair<String, String>>()
+
+    override fun close() {
         // TODO: Replace with LOG.info and make log output go to MessageCollector
         println("[INFO] Dumping signatures to $destination")
         destination.parentFile?.mkdirs()
-        destination.bufferedWriter().apply { append("[\n") }
-    }
-    private var firstClassWritten: Boolean = false
-
-    override fun close() {
-        outputStream.append("\n]\n")
-        outputStream.close()
+        destination.bufferedWriter().use { outputStream ->
+            outputStream.append("[\n")
+            val sortedClasses = synchronized(dumpedClasses) {
+                dumpedClasses.sortedWith(compareBy<Pair<String, String>>({ it.first }, { it.second }))
+            }
+            sortedClasses.joinTo(outputStream, ",\n") { it.second }
+            outputStream.append("\n]\n")
+        }
         super.close()
     }
 
@@ -96,33 +100,40 @@ class SignatureDumpingBuilderFactory(
         }
 
         override fun done() {
-            if (firstClassWritten) outputStream.append(",\n") else firstClassWritten = true
-            outputStream.append("\t{\n")
-            origin.descriptor?.let {
-                outputStream.append("\t\t").appendNameValue("declaration", TYPE_RENDERER.render(it)).append(",\n")
-                (it as? DeclarationDescriptorWithVisibility)?.visibility?.let {
-                    outputStream.append("\t\t").appendNameValue("visibility", it.displayName).append(",\n")
-                }
-            }
-            outputStream.append("\t\t").appendNameValue("class", javaClassName).append(",\n")
+            writeSignatures()
+            super.done()
+        }
 
-            outputStream.append("\t\t").appendQuoted("members").append(": [\n")
-            signatures.joinTo(outputStream, ",\n") { buildString {
-                val (signature, descriptor) = it
-                append("\t\t\t{")
-                descriptor?.let {
+        private fun writeSignatures() {
+            val dumpedClass = buildString {
+                append("\t{\n")
+                origin.descriptor?.let {
+                    append("\t\t").appendNameValue("declaration", TYPE_RENDERER.render(it)).append(",\n")
                     (it as? DeclarationDescriptorWithVisibility)?.visibility?.let {
-                        appendNameValue("visibility", it.displayName).append(",\t")
+                        append("\t\t").appendNameValue("visibility", it.displayName).append(",\n")
                     }
-                    appendNameValue("declaration", MEMBER_RENDERER.render(it)).append(", ")
-
                 }
-                appendNameValue("name", signature.name).append(", ")
-                appendNameValue("desc", signature.desc).append("}")
-            }}
-            outputStream.append("\n\t\t]\n\t}")
+                append("\t\t").appendNameValue("class", javaClassName).append(",\n")
+
+                append("\t\t").appendQuoted("members").append(": [\n")
+                signatures.joinTo(this, ",\n") { buildString {
+                    val (signature, descriptor) = it
+                    append("\t\t\t{")
+                    descriptor?.let {
+                        (it as? DeclarationDescriptorWithVisibility)?.visibility?.let {
+                            appendNameValue("visibility", it.displayName).append(",\t")
+                        }
+                        appendNameValue("declaration", MEMBER_RENDERER.render(it)).append(", ")
 
-            super.done()
+                    }
+                    appendNameValue("name", signature.name).append(", ")
+                    appendNameValue("desc", signature.desc).append("}")
+                }}
+                append("\n\t\t]\n\t}")
+            }
+            synchronized(dumpedClasses) {
+                dumpedClasses += javaClassName to dumpedClass
+            }
         }
     }
 }
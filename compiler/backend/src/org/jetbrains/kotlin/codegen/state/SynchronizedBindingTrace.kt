@@ -0,0 +1,49 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen.state
+
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.jetbrains.kotlin.resolve.BindingTraceFilter
+import org.jetbrains.kotlin.resolve.DelegatingBindingTrace
+import org.jetbrains.kotlin.types.KotlinType
+import org.jetbrains.kotlin.util.slicedMap.ReadOnlySlice
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice
+
+/**
+ * A trace which can be shared by several threads generating the bytecode of the same module,
+ * see [org.jetbrains.kotlin.config.JVMConfigurationKeys.PARALLEL_BACKEND_THREADS].
+ */
+class SynchronizedBindingTrace(
+    parentContext: BindingContext,
+    name: String,
+    withParentDiagnostics: Boolean = true,
+    filter: BindingTraceFilter = BindingTraceFilter.ACCEPT_ALL
+) : DelegatingBindingTrace(parentContext, name, withParentDiagnostics, filter) {
+    @Synchronized
+    override fun <K, V> record(slice: WritableSlice<K, V>, key: K, value: V) {
+        super.record(slice, key, value)
+    }
+
+    @Synchronized
+    override fun <K, V> get(slice: ReadOnlySlice<K, V>, key: K): V? =
+        super.get(slice, key)
+
+    @Synchronized
+    override fun <K, V> getKeys(slice: WritableSlice<K, V>): Collection<K> =
+        super.getKeys(slice)
+
+    @Synchronized
+    override fun recordType(expression: KtExpression, type: KotlinType?) {
+        super.recordType(expression, type)
+    }
+
+    @Synchronized
+    override fun report(diagnostic: Diagnostic) {
+        super.report(diagnostic)
+    }
+}
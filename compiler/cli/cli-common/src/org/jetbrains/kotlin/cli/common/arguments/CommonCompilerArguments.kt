@@ -196,6 +196,12 @@ abstract class CommonCompilerArguments : CommonToolArguments() {
     )
     var allowResultReturnType: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xlazy-member-protos",
+        description = "Index members of library classes by name on first access instead of copying their metadata on load [experimental]"
+    )
+    var lazyMemberProtos: Boolean by FreezableVar(false)
+
     @Argument(
         value = "-Xlist-phases",
         description = "List backend phases"
@@ -262,6 +268,12 @@ abstract class CommonCompilerArguments : CommonToolArguments() {
     )
     var profilePhases: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xfuse-lowerings",
+        description = "Run compatible backend lowerings in a single traversal of IR"
+    )
+    var fuseLowerings: Boolean by FreezableVar(false)
+
     @Argument(
         value = "-Xcheck-phase-conditions",
         description = "Check pre- and postconditions on phases"
@@ -283,6 +295,7 @@ abstract class CommonCompilerArguments : CommonToolArguments() {
             put(AnalysisFlags.useExperimental, useExperimental?.toList().orEmpty())
             put(AnalysisFlags.explicitApiVersion, apiVersion != null)
             put(AnalysisFlags.allowResultReturnType, allowResultReturnType)
+            put(AnalysisFlags.lazyMemberProtos, lazyMemberProtos)
         }
     }
 
@@ -129,4 +129,11 @@ class K2JSCompilerArguments : CommonCompilerArguments() {
             description = "Paths to friend modules"
     )
     var friendModules: String? by NullableStringFreezableVar(null)
+
+    @Argument(
+            value = "-Xinline-function-index-dir",
+            valueDescription = "<path>",
+            description = "Directory where indexes of inline functions in libraries are kept between compilations"
+    )
+    var inlineFunctionIndexDirectory: String? by NullableStringFreezableVar(null)
 }
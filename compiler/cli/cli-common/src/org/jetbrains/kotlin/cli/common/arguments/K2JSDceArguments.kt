@@ -42,6 +42,19 @@ class K2JSDceArguments : CommonToolArguments() {
     )
     var printReachabilityInfo: Boolean by FreezableVar(false)
 
+    @Argument(
+            value = "-Xparallel",
+            description = "Parse input files and write output files concurrently"
+    )
+    var parallel: Boolean by FreezableVar(false)
+
+    @Argument(
+            value = "-Xincremental-dir",
+            valueDescription = "<path>",
+            description = "Keep the state of DCE in the given directory and rewrite only output files affected by changes"
+    )
+    var incrementalDirectory: String? by NullableStringFreezableVar(null)
+
     @Argument(
             value = "-dev-mode",
             description = "Development mode: don't strip out any code, just copy dependencies"
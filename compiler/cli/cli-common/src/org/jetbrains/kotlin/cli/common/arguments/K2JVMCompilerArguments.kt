@@ -161,6 +161,34 @@ class K2JVMCompilerArguments : CommonCompilerArguments() {
     )
     var declarationsOutputPath: String? by NullableStringFreezableVar(null)
 
+    @Argument(
+        value = "-Xparallel-backend-threads",
+        valueDescription = "<N>",
+        description = "Generate bytecode for packages and multifile classes of a module in parallel, using N threads [experimental].\n" +
+                "The resulting class files are the same as with the serial code generation. Default value is 1"
+    )
+    var parallelBackendThreads: String? by NullableStringFreezableVar(null)
+
+    @Argument(
+        value = "-Xjar-packages-index-dir",
+        valueDescription = "<path>",
+        description = "Directory to store indexes of packages in classpath jars, which are reused by subsequent compilations [experimental]"
+    )
+    var jarPackagesIndexDir: String? by NullableStringFreezableVar(null)
+
+    @Argument(
+        value = "-Xclass-header-index-dir",
+        valueDescription = "<path>",
+        description = "Directory to store indexes of Kotlin class headers in classpath jars, reused by subsequent compilations [experimental]"
+    )
+    var classHeaderIndexDir: String? by NullableStringFreezableVar(null)
+
+    @Argument(
+        value = "-Xfine-grained-storage-locks",
+        description = "Lock lazy values and memoized functions of the frontend separately instead of using a single lock [experimental]"
+    )
+    var fineGrainedStorageLocks: Boolean by FreezableVar(false)
+
     @Argument(value = "-Xsingle-module", description = "Combine modules for source files and binary dependencies into a single module")
     var singleModule: Boolean by FreezableVar(false)
 
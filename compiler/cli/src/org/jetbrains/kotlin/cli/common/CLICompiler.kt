@@ -114,6 +114,8 @@ abstract class CLICompiler<A : CommonCompilerArguments> : CLITool<A>() {
             MessageCollectorUtil.reportException(collector, t)
             return INTERNAL_ERROR
         } finally {
+            // The status is per thread, and the next compilation on this thread, e.g. on a daemon worker, may have no status
+            ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(null)
             collector.flush()
         }
     }
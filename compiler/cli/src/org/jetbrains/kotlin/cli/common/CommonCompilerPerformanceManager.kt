@@ -37,6 +37,14 @@ abstract class CommonCompilerPerformanceManager(private val presentableName: Str
         recordPerfCountersMeasurements()
     }
 
+    open fun notifyBuiltInsLoaded(nanoseconds: Long, isReused: Boolean) {
+        measurements += BuiltInsLoadingMeasurement(TimeUnit.NANOSECONDS.toMillis(nanoseconds), isReused)
+    }
+
+    open fun notifyKlibCacheUsed(klibHits: Long, klibMisses: Long, declarationHits: Long, declarationMisses: Long) {
+        measurements += KlibCacheMeasurement(klibHits, klibMisses, declarationHits, declarationMisses)
+    }
+
     open fun notifyAnalysisStarted() {
         analysisStart = PerformanceCounter.currentTime()
     }
@@ -40,11 +40,12 @@ fun createPhaseConfig(
     val needProfiling = arguments.profilePhases
     val checkConditions = arguments.checkPhaseConditions
     val checkStickyConditions = arguments.checkStickyPhaseConditions
+    val fuseLowerings = arguments.fuseLowerings
 
     return PhaseConfig(
         compoundPhase, phases, enabled, verbose, toDumpStateBefore, toDumpStateAfter, toValidateStateBefore, toValidateStateAfter,
         namesOfElementsExcludedFromDumping,
-        needProfiling, checkConditions, checkStickyConditions
+        needProfiling, checkConditions, checkStickyConditions, fuseLowerings
     ).also {
         if (arguments.listPhases) {
             it.list()
@@ -20,6 +20,22 @@ class CompilerInitializationMeasurement(private val milliseconds: Long) : Perfor
 }
 
 
+class BuiltInsLoadingMeasurement(private val milliseconds: Long, private val isReused: Boolean) : PerformanceMeasurement {
+    override fun render(): String = "BUILT-INS: Fallback built-ins ${if (isReused) "reused" else "loaded"} in $milliseconds ms"
+}
+
+
+class KlibCacheMeasurement(
+    private val klibHits: Long,
+    private val klibMisses: Long,
+    private val declarationHits: Long,
+    private val declarationMisses: Long
+) : PerformanceMeasurement {
+    override fun render(): String =
+        "KLIB CACHE: $klibHits klibs reused, $klibMisses loaded; $declarationHits IR declarations reused, $declarationMisses parsed"
+}
+
+
 class CodeAnalysisMeasurement(private val files: Int, val lines: Int, private val milliseconds: Long, private val description: String?) :
     PerformanceMeasurement {
 
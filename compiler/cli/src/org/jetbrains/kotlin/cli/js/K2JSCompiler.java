@@ -424,6 +424,10 @@ public class K2JSCompiler extends CLICompiler<K2JSCompilerArguments> {
             configuration.put(JSConfigurationKeys.FRIEND_PATHS, friendPaths);
         }
 
+        if (arguments.getInlineFunctionIndexDirectory() != null) {
+            configuration.put(JSConfigurationKeys.INLINE_FUNCTION_INDEX_DIRECTORY, new File(arguments.getInlineFunctionIndexDirectory()));
+        }
+
         String moduleKindName = arguments.getModuleKind();
         ModuleKind moduleKind = moduleKindName != null ? moduleKindMap.get(moduleKindName) : ModuleKind.PLAIN;
         if (moduleKind == null) {
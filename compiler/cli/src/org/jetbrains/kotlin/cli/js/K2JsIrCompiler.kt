@@ -29,6 +29,7 @@ import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.incremental.js.IncrementalDataProvider
 import org.jetbrains.kotlin.incremental.js.IncrementalResultsConsumer
 import org.jetbrains.kotlin.ir.backend.js.KlibModuleRef
+import org.jetbrains.kotlin.ir.backend.js.SharedKlibCache
 import org.jetbrains.kotlin.ir.backend.js.generateKLib
 import org.jetbrains.kotlin.ir.backend.js.compile
 import org.jetbrains.kotlin.js.config.EcmaVersion
@@ -222,6 +223,8 @@ class K2JsIrCompiler : CLICompiler<K2JSCompilerArguments>() {
             messageCollector.report(ERROR, "Unknown produce kind: ${arguments.irProduceOnly}. Valid values are: js, klib")
         }
 
+        val klibCacheStatistics = if (SharedKlibCache.isEnabled) SharedKlibCache.Statistics() else null
+
         if (produceKind == ProduceKind.JS || produceKind == ProduceKind.DEFAULT) {
             val compiledModule = compile(
                 project,
@@ -230,7 +233,8 @@ class K2JsIrCompiler : CLICompiler<K2JSCompilerArguments>() {
                 immediateDependencies = dependencies,
                 allDependencies = dependencies,
                 friendDependencies = friendDependencies,
-                mainArguments = mainCallArguments
+                mainArguments = mainCallArguments,
+                klibCacheStatistics = klibCacheStatistics
             )
 
             outputFile.writeText(compiledModule)
@@ -245,10 +249,15 @@ class K2JsIrCompiler : CLICompiler<K2JSCompilerArguments>() {
                 immediateDependencies = dependencies,
                 allDependencies = dependencies,
                 friendDependencies = friendDependencies,
-                outputKlibPath = outputKlibPath
+                outputKlibPath = outputKlibPath,
+                klibCacheStatistics = klibCacheStatistics
             )
         }
 
+        klibCacheStatistics?.run {
+            performanceManager.notifyKlibCacheUsed(klibHits.get(), klibMisses.get(), declarationHits.get(), declarationMisses.get())
+        }
+
         return OK
     }
 
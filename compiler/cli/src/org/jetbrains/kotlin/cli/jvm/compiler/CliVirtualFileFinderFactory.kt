@@ -20,13 +20,17 @@ import com.intellij.openapi.project.Project
 import com.intellij.psi.search.GlobalSearchScope
 import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndex
 import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.load.kotlin.KotlinClassHeaderIndexCache
 import org.jetbrains.kotlin.load.kotlin.VirtualFileFinder
 import org.jetbrains.kotlin.load.kotlin.VirtualFileFinderFactory
 
 // TODO: create different JvmDependenciesIndex instances for different sets of source roots to improve performance
-class CliVirtualFileFinderFactory(private val index: JvmDependenciesIndex) : VirtualFileFinderFactory {
-    override fun create(scope: GlobalSearchScope): VirtualFileFinder = CliVirtualFileFinder(index, scope)
+class CliVirtualFileFinderFactory(
+    private val index: JvmDependenciesIndex,
+    private val headerIndexCache: KotlinClassHeaderIndexCache? = null
+) : VirtualFileFinderFactory {
+    override fun create(scope: GlobalSearchScope): VirtualFileFinder = CliVirtualFileFinder(index, scope, headerIndexCache)
 
     override fun create(project: Project, module: ModuleDescriptor): VirtualFileFinder =
-        CliVirtualFileFinder(index, GlobalSearchScope.allScope(project))
+        CliVirtualFileFinder(index, GlobalSearchScope.allScope(project), headerIndexCache)
 }
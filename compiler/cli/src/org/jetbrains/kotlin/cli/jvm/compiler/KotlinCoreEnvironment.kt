@@ -99,6 +99,7 @@ import org.jetbrains.kotlin.extensions.*
 import org.jetbrains.kotlin.idea.KotlinFileType
 import org.jetbrains.kotlin.js.translate.extensions.JsSyntheticTranslateExtension
 import org.jetbrains.kotlin.load.kotlin.KotlinBinaryClassCache
+import org.jetbrains.kotlin.load.kotlin.KotlinClassHeaderIndexCache
 import org.jetbrains.kotlin.load.kotlin.MetadataFinderFactory
 import org.jetbrains.kotlin.load.kotlin.ModuleVisibilityManager
 import org.jetbrains.kotlin.load.kotlin.VirtualFileFinderFactory
@@ -241,7 +242,8 @@ class KotlinCoreEnvironment private constructor(
 
         // REPL and kapt2 update classpath dynamically
         rootsIndex = JvmDependenciesDynamicCompoundIndex().apply {
-            addIndex(JvmDependenciesIndexImpl(roots))
+            val jarPackagesIndexCache = configuration.get(JVMConfigurationKeys.JAR_PACKAGES_INDEX_DIRECTORY)?.let(::JarPackagesIndexCache)
+            addIndex(JvmDependenciesIndexImpl(roots, jarPackagesIndexCache))
             updateClasspathFromRootsIndex(this)
         }
 
@@ -257,7 +259,8 @@ class KotlinCoreEnvironment private constructor(
             CliJavaModuleResolver(classpathRootsResolver.javaModuleGraph, javaModules, javaModuleFinder.systemModules.toList())
         )
 
-        val finderFactory = CliVirtualFileFinderFactory(rootsIndex)
+        val headerIndexCache = configuration.get(JVMConfigurationKeys.CLASS_HEADER_INDEX_DIRECTORY)?.let(::KotlinClassHeaderIndexCache)
+        val finderFactory = CliVirtualFileFinderFactory(rootsIndex, headerIndexCache)
         project.registerService(MetadataFinderFactory::class.java, finderFactory)
         project.registerService(VirtualFileFinderFactory::class.java, finderFactory)
 
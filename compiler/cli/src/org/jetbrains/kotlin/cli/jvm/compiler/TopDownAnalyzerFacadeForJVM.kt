@@ -24,22 +24,23 @@ import com.intellij.psi.search.GlobalSearchScope
 import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.builtins.jvm.JvmBuiltIns
 import org.jetbrains.kotlin.builtins.jvm.JvmBuiltInsPackageFragmentProvider
+import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
 import org.jetbrains.kotlin.config.*
 import org.jetbrains.kotlin.container.ComponentProvider
 import org.jetbrains.kotlin.container.StorageComponentContainer
 import org.jetbrains.kotlin.container.get
 import org.jetbrains.kotlin.container.useImpl
 import org.jetbrains.kotlin.context.ContextForNewModule
+import org.jetbrains.kotlin.context.GlobalContext
 import org.jetbrains.kotlin.context.ModuleContext
 import org.jetbrains.kotlin.context.MutableModuleContext
-import org.jetbrains.kotlin.context.ProjectContext
+import org.jetbrains.kotlin.context.withProject
 import org.jetbrains.kotlin.descriptors.ClassDescriptor
 import org.jetbrains.kotlin.descriptors.ModuleDescriptor
 import org.jetbrains.kotlin.descriptors.PackageFragmentProvider
 import org.jetbrains.kotlin.descriptors.impl.CompositePackageFragmentProvider
 import org.jetbrains.kotlin.frontend.java.di.createContainerForTopDownAnalyzerForJvm
 import org.jetbrains.kotlin.frontend.java.di.initJvmBuiltInsForTopDownAnalysis
-import org.jetbrains.kotlin.frontend.java.di.initialize
 import org.jetbrains.kotlin.incremental.components.ExpectActualTracker
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.javac.components.JavacBasedClassFinder
@@ -63,11 +64,40 @@ import org.jetbrains.kotlin.resolve.jvm.extensions.PackageFragmentProviderExtens
 import org.jetbrains.kotlin.resolve.lazy.KotlinCodeAnalyzer
 import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
 import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory
+import org.jetbrains.kotlin.storage.LockBasedStorageManager
 import org.jetbrains.kotlin.storage.StorageManager
+import org.jetbrains.kotlin.util.PerformanceCounter
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.reflect.KFunction1
 
 object TopDownAnalyzerFacadeForJVM {
+    // Fallback built-ins are loaded from the compiler class loader and don't depend on the module being compiled, so they're shared
+    // by all compilations in the process, e.g. in the daemon. They have their own storage manager, as they outlive any project
+    private val fallbackBuiltInsModules = ConcurrentHashMap<Boolean, ModuleDescriptor>()
+
+    private fun getFallbackBuiltInsModule(configuration: CompilerConfiguration): ModuleDescriptor {
+        val start = PerformanceCounter.currentTime()
+        val isAdditionalBuiltInsFeatureSupported =
+            configuration.languageVersionSettings.supportsFeature(LanguageFeature.AdditionalBuiltInsMembers)
+        // Concurrent compilations must not load built-ins twice, so the module is created atomically
+        var loadedModule: ModuleDescriptor? = null
+        val module = fallbackBuiltInsModules.computeIfAbsent(isAdditionalBuiltInsFeatureSupported) {
+            JvmBuiltIns(LockBasedStorageManager("Fallback built-ins"), JvmBuiltIns.Kind.FALLBACK).apply {
+                initialize(builtInsModule, isAdditionalBuiltInsFeatureSupported)
+            }.builtInsModule.also { loadedModule = it }
+        }
+        val isReused = module !== loadedModule
+        configuration.get(CLIConfigurationKeys.PERF_MANAGER)?.notifyBuiltInsLoaded(PerformanceCounter.currentTime() - start, isReused)
+        return module
+    }
+
+    // Compilations in progress keep using the modules they already got, the next ones load fallback built-ins again
+    @JvmStatic
+    fun clearFallbackBuiltInsModules() {
+        fallbackBuiltInsModules.clear()
+    }
+
     @JvmStatic
     @JvmOverloads
     fun analyzeFilesWithJavaIntegration(
@@ -142,9 +172,7 @@ object TopDownAnalyzerFacadeForJVM {
         val jvmTarget = configuration.get(JVMConfigurationKeys.JVM_TARGET, JvmTarget.DEFAULT)
         val languageVersionSettings = configuration.languageVersionSettings
 
-        val fallbackBuiltIns = JvmBuiltIns(storageManager, JvmBuiltIns.Kind.FALLBACK).apply {
-            initialize(builtInsModule, languageVersionSettings)
-        }.builtInsModule
+        val fallbackBuiltIns = getFallbackBuiltInsModule(configuration)
 
         fun StorageComponentContainer.useJavac() {
             useImpl<JavacBasedClassFinder>()
@@ -268,7 +296,8 @@ object TopDownAnalyzerFacadeForJVM {
     }
 
     private fun createModuleContext(project: Project, configuration: CompilerConfiguration): MutableModuleContext {
-        val projectContext = ProjectContext(project)
+        val projectContext = GlobalContext(configuration.getBoolean(CommonConfigurationKeys.USE_FINE_GRAINED_STORAGE_LOCKS))
+            .withProject(project)
         val builtIns = JvmBuiltIns(projectContext.storageManager, JvmBuiltIns.Kind.FROM_DEPENDENCIES)
         return ContextForNewModule(
             projectContext, Name.special("<${configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"), builtIns, null
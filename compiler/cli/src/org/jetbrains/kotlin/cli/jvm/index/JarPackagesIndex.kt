@@ -0,0 +1,142 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.index
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.util.io.URLUtil
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.BufferUnderflowException
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipFile
+
+/**
+ * Paths of all packages (directories) of a jar, e.g. "org", "org/jetbrains".
+ * Allows [JvmDependenciesIndexImpl] to learn that a jar doesn't contain a package without traversing the virtual file system
+ */
+class JarPackagesIndex(private val packages: Set<String>) {
+    fun containsPackage(relativePath: String): Boolean = relativePath in packages
+
+    fun save(file: File) {
+        // Written to a temporary file first, so that a concurrent compilation never reads an incomplete index
+        val temporary = File.createTempFile(file.name, ".tmp", file.parentFile)
+        try {
+            DataOutputStream(temporary.outputStream().buffered()).use { output ->
+                output.writeInt(MAGIC)
+                output.writeInt(VERSION)
+                output.writeInt(packages.size)
+                for (path in packages) {
+                    val bytes = path.toByteArray(Charsets.UTF_8)
+                    output.writeShort(bytes.size)
+                    output.write(bytes)
+                }
+            }
+            if (!temporary.renameTo(file)) {
+                temporary.delete()
+            }
+        }
+        catch (e: IOException) {
+            temporary.delete()
+            throw e
+        }
+    }
+
+    companion object {
+        private const val MAGIC = 0x4A504B47
+        private const val VERSION = 1
+
+        fun build(jar: File): JarPackagesIndex {
+            val packages = HashSet<String>()
+            ZipFile(jar).use { zip ->
+                for (entry in zip.entries()) {
+                    var end = entry.name.lastIndexOf('/')
+                    while (end > 0) {
+                        if (!packages.add(entry.name.substring(0, end))) break
+                        end = entry.name.lastIndexOf('/', end - 1)
+                    }
+                }
+            }
+            return JarPackagesIndex(packages)
+        }
+
+        fun load(file: File): JarPackagesIndex? {
+            RandomAccessFile(file, "r").use { input ->
+                val buffer = input.channel.map(FileChannel.MapMode.READ_ONLY, 0, input.length())
+                try {
+                    if (buffer.int != MAGIC || buffer.int != VERSION) return null
+
+                    val count = buffer.int
+                    val packages = HashSet<String>(count * 2)
+                    repeat(count) {
+                        val bytes = ByteArray(buffer.short.toInt() and 0xFFFF)
+                        buffer.get(bytes)
+                        packages.add(String(bytes, Charsets.UTF_8))
+                    }
+                    return JarPackagesIndex(packages)
+                }
+                catch (e: BufferUnderflowException) {
+                    return null
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Provides [JarPackagesIndex] for jar roots. Indexes are persisted in [directory] by a key computed from the path, size and timestamp
+ * of the jar, and are shared by all compilations in the same process, e.g. in the daemon
+ */
+class JarPackagesIndexCache(private val directory: File) {
+    private class CachedIndex(val key: String, val index: JarPackagesIndex)
+
+    operator fun get(root: JavaRoot): JarPackagesIndex? {
+        val file = root.file
+        if (root.type != JavaRoot.RootType.BINARY || root.prefixFqName != null || file.parent != null ||
+            file.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL
+        ) return null
+
+        val jar = File(file.path.substringBefore(URLUtil.JAR_SEPARATOR))
+        return try {
+            getOrBuild(jar)
+        }
+        catch (e: IOException) {
+            // The virtual file system is used as usual if the jar can't be indexed
+            null
+        }
+    }
+
+    private fun getOrBuild(jar: File): JarPackagesIndex {
+        val key = computeKey(jar)
+        loadedIndexes[jar.path]?.takeIf { it.key == key }?.let { return it.index }
+
+        val indexFile = File(directory, "$key.packages")
+        val index = (if (indexFile.exists()) JarPackagesIndex.load(indexFile) else null) ?: JarPackagesIndex.build(jar).also {
+            directory.mkdirs()
+            it.save(indexFile)
+        }
+        loadedIndexes[jar.path] = CachedIndex(key, index)
+        return index
+    }
+
+    private fun computeKey(jar: File): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        digest.update("${jar.canonicalPath}:${jar.length()}:${jar.lastModified()}".toByteArray(Charsets.UTF_8))
+        return digest.digest().joinToString("") { String.format("%02x", it) }
+    }
+
+    companion object {
+        private val loadedIndexes = ConcurrentHashMap<String, CachedIndex>()
+
+        // Indexes are loaded from the directory again on the next access
+        fun clearLoadedIndexes() {
+            loadedIndexes.clear()
+        }
+    }
+}
@@ -29,7 +29,10 @@ import java.util.*
 // speeds up finding files/classes in classpath/java source roots
 // NOT THREADSAFE, needs to be adapted/removed if we want compiler to be multithreaded
 // the main idea of this class is for each package to store roots which contains it to avoid excessive file system traversal
-class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
+class JvmDependenciesIndexImpl(
+    _roots: List<JavaRoot>,
+    private val jarPackagesIndexCache: JarPackagesIndexCache? = null
+) : JvmDependenciesIndex {
     //these fields are computed based on _roots passed to constructor which are filled in later
     private val roots: List<JavaRoot> by lazy { _roots.toList() }
 
@@ -68,6 +71,11 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
         Array(roots.size) { THashMap<String, VirtualFile?>() }
     }
 
+    // packages of jar roots, if available, allow to skip traversal of jars which don't contain the package
+    private val jarPackages: Array<JarPackagesIndex?> by lazy {
+        Array(roots.size) { index -> jarPackagesIndexCache?.get(roots[index]) }
+    }
+
     override fun traverseDirectoriesInPackage(
         packageFqName: FqName,
         acceptedRootTypes: Set<JavaRoot.RootType>,
@@ -174,6 +182,8 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
         val prefixPathSegments = pathRoot.prefixFqName?.pathSegments()
 
         var currentFile = pathRoot.file
+        val packagesInRoot = jarPackages[rootIndex]
+        var relativePath = ""
 
         for (pathIndex in packagesPath.indices) {
             val subPackageName = packagesPath[pathIndex]
@@ -183,6 +193,10 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
                     return null
                 }
             } else {
+                if (packagesInRoot != null) {
+                    relativePath = if (pathIndex == 0) subPackageName else "$relativePath/$subPackageName"
+                    if (!packagesInRoot.containsPackage(relativePath)) return null
+                }
                 currentFile = currentFile.findChildPackage(subPackageName, pathRoot.type) ?: return null
             }
 
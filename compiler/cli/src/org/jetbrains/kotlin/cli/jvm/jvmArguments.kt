@@ -153,6 +153,23 @@ fun CompilerConfiguration.configureAdvancedJvmOptions(arguments: K2JVMCompilerAr
     )
     put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, arguments.noOptimize)
 
+    val parallelBackendThreads = arguments.parallelBackendThreads
+    if (parallelBackendThreads != null) {
+        val threads = parallelBackendThreads.toIntOrNull()
+        if (threads == null || threads < 1) {
+            getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
+                ERROR,
+                "Invalid number of backend threads: $parallelBackendThreads, should be a positive integer"
+            )
+        } else {
+            put(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, threads)
+        }
+    }
+
+    arguments.jarPackagesIndexDir?.let { put(JVMConfigurationKeys.JAR_PACKAGES_INDEX_DIRECTORY, File(it)) }
+    arguments.classHeaderIndexDir?.let { put(JVMConfigurationKeys.CLASS_HEADER_INDEX_DIRECTORY, File(it)) }
+    put(CommonConfigurationKeys.USE_FINE_GRAINED_STORAGE_LOCKS, arguments.fineGrainedStorageLocks)
+
     if (!JVMConstructorCallNormalizationMode.isSupportedValue(arguments.constructorCallNormalizationMode)) {
         getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
             ERROR,
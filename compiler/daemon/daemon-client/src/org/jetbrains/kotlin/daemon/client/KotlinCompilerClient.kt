@@ -194,20 +194,27 @@ object KotlinCompilerClient {
                 profiler: Profiler = DummyProfiler()
     ): Int = profiler.withMeasure(this) {
         val services = BasicCompilerServicesWithResultsFacadeServer(messageCollector, outputsCollector, port)
-        compilerService.compile(
-                sessionId,
-                args,
-                CompilationOptions(
-                        compilerMode,
-                        targetPlatform,
-                        arrayOf(ReportCategory.COMPILER_MESSAGE.code, ReportCategory.DAEMON_MESSAGE.code, ReportCategory.EXCEPTION.code, ReportCategory.OUTPUT_MESSAGE.code),
-                        reportSeverity.code,
-                        emptyArray()),
-                services,
-                null
-        ).get()
+        val compilationOptions = CompilationOptions(
+                compilerMode,
+                targetPlatform,
+                arrayOf(ReportCategory.COMPILER_MESSAGE.code, ReportCategory.DAEMON_MESSAGE.code, ReportCategory.EXCEPTION.code, ReportCategory.OUTPUT_MESSAGE.code),
+                reportSeverity.code,
+                emptyArray())
+        // reports are received by the facade directly instead of a remote call per message
+        val callbackChannel = if (usesLocalCallbackTransport(compilerService)) LocalCallbackChannelServer(services) else null
+        compilationOptions.localCallbackPort = callbackChannel?.port
+        compilationOptions.localCallbackToken = callbackChannel?.token
+        try {
+            compilerService.compile(sessionId, args, compilationOptions, services, null).get()
+        }
+        finally {
+            callbackChannel?.close()
+        }
     }
 
+    private fun usesLocalCallbackTransport(compilerService: CompileService): Boolean =
+            compilerService.getDaemonOptions().takeIf { it.isGood }?.get()?.localCallbackTransport == true
+
     val COMPILE_DAEMON_CLIENT_OPTIONS_PROPERTY: String = "kotlin.daemon.client.options"
     data class ClientOptions(
             var stop: Boolean = false
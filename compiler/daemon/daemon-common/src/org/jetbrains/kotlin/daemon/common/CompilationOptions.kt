@@ -35,6 +35,16 @@ open class CompilationOptions(
         const val serialVersionUID: Long = 0
     }
 
+    /**
+     * Port of [LocalCallbackChannelServer] of the client, reports are sent through it instead of remote calls of the services facade
+     */
+    var localCallbackPort: Int? = null
+
+    /**
+     * Token of [LocalCallbackChannelServer], the client accepts only a connection which starts with it
+     */
+    var localCallbackToken: ByteArray? = null
+
     override fun toString(): String {
         return "CompilationOptions(" +
                "compilerMode=$compilerMode, " +
@@ -43,6 +53,7 @@ open class CompilationOptions(
                "reportSeverity=$reportSeverity, " +
                "requestedCompilationResults=${Arrays.toString(requestedCompilationResults)}" +
                "kotlinScriptExtensions=${Arrays.toString(kotlinScriptExtensions)}" +
+               ", localCallbackPort=$localCallbackPort" +
                ")"
     }
 }
@@ -74,6 +74,9 @@ interface CompileService : Remote {
     @Throws(RemoteException::class)
     fun getUsedMemory(): CallResult<Long>
 
+    @Throws(RemoteException::class)
+    fun getMemoryStats(): CallResult<DaemonMemoryStats>
+
     @Throws(RemoteException::class)
     fun getDaemonOptions(): CallResult<DaemonOptions>
 
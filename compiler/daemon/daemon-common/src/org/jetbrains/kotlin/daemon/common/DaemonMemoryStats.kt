@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon.common
+
+import java.io.Serializable
+
+/**
+ * Heap usage of the daemon and counters of its memory governor: how many times the heap was found under high or critical pressure,
+ * and how many times each of the caches shared by compilations was evicted because of that
+ */
+class DaemonMemoryStats(
+    val heapUsed: Long,
+    val heapMax: Long,
+    /** Heap usage after the last garbage collection, or 0 if there was none */
+    val heapUsedAfterGC: Long,
+    val memoryChecks: Long,
+    val thresholdNotifications: Long,
+    val highPressureCount: Long,
+    val criticalPressureCount: Long,
+    val evictionsByCache: Map<String, Long>
+) : Serializable {
+    companion object {
+        const val serialVersionUID: Long = 0
+    }
+
+    override fun toString(): String {
+        fun Long.mb() = this / (1024 * 1024)
+        return "DaemonMemoryStats(" +
+               "heap: ${heapUsed.mb()}mb of ${heapMax.mb()}mb, after GC: ${heapUsedAfterGC.mb()}mb, " +
+               "checks: $memoryChecks, notifications: $thresholdNotifications, " +
+               "high pressure: $highPressureCount, critical pressure: $criticalPressureCount, " +
+               "evictions: $evictionsByCache" +
+               ")"
+    }
+}
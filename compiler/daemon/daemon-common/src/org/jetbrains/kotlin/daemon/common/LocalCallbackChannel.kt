@@ -0,0 +1,297 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon.common
+
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
+import java.io.*
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.util.*
+import kotlin.concurrent.schedule
+
+/**
+ * Transport of reports from the daemon to its client over a loopback socket, an alternative to a remote call of
+ * [CompilerServicesFacadeBase.report] per message. Reports are encoded in compact binary frames and sent in batches,
+ * the daemon waits until all of them are delivered to the client when the compilation is finished.
+ *
+ * The daemon starts the connection with a random token generated by the client for the compilation and passed in
+ * [CompilationOptions.localCallbackToken], other connections are closed by the client without reading anything from them.
+ *
+ * A frame is a type byte, a length of the payload and the payload. A report is encoded as its category, severity,
+ * message in UTF-8 and attachment. Nothing is deserialized by Java serialization: an attachment is either a [CompilerMessageLocation]
+ * encoded field by field or a string, other attachments are passed to the client as their string representation.
+ *
+ * Reports of a compilation are delivered in the order they were sent, and all of them are delivered before the compilation returns.
+ * Other callbacks of the compilation, e.g. compilation results or lookups, are still remote calls of the services facade,
+ * which are not ordered with respect to the reports.
+ */
+object LocalCallbackChannel {
+    internal const val MAGIC = 0x4B444342
+    internal const val REPORT: Byte = 1
+    internal const val END: Byte = 2
+    internal const val ACK: Byte = 3
+
+    internal const val HAS_MESSAGE = 1
+
+    internal const val NO_ATTACHMENT: Byte = 0
+    internal const val LOCATION_ATTACHMENT: Byte = 1
+    internal const val STRING_ATTACHMENT: Byte = 2
+
+    internal const val TOKEN_SIZE = 16
+    internal const val BUFFER_SIZE = 64 * 1024
+    internal const val FRAME_HEADER_SIZE = 5
+
+    // The daemon sends the token right after connecting, a connection which doesn't is closed by the client
+    internal const val HANDSHAKE_TIMEOUT_MS = 10_000
+}
+
+/**
+ * Receives reports on the client side and passes them to [facade] in the order they were sent
+ */
+class LocalCallbackChannelServer(
+    private val facade: CompilerServicesFacadeBase,
+    private val handshakeTimeoutMillis: Int = LocalCallbackChannel.HANDSHAKE_TIMEOUT_MS
+) : Closeable {
+    private val serverChannel = ServerSocketChannel.open().apply {
+        socket().bind(InetSocketAddress(InetAddress.getByName(null), SOCKET_ANY_FREE_PORT), 1)
+    }
+
+    val port: Int = serverChannel.socket().localPort
+
+    val token: ByteArray = ByteArray(LocalCallbackChannel.TOKEN_SIZE).also { SecureRandom().nextBytes(it) }
+
+    @Volatile
+    private var error: Throwable? = null
+
+    private val thread = Thread({ receive() }, "Kotlin daemon callbacks on port $port").apply {
+        isDaemon = true
+        start()
+    }
+
+    private fun receive() {
+        try {
+            while (true) {
+                serverChannel.accept().use { channel ->
+                    // Unlike a stream of the channel, a stream of its socket honors the read timeout
+                    val socket = channel.socket()
+                    val input = DataInputStream(BufferedInputStream(socket.getInputStream(), LocalCallbackChannel.BUFFER_SIZE))
+                    socket.soTimeout = handshakeTimeoutMillis
+                    if (isAuthenticated(input)) {
+                        socket.soTimeout = 0
+                        receiveReports(channel, input)
+                        return
+                    }
+                }
+            }
+        }
+        catch (e: Throwable) {
+            error = e
+        }
+    }
+
+    private fun isAuthenticated(input: DataInputStream): Boolean {
+        val token = ByteArray(LocalCallbackChannel.TOKEN_SIZE)
+        try {
+            if (input.readInt() != LocalCallbackChannel.MAGIC) return false
+            input.readFully(token)
+        }
+        catch (e: EOFException) {
+            return false
+        }
+        catch (e: SocketTimeoutException) {
+            return false
+        }
+        return MessageDigest.isEqual(token, this.token)
+    }
+
+    private fun receiveReports(channel: SocketChannel, input: DataInputStream) {
+        while (true) {
+            val type = input.readByte()
+            val length = input.readInt()
+            when (type) {
+                LocalCallbackChannel.REPORT -> readReport(input)
+                LocalCallbackChannel.END -> {
+                    channel.write(ByteBuffer.wrap(byteArrayOf(LocalCallbackChannel.ACK)))
+                    return
+                }
+                else -> input.skipBytes(length)
+            }
+        }
+    }
+
+    private fun readReport(input: DataInputStream) {
+        val category = input.readInt()
+        val severity = input.readInt()
+        val flags = input.readByte().toInt()
+        val message = if (flags and LocalCallbackChannel.HAS_MESSAGE != 0) readString(input) else null
+        val kind = input.readByte()
+        val attachment: Serializable? = when (kind) {
+            LocalCallbackChannel.NO_ATTACHMENT -> null
+            LocalCallbackChannel.LOCATION_ATTACHMENT -> {
+                val path = readString(input)
+                val line = input.readInt()
+                val column = input.readInt()
+                val lineContent = if (input.readBoolean()) readString(input) else null
+                CompilerMessageLocation.create(path, line, column, lineContent)
+            }
+            LocalCallbackChannel.STRING_ATTACHMENT -> readString(input)
+            else -> throw IOException("Unknown attachment kind $kind in the callback channel")
+        }
+        facade.report(category, severity, message, attachment)
+    }
+
+    private fun readString(input: DataInputStream): String =
+        ByteArray(input.readInt()).also { input.readFully(it) }.toString(Charsets.UTF_8)
+
+    override fun close() {
+        serverChannel.close()
+        thread.join(1000)
+        // Connection failures are reported by the daemon, which doesn't get the acknowledgement of its reports
+        error?.let {
+            if (it !is IOException) {
+                throw IllegalStateException("Cannot pass reports received through the callback channel on port $port to the client", it)
+            }
+        }
+    }
+}
+
+/**
+ * Sends reports to the client from the daemon. Reports are buffered and sent when the buffer is full, every [flushIntervalMillis]
+ * by a timer, or on [close], which waits until the client has received all of them
+ */
+class LocalCallbackChannelClient private constructor(
+    private val channel: SocketChannel,
+    token: ByteArray,
+    private val flushIntervalMillis: Long
+) : CompilerServicesFacadeBase, Closeable {
+    private val buffer = ByteBuffer.allocateDirect(LocalCallbackChannel.BUFFER_SIZE)
+
+    // Failure of a flush by the timer, it's thrown by the next report or by close
+    @Volatile
+    private var flushError: IOException? = null
+
+    private val scheduledFlush = flushTimer.schedule(flushIntervalMillis, flushIntervalMillis) {
+        try {
+            flush()
+        }
+        catch (e: IOException) {
+            flushError = e
+            cancel()
+        }
+    }
+
+    // Payload of the current report, it's copied to the buffer when its length is known
+    private val payloadBytes = ByteArrayOutputStream()
+    private val payload = DataOutputStream(payloadBytes)
+
+    var framesSent = 0L
+        private set
+    var batchesSent = 0L
+        private set
+
+    init {
+        buffer.putInt(LocalCallbackChannel.MAGIC).put(token)
+    }
+
+    @Synchronized
+    override fun report(category: Int, severity: Int, message: String?, attachment: Serializable?) {
+        flushError?.let { throw it }
+        payloadBytes.reset()
+        payload.writeInt(category)
+        payload.writeInt(severity)
+        payload.writeByte(if (message != null) LocalCallbackChannel.HAS_MESSAGE else 0)
+        message?.let { writeString(it) }
+        when (attachment) {
+            null -> payload.writeByte(LocalCallbackChannel.NO_ATTACHMENT.toInt())
+            is CompilerMessageLocation -> {
+                payload.writeByte(LocalCallbackChannel.LOCATION_ATTACHMENT.toInt())
+                writeString(attachment.path)
+                payload.writeInt(attachment.line)
+                payload.writeInt(attachment.column)
+                payload.writeBoolean(attachment.lineContent != null)
+                attachment.lineContent?.let { writeString(it) }
+            }
+            else -> {
+                payload.writeByte(LocalCallbackChannel.STRING_ATTACHMENT.toInt())
+                writeString(attachment.toString())
+            }
+        }
+        val length = payloadBytes.size()
+
+        val frame = reserve(LocalCallbackChannel.FRAME_HEADER_SIZE + length)
+        frame.put(LocalCallbackChannel.REPORT).putInt(length)
+        frame.put(payloadBytes.toByteArray())
+        if (frame !== buffer) {
+            frame.flip()
+            writeFully(frame)
+        }
+        framesSent++
+    }
+
+    private fun writeString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        payload.writeInt(bytes.size)
+        payload.write(bytes)
+    }
+
+    // Returns the buffer if the frame fits into it, or a separate buffer for a large frame
+    private fun reserve(size: Int): ByteBuffer {
+        if (size <= buffer.remaining()) return buffer
+        flush()
+        return if (size <= buffer.remaining()) buffer else ByteBuffer.allocate(size)
+    }
+
+    @Synchronized
+    fun flush() {
+        if (buffer.position() > 0) {
+            buffer.flip()
+            writeFully(buffer)
+            buffer.clear()
+            batchesSent++
+        }
+    }
+
+    private fun writeFully(data: ByteBuffer) {
+        while (data.hasRemaining()) {
+            channel.write(data)
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        scheduledFlush.cancel()
+        try {
+            flushError?.let { throw it }
+            reserve(LocalCallbackChannel.FRAME_HEADER_SIZE).put(LocalCallbackChannel.END).putInt(0)
+            flush()
+            val ack = ByteBuffer.allocate(1)
+            while (ack.hasRemaining()) {
+                if (channel.read(ack) < 0) throw IOException("Callback channel is closed before all reports are received")
+            }
+        }
+        finally {
+            channel.close()
+        }
+    }
+
+    companion object {
+        const val DEFAULT_FLUSH_INTERVAL_MS = 100L
+
+        private val flushTimer by lazy { Timer("Kotlin daemon callback channel flush", true) }
+
+        fun connect(port: Int, token: ByteArray, flushIntervalMillis: Long = DEFAULT_FLUSH_INTERVAL_MS): LocalCallbackChannelClient {
+            val channel = SocketChannel.open(InetSocketAddress(InetAddress.getByName(null), port))
+            channel.socket().tcpNoDelay = true
+            return LocalCallbackChannelClient(channel, token, flushIntervalMillis)
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs compilations requested by clients of the daemon on a bounded number of threads, so that parallel module builds share one daemon
+ * and its caches instead of starting more daemons, while the number of compilations holding memory at the same time is limited.
+ * Calling threads, i.e. threads of RMI, wait for the compilations to finish
+ */
+class CompilationWorkerPool(val parallelism: Int) {
+    private val threadCounter = AtomicInteger()
+
+    private val executor = Executors.newFixedThreadPool(parallelism) { runnable ->
+        Thread(runnable, "Kotlin compile daemon worker ${threadCounter.incrementAndGet()}").apply { isDaemon = true }
+    }
+
+    private val running = AtomicInteger()
+
+    val runningCompilations: Int get() = running.get()
+
+    /**
+     * Executes [body] on a worker thread, [body] gets the time in nanoseconds the compilation has waited for a free worker
+     */
+    fun <R> execute(body: (queuedNanos: Long) -> R): R {
+        val submitted = System.nanoTime()
+        val future = executor.submit<R> {
+            running.incrementAndGet()
+            try {
+                body(System.nanoTime() - submitted)
+            }
+            finally {
+                running.decrementAndGet()
+            }
+        }
+        try {
+            return future.get()
+        }
+        catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+        catch (e: InterruptedException) {
+            future.cancel(true)
+            throw e
+        }
+    }
+
+    fun shutdown() {
+        executor.shutdown()
+        executor.awaitTermination(1, TimeUnit.SECONDS)
+    }
+
+    companion object {
+        fun parallelismOf(maxParallelCompilations: Int): Int =
+            if (maxParallelCompilations > 0) maxParallelCompilations else Runtime.getRuntime().availableProcessors()
+    }
+}
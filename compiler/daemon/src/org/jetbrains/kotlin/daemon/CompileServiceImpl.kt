@@ -54,12 +54,14 @@ import org.jetbrains.kotlin.incremental.multiproject.ModulesApiHistoryAndroid
 import org.jetbrains.kotlin.incremental.multiproject.ModulesApiHistoryJs
 import org.jetbrains.kotlin.incremental.multiproject.ModulesApiHistoryJvm
 import org.jetbrains.kotlin.incremental.parsing.classesFqNames
+import org.jetbrains.kotlin.ir.backend.js.SharedKlibCache
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
 import org.jetbrains.kotlin.modules.Module
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
 import java.io.BufferedOutputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
+import java.io.IOException
 import java.io.PrintStream
 import java.rmi.NoSuchObjectException
 import java.rmi.registry.Registry
@@ -68,6 +70,7 @@ import java.util.*
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import java.util.logging.Level
 import java.util.logging.Logger
@@ -114,6 +117,8 @@ class CompileServiceImpl(
 
     init {
         System.setProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY, "true")
+        // Klibs are shared by compilations in the daemon only, a single compilation parses each of them once anyway
+        SharedKlibCache.isEnabled = true
     }
 
     // wrapped in a class to encapsulate alive check logic
@@ -125,6 +130,9 @@ class CompileServiceImpl(
         val isAlive: Boolean
             get() = aliveFlagPath?.let { File(it).exists() } ?: true // assuming that if no file was given, the client is alive
 
+        val compilationsCount = AtomicInteger(0)
+        val compilationsNanos = AtomicLong(0)
+
         fun dispose() {
             disposable?.let {
                 Disposer.dispose(it)
@@ -246,6 +254,18 @@ class CompileServiceImpl(
 
     private val rwlock = ReentrantReadWriteLock()
 
+    private val memoryGovernor = DaemonMemoryGovernor(log).apply {
+        registerCompilerCaches()
+        start()
+    }
+
+    private val jarCacheClearPending = AtomicBoolean(false)
+
+    private val compilationWorkers =
+        CompilationWorkerPool(CompilationWorkerPool.parallelismOf(daemonOptions.maxParallelCompilations)).also {
+            log.info("Compilations are run on ${it.parallelism} worker threads")
+        }
+
     private var runFile: File
 
     init {
@@ -303,10 +323,19 @@ class CompileServiceImpl(
 
 
     override fun releaseCompileSession(sessionId: Int) = ifAlive(minAliveness = Aliveness.LastSession) {
+        state.sessions[sessionId]?.let {
+            val ms = TimeUnit.NANOSECONDS.toMillis(it.compilationsNanos.get())
+            log.info("session $sessionId: ${it.compilationsCount.get()} compilations, $ms ms")
+        }
         state.sessions.remove(sessionId)
         log.info("cleaning after session $sessionId")
-        rwlock.write {
-            clearJarCache()
+        if (compilationWorkers.runningCompilations == 0) {
+            rwlock.write {
+                clearJarCache()
+            }
+        } else {
+            // clearing jar caches waits for all compilations, so compilations of other sessions don't have to wait for it
+            jarCacheClearPending.set(true)
         }
         if (state.sessions.isEmpty()) {
             // TODO: and some goes here
@@ -325,6 +354,9 @@ class CompileServiceImpl(
     override fun getUsedMemory(): CompileService.CallResult<Long> =
         ifAlive { CompileService.CallResult.Good(usedMemory(withGC = true)) }
 
+    override fun getMemoryStats(): CompileService.CallResult<DaemonMemoryStats> =
+        ifAlive { CompileService.CallResult.Good(memoryGovernor.getStats()) }
+
     override fun shutdown(): CompileService.CallResult<Nothing> = ifAliveExclusive(minAliveness = Aliveness.LastSession) {
         shutdownWithDelay()
         CompileService.CallResult.Ok()
@@ -406,10 +438,42 @@ class CompileServiceImpl(
         compilationOptions: CompilationOptions,
         servicesFacade: CompilerServicesFacadeBase,
         compilationResults: CompilationResults?
+    ): CompileService.CallResult<Int> {
+        val callbackToken = compilationOptions.localCallbackToken
+        val callbackChannel = compilationOptions.localCallbackPort?.takeIf { callbackToken != null }?.let { port ->
+            try {
+                LocalCallbackChannelClient.connect(port, callbackToken!!)
+            } catch (e: IOException) {
+                log.log(Level.WARNING, "Cannot connect to the callback channel on port $port, reports are sent by remote calls", e)
+                null
+            }
+        }
+        try {
+            val reportingFacade = callbackChannel ?: servicesFacade
+            return compile(sessionId, compilerArguments, compilationOptions, servicesFacade, reportingFacade, compilationResults)
+        } finally {
+            callbackChannel?.let {
+                try {
+                    it.close()
+                    log.info("Sent ${it.framesSent} reports in ${it.batchesSent} batches through the callback channel")
+                } catch (e: IOException) {
+                    log.log(Level.WARNING, "Cannot deliver reports through the callback channel", e)
+                }
+            }
+        }
+    }
+
+    private fun compile(
+        sessionId: Int,
+        compilerArguments: Array<out String>,
+        compilationOptions: CompilationOptions,
+        servicesFacade: CompilerServicesFacadeBase,
+        reportingFacade: CompilerServicesFacadeBase,
+        compilationResults: CompilationResults?
     ): CompileService.CallResult<Int> = ifAlive {
         withValidClientOrSessionProxy(sessionId) {
-            val messageCollector = CompileServicesFacadeMessageCollector(servicesFacade, compilationOptions)
-            val daemonReporter = DaemonMessageReporter(servicesFacade, compilationOptions)
+            val messageCollector = CompileServicesFacadeMessageCollector(reportingFacade, compilationOptions)
+            val daemonReporter = DaemonMessageReporter(reportingFacade, compilationOptions)
             val targetPlatform = compilationOptions.targetPlatform
             log.info("Starting compilation with args: " + compilerArguments.joinToString(" "))
 
@@ -430,7 +494,7 @@ class CompileServiceImpl(
                 CompilerMode.JPS_COMPILER -> {
                     val jpsServicesFacade = servicesFacade as JpsCompilerServicesFacade
 
-                    withIC(enabled = servicesFacade.hasIncrementalCaches()) {
+                    IncrementalCompilationModeGate.JVM.withValue(servicesFacade.hasIncrementalCaches()) {
                         doCompile(sessionId, daemonReporter, tracer = null) { eventManger, profiler ->
                             val services = createCompileServices(jpsServicesFacade, eventManger, profiler)
                             compiler.exec(messageCollector, services, k2PlatformArgs)
@@ -444,16 +508,15 @@ class CompileServiceImpl(
                 }
                 CompilerMode.INCREMENTAL_COMPILER -> {
                     val gradleIncrementalArgs = compilationOptions as IncrementalCompilationOptions
-                    val gradleIncrementalServicesFacade = servicesFacade as IncrementalCompilerServicesFacade
 
                     when (targetPlatform) {
                         CompileService.TargetPlatform.JVM -> {
                             val k2jvmArgs = k2PlatformArgs as K2JVMCompilerArguments
 
-                            withIC {
+                            IncrementalCompilationModeGate.JVM.withValue(true) {
                                 doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
                                     execIncrementalCompiler(
-                                        k2jvmArgs, gradleIncrementalArgs, gradleIncrementalServicesFacade, compilationResults!!,
+                                        k2jvmArgs, gradleIncrementalArgs, reportingFacade, compilationResults!!,
                                         messageCollector
                                     )
                                 }
@@ -462,12 +525,12 @@ class CompileServiceImpl(
                         CompileService.TargetPlatform.JS -> {
                             val k2jsArgs = k2PlatformArgs as K2JSCompilerArguments
 
-                            withJsIC {
+                            IncrementalCompilationModeGate.JS.withValue(true) {
                                 doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
                                     execJsIncrementalCompiler(
                                         k2jsArgs,
                                         gradleIncrementalArgs,
-                                        gradleIncrementalServicesFacade,
+                                        reportingFacade,
                                         compilationResults!!,
                                         messageCollector
                                     )
@@ -486,7 +549,7 @@ class CompileServiceImpl(
     private fun execJsIncrementalCompiler(
         args: K2JSCompilerArguments,
         incrementalCompilationOptions: IncrementalCompilationOptions,
-        servicesFacade: IncrementalCompilerServicesFacade,
+        servicesFacade: CompilerServicesFacadeBase,
         compilationResults: CompilationResults,
         compilerMessageCollector: MessageCollector
     ): ExitCode {
@@ -528,7 +591,7 @@ class CompileServiceImpl(
     private fun execIncrementalCompiler(
         k2jvmArgs: K2JVMCompilerArguments,
         incrementalCompilationOptions: IncrementalCompilationOptions,
-        servicesFacade: IncrementalCompilerServicesFacade,
+        servicesFacade: CompilerServicesFacadeBase,
         compilationResults: CompilationResults,
         compilerMessageCollector: MessageCollector
     ): ExitCode {
@@ -753,6 +816,16 @@ class CompileServiceImpl(
 
         if (state.delayedShutdownQueued.get()) return
 
+        if (jarCacheClearPending.get() && rwlock.writeLock().tryLock()) {
+            try {
+                if (jarCacheClearPending.compareAndSet(true, false)) {
+                    clearJarCache()
+                }
+            } finally {
+                rwlock.writeLock().unlock()
+            }
+        }
+
         val anyDead = state.sessions.cleanDead() || state.cleanDeadClients()
 
         ifAliveUnit(minAliveness = Aliveness.LastSession) {
@@ -884,6 +957,9 @@ class CompileServiceImpl(
         with(Runtime.getRuntime()) {
             log.info("Memory stats: total: ${totalMemory().mb()}mb, free: ${freeMemory().mb()}mb, max: ${maxMemory().mb()}mb")
         }
+        memoryGovernor.stop()
+        compilationWorkers.shutdown()
+        log.info("Memory governor stats: ${memoryGovernor.getStats()}")
         state.alive.set(Aliveness.Dying.ordinal)
 
         UnicastRemoteObject.unexportObject(this, true)
@@ -955,7 +1031,7 @@ class CompileServiceImpl(
         body: (PrintStream, EventManager, Profiler) -> ExitCode
     ): CompileService.CallResult<Int> =
         ifAlive {
-            withValidClientOrSessionProxy(sessionId) {
+            withValidClientOrSessionProxy(sessionId) { session ->
                 operationsTracer?.before("compile")
                 val rpcProfiler = if (daemonOptions.reportPerf) WallAndThreadTotalProfiler() else DummyProfiler()
                 val eventManger = EventManagerImpl()
@@ -976,7 +1052,7 @@ class CompileServiceImpl(
                     if (args.none())
                         throw IllegalArgumentException("Error: empty arguments list.")
                     log.info("Starting compilation with args: " + args.joinToString(" "))
-                    val exitCode = checkedCompile(compileServiceReporter, rpcProfiler) {
+                    val exitCode = checkedCompile(sessionId, session, compileServiceReporter, rpcProfiler) {
                         body(compilerMessagesStream, eventManger, rpcProfiler).code
                     }
                     CompileService.CallResult.Good(exitCode)
@@ -996,12 +1072,12 @@ class CompileServiceImpl(
         body: (EventManager, Profiler) -> ExitCode
     ): CompileService.CallResult<Int> =
         ifAlive {
-            withValidClientOrSessionProxy(sessionId) {
+            withValidClientOrSessionProxy(sessionId) { session ->
                 tracer?.before("compile")
                 val rpcProfiler = if (daemonOptions.reportPerf) WallAndThreadTotalProfiler() else DummyProfiler()
                 val eventManger = EventManagerImpl()
                 try {
-                    val exitCode = checkedCompile(daemonMessageReporter, rpcProfiler) {
+                    val exitCode = checkedCompile(sessionId, session, daemonMessageReporter, rpcProfiler) {
                         body(eventManger, rpcProfiler).code
                     }
                     CompileService.CallResult.Good(exitCode)
@@ -1040,7 +1116,26 @@ class CompileServiceImpl(
     }
 
 
-    private fun <R> checkedCompile(daemonMessageReporter: DaemonMessageReporter, rpcProfiler: Profiler, body: () -> R): R {
+    private fun <R> checkedCompile(
+        sessionId: Int,
+        session: ClientOrSessionProxy<Any>?,
+        daemonMessageReporter: DaemonMessageReporter,
+        rpcProfiler: Profiler,
+        body: () -> R
+    ): R = compilationWorkers.execute { queuedNanos ->
+        // Disposables of the compilation are disposed by the compiler when it finishes, independently of the session
+        checkedCompileOnWorker(sessionId, session, queuedNanos, daemonMessageReporter, rpcProfiler, body)
+    }
+
+    private fun <R> checkedCompileOnWorker(
+        sessionId: Int,
+        session: ClientOrSessionProxy<Any>?,
+        queuedNanos: Long,
+        daemonMessageReporter: DaemonMessageReporter,
+        rpcProfiler: Profiler,
+        body: () -> R
+    ): R {
+        val startNanos = System.nanoTime()
         try {
             val profiler = if (daemonOptions.reportPerf) WallAndThreadAndMemoryTotalProfiler(withGC = false) else DummyProfiler()
 
@@ -1058,7 +1153,7 @@ class CompileServiceImpl(
 
                 "PERF: Compile on daemon: ${pc.time.ms()} ms; thread: user ${pc.threadUserTime.ms()} ms, sys ${(pc.threadTime - pc.threadUserTime).ms()} ms; rpc: ${rpc.count} calls, ${rpc.time.ms()} ms, thread ${rpc.threadTime.ms()} ms; memory: ${endMem.kb()} kb (${"%+d".format(
                     pc.memory.kb()
-                )} kb)".let {
+                )} kb); session: $sessionId, queued: ${queuedNanos.ms()} ms, running in parallel: ${compilationWorkers.runningCompilations}".let {
                     daemonMessageReporter.report(ReportSeverity.INFO, it)
                     log.info(it)
                 }
@@ -1085,6 +1180,13 @@ class CompileServiceImpl(
             )
             throw e
         }
+        finally {
+            session?.apply {
+                compilationsCount.incrementAndGet()
+                compilationsNanos.addAndGet(System.nanoTime() - startNanos)
+            }
+            memoryGovernor.checkMemory()
+        }
     }
 
     override fun clearJarCache() {
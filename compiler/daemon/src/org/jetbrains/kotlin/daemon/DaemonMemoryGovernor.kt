@@ -0,0 +1,173 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.cli.jvm.index.JarPackagesIndexCache
+import org.jetbrains.kotlin.codegen.inline.SharedInlineCache
+import org.jetbrains.kotlin.daemon.common.DaemonMemoryStats
+import org.jetbrains.kotlin.ir.backend.js.SharedKlibCache
+import org.jetbrains.kotlin.js.inline.SharedInlineFunctionCache
+import org.jetbrains.kotlin.load.kotlin.KotlinClassHeaderIndexCache
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryNotificationInfo
+import java.lang.management.MemoryType
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Logger
+import javax.management.Notification
+import javax.management.NotificationEmitter
+import javax.management.NotificationListener
+
+/**
+ * Evicts caches shared by all compilations in the daemon when its heap is close to being exhausted, so that the daemon doesn't end up
+ * spending all its time in GC. Heap usage after the last collection is checked after each compilation, and when the JVM notifies
+ * that the usage of a heap pool after a collection exceeded the high threshold.
+ *
+ * Caches are evicted by priority: the ones which are cheap to restore are evicted under [MemoryPressure.HIGH],
+ * all of them under [MemoryPressure.CRITICAL]. Compilations in progress keep the values they already got from the caches.
+ *
+ * Heap usage after GC is only updated by the next collection, so caches are evicted again only if a collection has happened
+ * since the last eviction and the usage is still above the threshold. Otherwise, each compilation would evict caches
+ * which were just filled again, based on the usage measured before the previous eviction.
+ */
+class DaemonMemoryGovernor(
+    private val log: Logger,
+    private val highThreshold: Double = thresholdFromProperty(HIGH_THRESHOLD_PROPERTY, DEFAULT_HIGH_THRESHOLD),
+    private val criticalThreshold: Double = thresholdFromProperty(CRITICAL_THRESHOLD_PROPERTY, DEFAULT_CRITICAL_THRESHOLD),
+    private val collectionCount: () -> Long = ::heapCollectionCount,
+    private val heapUsageAfterGC: () -> Double = ::heapUsageFractionAfterGC
+) {
+    enum class MemoryPressure { NORMAL, HIGH, CRITICAL }
+
+    private class EvictableCache(val name: String, val evictAt: MemoryPressure, val evict: () -> Unit) {
+        val evictions = AtomicLong()
+    }
+
+    private val caches = arrayListOf<EvictableCache>()
+
+    private val memoryChecks = AtomicLong()
+    private val thresholdNotifications = AtomicLong()
+    private val highPressureCount = AtomicLong()
+    private val criticalPressureCount = AtomicLong()
+
+    // Guarded by caches
+    private var collectionCountAtLastEviction = -1L
+
+    private val listener = NotificationListener { notification: Notification, _: Any? ->
+        if (notification.type == MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED) {
+            thresholdNotifications.incrementAndGet()
+            checkMemory()
+        }
+    }
+
+    fun register(name: String, evictAt: MemoryPressure, evict: () -> Unit) {
+        require(evictAt != MemoryPressure.NORMAL) { "Caches can't be evicted without memory pressure: $name" }
+        synchronized(caches) {
+            caches.add(EvictableCache(name, evictAt, evict))
+        }
+    }
+
+    fun registerCompilerCaches() {
+        register("JVM inline functions", MemoryPressure.HIGH) { SharedInlineCache.INSTANCE.clear() }
+        register("JS inline functions", MemoryPressure.HIGH) { SharedInlineFunctionCache.clear() }
+        register("JS IR klibs", MemoryPressure.HIGH) { SharedKlibCache.clear() }
+        // Indexes are persisted, so they are only loaded again
+        register("classpath indexes", MemoryPressure.HIGH) {
+            JarPackagesIndexCache.clearLoadedIndexes()
+            KotlinClassHeaderIndexCache.clearLoadedIndexes()
+        }
+        register("built-ins", MemoryPressure.CRITICAL) { TopDownAnalyzerFacadeForJVM.clearFallbackBuiltInsModules() }
+    }
+
+    fun start() {
+        for (pool in ManagementFactory.getMemoryPoolMXBeans()) {
+            val max = pool.usage.max
+            if (pool.type == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported && max > 0) {
+                pool.collectionUsageThreshold = (max * highThreshold).toLong()
+            }
+        }
+        (ManagementFactory.getMemoryMXBean() as? NotificationEmitter)?.addNotificationListener(listener, null, null)
+    }
+
+    fun stop() {
+        try {
+            (ManagementFactory.getMemoryMXBean() as? NotificationEmitter)?.removeNotificationListener(listener)
+        }
+        catch (e: Exception) {
+            // the listener was not added
+        }
+    }
+
+    /**
+     * Evicts caches according to the current heap usage, called after each compilation
+     */
+    fun checkMemory(): MemoryPressure {
+        memoryChecks.incrementAndGet()
+        val usage = heapUsageAfterGC()
+        val pressure = when {
+            usage >= criticalThreshold -> MemoryPressure.CRITICAL
+            usage >= highThreshold -> MemoryPressure.HIGH
+            else -> MemoryPressure.NORMAL
+        }
+        when (pressure) {
+            MemoryPressure.HIGH -> highPressureCount.incrementAndGet()
+            MemoryPressure.CRITICAL -> criticalPressureCount.incrementAndGet()
+            MemoryPressure.NORMAL -> return pressure
+        }
+
+        val evicted = synchronized(caches) {
+            val collections = collectionCount()
+            if (collections == collectionCountAtLastEviction) return pressure
+            collectionCountAtLastEviction = collections
+
+            caches.filter { it.evictAt <= pressure }.onEach { cache ->
+                cache.evict()
+                cache.evictions.incrementAndGet()
+            }
+        }
+        log.info("Memory pressure: $pressure, ${"%.2f".format(usage)} of heap used after GC, evicted: ${evicted.joinToString { it.name }}")
+        return pressure
+    }
+
+    fun getStats(): DaemonMemoryStats {
+        val heap = ManagementFactory.getMemoryMXBean().heapMemoryUsage
+        return DaemonMemoryStats(
+            heapUsed = heap.used,
+            heapMax = heapMax(),
+            heapUsedAfterGC = heapUsedAfterGC(),
+            memoryChecks = memoryChecks.get(),
+            thresholdNotifications = thresholdNotifications.get(),
+            highPressureCount = highPressureCount.get(),
+            criticalPressureCount = criticalPressureCount.get(),
+            evictionsByCache = synchronized(caches) { caches.associate { it.name to it.evictions.get() } }
+        )
+    }
+
+    companion object {
+        const val HIGH_THRESHOLD_PROPERTY = "kotlin.daemon.memory.high.threshold"
+        const val CRITICAL_THRESHOLD_PROPERTY = "kotlin.daemon.memory.critical.threshold"
+
+        private const val DEFAULT_HIGH_THRESHOLD = 0.7
+        private const val DEFAULT_CRITICAL_THRESHOLD = 0.85
+
+        private fun thresholdFromProperty(name: String, default: Double): Double =
+            System.getProperty(name)?.toDoubleOrNull()?.takeIf { it > 0 && it <= 1 } ?: default
+
+        private fun heapMax(): Long =
+            ManagementFactory.getMemoryMXBean().heapMemoryUsage.max.takeIf { it > 0 } ?: Runtime.getRuntime().maxMemory()
+
+        // Usage after collections doesn't include garbage, unlike the current usage of the heap
+        private fun heapUsedAfterGC(): Long =
+            ManagementFactory.getMemoryPoolMXBeans().filter { it.type == MemoryType.HEAP }.sumByLong { it.collectionUsage?.used ?: 0 }
+
+        private fun heapUsageFractionAfterGC(): Double = heapUsedAfterGC().toDouble() / heapMax()
+
+        private fun heapCollectionCount(): Long =
+            ManagementFactory.getGarbageCollectorMXBeans().sumByLong { it.collectionCount.coerceAtLeast(0) }
+
+        private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long = fold(0L) { sum, element -> sum + selector(element) }
+    }
+}
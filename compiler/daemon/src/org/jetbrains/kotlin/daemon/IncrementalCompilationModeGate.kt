@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.config.IncrementalCompilation
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Whether incremental compilation is enabled is a system property (see [IncrementalCompilation]), so concurrent compilations in the
+ * daemon can't set it independently as `withIC` does. Compilations requiring the same value of the property run concurrently,
+ * a compilation requiring another value waits until they are finished. The previous value is restored by the last of them.
+ *
+ * While a compilation waits for another value, new compilations requiring the current value don't join the running ones,
+ * so that a steady stream of compilations in one mode can't starve compilations in the other mode
+ */
+class IncrementalCompilationModeGate private constructor(private val get: () -> Boolean, private val set: (Boolean) -> Unit) {
+    private val lock = ReentrantLock()
+    private val released = lock.newCondition()
+    private var value = false
+    private var users = 0
+    private var backup = false
+    private var waitingForTrue = 0
+    private var waitingForFalse = 0
+
+    fun <R> withValue(requested: Boolean, body: () -> R): R {
+        acquire(requested)
+        try {
+            return body()
+        }
+        finally {
+            release()
+        }
+    }
+
+    private fun acquire(requested: Boolean) {
+        lock.withLock {
+            if (requested) waitingForTrue++ else waitingForFalse++
+            try {
+                while (users > 0 && (value != requested || (if (requested) waitingForFalse else waitingForTrue) > 0)) {
+                    released.await()
+                }
+            }
+            finally {
+                if (requested) waitingForTrue-- else waitingForFalse--
+            }
+            if (users == 0) {
+                backup = get()
+                value = requested
+                set(requested)
+            }
+            users++
+        }
+    }
+
+    private fun release() {
+        lock.withLock {
+            if (--users == 0) {
+                set(backup)
+                released.signalAll()
+            }
+        }
+    }
+
+    companion object {
+        val JVM = IncrementalCompilationModeGate(IncrementalCompilation::isEnabledForJvm, IncrementalCompilation::setIsEnabledForJvm)
+        val JS = IncrementalCompilationModeGate(IncrementalCompilation::isEnabledForJs, IncrementalCompilation::setIsEnabledForJs)
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.daemon
 
+import org.jetbrains.kotlin.incremental.snapshots.XxHash64FileHasher
 import java.io.File
 import java.io.IOException
 import java.security.DigestInputStream
@@ -62,7 +63,7 @@ class LazyClasspathWatcher(classpath: Iterable<String>,
                         .map(::File)
                         .asSequence()
                         .flatMap { it.walk().filter(::isClasspathFile) }
-                        .map { FileId(it, it.lastModified(), it.md5Digest()) }
+                        .map { FileId(it, it.lastModified(), it.contentDigest()) }
                         .toList()
                 val nowMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime())
                 lastUpdate.set(nowMs)
@@ -95,7 +96,7 @@ class LazyClasspathWatcher(classpath: Iterable<String>,
                         true
                     }
                     // if last modified changed or if enforced by param - checking the digest
-                    else if ((it.file.lastModified() != it.lastModified || checkDigest) && !Arrays.equals(it.digest, it.file.md5Digest())) {
+                    else if ((it.file.lastModified() != it.lastModified || checkDigest) && !Arrays.equals(it.digest, it.file.contentDigest())) {
                         log.info("cp changed: ${it.file} digests differ")
                         true
                     }
@@ -116,6 +117,9 @@ class LazyClasspathWatcher(classpath: Iterable<String>,
 
 fun isClasspathFile(file: File): Boolean = file.isFile && listOf("class", "jar").contains(file.extension.toLowerCase())
 
+// The digest is only compared with the digests computed in the same process, so the fast non-cryptographic hash is used
+private fun File.contentDigest(): ByteArray = XxHash64FileHasher.hash(this)
+
 fun File.md5Digest(): ByteArray {
     val md = MessageDigest.getInstance(CLASSPATH_FILE_ID_DIGEST)
     DigestInputStream(inputStream(), md).use {
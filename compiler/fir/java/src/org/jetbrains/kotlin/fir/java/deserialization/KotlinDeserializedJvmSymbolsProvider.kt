@@ -60,9 +60,15 @@ class KotlinDeserializedJvmSymbolsProvider(
     private val javaClassFinder: JavaClassFinder
 ) : AbstractFirSymbolProvider() {
 
-    private val classesCache = mutableMapOf<ClassId, FirClassSymbol>()
-    private val typeAliasCache = mutableMapOf<ClassId, FirTypeAliasSymbol?>()
-    private val packagePartsCache = mutableMapOf<FqName, Collection<PackagePartsCacheData>>()
+    private val classesCache = FirConcurrentCache<ClassId, FirClassSymbol?>()
+    private val typeAliasCache = FirConcurrentCache<ClassId, FirTypeAliasSymbol?>()
+    private val packagePartsCache = FirConcurrentCache<FqName, Collection<PackagePartsCacheData>>()
+
+    private class ClassCacheData(
+        val binaryClass: KotlinJvmBinaryClass,
+        val nameResolver: JvmNameResolver,
+        val proto: ProtoBuf.Class
+    )
 
     private class PackagePartsCacheData(val proto: ProtoBuf.Package, val context: FirDeserializationContext) {
         val topLevelFunctionNameIndex by lazy {
@@ -79,10 +85,10 @@ class KotlinDeserializedJvmSymbolsProvider(
         }
     }
 
-    private val knownClassNamesInPackage = mutableMapOf<FqName, Set<String>?>()
+    private val knownClassNamesInPackage = FirConcurrentCache<FqName, Set<String>?>()
 
     private fun hasTopLevelClassOf(classId: ClassId): Boolean {
-        val knownNames = knownClassNamesInPackage.getOrPut(classId.packageFqName) {
+        val knownNames = knownClassNamesInPackage.getOrCompute(classId.packageFqName) {
             javaClassFinder.knownClassNamesInPackage(classId.packageFqName)
         } ?: return false
         return classId.relativeClassName.topLevelName() in knownNames
@@ -126,7 +132,7 @@ class KotlinDeserializedJvmSymbolsProvider(
     private fun findAndDeserializeTypeAlias(
         classId: ClassId
     ): FirTypeAliasSymbol? {
-        return typeAliasCache.getOrPut(classId) {
+        return typeAliasCache.getOrCompute(classId) {
             getPackageParts(classId.packageFqName).firstNotNullResult { part ->
                 val ids = part.typeAliasNameIndex[classId.shortClassName]
                 if (ids == null || ids.isEmpty()) return@firstNotNullResult null
@@ -281,19 +287,22 @@ class KotlinDeserializedJvmSymbolsProvider(
         parentContext: FirDeserializationContext? = null
     ): FirClassSymbol? {
         if (!hasTopLevelClassOf(classId)) return null
-        if (classesCache.containsKey(classId)) return classesCache[classId]
-
+        return classesCache.lookupCacheOrCalculateWithPostCompute(classId, ::findClassData) { symbol, classData ->
+            if (symbol != null && classData != null) {
+                deserializeClass(classId, symbol, classData, parentContext)
+            }
+        }
+    }
 
-//        return classesCache.getOrPut(classId) {
-        //return null
+    private fun findClassData(classId: ClassId): Pair<FirClassSymbol?, ClassCacheData?> {
         val kotlinJvmBinaryClass = kotlinClassFinder.findKotlinClass(classId)
         if (kotlinJvmBinaryClass == null) {
-            val outerClassId = classId.outerClassId ?: return null
-            val outerJvmBinaryClass = kotlinClassFinder.findKotlinClass(outerClassId) ?: return null
-            if (outerJvmBinaryClass.classHeader.kind != KotlinClassHeader.Kind.CLASS) return null
-            val (nameResolver, outerClassProto) = outerJvmBinaryClass.readClassDataFrom() ?: return null
+            val outerClassId = classId.outerClassId ?: return null to null
+            val outerJvmBinaryClass = kotlinClassFinder.findKotlinClass(outerClassId) ?: return null to null
+            if (outerJvmBinaryClass.classHeader.kind != KotlinClassHeader.Kind.CLASS) return null to null
+            val (nameResolver, outerClassProto) = outerJvmBinaryClass.readClassDataFrom() ?: return null to null
             if (outerClassProto.enumEntryList.none { nameResolver.getName(it.name) == classId.shortClassName }) {
-                return null
+                return null to null
             }
 
             val symbol = FirClassSymbol(classId)
@@ -305,34 +314,37 @@ class KotlinDeserializedJvmSymbolsProvider(
                     emptyList()
                 )
             }
-            classesCache[classId] = symbol
+            return symbol to null
         } else {
-            if (kotlinJvmBinaryClass.classHeader.kind != KotlinClassHeader.Kind.CLASS) return null
-            val (nameResolver, classProto) = kotlinJvmBinaryClass.readClassDataFrom() ?: return null
-
-            val symbol = FirClassSymbol(classId)
-            deserializeClassToSymbol(
-                classId, classProto, symbol, nameResolver, session,
-                JvmBinaryAnnotationDeserializer(session),
-                parentContext, this::findAndDeserializeClass
-            )
-            classesCache[classId] = symbol
-            val annotations = mutableListOf<FirAnnotationCall>()
-            kotlinJvmBinaryClass.loadClassAnnotations(object : KotlinJvmBinaryClass.AnnotationVisitor {
-                override fun visitAnnotation(classId: ClassId, source: SourceElement): KotlinJvmBinaryClass.AnnotationArgumentVisitor? {
-                    return loadAnnotationIfNotSpecial(classId, annotations)
-                }
+            if (kotlinJvmBinaryClass.classHeader.kind != KotlinClassHeader.Kind.CLASS) return null to null
+            val (nameResolver, classProto) = kotlinJvmBinaryClass.readClassDataFrom() ?: return null to null
+            return FirClassSymbol(classId) to ClassCacheData(kotlinJvmBinaryClass, nameResolver, classProto)
+        }
+    }
 
-                override fun visitEnd() {
-                }
+    private fun deserializeClass(
+        classId: ClassId,
+        symbol: FirClassSymbol,
+        classData: ClassCacheData,
+        parentContext: FirDeserializationContext?
+    ) {
+        deserializeClassToSymbol(
+            classId, classData.proto, symbol, classData.nameResolver, session,
+            JvmBinaryAnnotationDeserializer(session),
+            parentContext, this::findAndDeserializeClass
+        )
+        val annotations = mutableListOf<FirAnnotationCall>()
+        classData.binaryClass.loadClassAnnotations(object : KotlinJvmBinaryClass.AnnotationVisitor {
+            override fun visitAnnotation(classId: ClassId, source: SourceElement): KotlinJvmBinaryClass.AnnotationArgumentVisitor? {
+                return loadAnnotationIfNotSpecial(classId, annotations)
+            }
 
+            override fun visitEnd() {
+            }
 
-            }, null)
-            (symbol.fir as FirAbstractAnnotatedElement).annotations += annotations
-        }
 
-        return classesCache[classId]
-//        }
+        }, null)
+        (symbol.fir as FirAbstractAnnotatedElement).annotations += annotations
     }
 
     private fun loadFunctionsByName(part: PackagePartsCacheData, name: Name): List<FirCallableSymbol> {
@@ -361,7 +373,7 @@ class KotlinDeserializedJvmSymbolsProvider(
         findRegularClass(classId)?.let(::FirClassDeclaredMemberScope)
 
     private fun getPackageParts(packageFqName: FqName): Collection<PackagePartsCacheData> {
-        return packagePartsCache.getOrPut(packageFqName) {
+        return packagePartsCache.getOrCompute(packageFqName) {
             computePackagePartsInfos(packageFqName)
         }
     }
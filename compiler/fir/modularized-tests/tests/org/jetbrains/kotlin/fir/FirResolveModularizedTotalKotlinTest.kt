@@ -62,13 +62,19 @@ private data class ModuleData(
 
 private const val PASSES = 1
 
+// Numbers of threads resolving files concurrently, each module is resolved again for each of them to measure time of the phases
+private val PARALLEL_RESOLVE_THREADS = listOf(1, 2, 4, 8, 16)
+
 class FirResolveModularizedTotalKotlinTest : KtUsefulTestCase() {
 
 
     private lateinit var bench: FirResolveBench
     private lateinit var dump: MultiModuleHtmlFirDump
 
-    private fun runAnalysis(moduleData: ModuleData, environment: KotlinCoreEnvironment) {
+    // Wall time of each phase by the number of threads
+    private val phaseTimesByThreads = sortedMapOf<Int, MutableMap<String, Long>>()
+
+    private fun buildFirFiles(environment: KotlinCoreEnvironment, countBuilder: Boolean): List<FirFile> {
         val project = environment.project
         val ktFiles = environment.getSourceFiles()
 
@@ -77,17 +83,20 @@ class FirResolveModularizedTotalKotlinTest : KtUsefulTestCase() {
         val session = createSession(environment, scope, librariesScope)
         val builder = RawFirBuilder(session, stubMode = false)
 
-        val totalTransformer = FirTotalResolveTransformer()
-        val firFiles = ktFiles.toList().mapNotNull {
+        return ktFiles.toList().mapNotNull {
             var firFile: FirFile? = null
             val time = measureNanoTime {
                 firFile = builder.buildFirFile(it)
                 (session.service<FirProvider>() as FirProviderImpl).recordFile(firFile!!)
             }
-            bench.countBuilder(builder, time)
+            if (countBuilder) bench.countBuilder(builder, time)
             firFile
         }.toList()
+    }
 
+    private fun runAnalysis(moduleData: ModuleData, environment: KotlinCoreEnvironment) {
+        val totalTransformer = FirTotalResolveTransformer()
+        val firFiles = buildFirFiles(environment, countBuilder = true)
 
         println("Raw FIR up, files: ${firFiles.size}")
 
@@ -95,6 +104,31 @@ class FirResolveModularizedTotalKotlinTest : KtUsefulTestCase() {
 
         dumpFir(moduleData, firFiles)
         dumpFirHtml(moduleData, firFiles)
+
+        if (!bench.hasFiles) {
+            runParallelAnalysis(environment)
+        }
+    }
+
+    private fun runParallelAnalysis(environment: KotlinCoreEnvironment) {
+        for (threads in PARALLEL_RESOLVE_THREADS) {
+            // Resolve modifies FIR, so it's built again for each run
+            val firFiles = buildFirFiles(environment, countBuilder = false)
+            val phaseTimes = phaseTimesByThreads.getOrPut(threads) { linkedMapOf() }
+            FirTotalResolveTransformer(parallelism = threads).processFiles(firFiles) { phase, time ->
+                phaseTimes.merge(phase.name, time) { a, b -> a + b }
+            }
+        }
+    }
+
+    private fun reportParallelResolve(stream: PrintStream) {
+        for ((threads, phaseTimes) in phaseTimesByThreads) {
+            stream.println("PARALLEL RESOLVE, THREADS: $threads")
+            phaseTimes.forEach { (phase, time) ->
+                stream.println("$phase, WALL TIME: ${time * 1e-6} ms")
+            }
+            stream.println("Total, WALL TIME: ${phaseTimes.values.sum() * 1e-6} ms")
+        }
     }
 
     private fun dumpFir(moduleData: ModuleData, firFiles: List<FirFile>) {
@@ -196,6 +230,7 @@ class FirResolveModularizedTotalKotlinTest : KtUsefulTestCase() {
         }
 
         bench.report(System.out, errorTypeReports = false)
+        reportParallelResolve(System.out)
 
         saveReport()
         if (FAIL_FAST) {
@@ -210,6 +245,7 @@ class FirResolveModularizedTotalKotlinTest : KtUsefulTestCase() {
         logDir.mkdirs()
         PrintStream(logDir.resolve("report-${format.format(Date())}.log").outputStream()).use { stream ->
             bench.report(stream)
+            reportParallelResolve(stream)
         }
     }
 
@@ -218,6 +254,7 @@ class FirResolveModularizedTotalKotlinTest : KtUsefulTestCase() {
             println("Pass $i")
 
             bench = FirResolveBench(withProgress = false)
+            phaseTimesByThreads.clear()
             runTestOnce(i)
         }
     }
@@ -15,31 +15,20 @@ import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
 
 abstract class AbstractFirSymbolProvider : FirSymbolProvider {
-    protected val classCache = mutableMapOf<ClassId, ConeClassLikeSymbol?>()
-    protected val topLevelCallableCache = mutableMapOf<CallableId, List<ConeCallableSymbol>>()
-    protected val packageCache = mutableMapOf<FqName, FqName?>()
+    // Files may be resolved concurrently, see [FirConcurrentCache] for how computations of the same key are handled
+    protected val classCache = FirConcurrentCache<ClassId, ConeClassLikeSymbol?>()
+    protected val topLevelCallableCache = FirConcurrentCache<CallableId, List<ConeCallableSymbol>>()
+    protected val packageCache = FirConcurrentCache<FqName, FqName?>()
 
-    protected inline fun <K, V : Any?> MutableMap<K, V>.lookupCacheOrCalculate(key: K, crossinline l: (K) -> V): V? {
-        return if (key in this.keys) {
-            this[key]
-        } else {
-            val calculated = l(key)
-            this[key] = calculated
-            calculated
-        }
+    protected inline fun <K : Any, V : Any?> FirConcurrentCache<K, V>.lookupCacheOrCalculate(key: K, crossinline l: (K) -> V): V? {
+        return getOrCompute(key) { l(it) }
     }
 
-    protected inline fun <K, V : Any?, T> MutableMap<K, V>.lookupCacheOrCalculateWithPostCompute(
-        key: K, crossinline l: (K) -> Pair<V, T>, postCompute: (V, T) -> Unit
+    protected fun <K : Any, V : Any?, T> FirConcurrentCache<K, V>.lookupCacheOrCalculateWithPostCompute(
+        key: K, l: (K) -> Pair<V, T>, postCompute: (V, T) -> Unit
     ): V? {
-        return if (key in this.keys) {
-            this[key]
-        } else {
-            val calculated = l(key)
-            this[key] = calculated.first
-            postCompute(calculated.first, calculated.second)
-            calculated.first
-        }
+        var computed: Pair<V, T>? = null
+        return getOrCompute(key, { l(it).also { pair -> computed = pair }.first }) { postCompute(it, computed!!.second) }
     }
 
     fun <D> transformTopLevelClasses(transformer: FirTransformer<D>, data: D) {
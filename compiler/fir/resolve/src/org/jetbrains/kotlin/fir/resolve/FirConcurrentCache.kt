@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.fir.resolve
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Cache of symbols and other data of symbol providers, which may be looked up by several threads resolving files concurrently.
+ *
+ * A value is computed once per key: other threads requesting the key while it's computed wait for the computation and get its value.
+ * No lock is held during a computation, so it may look up other keys of this and other caches, e.g. an outer class.
+ *
+ * A computation may be split in two: `create` makes the value, e.g. an empty class symbol, and `postCompute` fills it, e.g. builds
+ * the class of the symbol. Lookups of the key made by `postCompute`, e.g. for a class annotated by itself, get the created value.
+ * So does a thread which would otherwise wait for a computation waiting for this thread. Other threads get the value when
+ * `postCompute` is finished.
+ */
+class FirConcurrentCache<K : Any, V> {
+    private val map = ConcurrentHashMap<K, Any>()
+
+    val size: Int get() = map.values.count { it !is Computation }
+
+    val values: List<V> get() = map.values.filter { it !is Computation }.map(::unbox)
+
+    fun getOrCompute(key: K, compute: (K) -> V): V = getOrCompute(key, compute) {}
+
+    fun getOrCompute(key: K, create: (K) -> V, postCompute: (V) -> Unit): V {
+        while (true) {
+            val cached = map[key] ?: Computation().let { computation ->
+                map.putIfAbsent(key, computation) ?: return compute(key, computation, create, postCompute)
+            }
+            if (cached !is Computation) return unbox(cached)
+
+            if (cached.owner === Thread.currentThread() || !cached.awaitUnlessDeadlocked()) {
+                val created = cached.created
+                @Suppress("UNCHECKED_CAST")
+                if (created !== NOT_CREATED) return created as V
+                // The key is looked up while its value is created, which can't be finished before the lookup, as in a recursive getOrPut
+                return create(key).also(postCompute)
+            }
+        }
+    }
+
+    private fun compute(key: K, computation: Computation, create: (K) -> V, postCompute: (V) -> Unit): V {
+        try {
+            val value = create(key)
+            computation.created = value
+            postCompute(value)
+            map[key] = value ?: NULL_VALUE
+            return value
+        } catch (e: Throwable) {
+            map.remove(key, computation)
+            throw e
+        } finally {
+            computation.finished.countDown()
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun unbox(value: Any): V = (if (value === NULL_VALUE) null else value) as V
+
+    private class Computation {
+        val owner: Thread = Thread.currentThread()
+
+        @Volatile
+        var created: Any? = NOT_CREATED
+
+        val finished = CountDownLatch(1)
+
+        /**
+         * Waits for the computation unless its thread waits, directly or through other threads, for a computation of this thread.
+         * Returns false if it didn't wait.
+         */
+        fun awaitUnlessDeadlocked(): Boolean {
+            val current = Thread.currentThread()
+            synchronized(waitingThreads) {
+                var thread = owner
+                while (thread !== current) {
+                    thread = waitingThreads[thread]?.takeIf { it.finished.count > 0 }?.owner ?: break
+                }
+                if (thread === current) return false
+                waitingThreads[current] = this
+            }
+            try {
+                finished.await()
+            } finally {
+                synchronized(waitingThreads) {
+                    waitingThreads.remove(current)
+                }
+            }
+            return true
+        }
+    }
+
+    private companion object {
+        val NULL_VALUE = Any()
+
+        val NOT_CREATED = Any()
+
+        // Computations the threads wait for, across all caches, to find waits which would never end
+        val waitingThreads = HashMap<Thread, Computation>()
+    }
+}
@@ -40,7 +40,13 @@ import org.jetbrains.kotlin.serialization.deserialization.builtins.BuiltInSerial
 import org.jetbrains.kotlin.serialization.deserialization.getName
 import org.jetbrains.kotlin.utils.addToStdlib.firstNotNullResult
 import java.io.InputStream
+import java.util.concurrent.atomic.AtomicInteger
 
+/**
+ * Symbols of built-in classes and callables are shared by all threads resolving files of the session, see [FirConcurrentCache].
+ * The tables are populated lazily, [deserializedClassCount] and [deserializedCallableCount] tell how many classes and callables
+ * were deserialized so far
+ */
 class FirLibrarySymbolProviderImpl(val session: FirSession) : FirSymbolProvider {
     private class BuiltInsPackageFragment(stream: InputStream, val fqName: FqName, val session: FirSession) {
         lateinit var version: BuiltInsBinaryVersion
@@ -72,7 +78,17 @@ class FirLibrarySymbolProviderImpl(val session: FirSession) : FirSymbolProvider
             ).memberDeserializer
         }
 
-        val lookup = mutableMapOf<ClassId, FirClassSymbol>()
+        private val lookup = FirConcurrentCache<ClassId, FirClassSymbol>()
+
+        private val topLevelCallables = FirConcurrentCache<Name, List<ConeCallableSymbol>>()
+
+        private val deserializedClasses = AtomicInteger()
+
+        private val deserializedCallables = AtomicInteger()
+
+        val deserializedClassCount: Int get() = deserializedClasses.get()
+
+        val deserializedCallableCount: Int get() = deserializedCallables.get()
 
         fun getClassLikeSymbolByFqName(classId: ClassId): ConeClassLikeSymbol? =
             findAndDeserializeClass(classId)
@@ -91,7 +107,8 @@ class FirLibrarySymbolProviderImpl(val session: FirSession) : FirSymbolProvider
                     return null
                 }
             }
-            return lookup.getOrPut(classId, { FirClassSymbol(classId) }) { symbol ->
+            return lookup.getOrCompute(classId, { FirClassSymbol(classId) }) { symbol ->
+                deserializedClasses.incrementAndGet()
                 if (shouldBeEnumEntry) {
                     FirEnumEntryImpl(session, null, symbol, classId.shortClassName)
                 } else {
@@ -108,8 +125,11 @@ class FirLibrarySymbolProviderImpl(val session: FirSession) : FirSymbolProvider
         }
 
         fun getTopLevelCallableSymbols(name: Name): List<ConeCallableSymbol> {
-            return packageProto.`package`.functionList.filter { nameResolver.getName(it.name) == name }.map {
-                memberDeserializer.loadFunction(it).symbol
+            return topLevelCallables.getOrCompute(name) {
+                packageProto.`package`.functionList.filter { nameResolver.getName(it.name) == name }.map {
+                    deserializedCallables.incrementAndGet()
+                    memberDeserializer.loadFunction(it).symbol
+                }
             }
         }
 
@@ -150,7 +170,17 @@ class FirLibrarySymbolProviderImpl(val session: FirSession) : FirSymbolProvider
 
     private val allPackageFragments = loadBuiltIns().groupBy { it.fqName }
 
-    private val fictitiousFunctionSymbols = mutableMapOf<Int, ConeClassSymbol>()
+    // Keyed by class id, as classes of different kinds, e.g. Function1 and SuspendFunction1, have the same arity
+    private val fictitiousFunctionSymbols = FirConcurrentCache<ClassId, ConeClassSymbol>()
+
+    private val createdFictitiousFunctionClasses = AtomicInteger()
+
+    val deserializedClassCount: Int
+        get() = allPackageFragments.values.sumBy { fragments -> fragments.sumBy { it.deserializedClassCount } } +
+                createdFictitiousFunctionClasses.get()
+
+    val deserializedCallableCount: Int
+        get() = allPackageFragments.values.sumBy { fragments -> fragments.sumBy { it.deserializedCallableCount } }
 
     override fun getClassLikeSymbolByFqName(classId: ClassId): ConeClassLikeSymbol? {
         return allPackageFragments[classId.packageFqName]?.firstNotNullResult {
@@ -159,8 +189,9 @@ class FirLibrarySymbolProviderImpl(val session: FirSession) : FirSymbolProvider
             val className = relativeClassName.asString()
             val kind = FunctionClassDescriptor.Kind.byClassNamePrefix(packageFqName, className) ?: return@with null
             val prefix = kind.classNamePrefix
-            val arity = className.substring(prefix.length).toIntOrNull() ?: return null
-            fictitiousFunctionSymbols.getOrPut(arity) {
+            if (className.substring(prefix.length).toIntOrNull() == null) return null
+            fictitiousFunctionSymbols.getOrCompute(this) {
+                createdFictitiousFunctionClasses.incrementAndGet()
                 FirClassSymbol(this).apply {
                     FirClassImpl(
                         session,
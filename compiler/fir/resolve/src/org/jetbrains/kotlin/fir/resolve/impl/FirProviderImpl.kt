@@ -23,6 +23,7 @@ import org.jetbrains.kotlin.fir.visitors.FirVisitorVoid
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.name.Name
+import java.util.concurrent.ConcurrentHashMap
 
 class FirProviderImpl(val session: FirSession) : FirProvider {
     override fun getFirCallableContainerFile(symbol: ConeCallableSymbol): FirFile? {
@@ -94,12 +95,13 @@ class FirProviderImpl(val session: FirSession) : FirProvider {
 
     private val state = State()
 
+    // Files are looked up concurrently while they are resolved, and may be recorded concurrently while raw FIR is built
     private class State {
-        val fileMap = mutableMapOf<FqName, List<FirFile>>()
-        val classifierMap = mutableMapOf<ClassId, FirClassLikeDeclaration>()
-        val classifierContainerFileMap = mutableMapOf<ClassId, FirFile>()
-        val callableMap = mutableMapOf<CallableId, List<ConeCallableSymbol>>()
-        val callableContainerMap = mutableMapOf<ConeCallableSymbol, FirFile>()
+        val fileMap = ConcurrentHashMap<FqName, List<FirFile>>()
+        val classifierMap = ConcurrentHashMap<ClassId, FirClassLikeDeclaration>()
+        val classifierContainerFileMap = ConcurrentHashMap<ClassId, FirFile>()
+        val callableMap = ConcurrentHashMap<CallableId, List<ConeCallableSymbol>>()
+        val callableContainerMap = ConcurrentHashMap<ConeCallableSymbol, FirFile>()
 
         fun setFrom(other: State) {
             fileMap.clear()
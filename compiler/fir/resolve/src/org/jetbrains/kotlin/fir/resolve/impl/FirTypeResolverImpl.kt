@@ -20,6 +20,7 @@ import org.jetbrains.kotlin.fir.symbols.ConeTypeParameterSymbol
 import org.jetbrains.kotlin.fir.types.*
 import org.jetbrains.kotlin.fir.types.impl.*
 import org.jetbrains.kotlin.name.ClassId
+import java.util.concurrent.ConcurrentHashMap
 
 class FirTypeResolverImpl(private val session: FirSession) : FirTypeResolver {
 
@@ -29,7 +30,7 @@ class FirTypeResolverImpl(private val session: FirSession) : FirTypeResolver {
 
     private data class ClassIdInSession(val session: FirSession, val id: ClassId)
 
-    private val implicitBuiltinTypeSymbols = mutableMapOf<ClassIdInSession, ConeClassLikeSymbol>()
+    private val implicitBuiltinTypeSymbols = ConcurrentHashMap<ClassIdInSession, ConeClassLikeSymbol>()
 
     // TODO: get rid of session used here, and may be also of the cache above (see KT-30275)
     private fun resolveBuiltInQualified(id: ClassId, session: FirSession): ConeClassLikeSymbol {
@@ -7,22 +7,63 @@ package org.jetbrains.kotlin.fir.resolve.transformers
 
 import org.jetbrains.kotlin.fir.declarations.FirFile
 import org.jetbrains.kotlin.fir.visitors.FirTransformer
+import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus.withCurrentCanceledStatus
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
 
-class FirTotalResolveTransformer {
+/**
+ * A resolve phase, which is finished for all files before the next one starts.
+ * Transformers of a [isFileLocal] phase modify only the file they are applied to and don't keep state between files,
+ * so the files can be processed concurrently. Other phases resolve declarations of other files on demand
+ * (supertypes, implicit return types) and always run sequentially
+ */
+class FirResolvePhase(val name: String, val isFileLocal: Boolean, val createTransformer: () -> FirTransformer<Nothing?>) {
+    override fun toString() = name
+}
+
+class FirTotalResolveTransformer(private val parallelism: Int = 1) {
 
-    val transformers: List<FirTransformer<Nothing?>> = listOf(
-        FirImportResolveTransformer(),
-        FirSupertypeResolverTransformer(),
-        FirTypeResolveTransformer(),
-        FirStatusResolveTransformer(),
-        FirImplicitTypeBodyResolveTransformerAdapter(),
-        FirBodyResolveTransformerAdapter()
+    val phases: List<FirResolvePhase> = listOf(
+        FirResolvePhase("IMPORTS", isFileLocal = true) { FirImportResolveTransformer() },
+        FirResolvePhase("SUPER_TYPES", isFileLocal = false) { FirSupertypeResolverTransformer() },
+        FirResolvePhase("TYPES", isFileLocal = true) { FirTypeResolveTransformer() },
+        FirResolvePhase("STATUS", isFileLocal = true) { FirStatusResolveTransformer() },
+        FirResolvePhase("IMPLICIT_TYPES_BODY_RESOLVE", isFileLocal = false) { FirImplicitTypeBodyResolveTransformerAdapter() },
+        FirResolvePhase("BODY_RESOLVE", isFileLocal = true) { FirBodyResolveTransformerAdapter() }
     )
 
-    fun processFiles(files: List<FirFile>) {
-        for (transformer in transformers) {
-            for (firFile in files) {
-                firFile.transform<FirFile, Nothing?>(transformer, null)
+    val transformers: List<FirTransformer<Nothing?>> = phases.map { it.createTransformer() }
+
+    fun processFiles(files: List<FirFile>, onPhaseFinished: (phase: FirResolvePhase, wallTimeNanos: Long) -> Unit = { _, _ -> }) {
+        val pool = if (parallelism > 1) ForkJoinPool(parallelism) else null
+        try {
+            for ((phase, transformer) in phases.zip(transformers)) {
+                val start = System.nanoTime()
+                if (pool != null && phase.isFileLocal) {
+                    processFilesConcurrently(phase, files, pool)
+                } else {
+                    for (firFile in files) {
+                        firFile.transform<FirFile, Nothing?>(transformer, null)
+                    }
+                }
+                onPhaseFinished(phase, System.nanoTime() - start)
+            }
+        } finally {
+            pool?.shutdown()
+        }
+    }
+
+    private fun processFilesConcurrently(phase: FirResolvePhase, files: List<FirFile>, pool: ForkJoinPool) {
+        val tasks = files.map { firFile ->
+            withCurrentCanceledStatus(Callable { firFile.transform<FirFile, Nothing?>(phase.createTransformer(), null) })
+        }
+        // invokeAll returns when all files are processed, that is the barrier between phases
+        for (future in pool.invokeAll(tasks)) {
+            try {
+                future.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
             }
         }
     }
@@ -8,7 +8,10 @@ package org.jetbrains.kotlin.fir
 import com.intellij.psi.search.GlobalSearchScope
 import org.jetbrains.kotlin.builtins.KotlinBuiltIns
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.fir.declarations.FirRegularClass
 import org.jetbrains.kotlin.fir.resolve.FirSymbolProvider
+import org.jetbrains.kotlin.fir.resolve.impl.FirLibrarySymbolProviderImpl
+import org.jetbrains.kotlin.fir.symbols.CallableId
 import org.jetbrains.kotlin.fir.symbols.impl.FirCallableSymbol
 import org.jetbrains.kotlin.fir.symbols.impl.FirClassSymbol
 import org.jetbrains.kotlin.name.ClassId
@@ -17,6 +20,8 @@ import org.jetbrains.kotlin.test.ConfigurationKind
 import org.jetbrains.kotlin.test.KotlinTestUtils
 import org.jetbrains.kotlin.test.TestJdkKind
 import java.io.File
+import java.util.*
+import java.util.concurrent.Executors
 
 class BuiltInsDeserializationForFirTestCase : AbstractFirResolveWithSessionTestCase() {
     override fun createEnvironment(): KotlinCoreEnvironment {
@@ -33,6 +38,65 @@ class BuiltInsDeserializationForFirTestCase : AbstractFirResolveWithSessionTestC
         }
     }
 
+    fun testConcurrentDeserialization() {
+        val session = createSession(environment, GlobalSearchScope.allScope(project))
+        val sequentialProvider = FirLibrarySymbolProviderImpl(session)
+        val expected = resolveBuiltInsSurface(sequentialProvider, Random(0))
+        // Every class is deserialized once, top-level classes when requested and nested classes with their outer classes
+        val expectedClassCount = expected.count { (request, symbol) -> request is ClassId && symbol != null }
+        assertEquals(expectedClassCount, sequentialProvider.deserializedClassCount)
+
+        for (threads in listOf(1, 2, 4, 8, 16)) {
+            val provider = FirLibrarySymbolProviderImpl(session)
+            val executor = Executors.newFixedThreadPool(threads)
+            try {
+                // Each thread requests the symbols in its own order, so that the same classes are deserialized concurrently
+                val results = (1..threads).map { seed ->
+                    executor.submit<Map<Any, Any?>> { resolveBuiltInsSurface(provider, Random(seed.toLong())) }
+                }.map { it.get() }
+
+                for (result in results) {
+                    assertEquals(expected.keys, result.keys)
+                    for ((request, symbols) in result) {
+                        assertSame(results.first()[request], symbols)
+                    }
+                }
+                assertEquals(expectedClassCount, provider.deserializedClassCount)
+                assertEquals(sequentialProvider.deserializedCallableCount, provider.deserializedCallableCount)
+            } finally {
+                executor.shutdown()
+            }
+        }
+    }
+
+    private fun resolveBuiltInsSurface(provider: FirSymbolProvider, random: Random): Map<Any, Any?> {
+        val requests = KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES.flatMap { packageFqName ->
+            provider.getClassNamesInPackage(packageFqName).map { ClassId.topLevel(packageFqName.child(it)) } +
+                    provider.getAllCallableNamesInPackage(packageFqName).map { CallableId(packageFqName, null, it) }
+        }.toMutableList()
+        Collections.shuffle(requests, random)
+
+        val result = requests.associateTo(mutableMapOf<Any, Any?>()) { request ->
+            request to when (request) {
+                is ClassId -> provider.getClassLikeSymbolByFqName(request)
+                is CallableId -> provider.getTopLevelCallableSymbols(request.packageName, request.callableName)
+                else -> throw AssertionError("Unexpected request: $request")
+            }
+        }
+
+        // Nested classes are deserialized with their outer classes, a request of a nested class must get the same symbol
+        val outerClasses = ArrayDeque(result.values.filterIsInstance<FirClassSymbol>())
+        while (outerClasses.isNotEmpty()) {
+            for (nestedClass in outerClasses.removeFirst().fir.declarations.filterIsInstance<FirRegularClass>()) {
+                val nestedClassSymbol = provider.getClassLikeSymbolByFqName(nestedClass.symbol.classId)
+                assertSame(nestedClass.symbol, nestedClassSymbol)
+                result[nestedClass.symbol.classId] = nestedClassSymbol
+                outerClasses += nestedClass.symbol
+            }
+        }
+        return result
+    }
+
     private fun checkPackageContent(packageFqName: FqName) {
         val session = createSession(environment, GlobalSearchScope.allScope(project))
         val provider = session.getService(FirSymbolProvider::class)
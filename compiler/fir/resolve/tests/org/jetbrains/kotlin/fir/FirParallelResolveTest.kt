@@ -0,0 +1,49 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.fir
+
+import com.intellij.psi.search.GlobalSearchScope
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.fir.builder.RawFirBuilder
+import org.jetbrains.kotlin.fir.resolve.FirProvider
+import org.jetbrains.kotlin.fir.resolve.impl.FirProviderImpl
+import org.jetbrains.kotlin.fir.resolve.transformers.FirTotalResolveTransformer
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestJdkKind
+import java.io.File
+
+class FirParallelResolveTest : AbstractFirResolveWithSessionTestCase() {
+    override fun createEnvironment(): KotlinCoreEnvironment {
+        return createEnvironmentWithJdk(ConfigurationKind.ALL, TestJdkKind.FULL_JDK)
+    }
+
+    private fun resolveAndRender(ktFiles: List<KtFile>, parallelism: Int): List<String> {
+        // A fresh session per run, so the runs don't share symbol provider caches
+        val session = createSession(environment, GlobalSearchScope.filesScope(project, ktFiles.mapNotNull { it.virtualFile }))
+        val builder = RawFirBuilder(session, stubMode = false)
+
+        val firFiles = ktFiles.map {
+            val firFile = builder.buildFirFile(it)
+            (session.service<FirProvider>() as FirProviderImpl).recordFile(firFile)
+            firFile
+        }
+        FirTotalResolveTransformer(parallelism).processFiles(firFiles)
+        return firFiles.map { it.render() }
+    }
+
+    fun testParallelResolveOfStdlibUsagesIsSameAsSequential() {
+        val ktFiles = File("compiler/fir/resolve/testData/resolve/stdlib").listFiles { file -> file.extension == "kt" }!!
+            .sortedBy { it.name }
+            .map { KotlinTestUtils.createFile(it.name, KotlinTestUtils.doLoadFile(it), project) }
+
+        val sequential = resolveAndRender(ktFiles, parallelism = 1)
+        repeat(5) {
+            assertEquals(sequential, resolveAndRender(ktFiles, parallelism = 4))
+        }
+    }
+}
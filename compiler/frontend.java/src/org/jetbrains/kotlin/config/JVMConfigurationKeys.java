@@ -60,6 +60,12 @@ public class JVMConfigurationKeys {
             CompilerConfigurationKey.create("do not throw NPE on explicit 'equals' call for null receiver of platform boxed primitive type");
     public static final CompilerConfigurationKey<Boolean> DISABLE_OPTIMIZATION =
             CompilerConfigurationKey.create("disable optimization");
+    public static final CompilerConfigurationKey<Integer> PARALLEL_BACKEND_THREADS =
+            CompilerConfigurationKey.create("number of threads used to generate bytecode of a module [experimental]");
+    public static final CompilerConfigurationKey<File> JAR_PACKAGES_INDEX_DIRECTORY =
+            CompilerConfigurationKey.create("directory to store indexes of packages in classpath jars [experimental]");
+    public static final CompilerConfigurationKey<File> CLASS_HEADER_INDEX_DIRECTORY =
+            CompilerConfigurationKey.create("directory to store indexes of Kotlin class headers in classpath jars [experimental]");
     public static final CompilerConfigurationKey<Boolean> USE_TYPE_TABLE =
             CompilerConfigurationKey.create("use type table in serializer");
 
@@ -78,6 +78,11 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
         public OuterAndInnerName get(@NotNull String name) {
             return map == null ? null : map.get(name);
         }
+
+        @NotNull
+        public Map<String, OuterAndInnerName> getEntries() {
+            return map == null ? Collections.emptyMap() : Collections.unmodifiableMap(map);
+        }
     }
 
     @NotNull
@@ -57,7 +57,7 @@ class KotlinBinaryClassCache : Disposable {
 
     companion object {
         fun getKotlinBinaryClassOrClassFileContent(
-            file: VirtualFile, fileContent: ByteArray? = null
+            file: VirtualFile, fileContent: ByteArray? = null, headerIndexCache: KotlinClassHeaderIndexCache? = null
         ): KotlinClassFinder.Result? {
             if (file.fileType !== JavaClassFileType.INSTANCE) return null
 
@@ -70,6 +70,13 @@ class KotlinBinaryClassCache : Disposable {
                 return requestCache.result
             }
 
+            if (fileContent == null && headerIndexCache != null) {
+                val indexedClass = headerIndexCache[file]
+                if (indexedClass != null) {
+                    return requestCache.cache(file, VirtualFileKotlinClass.create(file, indexedClass))
+                }
+            }
+
             val aClass = ApplicationManager.getApplication().runReadAction(Computable {
                 @Suppress("DEPRECATION")
                 VirtualFileKotlinClass.create(file, fileContent)
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.load.java.JvmAnnotationNames
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.metadata.jvm.deserialization.JvmBytecodeBinaryVersion
+import org.jetbrains.kotlin.metadata.jvm.deserialization.JvmMetadataVersion
+import org.jetbrains.kotlin.name.ClassId
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipFile
+
+/**
+ * Headers of all Kotlin classes of a jar, by paths of class files relative to the jar root, e.g. "kotlin/collections/CollectionsKt.class".
+ * Only the table of paths is read eagerly, a header is decoded from the (usually memory-mapped) [buffer] when it is requested
+ */
+class KotlinClassHeaderIndex private constructor(private val offsets: Map<String, Int>, private val buffer: ByteBuffer) {
+    class IndexedClass(
+        val classId: ClassId,
+        val classVersion: Int,
+        val header: KotlinClassHeader,
+        val innerClasses: FileBasedKotlinClass.InnerClassesInfo
+    )
+
+    val size: Int
+        get() = offsets.size
+
+    /**
+     * Records are decoded lazily, so a corrupted index file can make this method throw an exception
+     */
+    operator fun get(relativePath: String): IndexedClass? {
+        val offset = offsets[relativePath] ?: return null
+        // The buffer is shared by all threads, so each lookup uses its own position
+        return buffer.duplicate().apply { position(offset) }.readClass()
+    }
+
+    companion object {
+        private const val MAGIC = 0x4B434849
+        private const val VERSION = 2
+
+        val EMPTY = KotlinClassHeaderIndex(emptyMap(), ByteBuffer.allocate(0))
+
+        /**
+         * Reads headers of all class files of [jar] and writes them to [file] if it's not null.
+         * The index is returned even if it can't be written
+         */
+        fun build(jar: File, file: File?): KotlinClassHeaderIndex {
+            val classes = LinkedHashMap<String, IndexedClass>()
+            ZipFile(jar).use { zip ->
+                for (entry in zip.entries()) {
+                    if (entry.isDirectory || !entry.name.endsWith(".class") || entry.name.endsWith("module-info.class")) continue
+                    val bytes = zip.getInputStream(entry).use { it.readBytes() }
+                    val indexedClass = try {
+                        FileBasedKotlinClass.create(bytes, ::IndexedClass)
+                    }
+                    catch (e: Exception) {
+                        // Broken class files are not indexed and are read as usual
+                        null
+                    }
+                    if (indexedClass != null) {
+                        classes[entry.name] = indexedClass
+                    }
+                }
+            }
+
+            val bytes = ByteArrayOutputStream().also { writeIndex(DataOutputStream(it), classes) }.toByteArray()
+            if (file != null) {
+                save(bytes, file)
+            }
+            return read(ByteBuffer.wrap(bytes)) ?: EMPTY
+        }
+
+        fun load(file: File): KotlinClassHeaderIndex? =
+            RandomAccessFile(file, "r").use { input ->
+                read(input.channel.map(FileChannel.MapMode.READ_ONLY, 0, input.length()))
+            }
+
+        private fun save(bytes: ByteArray, file: File) {
+            // Written to a temporary file first, so that a concurrent compilation never reads an incomplete index
+            val temporary = File.createTempFile(file.name, ".tmp", file.parentFile)
+            try {
+                temporary.writeBytes(bytes)
+                if (!temporary.renameTo(file)) {
+                    temporary.delete()
+                }
+            }
+            catch (e: IOException) {
+                temporary.delete()
+                throw e
+            }
+        }
+
+        private fun writeIndex(output: DataOutputStream, classes: Map<String, IndexedClass>) {
+            val records = ByteArrayOutputStream()
+            val recordsOutput = DataOutputStream(records)
+            val recordOffsets = classes.values.map { indexedClass ->
+                records.size().also { recordsOutput.writeClass(indexedClass) }
+            }
+            recordsOutput.flush()
+
+            output.writeInt(MAGIC)
+            output.writeInt(VERSION)
+            output.writeInt(classes.size)
+            for ((path, offset) in classes.keys.zip(recordOffsets)) {
+                output.writeString(path)
+                output.writeInt(offset)
+            }
+            // The length of records is written to detect truncated index files
+            output.writeInt(records.size())
+            records.writeTo(output)
+            output.flush()
+        }
+
+        private fun read(buffer: ByteBuffer): KotlinClassHeaderIndex? =
+            try {
+                if (buffer.int != MAGIC || buffer.int != VERSION) null
+                else {
+                    val count = buffer.int
+                    val relativeOffsets = HashMap<String, Int>(count * 2)
+                    repeat(count) {
+                        relativeOffsets[buffer.readString()] = buffer.int
+                    }
+                    val recordsLength = buffer.int
+                    val recordsStart = buffer.position()
+                    if (buffer.remaining() != recordsLength) null
+                    else KotlinClassHeaderIndex(relativeOffsets.mapValues { (_, offset) -> recordsStart + offset }, buffer)
+                }
+            }
+            catch (e: RuntimeException) {
+                // The index file is corrupted, e.g. lengths of strings are broken
+                null
+            }
+
+        private fun DataOutputStream.writeClass(indexedClass: IndexedClass) {
+            writeString(indexedClass.classId.asString())
+            writeBoolean(indexedClass.classId.isLocal)
+            writeInt(indexedClass.classVersion)
+
+            val header = indexedClass.header
+            writeInt(header.kind.id)
+            writeIntArray(header.metadataVersion.toArray())
+            writeIntArray(header.bytecodeVersion.toArray())
+            writeStringArray(header.data)
+            writeStringArray(header.incompatibleData)
+            writeStringArray(header.strings)
+            writeNullableString(header.multifileClassName)
+            writeInt(header.extraInt)
+            writeNullableString(header.packageName)
+
+            val innerClasses = indexedClass.innerClasses.entries
+            writeInt(innerClasses.size)
+            for ((name, outerAndInner) in innerClasses) {
+                writeString(name)
+                writeNullableString(outerAndInner.outerInternalName)
+                writeNullableString(outerAndInner.innerSimpleName)
+            }
+        }
+
+        private fun ByteBuffer.readClass(): IndexedClass {
+            val classId = ClassId.fromString(readString(), get() != 0.toByte())
+            val classVersion = int
+
+            val kind = KotlinClassHeader.Kind.getById(int)
+            val metadataVersionArray = readIntArray()
+            val bytecodeVersion = JvmBytecodeBinaryVersion(*readIntArray())
+            val data = readStringArray()
+            val incompatibleData = readStringArray()
+            val strings = readStringArray()
+            val extraString = readNullableString()
+            val extraInt = int
+            val packageName = readNullableString()
+            val metadataVersion = JvmMetadataVersion(
+                metadataVersionArray, (extraInt and JvmAnnotationNames.METADATA_STRICT_VERSION_SEMANTICS_FLAG) != 0
+            )
+            val header = KotlinClassHeader(
+                kind, metadataVersion, bytecodeVersion, data, incompatibleData, strings, extraString, extraInt, packageName
+            )
+
+            val innerClasses = FileBasedKotlinClass.InnerClassesInfo()
+            repeat(int) {
+                innerClasses.add(readString(), readNullableString(), readNullableString())
+            }
+            return IndexedClass(classId, classVersion, header, innerClasses)
+        }
+
+        // Strings are stored as raw chars, because metadata strings are not necessarily valid UTF-16 and may be longer than 64K
+        private fun DataOutputStream.writeString(string: String) {
+            writeInt(string.length)
+            writeChars(string)
+        }
+
+        private fun DataOutputStream.writeNullableString(string: String?) {
+            if (string == null) writeInt(-1) else writeString(string)
+        }
+
+        private fun DataOutputStream.writeStringArray(strings: Array<String>?) {
+            if (strings == null) {
+                writeInt(-1)
+                return
+            }
+            writeInt(strings.size)
+            strings.forEach { writeString(it) }
+        }
+
+        private fun DataOutputStream.writeIntArray(ints: IntArray) {
+            writeInt(ints.size)
+            ints.forEach { writeInt(it) }
+        }
+
+        private fun ByteBuffer.readString(): String = readChars(int)
+
+        private fun ByteBuffer.readNullableString(): String? = int.let { length -> if (length < 0) null else readChars(length) }
+
+        private fun ByteBuffer.readChars(length: Int): String {
+            val chars = CharArray(length)
+            asCharBuffer().get(chars)
+            position(position() + length * 2)
+            return String(chars)
+        }
+
+        private fun ByteBuffer.readStringArray(): Array<String>? {
+            val size = int
+            return if (size < 0) null else Array(size) { readString() }
+        }
+
+        private fun ByteBuffer.readIntArray(): IntArray = IntArray(int) { int }
+    }
+}
+
+/**
+ * Provides headers of Kotlin classes located in jars without reading the class files. Indexes are persisted in [directory] by a key
+ * computed from the path, the size and the modification time of the jar, and are shared by all compilations in the same process,
+ * e.g. in the daemon. A corrupted index file is rebuilt from the jar
+ */
+class KotlinClassHeaderIndexCache(private val directory: File) {
+    private class CachedIndex(val stamp: String, val index: KotlinClassHeaderIndex)
+
+    // Jars are checked for modifications once per compilation
+    private val indexes = ConcurrentHashMap<String, KotlinClassHeaderIndex>()
+
+    operator fun get(file: VirtualFile): KotlinClassHeaderIndex.IndexedClass? {
+        if (file.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL) return null
+
+        val path = file.path
+        val separator = path.indexOf(URLUtil.JAR_SEPARATOR)
+        if (separator < 0) return null
+
+        val jarPath = path.substring(0, separator)
+        val relativePath = path.substring(separator + URLUtil.JAR_SEPARATOR.length)
+        val index = indexes.computeIfAbsent(jarPath) { getOrBuild(File(jarPath)) }
+        return try {
+            index[relativePath]
+        }
+        catch (e: RuntimeException) {
+            // A record of the index file is corrupted
+            val rebuilt = build(File(jarPath), stamp(File(jarPath)))
+            indexes[jarPath] = rebuilt
+            rebuilt[relativePath]
+        }
+    }
+
+    private fun getOrBuild(jar: File): KotlinClassHeaderIndex {
+        val stamp = stamp(jar)
+        loadedIndexes[jar.path]?.takeIf { it.stamp == stamp }?.let { return it.index }
+
+        val indexFile = indexFile(jar, stamp)
+        val loaded = try {
+            if (indexFile.exists()) KotlinClassHeaderIndex.load(indexFile) else null
+        }
+        catch (e: IOException) {
+            null
+        }
+        // The index is built again if it doesn't exist yet, or if its file is truncated or corrupted
+        val index = loaded ?: return build(jar, stamp)
+
+        loadedIndexes[jar.path] = CachedIndex(stamp, index)
+        return index
+    }
+
+    private fun build(jar: File, stamp: String): KotlinClassHeaderIndex {
+        val index = try {
+            directory.mkdirs()
+            KotlinClassHeaderIndex.build(jar, indexFile(jar, stamp))
+        }
+        catch (e: IOException) {
+            // Class files of the jar are read as usual if it can't be indexed
+            KotlinClassHeaderIndex.EMPTY
+        }
+        loadedIndexes[jar.path] = CachedIndex(stamp, index)
+        return index
+    }
+
+    private fun stamp(jar: File): String = "${jar.length()}:${jar.lastModified()}"
+
+    // The key is a hash of the path and the stamp of the jar, so that the jar itself isn't read to find its index. The current
+    // metadata version is included because headers of classes with incompatible metadata are loaded differently
+    private fun indexFile(jar: File, stamp: String): File {
+        val digest = MessageDigest.getInstance("SHA-1")
+        digest.update("${JvmMetadataVersion.INSTANCE}:${System.getProperty("kotlin.ignore.old.metadata")}".toByteArray(Charsets.UTF_8))
+        digest.update(":${jar.absolutePath}:$stamp".toByteArray(Charsets.UTF_8))
+        return File(directory, digest.digest().joinToString("") { String.format("%02x", it) } + ".headers")
+    }
+
+    companion object {
+        private val loadedIndexes = ConcurrentHashMap<String, CachedIndex>()
+
+        // Indexes are loaded from the directory again on the next access
+        fun clearLoadedIndexes() {
+            loadedIndexes.clear()
+        }
+    }
+}
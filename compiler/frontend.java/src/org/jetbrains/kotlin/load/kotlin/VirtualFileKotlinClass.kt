@@ -82,6 +82,13 @@ class VirtualFileKotlinClass private constructor(
             }
         }
 
+        fun create(file: VirtualFile, indexedClass: KotlinClassHeaderIndex.IndexedClass): KotlinClassFinder.Result =
+            KotlinClass(
+                VirtualFileKotlinClass(
+                    file, indexedClass.classId, indexedClass.classVersion, indexedClass.header, indexedClass.innerClasses
+                )
+            )
+
         private fun renderFileReadingErrorMessage(file: VirtualFile): String =
                 "Could not read file: ${file.path}; size in bytes: ${file.length}; file type: ${file.fileType.name}"
     }
@@ -29,4 +29,7 @@ object AnalysisFlags {
 
     @JvmStatic
     val allowResultReturnType by AnalysisFlag.Delegates.Boolean
+
+    @JvmStatic
+    val lazyMemberProtos by AnalysisFlag.Delegates.Boolean
 }
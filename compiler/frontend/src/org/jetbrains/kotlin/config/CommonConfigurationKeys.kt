@@ -41,6 +41,10 @@ object CommonConfigurationKeys {
 
     @JvmField
     val METADATA_VERSION = CompilerConfigurationKey.create<BinaryVersion>("metadata version")
+
+    @JvmField
+    val USE_FINE_GRAINED_STORAGE_LOCKS =
+        CompilerConfigurationKey.create<Boolean>("lock lazy values and memoized functions separately instead of using a single lock")
 }
 
 var CompilerConfiguration.languageVersionSettings: LanguageVersionSettings
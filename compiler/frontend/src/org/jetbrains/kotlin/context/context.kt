@@ -24,6 +24,7 @@ import org.jetbrains.kotlin.descriptors.impl.ModuleDescriptorImpl
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.resolve.MultiTargetPlatform
 import org.jetbrains.kotlin.storage.ExceptionTracker
+import org.jetbrains.kotlin.storage.FineGrainedLockBasedStorageManager
 import org.jetbrains.kotlin.storage.LockBasedStorageManager
 import org.jetbrains.kotlin.storage.StorageManager
 
@@ -83,9 +84,12 @@ class MutableModuleContextImpl(
     projectContext: ProjectContext
 ) : MutableModuleContext, ProjectContext by projectContext
 
-fun GlobalContext(): GlobalContextImpl {
+fun GlobalContext(fineGrainedLocks: Boolean = false): GlobalContextImpl {
     val tracker = ExceptionTracker()
-    return GlobalContextImpl(LockBasedStorageManager.createWithExceptionHandling("GlobalContext", tracker), tracker)
+    val storageManager =
+        if (fineGrainedLocks) FineGrainedLockBasedStorageManager("GlobalContext", tracker)
+        else LockBasedStorageManager.createWithExceptionHandling("GlobalContext", tracker)
+    return GlobalContextImpl(storageManager, tracker)
 }
 
 fun ProjectContext(project: Project): ProjectContext = ProjectContextImpl(project, GlobalContext())
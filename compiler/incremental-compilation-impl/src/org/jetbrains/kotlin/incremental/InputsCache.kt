@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.incremental
 
 import com.intellij.util.containers.MultiMap
+import com.intellij.util.io.PersistentHashMap
 import org.jetbrains.kotlin.build.GeneratedFile
 import org.jetbrains.kotlin.incremental.snapshots.FileSnapshotMap
 import org.jetbrains.kotlin.incremental.storage.*
@@ -29,10 +30,19 @@ class InputsCache(
         private val reporter: ICReporter
 ) : BasicMapsOwner(workingDir) {
     companion object {
-        private val SOURCE_SNAPSHOTS = "source-snapshot"
+        private val SOURCE_SNAPSHOTS = "source-snapshot-v${FileSnapshotMap.FORMAT_VERSION}"
+        // Snapshots of the first version were stored without a version in the name
+        private val SOURCE_SNAPSHOTS_V1 = "source-snapshot"
         private val SOURCE_TO_OUTPUT_FILES = "source-to-output"
     }
 
+    init {
+        val oldSnapshotsFile = SOURCE_SNAPSHOTS_V1.storageFile
+        if (oldSnapshotsFile.exists()) {
+            PersistentHashMap.deleteFilesStartingWith(oldSnapshotsFile)
+        }
+    }
+
     internal val sourceSnapshotMap = registerMap(FileSnapshotMap(SOURCE_SNAPSHOTS.storageFile))
     private val sourceToOutputMap = registerMap(SourceToOutputFilesMap(SOURCE_TO_OUTPUT_FILES.storageFile))
 
@@ -19,15 +19,27 @@ package org.jetbrains.kotlin.incremental.snapshots
 import java.io.File
 import java.util.*
 
+/**
+ * [lastModified] is not a part of the snapshot identity: it only allows to skip hashing of files which are not modified
+ * since the snapshot was taken, see [isUpToDate]
+ */
 class FileSnapshot(
         val file: File,
         val length: Long,
-        val hash: ByteArray
+        val hash: ByteArray,
+        val lastModified: Long = UNKNOWN_LAST_MODIFIED
 ) {
     init {
         assert(!file.isDirectory)
     }
 
+    fun isUpToDate(file: File): Boolean =
+            lastModified != UNKNOWN_LAST_MODIFIED && file.lastModified() == lastModified && file.length() == length
+
+    companion object {
+        const val UNKNOWN_LAST_MODIFIED = 0L
+    }
+
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
         if (other == null || other::class.java != this::class.java) return false
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.incremental.snapshots
 
 import com.intellij.util.io.DataExternalizer
 import java.io.DataInput
+import java.io.DataInputStream
 import java.io.DataOutput
 import java.io.File
 
@@ -27,6 +28,7 @@ object FileSnapshotExternalizer : DataExternalizer<FileSnapshot> {
         out.writeLong(value.length)
         out.writeInt(value.hash.size)
         out.write(value.hash)
+        out.writeLong(value.lastModified)
     }
 
     override fun read(input: DataInput): FileSnapshot {
@@ -35,6 +37,8 @@ object FileSnapshotExternalizer : DataExternalizer<FileSnapshot> {
         val hashSize = input.readInt()
         val hash = ByteArray(hashSize)
         input.readFully(hash)
-        return FileSnapshot(file, length, hash)
+        // Snapshots saved by older versions don't have the timestamp
+        val lastModified = if ((input as DataInputStream).available() > 0) input.readLong() else FileSnapshot.UNKNOWN_LAST_MODIFIED
+        return FileSnapshot(file, length, hash, lastModified)
     }
 }
\ No newline at end of file
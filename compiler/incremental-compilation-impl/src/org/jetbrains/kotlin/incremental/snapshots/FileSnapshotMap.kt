@@ -21,6 +21,9 @@ import org.jetbrains.kotlin.incremental.storage.BasicStringMap
 import org.jetbrains.kotlin.incremental.storage.PathStringDescriptor
 import java.io.File
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 class FileSnapshotMap(storageFile: File) : BasicStringMap<FileSnapshot>(storageFile, PathStringDescriptor, FileSnapshotExternalizer) {
     override fun dumpValue(value: FileSnapshot): String =
@@ -39,17 +42,56 @@ class FileSnapshotMap(storageFile: File) : BasicStringMap<FileSnapshot>(storageF
             }
         }
 
+        val filesToHash = ArrayList<File>()
         for (path in newPaths) {
             val file = File(path)
             val oldSnapshot = storage[path]
-            val newSnapshot = snapshotProvider[file]
+            if (oldSnapshot == null || !oldSnapshot.isUpToDate(file)) {
+                filesToHash.add(file)
+            }
+        }
 
+        for ((file, newSnapshot) in filesToHash.zip(takeSnapshots(snapshotProvider, filesToHash))) {
+            val oldSnapshot = storage[file.path]
             if (oldSnapshot == null || oldSnapshot != newSnapshot) {
                 newOrModified.add(file)
-                storage[path] = newSnapshot
+                storage[file.path] = newSnapshot
+            }
+            else if (oldSnapshot.lastModified != newSnapshot.lastModified) {
+                storage[file.path] = newSnapshot
             }
         }
 
         return ChangedFiles.Known(newOrModified, removed)
     }
+
+    private fun takeSnapshots(snapshotProvider: FileSnapshotProvider, files: List<File>): List<FileSnapshot> {
+        val threads = minOf(Runtime.getRuntime().availableProcessors(), files.size / FILES_PER_THREAD)
+        if (threads <= 1) return files.map { snapshotProvider[it] }
+
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            return files.map { file -> executor.submit(Callable { snapshotProvider[file] }) }.map { future ->
+                try {
+                    future.get()
+                }
+                catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+        }
+        finally {
+            executor.shutdown()
+        }
+    }
+
+    companion object {
+        private const val FILES_PER_THREAD = 100
+
+        /**
+         * Version of the snapshot format, which is a part of the name of the map, so that snapshots of another version are never
+         * compared with new ones. Version 2 hashes files with xxHash64 instead of MD5 and records their timestamps
+         */
+        const val FORMAT_VERSION = 2
+    }
 }
\ No newline at end of file
@@ -22,10 +22,20 @@ interface FileSnapshotProvider {
     operator fun get(file: File): FileSnapshot
 }
 
-class SimpleFileSnapshotProviderImpl : FileSnapshotProvider {
+class SimpleFileSnapshotProviderImpl(private val hasher: FileHasher = XxHash64FileHasher) : FileSnapshotProvider {
     override fun get(file: File): FileSnapshot {
+        // The timestamp is taken before the content, so that a modification during hashing changes it
+        val lastModified = file.lastModified()
         val length = file.length()
-        val hash = file.md5
-        return FileSnapshot(file, length, hash)
+        val hash = hasher.hash(file)
+
+        // A file can be modified again without changing its timestamp within the timestamp resolution of the file system,
+        // so the timestamp of a recently modified file can't be used to detect that it's unchanged
+        val isRecentlyModified = System.currentTimeMillis() - lastModified < FILE_TIMESTAMP_RESOLUTION_MS
+        return FileSnapshot(file, length, hash, if (isRecentlyModified) FileSnapshot.UNKNOWN_LAST_MODIFIED else lastModified)
+    }
+
+    companion object {
+        private const val FILE_TIMESTAMP_RESOLUTION_MS = 2000L
     }
 }
\ No newline at end of file
@@ -17,6 +17,9 @@
 package org.jetbrains.kotlin.incremental.snapshots
 
 import java.io.File
+import java.io.FileInputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import java.security.MessageDigest
 
 internal val File.md5: ByteArray
@@ -34,3 +37,125 @@ internal val File.md5: ByteArray
         }
         return messageDigest.digest()
     }
+
+/**
+ * Computes a hash of the content of a file. Implementations must be thread-safe
+ */
+interface FileHasher {
+    fun hash(file: File): ByteArray
+}
+
+object Md5FileHasher : FileHasher {
+    override fun hash(file: File): ByteArray = file.md5
+}
+
+/**
+ * 64-bit xxHash of the file content: it's not cryptographic, but is good enough to detect changes and is much faster than MD5.
+ * Files are streamed through a heap buffer that is reused by each thread, so hashing doesn't map or allocate anything per file.
+ */
+object XxHash64FileHasher : FileHasher {
+    // A multiple of the 32-byte stripe, so that only the tail of a file is left for the final step
+    private const val BUFFER_SIZE = 64 * 1024
+
+    private const val PRIME1 = -7046029288634856825L
+    private const val PRIME2 = -4417276706812531889L
+    private const val PRIME3 = 1609587929392839161L
+    private const val PRIME4 = -8796714831421723037L
+    private const val PRIME5 = 2870177450012600261L
+
+    private val buffers = ThreadLocal.withInitial { ByteArray(BUFFER_SIZE) }
+
+    override fun hash(file: File): ByteArray {
+        val buffer = buffers.get()
+        val hash = FileInputStream(file).use { input ->
+            val state = State(seed = 0)
+            var filled = 0
+            while (true) {
+                val read = input.read(buffer, filled, buffer.size - filled)
+                if (read < 0) break
+
+                filled += read
+                if (filled == buffer.size) {
+                    state.update(ByteBuffer.wrap(buffer))
+                    filled = 0
+                }
+            }
+            state.digest(ByteBuffer.wrap(buffer, 0, filled))
+        }
+        return ByteBuffer.allocate(8).putLong(hash).array()
+    }
+
+    fun hash(content: ByteBuffer, seed: Long = 0): Long =
+        State(seed).digest(content.duplicate())
+
+    private class State(private val seed: Long) {
+        private var v1 = seed + PRIME1 + PRIME2
+        private var v2 = seed + PRIME2
+        private var v3 = seed
+        private var v4 = seed - PRIME1
+        private var length = 0L
+
+        /**
+         * Consumes all whole 32-byte stripes of [content]
+         */
+        fun update(content: ByteBuffer) {
+            val buffer = content.order(ByteOrder.LITTLE_ENDIAN)
+            while (buffer.remaining() >= 32) {
+                v1 = round(v1, buffer.long)
+                v2 = round(v2, buffer.long)
+                v3 = round(v3, buffer.long)
+                v4 = round(v4, buffer.long)
+                length += 32
+            }
+        }
+
+        /**
+         * Consumes the rest of the content and returns the hash
+         */
+        fun digest(content: ByteBuffer): Long {
+            update(content)
+            val buffer = content.order(ByteOrder.LITTLE_ENDIAN)
+            var hash: Long
+
+            if (length >= 32) {
+                hash = java.lang.Long.rotateLeft(v1, 1) + java.lang.Long.rotateLeft(v2, 7) +
+                       java.lang.Long.rotateLeft(v3, 12) + java.lang.Long.rotateLeft(v4, 18)
+                hash = mergeRound(hash, v1)
+                hash = mergeRound(hash, v2)
+                hash = mergeRound(hash, v3)
+                hash = mergeRound(hash, v4)
+            }
+            else {
+                hash = seed + PRIME5
+            }
+
+            hash += length + buffer.remaining()
+
+            while (buffer.remaining() >= 8) {
+                hash = hash xor round(0, buffer.long)
+                hash = java.lang.Long.rotateLeft(hash, 27) * PRIME1 + PRIME4
+            }
+            if (buffer.remaining() >= 4) {
+                hash = hash xor ((buffer.int.toLong() and 0xFFFFFFFFL) * PRIME1)
+                hash = java.lang.Long.rotateLeft(hash, 23) * PRIME2 + PRIME3
+            }
+            while (buffer.hasRemaining()) {
+                hash = hash xor ((buffer.get().toLong() and 0xFFL) * PRIME5)
+                hash = java.lang.Long.rotateLeft(hash, 11) * PRIME1
+            }
+
+            hash = hash xor (hash ushr 33)
+            hash *= PRIME2
+            hash = hash xor (hash ushr 29)
+            hash *= PRIME3
+            hash = hash xor (hash ushr 32)
+            return hash
+        }
+    }
+
+    private fun round(accumulator: Long, input: Long): Long =
+        java.lang.Long.rotateLeft(accumulator + input * PRIME2, 31) * PRIME1
+
+    private fun mergeRound(accumulator: Long, value: Long): Long =
+        (accumulator xor round(0, value)) * PRIME1 + PRIME4
+}
@@ -9,6 +9,7 @@ import org.jetbrains.kotlin.TestWithWorkingDir
 import org.junit.Assert.assertNotEquals
 import org.junit.Test
 import java.io.*
+import java.nio.ByteBuffer
 
 class FileSnapshotTest : TestWithWorkingDir() {
     private val fileSnapshotProvider: FileSnapshotProvider
@@ -72,6 +73,57 @@ class FileSnapshotTest : TestWithWorkingDir() {
         assertNotEquals(oldSnapshot, newSnapshot)
     }
 
+    @Test
+    fun testExternalizerWithoutTimestamp() {
+        val file = File(workingDir, "1.txt").apply { writeText("test") }
+        val byteOut = ByteArrayOutputStream()
+        DataOutputStream(byteOut).use {
+            it.writeUTF(file.canonicalPath)
+            it.writeLong(4)
+            it.writeInt(1)
+            it.writeByte(42)
+        }
+        val snapshot = DataInputStream(ByteArrayInputStream(byteOut.toByteArray())).use { FileSnapshotExternalizer.read(it) }
+        assertEquals(FileSnapshot.UNKNOWN_LAST_MODIFIED, snapshot.lastModified)
+        assertFalse(snapshot.isUpToDate(file))
+    }
+
+    @Test
+    fun testUpToDate() {
+        val file = File(workingDir, "1.txt").apply {
+            writeText("file")
+            setLastModified(System.currentTimeMillis() - 60000)
+        }
+        val snapshot = fileSnapshotProvider[file]
+        assertTrue(snapshot.isUpToDate(file))
+        assertEquals(snapshot.lastModified, saveAndReadBack(snapshot).lastModified)
+
+        file.writeText("main")
+        assertFalse(snapshot.isUpToDate(file))
+    }
+
+    @Test
+    fun testRecentlyModifiedIsNotUpToDate() {
+        val file = File(workingDir, "1.txt").apply { writeText("file") }
+        val snapshot = fileSnapshotProvider[file]
+        assertFalse(snapshot.isUpToDate(file))
+    }
+
+    @Test
+    fun testXxHash64() {
+        fun hash(text: String) = java.lang.Long.toHexString(XxHash64FileHasher.hash(ByteBuffer.wrap(text.toByteArray())))
+
+        assertEquals("ef46db3751d8e999", hash(""))
+        assertEquals("44bc2cf5ad770999", hash("abc"))
+        assertEquals("fbcea83c8a378bf1", hash("Nobody inspects the spammish repetition"))
+
+        for (size in listOf(0, 31, 32, 64 * 1024, 64 * 1024 + 1, 390000)) {
+            val file = File(workingDir, "$size.txt").apply { writeText("Nobody inspects the spammish repetition".repeat(10000).take(size)) }
+            val expected = XxHash64FileHasher.hash(ByteBuffer.wrap(file.readBytes()))
+            assertEquals("Wrong hash of a file of $size bytes", expected, ByteBuffer.wrap(XxHash64FileHasher.hash(file)).long)
+        }
+    }
+
     private fun saveAndReadBack(snapshot: FileSnapshot): FileSnapshot {
         val byteOut = ByteArrayOutputStream()
         DataOutputStream(byteOut).use { FileSnapshotExternalizer.save(it, snapshot) }
@@ -19,9 +19,8 @@ package org.jetbrains.kotlin.backend.common
 import org.jetbrains.kotlin.ir.IrElement
 import org.jetbrains.kotlin.ir.declarations.*
 import org.jetbrains.kotlin.ir.expressions.IrBody
-import org.jetbrains.kotlin.ir.visitors.IrElementVisitorVoid
-import org.jetbrains.kotlin.ir.visitors.acceptChildrenVoid
-import org.jetbrains.kotlin.ir.visitors.acceptVoid
+import org.jetbrains.kotlin.ir.expressions.IrExpression
+import org.jetbrains.kotlin.ir.visitors.*
 
 interface FileLoweringPass {
     fun lower(irFile: IrFile)
@@ -51,6 +50,17 @@ interface BodyLoweringPass : FileLoweringPass {
     override fun lower(irFile: IrFile) = runOnFilePostfix(irFile)
 }
 
+/**
+ * A lowering which replaces expressions one at a time, bottom-up: [lowerExpression] is called after all children of the expression
+ * are lowered, and doesn't look at its parents or at other parts of the file. Several such lowerings may be run in a single traversal,
+ * where each expression is passed through all of them in order, see `fusedIrFilePhase`.
+ */
+interface ExpressionLoweringPass : FileLoweringPass {
+    fun lowerExpression(expression: IrExpression): IrExpression
+
+    override fun lower(irFile: IrFile) = listOf(this).runOnFilePostfix(irFile)
+}
+
 fun FileLoweringPass.lower(moduleFragment: IrModuleFragment) = moduleFragment.files.forEach { lower(it) }
 
 fun ClassLoweringPass.runOnFilePostfix(irFile: IrFile) {
@@ -101,4 +111,13 @@ fun FunctionLoweringPass.runOnFilePostfix(irFile: IrFile) {
             lower(declaration)
         }
     })
-}
\ No newline at end of file
+}
+
+fun List<ExpressionLoweringPass>.runOnFilePostfix(irFile: IrFile) {
+    irFile.transformChildrenVoid(object : IrElementTransformerVoid() {
+        override fun visitExpression(expression: IrExpression): IrExpression {
+            expression.transformChildrenVoid(this)
+            return fold(expression) { lowered, pass -> pass.lowerExpression(lowered) }
+        }
+    })
+}
@@ -6,24 +6,18 @@
 package org.jetbrains.kotlin.backend.common.lower
 
 import org.jetbrains.kotlin.backend.common.CommonBackendContext
-import org.jetbrains.kotlin.backend.common.FileLoweringPass
-import org.jetbrains.kotlin.backend.common.phaser.makeIrFilePhase
+import org.jetbrains.kotlin.backend.common.ExpressionLoweringPass
+import org.jetbrains.kotlin.backend.common.phaser.makeExpressionLoweringPhase
 import org.jetbrains.kotlin.builtins.KotlinBuiltIns
-import org.jetbrains.kotlin.ir.IrElement
-import org.jetbrains.kotlin.ir.declarations.IrFile
 import org.jetbrains.kotlin.ir.expressions.IrCall
 import org.jetbrains.kotlin.ir.expressions.IrExpression
 import org.jetbrains.kotlin.ir.expressions.IrStringConcatenation
 import org.jetbrains.kotlin.ir.expressions.impl.IrStringConcatenationImpl
 import org.jetbrains.kotlin.ir.types.isStringClassType
 import org.jetbrains.kotlin.ir.util.getPackageFragment
-import org.jetbrains.kotlin.ir.visitors.IrElementTransformerVoid
-import org.jetbrains.kotlin.ir.visitors.IrElementVisitorVoid
-import org.jetbrains.kotlin.ir.visitors.acceptChildrenVoid
-import org.jetbrains.kotlin.ir.visitors.transformChildrenVoid
 import org.jetbrains.kotlin.name.Name
 
-val flattenStringConcatenationPhase = makeIrFilePhase(
+val flattenStringConcatenationPhase = makeExpressionLoweringPhase(
     ::FlattenStringConcatenationLowering,
     name = "FlattenStringConcatenationLowering",
     description = "Flatten nested string concatenation expressions into a single IrStringConcatenation"
@@ -65,7 +59,7 @@ val flattenStringConcatenationPhase = makeIrFilePhase(
  *       CONST Double type=kotlin.Double value=3.0
  *       CONST Null type=kotlin.Nothing? value=null
  */
-class FlattenStringConcatenationLowering(val context: CommonBackendContext) : FileLoweringPass, IrElementTransformerVoid() {
+class FlattenStringConcatenationLowering(val context: CommonBackendContext) : ExpressionLoweringPass {
 
     companion object {
         private val PLUS_NAME = Name.identifier("plus")
@@ -88,60 +82,36 @@ class FlattenStringConcatenationLowering(val context: CommonBackendContext) : Fi
             }
         }
 
-        /** Recursively collects string concatenation arguments from the given expression. */
+        /** Collects string concatenation arguments from the given expression, whose nested concatenations are already flattened. */
         private fun collectStringConcatenationArguments(expression: IrExpression): List<IrExpression> {
+            val operands = when (expression) {
+                is IrStringConcatenation -> expression.arguments
+                is IrCall -> listOfNotNull(expression.dispatchReceiver ?: expression.extensionReceiver, expression.getValueArgument(0))
+                else -> listOf(expression)
+            }
             val arguments = mutableListOf<IrExpression>()
-            expression.acceptChildrenVoid(object : IrElementVisitorVoid {
-
-                override fun visitElement(element: IrElement) {
-                    // Theoretically this is unreachable code since all descendants of IrExpressions are IrExpressions.
-                    element.acceptChildrenVoid(this)
-                }
-
-                override fun visitCall(expression: IrCall) {
-                    if (isStringConcatenationExpression(expression)) {
-                        // Recursively collect from call arguments.
-                        expression.acceptChildrenVoid(this)
-                    } else {
-                        // Add call itself as an argument.
-                        arguments.add(expression)
-                    }
-                }
-
-                override fun visitStringConcatenation(expression: IrStringConcatenation) {
-                    // Recursively collect from concatenation arguments.
-                    expression.acceptChildrenVoid(this)
-                }
-
-                override fun visitExpression(expression: IrExpression) {
-                    // These IrExpressions are neither IrCalls nor IrStringConcatenations and should be added as an argument.
-                    arguments.add(expression)
+            for (operand in operands) {
+                // Splice the arguments of a nested concatenation, it has been flattened when it was lowered.
+                if (operand is IrStringConcatenation) {
+                    arguments.addAll(operand.arguments)
+                } else {
+                    arguments.add(operand)
                 }
-            })
-
+            }
             return arguments
         }
     }
 
-    override fun lower(irFile: IrFile) {
-        irFile.transformChildrenVoid(this)
-    }
-
-    override fun visitExpression(expression: IrExpression): IrExpression {
+    override fun lowerExpression(expression: IrExpression): IrExpression =
         // Only modify/flatten string concatenation expressions.
-        val transformedExpression =
-            if (isStringConcatenationExpression(expression))
-                expression.run {
-                    IrStringConcatenationImpl(
-                        startOffset,
-                        endOffset,
-                        type,
-                        collectStringConcatenationArguments(this)
-                    )
-                }
-            else expression
-
-        transformedExpression.transformChildrenVoid(this)
-        return transformedExpression
-    }
+        if (isStringConcatenationExpression(expression))
+            expression.run {
+                IrStringConcatenationImpl(
+                    startOffset,
+                    endOffset,
+                    type,
+                    collectStringConcatenationArguments(this)
+                )
+            }
+        else expression
 }
\ No newline at end of file
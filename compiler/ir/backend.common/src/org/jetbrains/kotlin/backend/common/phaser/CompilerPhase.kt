@@ -150,7 +150,7 @@ abstract class AbstractNamedPhaseWrapper<in Context : CommonBackendContext, Inpu
     override fun toString() = "Compiler Phase @$name"
 }
 
-class SameTypeNamedPhaseWrapper<in Context : CommonBackendContext, Data>(
+open class SameTypeNamedPhaseWrapper<in Context : CommonBackendContext, Data>(
     name: String,
     description: String,
     prerequisite: Set<AnyNamedPhase>,
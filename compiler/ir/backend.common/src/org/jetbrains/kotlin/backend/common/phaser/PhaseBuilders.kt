@@ -6,10 +6,13 @@
 package org.jetbrains.kotlin.backend.common.phaser
 
 import org.jetbrains.kotlin.backend.common.CommonBackendContext
+import org.jetbrains.kotlin.backend.common.ExpressionLoweringPass
 import org.jetbrains.kotlin.backend.common.FileLoweringPass
 import org.jetbrains.kotlin.backend.common.lower
+import org.jetbrains.kotlin.backend.common.runOnFilePostfix
 import org.jetbrains.kotlin.ir.declarations.IrFile
 import org.jetbrains.kotlin.ir.declarations.IrModuleFragment
+import kotlin.system.measureTimeMillis
 
 // Phase composition.
 private class CompositePhase<Context : CommonBackendContext, Input, Output>(
@@ -177,6 +180,107 @@ fun <Context : CommonBackendContext> makeIrFilePhase(
     }
 )
 
+class ExpressionLoweringPhase<in Context : CommonBackendContext>(
+    name: String,
+    description: String,
+    prerequisite: Set<AnyNamedPhase>,
+    val lowering: (Context) -> ExpressionLoweringPass,
+    preconditions: Set<Checker<IrFile>>,
+    postconditions: Set<Checker<IrFile>>,
+    stickyPostconditions: Set<Checker<IrFile>>,
+    verify: (Context, IrFile) -> Unit
+) : SameTypeNamedPhaseWrapper<Context, IrFile>(
+    name, description, prerequisite,
+    lower = object : SameTypeCompilerPhase<Context, IrFile> {
+        override fun invoke(phaseConfig: PhaseConfig, phaserState: PhaserState<IrFile>, context: Context, input: IrFile): IrFile {
+            lowering(context).lower(input)
+            return input
+        }
+    },
+    preconditions = preconditions,
+    postconditions = postconditions,
+    stickyPostconditions = stickyPostconditions,
+    nlevels = 0,
+    dumperVerifier = IrFileDumperVerifier(verify)
+)
+
+fun <Context : CommonBackendContext> makeExpressionLoweringPhase(
+    lowering: (Context) -> ExpressionLoweringPass,
+    name: String,
+    description: String,
+    prerequisite: Set<AnyNamedPhase> = emptySet(),
+    preconditions: Set<Checker<IrFile>> = emptySet(),
+    postconditions: Set<Checker<IrFile>> = emptySet(),
+    stickyPostconditions: Set<Checker<IrFile>> = emptySet(),
+    verify: (Context, IrFile) -> Unit = { _, _ -> }
+) = ExpressionLoweringPhase(name, description, prerequisite, lowering, preconditions, postconditions, stickyPostconditions, verify)
+
+// Expression lowerings run in a single bottom-up traversal of the file when `PhaseConfig.fuseLowerings` is set.
+private class FusedIrFilePhase<Context : CommonBackendContext>(
+    val phases: List<ExpressionLoweringPhase<Context>>
+) : SameTypeCompilerPhase<Context, IrFile> {
+
+    override fun invoke(phaseConfig: PhaseConfig, phaserState: PhaserState<IrFile>, context: Context, input: IrFile): IrFile {
+        if (!canFuse(phaseConfig)) {
+            return phases.fold(input) { irFile, phase ->
+                phase.invoke(phaseConfig, phaserState, context, irFile).also {
+                    phaserState.stickyPostconditions.addAll(phase.stickyPostconditions)
+                }
+            }
+        }
+
+        val enabled = phases.filter { it in phaseConfig.enabled }
+        enabled.forEachIndexed { index, phase ->
+            val missing = phase.prerequisite - phaserState.alreadyDone - enabled.take(index)
+            assert(missing.isEmpty()) {
+                "Lowering ${phase.name}: phases ${missing.map { it.name }} are required, but not satisfied"
+            }
+        }
+        if (enabled.isEmpty()) return input
+
+        context.inVerbosePhase = false
+        val passes = enabled.map { it.lowering(context) }
+        if (phaseConfig.needProfiling) {
+            val msec = measureTimeMillis { passes.runOnFilePostfix(input) }
+            println("${"\t".repeat(phaserState.depth)}${enabled.joinToString(" + ") { it.description }}: $msec msec")
+        } else {
+            passes.runOnFilePostfix(input)
+        }
+
+        for (phase in enabled) {
+            phaserState.alreadyDone.add(phase)
+            phaserState.stickyPostconditions.addAll(phase.stickyPostconditions)
+        }
+        return input
+    }
+
+    // Dumps, validation and condition checks are done between phases, so the phases are run one by one then
+    private fun canFuse(phaseConfig: PhaseConfig): Boolean =
+        phaseConfig.fuseLowerings && !phaseConfig.checkConditions && phases.none { phase ->
+            phase in phaseConfig.verbose ||
+                    phase in phaseConfig.toDumpStateBefore || phase in phaseConfig.toDumpStateAfter ||
+                    phase in phaseConfig.toValidateStateBefore || phase in phaseConfig.toValidateStateAfter
+        }
+
+    override fun getNamedSubphases(startDepth: Int): List<Pair<Int, AnyNamedPhase>> =
+        phases.flatMap { it.getNamedSubphases(startDepth) }
+
+    override val stickyPostconditions get() = phases.last().stickyPostconditions
+}
+
+/**
+ * Runs [phases] one after another, or, with `PhaseConfig.fuseLowerings`, in a single traversal of the file which passes each expression
+ * through all enabled lowerings right after its children are processed. The phases are still listed, enabled and disabled separately.
+ *
+ * The fused run must produce the same IR as the sequential one. In the fused run, an expression produced by a lowering for a child is
+ * seen by the earlier lowerings at the parent, so a lowering may only follow the lowerings whose result doesn't change because of that.
+ * E.g. constant folding may follow string concatenation flattening, which splices folded concatenations and keeps folded constants,
+ * but the builtin optimizations, which turn null checks and temporary variables into constants, may not follow constant folding.
+ */
+fun <Context : CommonBackendContext> fusedIrFilePhase(
+    vararg phases: ExpressionLoweringPhase<Context>
+): CompilerPhase<Context, IrFile, IrFile> = FusedIrFilePhase(phases.toList())
+
 fun <Context : CommonBackendContext> makeIrModulePhase(
     lowering: (Context) -> FileLoweringPass,
     name: String,
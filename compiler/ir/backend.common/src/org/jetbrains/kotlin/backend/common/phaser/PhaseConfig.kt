@@ -24,7 +24,8 @@ class PhaseConfig(
     val namesOfElementsExcludedFromDumping: Set<String> = emptySet(),
     val needProfiling: Boolean = false,
     val checkConditions: Boolean = false,
-    val checkStickyConditions: Boolean = false
+    val checkStickyConditions: Boolean = false,
+    val fuseLowerings: Boolean = false
 ) {
     private val enabledMut = enabled
 
@@ -23,10 +23,11 @@ fun compile(
     immediateDependencies: List<KlibModuleRef>,
     allDependencies: List<KlibModuleRef>,
     friendDependencies: List<KlibModuleRef>,
-    mainArguments: List<String>?
+    mainArguments: List<String>?,
+    klibCacheStatistics: SharedKlibCache.Statistics? = null
 ): String {
     val (moduleFragment, dependencyModules, irBuiltIns, symbolTable, deserializer) =
-        loadIr(project, files, configuration, immediateDependencies, allDependencies, friendDependencies)
+        loadIr(project, files, configuration, immediateDependencies, allDependencies, friendDependencies, klibCacheStatistics)
 
     val moduleDescriptor = moduleFragment.descriptor
 
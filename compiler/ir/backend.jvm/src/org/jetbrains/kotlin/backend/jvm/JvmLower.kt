@@ -104,8 +104,10 @@ val jvmPhases = namedIrFilePhase<JvmBackendContext>(
 
             tailrecPhase then
             toArrayPhase then
-            flattenStringConcatenationPhase then
-            foldConstantLoweringPhase then
+            fusedIrFilePhase(
+                flattenStringConcatenationPhase,
+                foldConstantLoweringPhase
+            ) then
             jvmBuiltinOptimizationLoweringPhase then
             additionalClassAnnotationPhase then
 
@@ -116,7 +118,7 @@ val jvmPhases = namedIrFilePhase<JvmBackendContext>(
 
 class JvmLower(val context: JvmBackendContext) {
     fun lower(irFile: IrFile) {
-        // TODO run lowering passes as callbacks in bottom-up visitor
+        // TODO run more lowering passes as callbacks in bottom-up visitor, see fusedIrFilePhase
         jvmPhases.invokeToplevel(context.phaseConfig, context, irFile)
     }
 }
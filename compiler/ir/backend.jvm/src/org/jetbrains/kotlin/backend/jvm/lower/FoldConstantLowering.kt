@@ -5,22 +5,19 @@
 
 package org.jetbrains.kotlin.backend.jvm.lower
 
-import org.jetbrains.kotlin.backend.common.FileLoweringPass
-import org.jetbrains.kotlin.backend.common.phaser.makeIrFilePhase
+import org.jetbrains.kotlin.backend.common.ExpressionLoweringPass
+import org.jetbrains.kotlin.backend.common.phaser.makeExpressionLoweringPhase
 import org.jetbrains.kotlin.backend.jvm.JvmBackendContext
-import org.jetbrains.kotlin.ir.declarations.IrFile
 import org.jetbrains.kotlin.ir.descriptors.IrBuiltIns
 import org.jetbrains.kotlin.ir.expressions.*
 import org.jetbrains.kotlin.ir.expressions.impl.IrConstImpl
 import org.jetbrains.kotlin.ir.expressions.impl.IrStringConcatenationImpl
 import org.jetbrains.kotlin.ir.types.*
 import org.jetbrains.kotlin.ir.util.fqNameWhenAvailable
-import org.jetbrains.kotlin.ir.visitors.IrElementTransformerVoid
-import org.jetbrains.kotlin.ir.visitors.transformChildrenVoid
 import org.jetbrains.kotlin.resolve.constants.evaluate.evaluateBinary
 import org.jetbrains.kotlin.resolve.constants.evaluate.evaluateUnary
 
-internal val foldConstantLoweringPhase = makeIrFilePhase(
+internal val foldConstantLoweringPhase = makeExpressionLoweringPhase(
     ::FoldConstantLowering,
     name = "FoldConstantLowering",
     description = "Constant Folding"
@@ -33,7 +30,7 @@ internal val foldConstantLoweringPhase = makeIrFilePhase(
  *
  * TODO: constant fields (e.g. Double.NaN)
  */
-class FoldConstantLowering(private val context: JvmBackendContext) : IrElementTransformerVoid(), FileLoweringPass {
+class FoldConstantLowering(private val context: JvmBackendContext) : ExpressionLoweringPass {
     /**
      * ID of an binary operator / method.
      *
@@ -162,39 +159,38 @@ class FoldConstantLowering(private val context: JvmBackendContext) : IrElementTr
         return buildIrConstant(call, evaluated)
     }
 
-    override fun lower(irFile: IrFile) {
-        irFile.transformChildrenVoid(object : IrElementTransformerVoid() {
-            override fun visitCall(expression: IrCall): IrExpression {
-                expression.transformChildrenVoid(this)
-
-                return when {
-                    expression.extensionReceiver != null -> expression
-                    expression.dispatchReceiver != null && expression.valueArgumentsCount == 0 -> tryFoldingUnaryOps(expression)
-                    expression.dispatchReceiver != null && expression.valueArgumentsCount == 1 -> tryFoldingBinaryOps(expression)
-                    expression.dispatchReceiver == null && expression.valueArgumentsCount == 2 -> tryFoldingBuiltinBinaryOps(expression)
-                    else -> expression
-                }
-            }
+    private fun foldCall(expression: IrCall): IrExpression =
+        when {
+            expression.extensionReceiver != null -> expression
+            expression.dispatchReceiver != null && expression.valueArgumentsCount == 0 -> tryFoldingUnaryOps(expression)
+            expression.dispatchReceiver != null && expression.valueArgumentsCount == 1 -> tryFoldingBinaryOps(expression)
+            expression.dispatchReceiver == null && expression.valueArgumentsCount == 2 -> tryFoldingBuiltinBinaryOps(expression)
+            else -> expression
+        }
 
-            override fun visitStringConcatenation(expression: IrStringConcatenation): IrExpression {
-                expression.transformChildrenVoid(this)
-                val folded = mutableListOf<IrExpression>()
-                for (next in expression.arguments) {
-                    val last = folded.lastOrNull()
-                    when {
-                        next !is IrConst<*> -> folded += next
-                        last !is IrConst<*> -> folded += IrConstImpl.string(
-                            next.startOffset, next.endOffset, context.irBuiltIns.stringType, next.value.toString()
-                        )
-                        else -> folded[folded.size - 1] = IrConstImpl.string(
-                            last.startOffset, next.endOffset, context.irBuiltIns.stringType,
-                            last.value.toString() + next.value.toString()
-                        )
-                    }
-                }
-                return folded.singleOrNull() as? IrConst<*>
-                    ?: IrStringConcatenationImpl(expression.startOffset, expression.endOffset, expression.type, folded)
+    private fun foldStringConcatenation(expression: IrStringConcatenation): IrExpression {
+        val folded = mutableListOf<IrExpression>()
+        for (next in expression.arguments) {
+            val last = folded.lastOrNull()
+            when {
+                next !is IrConst<*> -> folded += next
+                last !is IrConst<*> -> folded += IrConstImpl.string(
+                    next.startOffset, next.endOffset, context.irBuiltIns.stringType, next.value.toString()
+                )
+                else -> folded[folded.size - 1] = IrConstImpl.string(
+                    last.startOffset, next.endOffset, context.irBuiltIns.stringType,
+                    last.value.toString() + next.value.toString()
+                )
             }
-        })
+        }
+        return folded.singleOrNull() as? IrConst<*>
+            ?: IrStringConcatenationImpl(expression.startOffset, expression.endOffset, expression.type, folded)
     }
+
+    override fun lowerExpression(expression: IrExpression): IrExpression =
+        when (expression) {
+            is IrCall -> foldCall(expression)
+            is IrStringConcatenation -> foldStringConcatenation(expression)
+            else -> expression
+        }
 }
\ No newline at end of file
@@ -17,7 +17,9 @@
 package org.jetbrains.kotlin.backend.common.library
 
 import java.io.File
+import java.io.InputStream
 import java.io.RandomAccessFile
+import java.nio.ByteBuffer
 import java.nio.MappedByteBuffer
 import java.nio.channels.FileChannel
 import java.nio.file.Files
@@ -36,50 +38,110 @@ fun File.map(mode: FileChannel.MapMode = FileChannel.MapMode.READ_ONLY,
         .also { channel.close() } // Channel close closes the file also.
 }
 
+/**
+ * Reads declarations of a combined IR file: the number of declarations, the index of them and their bytes.
+ * The index is searched in the mapped file without decoding it. Its records are sorted by [CombinedIrFileWriter], which marks that
+ * in the header; records of files written before that are searched through a sorted permutation of them.
+ * Declarations are returned as slices of the mapped file, the reader may be used from several threads
+ */
 class CombinedIrFileReader(file: File) {
     private val buffer = file.map(FileChannel.MapMode.READ_ONLY)
-    private val declarationToOffsetSize = mutableMapOf<DeclarationId, Pair<Int, Int>>()
+    private val header = buffer.getInt(0)
+    private val declarationsCount = header and SORTED_INDEX_FLAG.inv()
+    private val sortedRecords: IntArray? = if (header and SORTED_INDEX_FLAG != 0) null else sortRecords()
 
-    init {
-        val declarationsCount = buffer.int
-        for (i in 0 until declarationsCount) {
-            val id = buffer.long
-            val isLocal = buffer.int != 0
-            val offset = buffer.int
-            val size = buffer.int
-            declarationToOffsetSize[DeclarationId(id, isLocal)] = offset to size
+    private fun recordPosition(record: Int) = INDEX_HEADER_SIZE + record * SINGLE_INDEX_RECORD_SIZE
+
+    private fun compareRecord(record: Int, id: Long, isLocal: Int): Int {
+        val position = recordPosition(record)
+        val recordId = buffer.getLong(position)
+        if (recordId != id) return if (recordId < id) -1 else 1
+        return buffer.getInt(position + ID_SIZE).compareTo(isLocal)
+    }
+
+    private fun compareRecords(first: Int, second: Int): Int {
+        val position = recordPosition(second)
+        return compareRecord(first, buffer.getLong(position), buffer.getInt(position + ID_SIZE))
+    }
+
+    private fun sortRecords(): IntArray = (0 until declarationsCount).sortedWith(Comparator(::compareRecords)).toIntArray()
+
+    private fun findRecord(id: DeclarationId): Int {
+        val isLocal = if (id.isLocal) 1 else 0
+        var low = 0
+        var high = declarationsCount - 1
+        while (low <= high) {
+            val middle = (low + high) ushr 1
+            val record = sortedRecords?.get(middle) ?: middle
+            val comparison = compareRecord(record, id.id, isLocal)
+            when {
+                comparison < 0 -> low = middle + 1
+                comparison > 0 -> high = middle - 1
+                else -> return record
+            }
         }
+        return -1
+    }
+
+    fun declarationBuffer(id: DeclarationId): ByteBuffer {
+        val record = findRecord(id)
+        if (record < 0) throw Error("No declaration with $id here")
+        val position = recordPosition(record)
+        val offset = buffer.getInt(position + ID_SIZE + INT_SIZE)
+        val size = buffer.getInt(position + ID_SIZE + 2 * INT_SIZE)
+        val slice = buffer.duplicate()
+        slice.position(offset)
+        slice.limit(offset + size)
+        return slice.slice().asReadOnlyBuffer()
     }
 
     fun declarationBytes(id: DeclarationId): ByteArray {
-        val offsetSize = declarationToOffsetSize[id] ?: throw Error("No declaration with $id here")
-        val result = ByteArray(offsetSize.second)
-        buffer.position(offsetSize.first)
-        buffer.get(result, 0, offsetSize.second)
-        return result
+        val slice = declarationBuffer(id)
+        return ByteArray(slice.remaining()).also { slice.get(it) }
     }
 }
 
+/**
+ * Reads a buffer, e.g. a slice of a mapped file, without copying all of it into an array
+ */
+class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+    override fun read(): Int = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+    override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) return 0
+        if (!buffer.hasRemaining()) return -1
+        val count = minOf(length, buffer.remaining())
+        buffer.get(bytes, offset, count)
+        return count
+    }
+
+    override fun available(): Int = buffer.remaining()
+}
+
+private const val ID_SIZE = 8  // sizeof(Long).
+private const val INT_SIZE = 4  // sizeof(Int).
 private const val SINGLE_INDEX_RECORD_SIZE = 20  // sizeof(Long) + 3 * sizeof(Int).
 private const val INDEX_HEADER_SIZE = 4  // sizeof(Int).
+private const val SORTED_INDEX_FLAG = 1 shl 31  // Set in the header with the count of declarations.
 
+/**
+ * Writes declarations after the index, which is written sorted by declaration id when writing is finished
+ */
 class CombinedIrFileWriter(val declarationCount: Int) {
     private var currentDeclaration = 0
     private var currentPosition = 0
     private val file =  Files.createTempFile("ir", "").toFile()
     private val randomAccessFile = RandomAccessFile(file.path, "rw")
 
+    // Skipped declarations keep -1 in all fields of their records
+    private val ids = LongArray(declarationCount) { -1 }
+    private val isLocals = IntArray(declarationCount) { -1 }
+    private val offsets = IntArray(declarationCount) { -1 }
+    private val sizes = IntArray(declarationCount) { -1 }
+
     init {
-        randomAccessFile.writeInt(declarationCount)
-        assert(randomAccessFile.filePointer.toInt() == INDEX_HEADER_SIZE)
-        for (i in 0 until declarationCount) {
-            randomAccessFile.writeLong(-1) // id
-            randomAccessFile.writeInt(-1)  // isLocal
-            randomAccessFile.writeInt(-1)  // offset
-            randomAccessFile.writeInt(-1)  // size
-        }
-        currentPosition = randomAccessFile.filePointer.toInt()
-        assert(currentPosition == INDEX_HEADER_SIZE + SINGLE_INDEX_RECORD_SIZE * declarationCount)
+        currentPosition = INDEX_HEADER_SIZE + SINGLE_INDEX_RECORD_SIZE * declarationCount
+        randomAccessFile.seek(currentPosition.toLong())
     }
 
     fun skipDeclaration() {
@@ -87,12 +149,10 @@ class CombinedIrFileWriter(val declarationCount: Int) {
     }
 
     fun addDeclaration(id: DeclarationId, bytes: ByteArray) {
-        randomAccessFile.seek((currentDeclaration * SINGLE_INDEX_RECORD_SIZE + INDEX_HEADER_SIZE).toLong())
-        randomAccessFile.writeLong(id.id)
-        randomAccessFile.writeInt(if (id.isLocal) 1 else 0)
-        randomAccessFile.writeInt(currentPosition)
-        randomAccessFile.writeInt(bytes.size)
-        randomAccessFile.seek(currentPosition.toLong())
+        ids[currentDeclaration] = id.id
+        isLocals[currentDeclaration] = if (id.isLocal) 1 else 0
+        offsets[currentDeclaration] = currentPosition
+        sizes[currentDeclaration] = bytes.size
         randomAccessFile.write(bytes)
         assert(randomAccessFile.filePointer < Int.MAX_VALUE.toLong())
         currentPosition = randomAccessFile.filePointer.toInt()
@@ -101,8 +161,18 @@ class CombinedIrFileWriter(val declarationCount: Int) {
 
     fun finishWriting(): File {
         assert(currentDeclaration == declarationCount)
+        val records = (0 until declarationCount).sortedWith(compareBy<Int>({ ids[it] }, { isLocals[it] }))
+        val index = ByteBuffer.allocate(INDEX_HEADER_SIZE + SINGLE_INDEX_RECORD_SIZE * declarationCount)
+        index.putInt(declarationCount or SORTED_INDEX_FLAG)
+        for (record in records) {
+            index.putLong(ids[record])
+            index.putInt(isLocals[record])
+            index.putInt(offsets[record])
+            index.putInt(sizes[record])
+        }
+        randomAccessFile.seek(0)
+        randomAccessFile.write(index.array())
         randomAccessFile.close()
         return file
     }
 }
-
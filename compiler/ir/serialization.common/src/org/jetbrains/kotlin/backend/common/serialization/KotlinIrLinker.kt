@@ -7,6 +7,7 @@ package org.jetbrains.kotlin.backend.common.serialization
 
 import org.jetbrains.kotlin.backend.common.LoggingContext
 import org.jetbrains.kotlin.backend.common.descriptors.*
+import org.jetbrains.kotlin.backend.common.library.ByteBufferInputStream
 import org.jetbrains.kotlin.descriptors.*
 import org.jetbrains.kotlin.descriptors.impl.EmptyPackageFragmentDescriptor
 import org.jetbrains.kotlin.ir.UNDEFINED_OFFSET
@@ -33,10 +34,12 @@ import org.jetbrains.kotlin.ir.util.NaiveSourceBasedFileEntryImpl
 import org.jetbrains.kotlin.ir.util.SymbolTable
 import org.jetbrains.kotlin.ir.util.patchDeclarationParents
 import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.protobuf.CodedInputStream
 import org.jetbrains.kotlin.protobuf.ExtensionRegistryLite.newInstance
 import org.jetbrains.kotlin.resolve.descriptorUtil.module
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedCallableMemberDescriptor
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedClassDescriptor
+import java.nio.ByteBuffer
 
 abstract class KotlinIrLinker(
     val logger: LoggingContext,
@@ -273,12 +276,20 @@ abstract class KotlinIrLinker(
         return currentIndex
     }
 
-    private val ByteArray.codedInputStream: org.jetbrains.kotlin.protobuf.CodedInputStream
-        get() {
-            val codedInputStream = org.jetbrains.kotlin.protobuf.CodedInputStream.newInstance(this)
-            codedInputStream.setRecursionLimit(65535) // The default 64 is blatantly not enough for IR.
-            return codedInputStream
-        }
+    private val ByteArray.codedInputStream: CodedInputStream
+        get() = CodedInputStream.newInstance(this).withIrRecursionLimit()
+
+    // CodedInputStream.newInstance(ByteBuffer) copies a direct buffer, e.g. a slice of a mapped file, into an array.
+    // Declarations larger than the buffer of a streaming CodedInputStream are streamed instead
+    private val ByteBuffer.codedInputStream: CodedInputStream
+        get() = if (!hasArray() && remaining() > STREAMING_BUFFER_SIZE)
+            CodedInputStream.newInstance(ByteBufferInputStream(this)).withIrRecursionLimit()
+        else
+            CodedInputStream.newInstance(this).withIrRecursionLimit()
+
+    private fun CodedInputStream.withIrRecursionLimit() = apply {
+        setRecursionLimit(65535) // The default 64 is blatantly not enough for IR.
+    }
 
     private val reversedFileIndex = mutableMapOf<UniqIdKey, IrFile>()
 
@@ -287,17 +298,27 @@ abstract class KotlinIrLinker(
             this.moduleDescriptor ?: reversedFileIndex[this]?.packageFragmentDescriptor?.containingDeclaration
 
     private fun deserializeTopLevelDeclaration(uniqIdKey: UniqIdKey): IrDeclaration {
-        val proto = loadTopLevelDeclarationProto(uniqIdKey)
+        val proto = loadTopLevelDeclarationProto(uniqIdKey.moduleOfOrigin!!, uniqIdKey.uniqId)
         return deserializersForModules[uniqIdKey.moduleOfOrigin]!!
             .deserializeDeclaration(proto, reversedFileIndex[uniqIdKey]!!)
     }
 
     protected abstract fun reader(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteArray
 
-    private fun loadTopLevelDeclarationProto(uniqIdKey: UniqIdKey): KotlinIr.IrDeclaration {
-        val stream = reader(uniqIdKey.moduleOfOrigin!!, uniqIdKey.uniqId).codedInputStream
-        return KotlinIr.IrDeclaration.parseFrom(stream, newInstance())
-    }
+    /**
+     * Bytes of a top-level declaration, a linker reading them from a mapped file may return a slice of it instead of copying them
+     */
+    protected open fun declarationBuffer(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteBuffer =
+        ByteBuffer.wrap(reader(moduleDescriptor, uniqId))
+
+    /**
+     * Protos are immutable, so a linker may take them from a cache shared with other linkers instead of parsing them
+     */
+    protected open fun loadTopLevelDeclarationProto(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): KotlinIr.IrDeclaration =
+        parseTopLevelDeclarationProto(declarationBuffer(moduleDescriptor, uniqId))
+
+    protected fun parseTopLevelDeclarationProto(buffer: ByteBuffer): KotlinIr.IrDeclaration =
+        KotlinIr.IrDeclaration.parseFrom(buffer.codedInputStream, newInstance())
 
     private fun deserializeFileAnnotationsIfFirstUse(module: ModuleDescriptor, file: IrFile) {
         val annotations = fileAnnotations[file] ?: return
@@ -408,10 +429,16 @@ abstract class KotlinIrLinker(
         moduleDescriptor: ModuleDescriptor,
         byteArray: ByteArray,
         deserializationStrategy: DeserializationStrategy = DeserializationStrategy.ONLY_REFERENCED
+    ): IrModuleFragment =
+        deserializeIrModuleHeader(moduleDescriptor, deserializationStrategy) { parseIrModuleProto(byteArray) }
+
+    private fun deserializeIrModuleHeader(
+        moduleDescriptor: ModuleDescriptor,
+        deserializationStrategy: DeserializationStrategy,
+        loadProto: () -> KotlinIr.IrModule
     ): IrModuleFragment {
         val deserializerForModule = deserializersForModules.getOrPut(moduleDescriptor) {
-            val proto = KotlinIr.IrModule.parseFrom(byteArray.codedInputStream, newInstance())
-            IrDeserializerForModule(moduleDescriptor, proto, deserializationStrategy)
+            IrDeserializerForModule(moduleDescriptor, loadProto(), deserializationStrategy)
         }
         // The IrModule and its IrFiles have been created during module initialization.
         return deserializerForModule.module
@@ -419,19 +446,29 @@ abstract class KotlinIrLinker(
 
     abstract val ModuleDescriptor.irHeader: ByteArray?
 
-    fun deserializeIrModuleHeader(moduleDescriptor: ModuleDescriptor): IrModuleFragment? =
+    /**
+     * Parsed IR header of the module, a linker may take it from a cache shared with other linkers like top-level declarations
+     */
+    protected open fun loadIrModuleProto(moduleDescriptor: ModuleDescriptor): KotlinIr.IrModule? =
+        moduleDescriptor.irHeader?.let { parseIrModuleProto(it) }
+
+    protected fun parseIrModuleProto(byteArray: ByteArray): KotlinIr.IrModule =
+        KotlinIr.IrModule.parseFrom(byteArray.codedInputStream, newInstance())
+
+    fun deserializeIrModuleHeader(moduleDescriptor: ModuleDescriptor): IrModuleFragment? {
+        deserializersForModules[moduleDescriptor]?.let { return it.module }
         // TODO: do we really allow libraries without any IR?
-        moduleDescriptor.irHeader?.let { header ->
-            // TODO: consider skip deserializing explicitly exported declarations for libraries.
-            // Now it's not valid because of all dependencies that must be computed.
-            val deserializationStrategy =
-                if (exportedDependencies.contains(moduleDescriptor)) {
-                    DeserializationStrategy.ALL
-                } else {
-                    DeserializationStrategy.EXPLICITLY_EXPORTED
-                }
-            deserializeIrModuleHeader(moduleDescriptor, header, deserializationStrategy)
-        }
+        val proto = loadIrModuleProto(moduleDescriptor) ?: return null
+        // TODO: consider skip deserializing explicitly exported declarations for libraries.
+        // Now it's not valid because of all dependencies that must be computed.
+        val deserializationStrategy =
+            if (exportedDependencies.contains(moduleDescriptor)) {
+                DeserializationStrategy.ALL
+            } else {
+                DeserializationStrategy.EXPLICITLY_EXPORTED
+            }
+        return deserializeIrModuleHeader(moduleDescriptor, deserializationStrategy) { proto }
+    }
 }
 
 enum class DeserializationStrategy {
@@ -439,3 +476,5 @@ enum class DeserializationStrategy {
     ALL,
     EXPLICITLY_EXPORTED
 }
+
+private const val STREAMING_BUFFER_SIZE = 4096  // The size of the buffer of CodedInputStream reading an InputStream.
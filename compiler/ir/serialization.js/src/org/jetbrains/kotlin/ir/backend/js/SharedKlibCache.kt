@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.ir.backend.js
+
+import org.jetbrains.kotlin.backend.common.library.DeclarationId
+import org.jetbrains.kotlin.backend.common.serialization.KotlinIr
+import org.jetbrains.kotlin.ir.backend.js.lower.serialization.metadata.JsKlibMetadataParts
+import org.jetbrains.kotlin.ir.backend.js.lower.serialization.metadata.JsKlibMetadataSerializationUtil
+import java.io.File
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Parsed metadata, IR module headers and top-level IR declarations of klibs shared by all JS IR compilations in the daemon.
+ * A klib is identified by its path and the sizes and timestamps of its files, so nothing is read to find it in the cache.
+ *
+ * The cache is disabled unless [isEnabled] is set, as the daemon does: a single compilation parses each proto once anyway,
+ * so it would only keep protos of libraries it doesn't need anymore.
+ *
+ * Only protos are shared, as they are immutable. IR built from them references descriptors, built-ins and the symbol table of
+ * a single compilation and is modified by lowerings, so each compilation still links its own IR from the cached protos.
+ */
+object SharedKlibCache {
+    const val MEMORY_BUDGET_PROPERTY = "kotlin.js.klib.cache.memory.budget.mb"
+
+    private const val DEFAULT_MEMORY_BUDGET_MB = 64L
+    private const val MAX_KLIBS = 32
+
+    /**
+     * Estimated heap size of a parsed proto per byte of its serialized form: strings, boxed fields, lists and headers of
+     * message objects take several times more than their encoding
+     */
+    const val RETAINED_SIZE_FACTOR = 4
+
+    // Estimated retained size of cached metadata, IR module headers and declarations
+    private val memoryBudget = (System.getProperty(MEMORY_BUDGET_PROPERTY)?.toLongOrNull() ?: DEFAULT_MEMORY_BUDGET_MB) * 1024 * 1024
+
+    @Volatile
+    var isEnabled = false
+
+    // Klibs whose metadata was loaded, and top-level declarations deserialized by the linker
+    class Statistics {
+        val klibHits = AtomicLong()
+        val klibMisses = AtomicLong()
+        val declarationHits = AtomicLong()
+        val declarationMisses = AtomicLong()
+
+        override fun toString(): String =
+            "klibs: ${klibHits.get()} hits, ${klibMisses.get()} misses; " +
+                    "IR declarations: ${declarationHits.get()} hits, ${declarationMisses.get()} misses"
+    }
+
+    class Klib internal constructor(val key: String) {
+        @Volatile
+        internal var metadataParts: JsKlibMetadataParts? = null
+        @Volatile
+        internal var irModule: KotlinIr.IrModule? = null
+        internal val declarations = ConcurrentHashMap<DeclarationId, KotlinIr.IrDeclaration>()
+
+        // Guarded by the klib, so that nothing is stored into it and counted after it's evicted
+        internal var size = 0L
+
+        // Compilations which got the klib before it was evicted may still parse its protos, they are not cached anymore
+        internal var isEvicted = false
+    }
+
+    val statistics = Statistics()
+
+    private val totalSize = AtomicLong()
+
+    val cachedSize: Long
+        get() = totalSize.get()
+
+    // Contents of klibs being compiled change often, so only recently used klibs are kept
+    private val klibs = lruMap<String, Klib>(MAX_KLIBS) { evict(it) }
+
+    fun getKlib(klibDir: File): Klib {
+        val key = klibKey(klibDir)
+        return synchronized(klibs) { klibs.getOrPut(key) { Klib(key) } }
+    }
+
+    fun getMetadataParts(klib: Klib, statistics: Statistics?, load: () -> JsKlibMetadataParts): JsKlibMetadataParts {
+        klib.metadataParts?.let {
+            record(statistics) { klibHits.incrementAndGet() }
+            return it
+        }
+        record(statistics) { klibMisses.incrementAndGet() }
+        val metadataParts = load()
+        val serializedSize = metadataParts.header.serializedSize + metadataParts.body.sumBy { it.serializedSize }
+        store(klib, serializedSize) {
+            if (klib.metadataParts != null) return@store false
+            klib.metadataParts = metadataParts
+            true
+        }
+        return metadataParts
+    }
+
+    fun getIrModule(klib: Klib, load: () -> KotlinIr.IrModule): KotlinIr.IrModule {
+        klib.irModule?.let { return it }
+        val irModule = load()
+        store(klib, irModule.serializedSize) {
+            if (klib.irModule != null) return@store false
+            klib.irModule = irModule
+            true
+        }
+        return irModule
+    }
+
+    /**
+     * Returns the declaration with [id] from [klib], [load] returns its proto parsed from a buffer of the given size
+     */
+    fun getDeclaration(
+        klib: Klib,
+        id: DeclarationId,
+        statistics: Statistics?,
+        load: () -> Pair<KotlinIr.IrDeclaration, Int>
+    ): KotlinIr.IrDeclaration {
+        klib.declarations[id]?.let {
+            record(statistics) { declarationHits.incrementAndGet() }
+            return it
+        }
+        record(statistics) { declarationMisses.incrementAndGet() }
+        // Parsed outside of a lock: two compilations may parse the same declaration, but then only one proto is kept
+        val (declaration, serializedSize) = load()
+        store(klib, serializedSize) { klib.declarations.putIfAbsent(id, declaration) == null }
+        return declaration
+    }
+
+    /**
+     * Stores a proto of [klib] by [put], which returns false if another compilation has already stored it, unless the klib is
+     * evicted or the proto doesn't fit into the memory budget
+     */
+    private inline fun store(klib: Klib, serializedSize: Int, put: () -> Boolean) {
+        val retainedSize = serializedSize.toLong() * RETAINED_SIZE_FACTOR
+        synchronized(klib) {
+            if (klib.isEvicted || !reserve(retainedSize)) return
+            if (put()) {
+                klib.size += retainedSize
+            } else {
+                totalSize.addAndGet(-retainedSize)
+            }
+        }
+    }
+
+    private fun reserve(size: Long): Boolean {
+        while (true) {
+            val current = totalSize.get()
+            if (current + size > memoryBudget) return false
+            if (totalSize.compareAndSet(current, current + size)) return true
+        }
+    }
+
+    fun clear() {
+        synchronized(klibs) {
+            klibs.values.forEach { evict(it) }
+            klibs.clear()
+        }
+    }
+
+    private fun evict(klib: Klib) {
+        synchronized(klib) {
+            klib.isEvicted = true
+            totalSize.addAndGet(-klib.size)
+        }
+    }
+
+    private inline fun record(statistics: Statistics?, update: Statistics.() -> Unit) {
+        this.statistics.update()
+        statistics?.update()
+    }
+
+    // The module header, the metadata and the IR declarations are the only files of a klib the cache is filled from
+    private fun cachedFiles(klibDir: File): List<File> {
+        val metadataFiles = klibDir.listFiles { file ->
+            file.extension == JsKlibMetadataSerializationUtil.CLASS_METADATA_FILE_EXTENSION
+        }.orEmpty().sortedBy { it.name }
+        return listOf(File(klibDir, moduleHeaderFileName), File(klibDir, "ir/irCombined.knd")) + metadataFiles
+    }
+
+    // A klib which is rebuilt or extracted again gets a new key, as the timestamps of its files change
+    private fun klibKey(klibDir: File): String =
+        cachedFiles(klibDir).filter { it.isFile }.joinToString(";", prefix = "${klibDir.absolutePath};") {
+            "${it.name}:${it.length()}:${it.lastModified()}"
+        }
+
+    private fun <K, V> lruMap(maxSize: Int, onEvict: (V) -> Unit): MutableMap<K, V> =
+        Collections.synchronizedMap(object : LinkedHashMap<K, V>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>): Boolean {
+                if (size <= maxSize) return false
+                onEvict(eldest.value)
+                return true
+            }
+        })
+}
@@ -74,9 +74,12 @@ fun generateKLib(
     immediateDependencies: List<KlibModuleRef>,
     allDependencies: List<KlibModuleRef>,
     friendDependencies: List<KlibModuleRef>,
-    outputKlibPath: String
+    outputKlibPath: String,
+    klibCacheStatistics: SharedKlibCache.Statistics? = null
 ): KlibModuleRef {
-    val depsDescriptors = ModulesStructure(project, files, configuration, immediateDependencies, allDependencies, friendDependencies)
+    val depsDescriptors = ModulesStructure(
+        project, files, configuration, immediateDependencies, allDependencies, friendDependencies, klibCacheStatistics
+    )
 
     val psi2IrContext = runAnalysisAndPreparePsi2Ir(depsDescriptors)
 
@@ -110,9 +113,12 @@ fun loadIr(
     configuration: CompilerConfiguration,
     immediateDependencies: List<KlibModuleRef>,
     allDependencies: List<KlibModuleRef>,
-    friendDependencies: List<KlibModuleRef>
+    friendDependencies: List<KlibModuleRef>,
+    klibCacheStatistics: SharedKlibCache.Statistics? = null
 ): IrModuleInfo {
-    val depsDescriptors = ModulesStructure(project, files, configuration, immediateDependencies, allDependencies, friendDependencies)
+    val depsDescriptors = ModulesStructure(
+        project, files, configuration, immediateDependencies, allDependencies, friendDependencies, klibCacheStatistics
+    )
 
     val psi2IrContext = runAnalysisAndPreparePsi2Ir(depsDescriptors)
 
@@ -120,7 +126,7 @@ fun loadIr(
     val symbolTable = psi2IrContext.symbolTable
     val moduleDescriptor = psi2IrContext.moduleDescriptor
 
-    val deserializer = JsIrLinker(moduleDescriptor, emptyLoggingContext, irBuiltIns, symbolTable)
+    val deserializer = JsIrLinker(moduleDescriptor, emptyLoggingContext, irBuiltIns, symbolTable, klibCacheStatistics)
 
     val deserializedModuleFragments = depsDescriptors.sortedImmediateDependencies.map {
         deserializer.deserializeIrModuleHeader(depsDescriptors.getModuleDescriptor(it))!!
@@ -200,10 +206,19 @@ private class ModulesStructure(
     val compilerConfiguration: CompilerConfiguration,
     immediateDependencies: List<KlibModuleRef>,
     private val allDependencies: List<KlibModuleRef>,
-    private val friendDependencies: List<KlibModuleRef>
+    private val friendDependencies: List<KlibModuleRef>,
+    klibCacheStatistics: SharedKlibCache.Statistics?
 ) {
+    // Protos are immutable, so parsed metadata of klibs is shared with other compilations, descriptors are created for each of them
     private val deserializedModuleParts: Map<KlibModuleRef, JsKlibMetadataParts> =
-        allDependencies.associateWith { loadKlibMetadataParts(it) }
+        allDependencies.associateWith { moduleRef ->
+            if (SharedKlibCache.isEnabled) {
+                val klib = SharedKlibCache.getKlib(File(moduleRef.klibPath))
+                SharedKlibCache.getMetadataParts(klib, klibCacheStatistics) { loadKlibMetadataParts(moduleRef) }
+            } else {
+                loadKlibMetadataParts(moduleRef)
+            }
+        }
 
     fun findModuleByName(name: String): KlibModuleRef =
         allDependencies.find { it.moduleName == name } ?: error("Module is not found: $name")
@@ -247,7 +262,7 @@ private class ModulesStructure(
     private val descriptors = mutableMapOf<KlibModuleRef, ModuleDescriptorImpl>()
 
     fun getModuleDescriptor(current: KlibModuleRef): ModuleDescriptorImpl = descriptors.getOrPut(current) {
-        val parts = loadKlibMetadataParts(current)
+        val parts = deserializedModuleParts[current] ?: loadKlibMetadataParts(current)
         val isBuiltIns = parts.importedModules.isEmpty()
         loadKlibMetadata(
             parts,
@@ -11,17 +11,20 @@ import org.jetbrains.kotlin.backend.common.library.DeclarationId
 import org.jetbrains.kotlin.backend.common.serialization.*
 import org.jetbrains.kotlin.descriptors.ModuleDescriptor
 import org.jetbrains.kotlin.ir.backend.js.JS_KLIBRARY_CAPABILITY
+import org.jetbrains.kotlin.ir.backend.js.SharedKlibCache
 import org.jetbrains.kotlin.ir.backend.js.moduleHeaderFileName
 import org.jetbrains.kotlin.ir.descriptors.IrBuiltIns
 import org.jetbrains.kotlin.ir.symbols.IrClassifierSymbol
 import org.jetbrains.kotlin.ir.util.SymbolTable
 import java.io.File
+import java.nio.ByteBuffer
 
 class JsIrLinker(
     currentModule: ModuleDescriptor,
     logger: LoggingContext,
     builtIns: IrBuiltIns,
-    symbolTable: SymbolTable
+    symbolTable: SymbolTable,
+    private val klibCacheStatistics: SharedKlibCache.Statistics? = null
 ) : KotlinIrLinker(logger, builtIns, symbolTable, emptyList<ModuleDescriptor>(), null, 0x1_0000_0000L),
     DescriptorUniqIdAware by JsDescriptorUniqIdAware {
 
@@ -35,17 +38,45 @@ class JsIrLinker(
     override val descriptorReferenceDeserializer =
         JsDescriptorReferenceDeserializer(currentModule, builtIns, FUNCTION_INDEX_START)
 
-    override fun reader(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteArray {
-        val irFileReader = moduleToReaderMap.getOrPut(moduleDescriptor) {
-            val irFile = File(moduleDescriptor.getCapability(JS_KLIBRARY_CAPABILITY)!!, "ir/irCombined.knd")
-            CombinedIrFileReader(irFile)
+    private fun irFileReader(moduleDescriptor: ModuleDescriptor) = moduleToReaderMap.getOrPut(moduleDescriptor) {
+        val irFile = File(moduleDescriptor.getCapability(JS_KLIBRARY_CAPABILITY)!!, "ir/irCombined.knd")
+        CombinedIrFileReader(irFile)
+    }
+
+    private val sharedKlibs = mutableMapOf<ModuleDescriptor, SharedKlibCache.Klib>()
+
+    private fun sharedKlib(moduleDescriptor: ModuleDescriptor): SharedKlibCache.Klib? {
+        if (!SharedKlibCache.isEnabled) return null
+        return sharedKlibs.getOrPut(moduleDescriptor) {
+            SharedKlibCache.getKlib(moduleDescriptor.getCapability(JS_KLIBRARY_CAPABILITY)!!)
         }
-        return irFileReader.declarationBytes(DeclarationId(uniqId.index, uniqId.isLocal))
     }
 
+    override fun reader(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteArray =
+        irFileReader(moduleDescriptor).declarationBytes(DeclarationId(uniqId.index, uniqId.isLocal))
+
+    override fun declarationBuffer(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteBuffer =
+        irFileReader(moduleDescriptor).declarationBuffer(DeclarationId(uniqId.index, uniqId.isLocal))
+
     override val ModuleDescriptor.irHeader: ByteArray? get() =
         this.getCapability(JS_KLIBRARY_CAPABILITY)?.let { File(it, moduleHeaderFileName).readBytes() }
 
+    override fun loadIrModuleProto(moduleDescriptor: ModuleDescriptor): KotlinIr.IrModule? {
+        val header = moduleDescriptor.getCapability(JS_KLIBRARY_CAPABILITY)?.let { File(it, moduleHeaderFileName) } ?: return null
+        val klib = sharedKlib(moduleDescriptor) ?: return parseIrModuleProto(header.readBytes())
+        return SharedKlibCache.getIrModule(klib) { parseIrModuleProto(header.readBytes()) }
+    }
+
+    override fun loadTopLevelDeclarationProto(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): KotlinIr.IrDeclaration {
+        val klib = sharedKlib(moduleDescriptor) ?: return super.loadTopLevelDeclarationProto(moduleDescriptor, uniqId)
+        val id = DeclarationId(uniqId.index, uniqId.isLocal)
+        return SharedKlibCache.getDeclaration(klib, id, klibCacheStatistics) {
+            val buffer = irFileReader(moduleDescriptor).declarationBuffer(id)
+            val size = buffer.remaining()
+            parseTopLevelDeclarationProto(buffer) to size
+        }
+    }
+
     override fun declareForwardDeclarations() {
         // since for `knownBuiltIns` such as FunctionN it is possible to have unbound symbols after deserialization
         // reference them through out lazy symbol table
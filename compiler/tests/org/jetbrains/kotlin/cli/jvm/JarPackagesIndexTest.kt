@@ -0,0 +1,57 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import org.jetbrains.kotlin.cli.jvm.index.JarPackagesIndex
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.io.File
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class JarPackagesIndexTest : KtUsefulTestCase() {
+    fun testBuildSaveAndLoad() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val jar = File(tmpdir, "test.jar")
+        ZipOutputStream(jar.outputStream()).use { zip ->
+            for (name in listOf("META-INF/MANIFEST.MF", "a/b/c/C.class", "a/b/B.class", "d/", "Top.class")) {
+                zip.putNextEntry(ZipEntry(name))
+                zip.closeEntry()
+            }
+        }
+
+        val built = JarPackagesIndex.build(jar)
+        val indexFile = File(tmpdir, "test.packages")
+        built.save(indexFile)
+        val loaded = JarPackagesIndex.load(indexFile)!!
+
+        for (index in listOf(built, loaded)) {
+            for (path in listOf("META-INF", "a", "a/b", "a/b/c", "d")) {
+                assertTrue("$path is not found", index.containsPackage(path))
+            }
+            for (path in listOf("b", "a/c", "a/b/c/C.class", "Top.class", "e")) {
+                assertFalse("$path is found", index.containsPackage(path))
+            }
+        }
+    }
+
+    fun testCompilationWithIndex() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val source = File(tmpdir, "test.kt").apply {
+            writeText("package test\n\nfun foo(): List<String> = java.util.Collections.singletonList(kotlin.text.Regex(\"a\").pattern)\n")
+        }
+        val indexDirectory = File(tmpdir, "index")
+
+        for (attempt in 1..2) {
+            CompilerTestUtil.executeCompilerAssertSuccessful(
+                K2JVMCompiler(),
+                listOf(source.path, "-d", File(tmpdir, "out$attempt").path, "-Xjar-packages-index-dir=${indexDirectory.path}")
+            )
+            assertTrue("Indexes of jars are not saved", indexDirectory.listFiles().orEmpty().any { it.name.endsWith(".packages") })
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import org.jetbrains.kotlin.load.kotlin.FileBasedKotlinClass
+import org.jetbrains.kotlin.load.kotlin.KotlinClassHeaderIndex
+import org.jetbrains.kotlin.load.kotlin.KotlinClassHeaderIndexCache
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.io.File
+import java.util.zip.ZipFile
+
+class KotlinClassHeaderIndexTest : KtUsefulTestCase() {
+    private val classes = listOf(
+        "kotlin/collections/CollectionsKt.class",
+        "kotlin/collections/CollectionsKt___CollectionsKt.class",
+        "kotlin/text/Regex.class",
+        "kotlin/text/Regex\$Companion.class",
+        "kotlin/Pair.class"
+    )
+
+    private fun assertHeadersEqual(path: String, expected: KotlinClassHeader, actual: KotlinClassHeader) {
+        assertEquals(path, expected.kind, actual.kind)
+        assertEquals(path, expected.metadataVersion, actual.metadataVersion)
+        assertEquals(path, expected.metadataVersion.isStrictSemantics, actual.metadataVersion.isStrictSemantics)
+        assertEquals(path, expected.bytecodeVersion, actual.bytecodeVersion)
+        assertEquals(path, expected.data?.toList(), actual.data?.toList())
+        assertEquals(path, expected.incompatibleData?.toList(), actual.incompatibleData?.toList())
+        assertEquals(path, expected.strings?.toList(), actual.strings?.toList())
+        assertEquals(path, expected.multifileClassName, actual.multifileClassName)
+        assertEquals(path, expected.multifilePartNames, actual.multifilePartNames)
+        assertEquals(path, expected.extraInt, actual.extraInt)
+        assertEquals(path, expected.packageName, actual.packageName)
+    }
+
+    fun testBuildSaveAndLoad() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val jar = ForTestCompileRuntime.runtimeJarForTests()
+        val indexFile = File(tmpdir, "stdlib.headers")
+        val built = KotlinClassHeaderIndex.build(jar, indexFile)
+        val loaded = KotlinClassHeaderIndex.load(indexFile)!!
+        assertEquals(built.size, loaded.size)
+
+        ZipFile(jar).use { zip ->
+            for (path in classes) {
+                val bytes = zip.getInputStream(zip.getEntry(path)).use { it.readBytes() }
+                val expected = FileBasedKotlinClass.create(bytes, KotlinClassHeaderIndex::IndexedClass)!!
+                for (index in listOf(built, loaded)) {
+                    val actual = index[path] ?: throw AssertionError("$path is not indexed")
+                    assertEquals(path, expected.classId, actual.classId)
+                    assertEquals(path, expected.classVersion, actual.classVersion)
+                    assertEquals(path, expected.innerClasses.entries.keys, actual.innerClasses.entries.keys)
+                    assertHeadersEqual(path, expected.header, actual.header)
+                }
+            }
+        }
+
+        assertNull(built["kotlin/jvm/internal/Intrinsics\$Kotlin.class"])
+        assertNull(built["META-INF/MANIFEST.MF"])
+    }
+
+    fun testCorruptedIndexIsNotLoaded() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val indexFile = File(tmpdir, "stdlib.headers")
+        KotlinClassHeaderIndex.build(ForTestCompileRuntime.runtimeJarForTests(), indexFile)
+        val bytes = indexFile.readBytes()
+
+        indexFile.writeBytes(bytes.copyOf(bytes.size / 2))
+        assertNull("Truncated index is loaded", KotlinClassHeaderIndex.load(indexFile))
+
+        indexFile.writeBytes(bytes.copyOf().apply { fill(-1, 12, 16) })
+        assertNull("Index with a broken path is loaded", KotlinClassHeaderIndex.load(indexFile))
+    }
+
+    fun testCompilationWithIndex() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val source = File(tmpdir, "test.kt").apply {
+            writeText("package test\n\nfun foo(list: List<String>) = list.map { Regex(it) }.zip(listOf(1)).toMap()\n")
+        }
+        val indexDirectory = File(tmpdir, "index")
+
+        val outputs = (0..3).map { attempt ->
+            if (attempt == 3) {
+                // Indexes truncated by e.g. a killed compilation are rebuilt
+                KotlinClassHeaderIndexCache.clearLoadedIndexes()
+                for (indexFile in indexDirectory.listFiles().orEmpty()) {
+                    indexFile.writeBytes(indexFile.readBytes().let { it.copyOf(it.size / 2) })
+                }
+            }
+            val output = File(tmpdir, "out$attempt")
+            val indexArguments = if (attempt == 0) emptyList() else listOf("-Xclass-header-index-dir=${indexDirectory.path}")
+            CompilerTestUtil.executeCompilerAssertSuccessful(K2JVMCompiler(), listOf(source.path, "-d", output.path) + indexArguments)
+            File(output, "test/TestKt.class").readBytes()
+        }
+        assertTrue("Indexes of jars are not saved", indexDirectory.listFiles().orEmpty().any { it.name.endsWith(".headers") })
+        for (output in outputs.drop(1)) {
+            assertTrue("Bytecode differs when class headers are indexed", outputs[0].contentEquals(output))
+        }
+    }
+}
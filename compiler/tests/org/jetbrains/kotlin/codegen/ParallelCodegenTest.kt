@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
+import org.jetbrains.kotlin.cli.common.arguments.parseCommandLineArguments
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.progress.CompilationCanceledException
+import org.jetbrains.kotlin.progress.CompilationCanceledStatus
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.io.File
+import java.util.concurrent.atomic.AtomicInteger
+
+class ParallelCodegenTest : KtUsefulTestCase() {
+    private fun doTest(relativeDirectory: String) {
+        val directory = KotlinTestUtils.getTestDataPathBase() + relativeDirectory
+
+        val serial = compile(directory, "serial", emptyList())
+        for (threads in listOf(2, 4, 8)) {
+            val parallel = compile(directory, "parallel$threads", listOf("-Xparallel-backend-threads=$threads"))
+            assertEquals("Different set of output files with $threads threads", serial.keys, parallel.keys)
+            for ((path, bytes) in serial) {
+                assertTrue("$path differs with $threads threads", bytes.contentEquals(parallel.getValue(path)))
+            }
+        }
+    }
+
+    private fun compile(directory: String, name: String, extraOptions: List<String>): Map<String, ByteArray> {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName + "_" + name)
+        CompilerTestUtil.executeCompilerAssertSuccessful(
+            K2JVMCompiler(), listOf(directory, "-d", tmpdir.path, "-module-name", "main") + extraOptions
+        )
+        return tmpdir.walkTopDown().filter(File::isFile).associate { file ->
+            file.relativeTo(tmpdir).invariantSeparatorsPath to file.readBytes()
+        }
+    }
+
+    fun testPackagesAndMultifileClasses() {
+        doTest("/moduleProtoBuf/simple")
+    }
+
+    fun testJvmPackageNameMultifileClass() {
+        doTest("/moduleProtoBuf/jvmPackageNameMultifileClass")
+    }
+
+    fun testJvmPackageNameManyParts() {
+        doTest("/moduleProtoBuf/jvmPackageNameManyParts")
+    }
+
+    fun testCancellationIsCheckedByCodegenThreads() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName + "_canceled")
+        val arguments = K2JVMCompilerArguments()
+        parseCommandLineArguments(
+            listOf(
+                KotlinTestUtils.getTestDataPathBase() + "/moduleProtoBuf/simple", "-d", tmpdir.path, "-module-name", "main",
+                "-Xparallel-backend-threads=4"
+            ),
+            arguments
+        )
+
+        // The compilation is canceled as soon as a codegen thread checks the status
+        val codegenChecks = AtomicInteger()
+        val canceledStatus = object : CompilationCanceledStatus {
+            override fun checkCanceled() {
+                if (Thread.currentThread().name == "Kotlin JVM codegen") {
+                    codegenChecks.incrementAndGet()
+                    throw CompilationCanceledException()
+                }
+            }
+        }
+        val messages = mutableListOf<String>()
+        val messageCollector = object : MessageCollector {
+            override fun clear() {}
+
+            override fun hasErrors() = false
+
+            override fun report(severity: CompilerMessageSeverity, message: String, location: CompilerMessageLocation?) {
+                messages += message
+            }
+        }
+
+        val services = Services.Builder().register(CompilationCanceledStatus::class.java, canceledStatus).build()
+        assertEquals(ExitCode.OK, K2JVMCompiler().exec(messageCollector, services, arguments))
+        assertTrue("The status isn't checked by codegen threads", codegenChecks.get() > 0)
+        assertTrue("Compilation isn't canceled: $messages", "Compilation was canceled" in messages)
+        assertTrue("Class files are written by a canceled compilation", tmpdir.walkTopDown().none(File::isFile))
+    }
+}
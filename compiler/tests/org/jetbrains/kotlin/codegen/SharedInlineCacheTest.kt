@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.codegen.inline.*
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.commons.Method
+import org.jetbrains.org.objectweb.asm.tree.InsnNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.io.File
+
+class SharedInlineCacheTest : KtUsefulTestCase() {
+    private fun key(name: String) = SharedInlineCache.Key("library.jar:1:1", MethodId("test/Owner", Method(name, "()V")))
+
+    private fun methodNode(name: String, instructions: Int): SMAPAndMethodNode {
+        val node = MethodNode(Opcodes.API_VERSION, Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, name, "()V", null, null)
+        repeat(instructions) { node.instructions.add(InsnNode(Opcodes.NOP)) }
+        node.instructions.add(InsnNode(Opcodes.RETURN))
+        return SMAPAndMethodNode(node, SMAP(listOf(FileMapping.SKIP)))
+    }
+
+    fun testHitsAndMisses() {
+        val cache = SharedInlineCache(1024 * 1024)
+        val first = cache.getOrPut(key("a")) { methodNode("a", 10) }
+        assertSame(first, cache.getOrPut(key("a")) { fail("Cached value is computed again") as Nothing })
+        assertNull(cache.getOrPut(key("b")) { null })
+        assertNotNull(cache.getOrPut(key("b")) { methodNode("b", 10) })
+
+        assertEquals(1, cache.hits)
+        assertEquals(3, cache.misses)
+        assertEquals(0, cache.evictions)
+    }
+
+    fun testLeastRecentlyUsedAreEvicted() {
+        val single = SharedInlineCache(1024 * 1024).apply { getOrPut(key("a")) { methodNode("a", 100) } }.size
+        val cache = SharedInlineCache(single * 3)
+
+        for (name in listOf("a", "b", "c")) {
+            cache.getOrPut(key(name)) { methodNode(name, 100) }
+        }
+        cache.getOrPut(key("a")) { fail("a is evicted") as Nothing }
+        cache.getOrPut(key("d")) { methodNode("d", 100) }
+
+        assertEquals(1, cache.evictions)
+        assertTrue(cache.size <= single * 3)
+        cache.getOrPut(key("a")) { fail("a is evicted") as Nothing }
+        var computed = false
+        cache.getOrPut(key("b")) { computed = true; methodNode("b", 100) }
+        assertTrue("Least recently used entry is not evicted", computed)
+    }
+
+    fun testTooBigValueIsNotCached() {
+        val cache = SharedInlineCache(1024)
+        cache.getOrPut(key("a")) { methodNode("a", 1000) }
+        assertEquals(0, cache.size)
+        assertEquals(0, cache.evictions)
+    }
+
+    fun testStdlibInlineFunctionsAreSharedBetweenCompilations() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val source = File(tmpdir, "test.kt").apply {
+            writeText("package test\n\nfun foo(list: List<String>) = list.map { it.length }.filter { it > 0 }.let { it.size }\n")
+        }
+        val outputs = (1..2).map { attempt ->
+            val hitsBefore = SharedInlineCache.INSTANCE.hits
+            val output = File(tmpdir, "out$attempt")
+            CompilerTestUtil.executeCompilerAssertSuccessful(K2JVMCompiler(), listOf(source.path, "-d", output.path))
+            if (attempt == 2) {
+                assertTrue("Inline functions are not taken from the shared cache", SharedInlineCache.INSTANCE.hits > hitsBefore)
+            }
+            File(output, "test/TestKt.class").readBytes()
+        }
+        assertTrue("Bytecode differs when inline functions are cached", outputs[0].contentEquals(outputs[1]))
+    }
+}
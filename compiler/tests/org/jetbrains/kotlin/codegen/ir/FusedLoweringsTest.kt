@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen.ir
+
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.PrintStream
+import java.net.URLClassLoader
+
+class FusedLoweringsTest : KtUsefulTestCase() {
+    // Descriptions of the phases run by fusedIrFilePhase in jvmPhases and the phase after it, as printed by -Xprofile-phases
+    private val profiledPhaseDescriptions = listOf(
+        "Flatten nested string concatenation expressions into a single IrStringConcatenation",
+        "Constant Folding",
+        "Optimize builtin calls for JVM code generation"
+    )
+
+    private fun generateSource(directory: File, functionCount: Int): File =
+        File(directory, "test.kt").apply {
+            writeText(buildString {
+                appendln("package test")
+                appendln()
+                for (i in 0 until functionCount) {
+                    appendln("fun f$i(s: String, n: Int?): String {")
+                    appendln("    val prefix = \"p\" + $i + \"-\" + (2 + 3) + \"-\" + (1 < 2)")
+                    appendln("    val suffix = if (n == null) \"none\" + (\"!\" + 1L) else \"n=\" + n")
+                    appendln("    val notNot = !(!(s.length > 0))")
+                    appendln("    val nullCheck = \"c\" + ($i == null)")
+                    appendln("    return prefix + s + suffix + notNot + nullCheck + \"!\"!!")
+                    appendln("}")
+                    appendln()
+                }
+                val last = functionCount - 1
+                appendln("fun box(): String {")
+                appendln("    val first = f0(\"x\", null)")
+                appendln("    if (first != \"p0-5-truexnone!1truecfalse!\") return \"Fail: \$first\"")
+                appendln("    val last = f$last(\"y\", 7)")
+                appendln("    if (last != \"p$last-5-trueyn=7truecfalse!\") return \"Fail: \$last\"")
+                appendln("    return \"OK\"")
+                appendln("}")
+            })
+        }
+
+    // Returns the number of traversals of the file by the profiled phases
+    private fun compile(source: File, output: File, extraOptions: List<String>): Int {
+        val stdout = ByteArrayOutputStream()
+        val originalOut = System.out
+        try {
+            System.setOut(PrintStream(stdout))
+            CompilerTestUtil.executeCompilerAssertSuccessful(
+                K2JVMCompiler(),
+                listOf(source.path, "-d", output.path, "-Xuse-ir", "-Xprofile-phases") + extraOptions
+            )
+        } finally {
+            System.setOut(originalOut)
+        }
+
+        return String(stdout.toByteArray()).lines().count { line ->
+            line.endsWith(" msec") && profiledPhaseDescriptions.any { it in line }
+        }
+    }
+
+    private fun box(output: File): Any? {
+        val classLoader = URLClassLoader(
+            arrayOf(output.toURI().toURL(), ForTestCompileRuntime.runtimeJarForTests().toURI().toURL()), null
+        )
+        return classLoader.loadClass("test.TestKt").getMethod("box").invoke(null)
+    }
+
+    private fun classFiles(output: File): Map<String, List<Byte>> =
+        output.walkTopDown().filter { it.isFile }.associate { it.relativeTo(output).path to it.readBytes().toList() }
+
+    fun testFusedLoweringsTraverseFileOnceWithSameResult() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val source = generateSource(tmpdir, 2)
+
+        val sequentialOutput = File(tmpdir, "sequential")
+        val fusedOutput = File(tmpdir, "fused")
+        assertEquals(profiledPhaseDescriptions.size, compile(source, sequentialOutput, emptyList()))
+        assertEquals(2, compile(source, fusedOutput, listOf("-Xfuse-lowerings")))
+
+        // The fused lowerings must produce the same IR as the sequential ones, so the same bytecode is generated from it
+        assertEquals(classFiles(sequentialOutput), classFiles(fusedOutput))
+        assertEquals("OK", box(fusedOutput))
+    }
+
+    fun testPhasesAreRunSeparatelyWhenDumped() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val source = generateSource(tmpdir, 2)
+        val output = File(tmpdir, "dumped")
+
+        val traversals = compile(source, output, listOf("-Xfuse-lowerings", "-Xphases-to-dump-after=FoldConstantLowering"))
+        assertEquals(profiledPhaseDescriptions.size, traversals)
+        assertEquals("OK", box(output))
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.config.IncrementalCompilation
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+class CompilationWorkerPoolTest : KtUsefulTestCase() {
+    fun testParallelismIsBounded() {
+        val pool = CompilationWorkerPool(2)
+        val clients = Executors.newFixedThreadPool(6)
+        try {
+            val running = AtomicInteger()
+            val maxRunning = AtomicInteger()
+            val results = (1..6).map { i ->
+                clients.submit<Int> {
+                    pool.execute { _ ->
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+                        Thread.sleep(50)
+                        running.decrementAndGet()
+                        i
+                    }
+                }
+            }
+            assertEquals((1..6).toList(), results.map { it.get(10, TimeUnit.SECONDS) })
+            assertEquals(2, maxRunning.get())
+        }
+        finally {
+            clients.shutdown()
+            pool.shutdown()
+        }
+    }
+
+    fun testExceptionsArePropagated() {
+        val pool = CompilationWorkerPool(1)
+        try {
+            pool.execute<Unit> { throw IllegalStateException("compilation failed") }
+            fail("Exception is expected")
+        }
+        catch (e: IllegalStateException) {
+            assertEquals("compilation failed", e.message)
+        }
+        finally {
+            pool.shutdown()
+        }
+    }
+
+    fun testIncrementalCompilationModeIsKeptByConcurrentCompilations() {
+        val backup = IncrementalCompilation.isEnabledForJvm()
+        val gate = IncrementalCompilationModeGate.JVM
+        val executor = Executors.newFixedThreadPool(2)
+        try {
+            IncrementalCompilation.setIsEnabledForJvm(false)
+            val firstStarted = CountDownLatch(1)
+            val secondFinished = CountDownLatch(1)
+            val first = executor.submit<Boolean> {
+                gate.withValue(true) {
+                    firstStarted.countDown()
+                    secondFinished.await(10, TimeUnit.SECONDS)
+                    IncrementalCompilation.isEnabledForJvm()
+                }
+            }
+            firstStarted.await(10, TimeUnit.SECONDS)
+            // The second compilation finishes first, but the value is kept until the first one is finished
+            executor.submit { gate.withValue(true) { secondFinished.countDown() } }.get(10, TimeUnit.SECONDS)
+            assertTrue(first.get(10, TimeUnit.SECONDS))
+            assertFalse(IncrementalCompilation.isEnabledForJvm())
+        }
+        finally {
+            executor.shutdown()
+            IncrementalCompilation.setIsEnabledForJvm(backup)
+        }
+    }
+
+    fun testCompilationWaitingForAnotherModeIsNotStarved() {
+        val backup = IncrementalCompilation.isEnabledForJvm()
+        val gate = IncrementalCompilationModeGate.JVM
+        val executor = Executors.newSingleThreadExecutor()
+        val finished = Collections.synchronizedList(ArrayList<String>())
+        try {
+            val firstStarted = CountDownLatch(1)
+            val firstCanFinish = CountDownLatch(1)
+            val first = executor.submit {
+                gate.withValue(true) {
+                    firstStarted.countDown()
+                    firstCanFinish.await(10, TimeUnit.SECONDS)
+                    finished.add("first")
+                }
+            }
+            firstStarted.await(10, TimeUnit.SECONDS)
+
+            val nonIncremental = thread { gate.withValue(false) { finished.add("non-incremental") } }
+            awaitWaiting(nonIncremental)
+            // The non-incremental compilation is waiting, so the incremental one doesn't join the first compilation
+            val incremental = thread { gate.withValue(true) { finished.add("incremental") } }
+            awaitWaiting(incremental)
+            firstCanFinish.countDown()
+
+            first.get(10, TimeUnit.SECONDS)
+            nonIncremental.join(10000)
+            incremental.join(10000)
+            assertEquals(listOf("first", "non-incremental", "incremental"), finished)
+        }
+        finally {
+            executor.shutdown()
+            IncrementalCompilation.setIsEnabledForJvm(backup)
+        }
+    }
+
+    private fun awaitWaiting(thread: Thread) {
+        while (thread.state != Thread.State.WAITING) {
+            Thread.sleep(10)
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.daemon.DaemonMemoryGovernor.MemoryPressure
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.util.logging.Logger
+
+class DaemonMemoryGovernorTest : KtUsefulTestCase() {
+    private var usage = 0.0
+    private var collections = 0L
+    private val evicted = arrayListOf<String>()
+
+    private val governor = DaemonMemoryGovernor(Logger.getLogger("test"), 0.7, 0.85, { collections }) { usage }.apply {
+        register("cheap", MemoryPressure.HIGH) { evicted.add("cheap") }
+        register("expensive", MemoryPressure.CRITICAL) { evicted.add("expensive") }
+    }
+
+    fun testCachesAreEvictedByPriority() {
+        usage = 0.5
+        assertEquals(MemoryPressure.NORMAL, governor.checkMemory())
+        assertEmpty(evicted)
+
+        collections++
+        usage = 0.75
+        assertEquals(MemoryPressure.HIGH, governor.checkMemory())
+        assertOrderedEquals(evicted, "cheap")
+
+        evicted.clear()
+        collections++
+        usage = 0.9
+        assertEquals(MemoryPressure.CRITICAL, governor.checkMemory())
+        assertOrderedEquals(evicted, "cheap", "expensive")
+
+        val stats = governor.getStats()
+        assertEquals(3, stats.memoryChecks)
+        assertEquals(1, stats.highPressureCount)
+        assertEquals(1, stats.criticalPressureCount)
+        assertEquals(mapOf("cheap" to 2L, "expensive" to 1L), stats.evictionsByCache)
+    }
+
+    fun testCachesAreEvictedOncePerCollection() {
+        collections = 1
+        usage = 0.75
+        assertEquals(MemoryPressure.HIGH, governor.checkMemory())
+        assertOrderedEquals(evicted, "cheap")
+
+        // The usage is measured by the same collection, so caches filled again since the eviction are kept
+        evicted.clear()
+        assertEquals(MemoryPressure.HIGH, governor.checkMemory())
+        assertEmpty(evicted)
+
+        collections = 2
+        usage = 0.5
+        assertEquals(MemoryPressure.NORMAL, governor.checkMemory())
+        assertEmpty(evicted)
+
+        collections = 3
+        usage = 0.75
+        assertEquals(MemoryPressure.HIGH, governor.checkMemory())
+        assertOrderedEquals(evicted, "cheap")
+    }
+
+    fun testCompilerCachesAreRegistered() {
+        val compilerCaches = DaemonMemoryGovernor(Logger.getLogger("test"), 0.7, 0.85) { 0.9 }.apply { registerCompilerCaches() }
+        assertEquals(MemoryPressure.CRITICAL, compilerCaches.checkMemory())
+        assertTrue(compilerCaches.getStats().evictionsByCache.values.all { it == 1L })
+    }
+}
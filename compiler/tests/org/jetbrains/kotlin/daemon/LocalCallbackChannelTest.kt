@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
+import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.io.IOException
+import java.io.Serializable
+import java.net.InetAddress
+import java.net.Socket
+import java.rmi.server.UnicastRemoteObject
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+class LocalCallbackChannelTest : KtUsefulTestCase() {
+    private class CollectingFacade : CompilerServicesFacadeBase, UnicastRemoteObject(
+        SOCKET_ANY_FREE_PORT, LoopbackNetworkInterface.clientLoopbackSocketFactory, LoopbackNetworkInterface.serverLoopbackSocketFactory
+    ) {
+        val reports: MutableList<String> = Collections.synchronizedList(arrayListOf<String>())
+        val attachments: MutableList<Serializable?> = Collections.synchronizedList(arrayListOf<Serializable?>())
+
+        override fun report(category: Int, severity: Int, message: String?, attachment: Serializable?) {
+            reports.add("$category:$severity:$message:$attachment")
+            attachments.add(attachment)
+        }
+    }
+
+    private fun CompilerServicesFacadeBase.sendReports(count: Int) {
+        for (i in 0 until count) {
+            val location = if (i % 10 == 0) CompilerMessageLocation.create("/src/file$i.kt", i, 1, null) else null
+            report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.WARNING.code, if (i % 100 == 99) null else "message $i", location)
+        }
+    }
+
+    private fun sendThroughChannel(facade: CollectingFacade, count: Int, flushIntervalMillis: Long) {
+        LocalCallbackChannelServer(facade).use { server ->
+            LocalCallbackChannelClient.connect(server.port, server.token, flushIntervalMillis).use { client ->
+                client.sendReports(count)
+            }
+        }
+    }
+
+    fun testReportsAreDeliveredInOrder() {
+        val expected = CollectingFacade().apply { sendReports(1000) }.reports.toList()
+
+        val facade = CollectingFacade()
+        sendThroughChannel(facade, 1000, LocalCallbackChannelClient.DEFAULT_FLUSH_INTERVAL_MS)
+        assertOrderedEquals(facade.reports, expected)
+
+        // Messages larger than the buffer are sent in separate frames
+        val large = "x".repeat(200 * 1024)
+        val largeFacade = CollectingFacade()
+        LocalCallbackChannelServer(largeFacade).use { server ->
+            LocalCallbackChannelClient.connect(server.port, server.token).use { client ->
+                client.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.INFO.code, "small", null)
+                client.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.INFO.code, large, null)
+                client.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.INFO.code, "small", null)
+            }
+        }
+        assertOrderedEquals(largeFacade.reports, "0:2:small:null", "0:2:$large:null", "0:2:small:null")
+    }
+
+    fun testAttachmentsAreDecoded() {
+        val facade = CollectingFacade()
+        val location = CompilerMessageLocation.create("/src/file.kt", 3, 5, "val x = 1")
+        LocalCallbackChannelServer(facade).use { server ->
+            LocalCallbackChannelClient.connect(server.port, server.token).use { client ->
+                client.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.ERROR.code, "error", location)
+                client.report(ReportCategory.DAEMON_MESSAGE.code, ReportSeverity.INFO.code, "info", "source")
+                client.report(ReportCategory.DAEMON_MESSAGE.code, ReportSeverity.INFO.code, "info", 42)
+            }
+        }
+        assertEquals(listOf(location, "source", "42"), facade.attachments)
+    }
+
+    fun testConnectionWithoutTokenIsRejected() {
+        val facade = CollectingFacade()
+        LocalCallbackChannelServer(facade).use { server ->
+            val wrongToken = server.token.copyOf().also { it[0] = (it[0] + 1).toByte() }
+            val rejected = LocalCallbackChannelClient.connect(server.port, wrongToken)
+            try {
+                rejected.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.ERROR.code, "rejected", null)
+                rejected.close()
+                fail("The connection with a wrong token is expected to be closed by the client")
+            }
+            catch (e: IOException) {
+            }
+
+            LocalCallbackChannelClient.connect(server.port, server.token).use { client ->
+                client.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.ERROR.code, "accepted", null)
+            }
+        }
+        assertOrderedEquals(facade.reports, "0:0:accepted:null")
+    }
+
+    fun testReportsAreFlushedByTimer() {
+        val facade = CollectingFacade()
+        LocalCallbackChannelServer(facade).use { server ->
+            LocalCallbackChannelClient.connect(server.port, server.token, flushIntervalMillis = 10).use { client ->
+                client.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.INFO.code, "flushed", null)
+
+                val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+                while (facade.reports.isEmpty() && System.nanoTime() < deadline) {
+                    Thread.sleep(10)
+                }
+                assertOrderedEquals(facade.reports, "0:2:flushed:null")
+            }
+        }
+    }
+
+    fun testConnectionWithoutHandshakeIsClosed() {
+        val facade = CollectingFacade()
+        LocalCallbackChannelServer(facade, handshakeTimeoutMillis = 100).use { server ->
+            Socket(InetAddress.getByName(null), server.port).use { silent ->
+                silent.soTimeout = 10_000
+                assertEquals(-1, silent.getInputStream().read())
+            }
+
+            LocalCallbackChannelClient.connect(server.port, server.token).use { client ->
+                client.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.ERROR.code, "accepted", null)
+            }
+        }
+        assertOrderedEquals(facade.reports, "0:0:accepted:null")
+    }
+
+    fun testFailureOfFacadeIsReportedOnClose() {
+        val failure = IllegalArgumentException("facade failure")
+        val facade = object : CompilerServicesFacadeBase {
+            override fun report(category: Int, severity: Int, message: String?, attachment: Serializable?) {
+                throw failure
+            }
+        }
+        val server = LocalCallbackChannelServer(facade)
+        try {
+            LocalCallbackChannelClient.connect(server.port, server.token).use { client ->
+                client.report(ReportCategory.COMPILER_MESSAGE.code, ReportSeverity.ERROR.code, "failed", null)
+            }
+            fail("The client is expected to fail because its reports are not acknowledged")
+        }
+        catch (e: IOException) {
+        }
+        try {
+            server.close()
+            fail("The failure of the facade is expected to be thrown on close")
+        }
+        catch (e: IllegalStateException) {
+            assertSame(failure, e.cause)
+        }
+    }
+}
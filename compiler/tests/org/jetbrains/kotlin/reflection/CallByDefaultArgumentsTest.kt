@@ -0,0 +1,51 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.reflection
+
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import kotlin.reflect.full.memberFunctions
+
+class CallByDefaultArgumentsTest : KtUsefulTestCase() {
+    class Point(val x: Int, val name: String) {
+        fun move(dx: Int, dy: Int = 1, label: String = "moved"): String = "$name $label ${x + dx + dy}"
+
+        fun many(
+            p0: Int = 0, p1: Int = 1, p2: Int = 2, p3: Int = 3, p4: Int = 4, p5: Int = 5, p6: Int = 6, p7: Int = 7, p8: Int = 8,
+            p9: Int = 9, p10: Int = 10, p11: Int = 11, p12: Int = 12, p13: Int = 13, p14: Int = 14, p15: Int = 15, p16: Int = 16,
+            p17: Int = 17, p18: Int = 18, p19: Int = 19, p20: Int = 20, p21: Int = 21, p22: Int = 22, p23: Int = 23, p24: Int = 24,
+            p25: Int = 25, p26: Int = 26, p27: Int = 27, p28: Int = 28, p29: Int = 29, p30: Int = 30, p31: Int = 31, p32: Int = 32,
+            p33: Long = 33L
+        ): Long = p0 + p1 + p31 + p32 + p33
+    }
+
+    private val point = Point(1, "point")
+
+    fun testCallByWithCachedDefaults() {
+        val move = Point::class.memberFunctions.single { it.name == "move" }
+        val parameters = move.parameters
+        repeat(3) {
+            assertEquals("point moved 3", move.callBy(mapOf(parameters[0] to point, parameters[1] to 1)))
+            assertEquals(
+                "point up 11",
+                move.callBy(mapOf(parameters[0] to point, parameters[1] to 0, parameters[2] to 10, parameters[3] to "up"))
+            )
+        }
+
+        val many = Point::class.memberFunctions.single { it.name == "many" }
+        assertEquals(0L + 1 + 31 + 32 + 33, many.callBy(mapOf(many.parameters[0] to point)))
+        assertEquals(
+            100L + 1 + 31 + 32 + 200,
+            many.callBy(mapOf(many.parameters[0] to point, many.parameters[1] to 100, many.parameters[34] to 200L))
+        )
+
+        try {
+            move.callBy(mapOf(parameters[0] to point))
+            fail("Required parameter is not checked")
+        } catch (e: IllegalArgumentException) {
+            assertTrue(e.message!!, e.message!!.startsWith("No argument provided for a required parameter"))
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.reflection
+
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.lang.ref.WeakReference
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.reflect.KClass
+import kotlin.reflect.jvm.internal.pcollections.HashPMap
+
+class KClassCacheTest : KtUsefulTestCase() {
+    class Holder
+
+    private class HolderClassLoader : ClassLoader(KClassCacheTest::class.java.classLoader) {
+        override fun loadClass(name: String, resolve: Boolean): Class<*> {
+            if (name != Holder::class.java.name) return super.loadClass(name, resolve)
+            val bytes = parent.getResourceAsStream(name.replace('.', '/') + ".class")!!.use { it.readBytes() }
+            return defineClass(name, bytes, 0, bytes.size)
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private val cache: ConcurrentMap<String, Any>
+        get() = Class.forName("kotlin.reflect.jvm.internal.KClassCacheKt").getDeclaredField("K_CLASS_CACHE").let {
+            it.isAccessible = true
+            it.get(null) as ConcurrentMap<String, Any>
+        }
+
+    private val classes: List<Class<*>> =
+        listOf(Collections::class.java, Character::class.java, Thread::class.java, ConcurrentHashMap::class.java)
+            .flatMap { it.declaredClasses.toList() + it }
+
+    fun testSameKClassUnderContention() {
+        val threads = 8
+        val start = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val results = (1..threads).map {
+                executor.submit<List<KClass<*>>> {
+                    start.await()
+                    classes.map { it.kotlin }
+                }
+            }
+            start.countDown()
+            val expected = results.first().get()
+            for (result in results) {
+                val actual = result.get()
+                for (i in classes.indices) {
+                    assertSame("Different KClass instances for ${classes[i]}", expected[i], actual[i])
+                }
+            }
+        }
+        finally {
+            executor.shutdown()
+        }
+    }
+
+    fun testSameNameInDifferentClassLoaders() {
+        val first = HolderClassLoader().loadClass(Holder::class.java.name)
+        val second = HolderClassLoader().loadClass(Holder::class.java.name)
+        assertNotSame(first, second)
+
+        val kClasses = listOf(first.kotlin, second.kotlin, Holder::class.java.kotlin)
+        assertEquals(listOf(first, second, Holder::class.java), kClasses.map { it.java })
+        assertSame(kClasses[0], first.kotlin)
+        assertSame(kClasses[1], second.kotlin)
+        assertSame(kClasses[2], Holder::class)
+    }
+
+    private fun loadHolders(count: Int): List<WeakReference<KClass<*>>> =
+        (1..count).map { WeakReference<KClass<*>>(HolderClassLoader().loadClass(Holder::class.java.name).kotlin) }
+
+    fun testReclaimedKClassesArePurged() {
+        val name = Holder::class.java.name
+        val references = loadHolders(10)
+        assertTrue("KClass instances are not cached", ((cache[name] as? Array<*>)?.size ?: 0) >= 10)
+
+        for (attempt in 1..20) {
+            if (references.all { it.get() == null }) break
+            System.gc()
+            Thread.sleep(50)
+        }
+        assertTrue("KClass instances are not collected", references.all { it.get() == null })
+
+        // Stale references are purged on the next insertion into the cache
+        val kClass = HolderClassLoader().loadClass(name).kotlin
+        val cached = cache[name]
+        assertTrue("Stale references are not purged", cached !is Array<*> || cached.size < 10)
+        assertSame(kClass, kClass.java.kotlin)
+    }
+
+    // Lookup throughput of the previous implementation: a persistent map which was copied on each insertion
+    private class HashPMapKClassCache {
+        @Volatile
+        private var cache = HashPMap.empty<String, Any>()
+
+        fun get(jClass: Class<*>): KClass<*> {
+            val cached = cache[jClass.name]
+            if (cached is WeakReference<*>) {
+                val kClass = cached.get() as KClass<*>?
+                if (kClass?.java == jClass) return kClass
+            }
+            val kClass = jClass.kotlin
+            cache = cache.plus(jClass.name, WeakReference(kClass))
+            return kClass
+        }
+    }
+
+    fun testLookupThroughputBenchmark() {
+        val oldCache = HashPMapKClassCache()
+        val implementations = listOf<Pair<String, (Class<*>) -> KClass<*>>>(
+            "HashPMap (previous)" to { jClass -> oldCache.get(jClass) },
+            "ConcurrentHashMap" to { jClass -> jClass.kotlin }
+        )
+        val lookupsPerThread = 200_000
+
+        println(String.format("%-22s %8s %16s", "cache", "threads", "lookups/ms"))
+        for (threads in listOf(1, 4, 16)) {
+            for ((name, lookup) in implementations) {
+                classes.forEach { lookup(it) }
+                val executor = Executors.newFixedThreadPool(threads)
+                try {
+                    val start = CountDownLatch(1)
+                    val tasks = (1..threads).map { thread ->
+                        executor.submit {
+                            start.await()
+                            for (i in 0 until lookupsPerThread) {
+                                lookup(classes[(i + thread) % classes.size])
+                            }
+                        }
+                    }
+                    val startTime = System.nanoTime()
+                    start.countDown()
+                    tasks.forEach { it.get() }
+                    val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime).coerceAtLeast(1)
+                    println(String.format("%-22s %8d %16d", name, threads, threads.toLong() * lookupsPerThread / elapsedMs))
+                }
+                finally {
+                    executor.shutdown()
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.reflection
+
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentMap
+
+class ModuleByClassLoaderTest : KtUsefulTestCase() {
+    class Holder {
+        fun name(): String = "holder"
+    }
+
+    private class HolderClassLoader : ClassLoader(ModuleByClassLoaderTest::class.java.classLoader) {
+        override fun loadClass(name: String, resolve: Boolean): Class<*> {
+            if (name != Holder::class.java.name) return super.loadClass(name, resolve)
+            val bytes = parent.getResourceAsStream(name.replace('.', '/') + ".class")!!.use { it.readBytes() }
+            return defineClass(name, bytes, 0, bytes.size)
+        }
+    }
+
+    private val moduleByClassLoader: ConcurrentMap<*, out WeakReference<*>>
+        get() = Class.forName("kotlin.reflect.jvm.internal.ModuleByClassLoaderKt").getDeclaredField("moduleByClassLoader").let {
+            it.isAccessible = true
+            @Suppress("UNCHECKED_CAST")
+            it.get(null) as ConcurrentMap<*, out WeakReference<*>>
+        }
+
+    private fun moduleDataOf(classLoader: ClassLoader): Any =
+        moduleByClassLoader.values.mapNotNull { it.get() }.single {
+            it.javaClass.getMethod("getModule").invoke(it).toString().contains(classLoader.toString())
+        }
+
+    private fun builtInsOf(classLoader: ClassLoader): Any {
+        val module = moduleDataOf(classLoader)
+        val moduleDescriptor = module.javaClass.getMethod("getModule").invoke(module)
+        return moduleDescriptor.javaClass.getMethod("getBuiltIns").invoke(moduleDescriptor)
+    }
+
+    private fun storageManagerOf(classLoader: ClassLoader): Any {
+        val module = moduleDataOf(classLoader)
+        val deserialization = module.javaClass.getMethod("getDeserialization").invoke(module)
+        return deserialization.javaClass.getMethod("getStorageManager").invoke(deserialization)
+    }
+
+    private fun loadHolders(count: Int): List<WeakReference<ClassLoader>> =
+        (1..count).map {
+            val classLoader = HolderClassLoader()
+            val kClass = classLoader.loadClass(Holder::class.java.name).kotlin
+            assertEquals("name", kClass.members.single { it.name == "name" }.name)
+            WeakReference<ClassLoader>(classLoader)
+        }
+
+    fun testBuiltInsAreShared() {
+        val first = HolderClassLoader()
+        val second = HolderClassLoader()
+        for (classLoader in listOf(first, second)) {
+            val function = classLoader.loadClass(Holder::class.java.name).kotlin.members.single { it.name == "name" }
+            assertEquals(String::class, function.returnType.classifier)
+        }
+        assertSame(builtInsOf(first), builtInsOf(second))
+        // Modules share the built-ins, but not the lock of their lazy values
+        assertNotSame(storageManagerOf(first), storageManagerOf(second))
+    }
+
+    fun testModulesOfCollectedClassLoadersAreRemoved() {
+        val references = loadHolders(50)
+        for (attempt in 1..20) {
+            if (references.all { it.get() == null }) break
+            System.gc()
+            Thread.sleep(50)
+        }
+        assertTrue("Class loaders are not collected", references.all { it.get() == null })
+
+        // Entries of collected class loaders are removed on the next module creation
+        loadHolders(1)
+        assertTrue("Entries of collected class loaders are not removed: ${moduleByClassLoader.size}", moduleByClassLoader.size < 50)
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.serialization
+
+import com.intellij.openapi.util.Disposer
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.*
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
+import org.jetbrains.kotlin.descriptors.FunctionDescriptor
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.incremental.components.NoLookupLocation
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.renderer.DescriptorRenderer
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil
+import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter
+import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedClassDescriptor
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestJdkKind
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+
+class LazyMemberProtosTest : KtUsefulTestCase() {
+    private class LoadResult(val descriptors: List<String>, val classCount: Int, val functionCount: Int)
+
+    // Loads stdlib and kotlin-reflect. If [allMembers] is false, only classes and a single member of each class are loaded
+    private fun load(lazyMemberProtos: Boolean, allMembers: Boolean): LoadResult = withModule(lazyMemberProtos) { module ->
+        val descriptors = ArrayList<DeclarationDescriptor>()
+        loadPackage(module, FqName.ROOT, allMembers, descriptors)
+
+        val rendered = descriptors.map(DescriptorRenderer.FQ_NAMES_IN_TYPES::render)
+        LoadResult(rendered, descriptors.count { it is ClassDescriptor }, descriptors.count { it is FunctionDescriptor })
+    }
+
+    private fun <T> withModule(lazyMemberProtos: Boolean, block: (ModuleDescriptor) -> T): T {
+        val disposable = Disposer.newDisposable()
+        try {
+            val configuration = KotlinTestUtils.newConfiguration(ConfigurationKind.ALL, TestJdkKind.MOCK_JDK).apply {
+                languageVersionSettings = LanguageVersionSettingsImpl(
+                    LanguageVersion.LATEST_STABLE, ApiVersion.LATEST_STABLE, mapOf(AnalysisFlags.lazyMemberProtos to lazyMemberProtos)
+                )
+            }
+            val environment = KotlinCoreEnvironment.createForTests(disposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+            return block(JvmResolveUtil.analyze(environment).moduleDescriptor)
+        }
+        finally {
+            Disposer.dispose(disposable)
+        }
+    }
+
+    private fun loadPackage(module: ModuleDescriptor, fqName: FqName, allMembers: Boolean, result: MutableList<DeclarationDescriptor>) {
+        if (fqName.startsWith(Name.identifier("java")) || fqName.startsWith(Name.identifier("javax"))) return
+
+        val classes = module.getPackage(fqName).memberScope.getContributedDescriptors(DescriptorKindFilter.CLASSIFIERS)
+        for (descriptor in classes) {
+            if (descriptor is DeserializedClassDescriptor) {
+                loadClass(descriptor, allMembers, result)
+            }
+        }
+        if (allMembers) {
+            result.addAll(module.getPackage(fqName).memberScope.getContributedDescriptors(DescriptorKindFilter.CALLABLES))
+        }
+
+        for (subPackage in module.getSubPackagesOf(fqName) { true }) {
+            loadPackage(module, subPackage, allMembers, result)
+        }
+    }
+
+    private fun loadClass(descriptor: ClassDescriptor, allMembers: Boolean, result: MutableList<DeclarationDescriptor>) {
+        result.add(descriptor)
+        val scope = descriptor.unsubstitutedMemberScope
+        if (allMembers) {
+            for (member in scope.getContributedDescriptors()) {
+                if (member is DeserializedClassDescriptor) loadClass(member, allMembers, result) else result.add(member)
+            }
+        }
+        else {
+            result.addAll(scope.getContributedFunctions(Name.identifier("toString"), NoLookupLocation.FROM_TEST))
+        }
+    }
+
+    fun testSameDescriptorsAreLoaded() {
+        for (allMembers in listOf(false, true)) {
+            assertEquals(load(lazyMemberProtos = false, allMembers = allMembers).descriptors, load(true, allMembers).descriptors)
+        }
+    }
+
+    fun testDescriptorCounts() {
+        for (lazyMemberProtos in listOf(false, true)) {
+            val single = load(lazyMemberProtos, allMembers = false)
+            val all = load(lazyMemberProtos, allMembers = true)
+
+            assertTrue("Too few classes are loaded: ${single.classCount}", single.classCount > 500)
+            // Every class has exactly one toString, declared or inherited from Any
+            assertEquals(single.classCount, single.functionCount)
+            assertEquals(single.descriptors.size, single.classCount + single.functionCount)
+
+            // Nested classes are loaded only together with all members
+            assertTrue("Classes are not loaded: ${all.classCount}", all.classCount >= single.classCount)
+            // Every class has at least equals, hashCode and toString, and there are top-level functions as well
+            assertTrue("Members are not loaded: ${all.functionCount}", all.functionCount > 3 * all.classCount)
+        }
+    }
+
+    // Protos of a package part are released when all its members are loaded, and the loaded members are returned afterwards
+    fun testMembersAreReturnedAfterAllAreLoaded() {
+        withModule(lazyMemberProtos = true) { module ->
+            val scope = module.getPackage(FqName("kotlin.collections")).memberScope
+            val members = scope.getContributedDescriptors(DescriptorKindFilter.CALLABLES).toList()
+            assertTrue("Too few members are loaded: ${members.size}", members.size > 100)
+
+            val membersAgain = scope.getContributedDescriptors(DescriptorKindFilter.CALLABLES).toList()
+            assertEquals(members.size, membersAgain.size)
+            for ((member, memberAgain) in members.zip(membersAgain)) {
+                assertSame(member, memberAgain)
+            }
+            assertSameElements(
+                scope.getContributedFunctions(Name.identifier("listOf"), NoLookupLocation.FROM_TEST),
+                members.filter { it.name.asString() == "listOf" }
+            )
+        }
+    }
+}
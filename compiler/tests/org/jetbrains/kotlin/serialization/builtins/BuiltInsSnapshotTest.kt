@@ -0,0 +1,49 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.serialization.builtins
+
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns
+import org.jetbrains.kotlin.builtins.jvm.JvmBuiltIns
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.serialization.deserialization.builtins.BuiltInsResourceLoader
+import org.jetbrains.kotlin.serialization.deserialization.builtins.BuiltInsSnapshot
+import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedClassDescriptor
+import org.jetbrains.kotlin.storage.LockBasedStorageManager
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.io.File
+
+class BuiltInsSnapshotTest : KtUsefulTestCase() {
+    fun testSnapshotContainsAllBuiltInPackages() {
+        val snapshot = BuiltInsSnapshot.load(KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES, BuiltInsResourceLoader()::loadResource)
+        assertEquals(KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES, snapshot.packageFqNames)
+        for (fqName in snapshot.packageFqNames) {
+            assertTrue("Built-ins of $fqName are incompatible", snapshot[fqName].version.isCompatible())
+        }
+    }
+
+    fun testProtosAreSharedBetweenBuiltIns() {
+        val builtIns = (1..2).map { JvmBuiltIns(LockBasedStorageManager("BuiltInsSnapshotTest"), JvmBuiltIns.Kind.FROM_CLASS_LOADER) }
+        val strings = builtIns.map { it.string as DeserializedClassDescriptor }
+        assertNotSame(strings[0], strings[1])
+        assertSame(strings[0].classProto, strings[1].classProto)
+    }
+
+    fun testFallbackBuiltInsAreReusedBetweenCompilations() {
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val source = File(tmpdir, "test.kt").apply { writeText("package test\n\nfun foo(s: String) = s.length\n") }
+        val reports = (1..2).map { attempt ->
+            val report = File(tmpdir, "perf$attempt.txt")
+            CompilerTestUtil.executeCompilerAssertSuccessful(
+                K2JVMCompiler(), listOf(source.path, "-d", File(tmpdir, "out$attempt").path, "-Xdump-perf=${report.path}")
+            )
+            report.readLines()
+        }
+        assertTrue(reports[0].joinToString("\n"), reports[0].any { it.startsWith("BUILT-INS: Fallback built-ins") })
+        assertTrue(reports[1].joinToString("\n"), reports[1].any { it.startsWith("BUILT-INS: Fallback built-ins reused") })
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class FineGrainedLockBasedStorageManagerTest extends StorageManagerTest {
+    private static final int KEYS = 2000;
+
+    @Override
+    protected StorageManager createStorageManager() {
+        return new FineGrainedLockBasedStorageManager("FineGrainedLockBasedStorageManagerTest");
+    }
+
+    public void testConcurrentComputationsHappenOnce() throws Exception {
+        StorageManager storageManager = createStorageManager();
+        AtomicIntegerArray computations = new AtomicIntegerArray(KEYS);
+        MemoizedFunctionToNotNull<Integer, String> function = storageManager.createMemoizedFunction(key -> {
+            computations.incrementAndGet(key);
+            return "value" + key;
+        });
+
+        runConcurrently(8, () -> {
+            for (int key = 0; key < KEYS; key++) {
+                assertEquals("value" + key, function.invoke(key));
+            }
+        });
+
+        for (int key = 0; key < KEYS; key++) {
+            assertEquals("Value for " + key + " is computed more than once", 1, computations.get(key));
+        }
+    }
+
+    public void testWaitingInsideComputeBlockDoesNotDeadlock() throws Exception {
+        StorageManager storageManager = createStorageManager();
+        CountDownLatch lockIsHeld = new CountDownLatch(1);
+        CountDownLatch valueIsBeingComputed = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        NotNullLazyValue<Object> value = storageManager.createLazyValue(() -> {
+            computations.incrementAndGet();
+            valueIsBeingComputed.countDown();
+            // Needs the lock of the storage manager, which is held by the other thread
+            return storageManager.compute(Object::new);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> threadInComputeBlock = executor.submit(() -> storageManager.compute(() -> {
+                lockIsHeld.countDown();
+                await(valueIsBeingComputed);
+                return value.invoke();
+            }));
+            Future<Object> computingThread = executor.submit(() -> {
+                await(lockIsHeld);
+                return value.invoke();
+            });
+
+            assertSame(computingThread.get(10, TimeUnit.SECONDS), threadInComputeBlock.get(10, TimeUnit.SECONDS));
+            assertSame(computingThread.get(), value.invoke());
+            assertEquals(2, computations.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testUnrelatedValuesAreComputedByManyThreads() throws Exception {
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            List<NotNullLazyValue<Integer>> values = computeUnrelatedValues(createStorageManager(), threads);
+
+            for (int i = 0; i < values.size(); i++) {
+                assertTrue(values.get(i).isComputed());
+                assertEquals(work(i), (int) values.get(i).invoke());
+            }
+        }
+    }
+
+    // Not a precise benchmark: reports how throughput of resolving unrelated lazy values depends on the number of threads,
+    // for the default storage manager with a single lock and for the fine-grained one
+    public void testContentionScaling() throws Exception {
+        StringBuilder report = new StringBuilder("threads\tLockBasedStorageManager, ms\tFineGrainedLockBasedStorageManager, ms\n");
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            long lockBased = measure(new LockBasedStorageManager("contention"), threads);
+            long fineGrained = measure(createStorageManager(), threads);
+            report.append(threads).append('\t').append(lockBased).append('\t').append(fineGrained).append('\n');
+        }
+        System.out.println(report);
+    }
+
+    private static long measure(@NotNull StorageManager storageManager, int threads) throws Exception {
+        long start = System.nanoTime();
+        computeUnrelatedValues(storageManager, threads);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @NotNull
+    private static List<NotNullLazyValue<Integer>> computeUnrelatedValues(@NotNull StorageManager storageManager, int threads)
+            throws Exception {
+        List<NotNullLazyValue<Integer>> values = new ArrayList<>(KEYS * 8);
+        for (int i = 0; i < KEYS * 8; i++) {
+            int seed = i;
+            values.add(storageManager.createLazyValue(() -> work(seed)));
+        }
+        AtomicInteger next = new AtomicInteger();
+
+        runConcurrently(threads, () -> {
+            int index;
+            while ((index = next.getAndIncrement()) < values.size()) {
+                values.get(index).invoke();
+            }
+        });
+        return values;
+    }
+
+    // Simulates the CPU work of resolving a declaration
+    private static int work(int seed) {
+        int result = seed;
+        for (int i = 0; i < 20000; i++) {
+            result = result * 31 + i;
+        }
+        return result;
+    }
+
+    private static void runConcurrently(int threads, @NotNull Runnable action) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(action));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(@NotNull CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.progress
 
 import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.progress.ProgressIndicatorProvider
+import java.util.concurrent.Callable
 
 class CompilationCanceledException : ProcessCanceledException()
 
@@ -26,15 +27,35 @@ interface CompilationCanceledStatus {
 }
 
 object ProgressIndicatorAndCompilationCanceledStatus {
-    private var canceledStatus: CompilationCanceledStatus? = null
+    // Several compilations may run concurrently in the same process, e.g. in the daemon.
+    // The status is set by the thread running a compilation and is reset when the compilation is finished,
+    // threads of pools started by the compilation get it through withCurrentCanceledStatus
+    private val canceledStatus = ThreadLocal<CompilationCanceledStatus?>()
 
     @JvmStatic
-    @Synchronized fun setCompilationCanceledStatus(newCanceledStatus: CompilationCanceledStatus?): Unit {
-        canceledStatus = newCanceledStatus
+    fun setCompilationCanceledStatus(newCanceledStatus: CompilationCanceledStatus?): Unit {
+        canceledStatus.set(newCanceledStatus)
+    }
+
+    /**
+     * Returns a task which runs [task] with the canceled status of the current thread, for tasks which a compilation submits to its pools
+     */
+    @JvmStatic
+    fun <T> withCurrentCanceledStatus(task: Callable<T>): Callable<T> {
+        val status = canceledStatus.get()
+        return Callable {
+            val previous = canceledStatus.get()
+            canceledStatus.set(status)
+            try {
+                task.call()
+            } finally {
+                canceledStatus.set(previous)
+            }
+        }
     }
 
     @JvmStatic fun checkCanceled(): Unit {
         ProgressIndicatorProvider.checkCanceled()
-        canceledStatus?.checkCanceled()
+        canceledStatus.get()?.checkCanceled()
     }
 }
\ No newline at end of file
@@ -52,11 +52,23 @@ class RuntimeModuleData private constructor(
     val module: ModuleDescriptor get() = deserialization.moduleDescriptor
 
     companion object {
-        fun create(classLoader: ClassLoader): RuntimeModuleData {
+        /**
+         * Creates a module for classes of [classLoader]. Built-ins are loaded by the class loader of stdlib, so if [builtInsModuleData]
+         * is given, its built-ins module is used as a dependency instead of deserializing built-ins for each class loader once again.
+         * [builtInsModuleData] itself must have been created without a shared built-ins module, so that dependencies are never cyclic.
+         *
+         * Each module has its own storage manager, so reflection on classes of different class loaders isn't serialized by one lock.
+         * Values of the shared built-ins never depend on values of the modules using them, so the locks are always taken in one order.
+         */
+        fun create(classLoader: ClassLoader, builtInsModuleData: RuntimeModuleData? = null): RuntimeModuleData {
             val storageManager = LockBasedStorageManager("RuntimeModuleData")
-            val builtIns = JvmBuiltIns(storageManager, JvmBuiltIns.Kind.FROM_DEPENDENCIES)
+            val sharedBuiltInsModule = builtInsModuleData?.module as ModuleDescriptorImpl?
+            val builtIns =
+                sharedBuiltInsModule?.builtIns as JvmBuiltIns? ?: JvmBuiltIns(storageManager, JvmBuiltIns.Kind.FROM_DEPENDENCIES)
             val module = ModuleDescriptorImpl(Name.special("<runtime module for $classLoader>"), storageManager, builtIns)
-            builtIns.builtInsModule = module
+            if (sharedBuiltInsModule == null) {
+                builtIns.builtInsModule = module
+            }
 
             val reflectKotlinClassFinder = ReflectKotlinClassFinder(classLoader)
             val deserializedDescriptorResolver = DeserializedDescriptorResolver()
@@ -75,7 +87,9 @@ class RuntimeModuleData private constructor(
 
             val lazyJavaPackageFragmentProvider = LazyJavaPackageFragmentProvider(javaResolverComponents)
 
-            builtIns.initialize(module, isAdditionalBuiltInsFeatureSupported = true)
+            if (sharedBuiltInsModule == null) {
+                builtIns.initialize(module, isAdditionalBuiltInsFeatureSupported = true)
+            }
 
             val javaDescriptorResolver = JavaDescriptorResolver(lazyJavaPackageFragmentProvider, JavaResolverCache.EMPTY)
             val javaClassDataFinder = JavaClassDataFinder(reflectKotlinClassFinder, deserializedDescriptorResolver)
@@ -88,18 +102,26 @@ class RuntimeModuleData private constructor(
                 RuntimeErrorReporter, LookupTracker.DO_NOTHING, ContractDeserializer.DEFAULT
             )
 
-            // .kotlin_builtins files should be found by the same class loader that loaded stdlib classes
-            val stdlibClassLoader = Unit::class.java.classLoader
-            val builtinsProvider = JvmBuiltInsPackageFragmentProvider(
-                storageManager, ReflectKotlinClassFinder(stdlibClassLoader), module, notFoundClasses, builtIns.settings, builtIns.settings,
-                DeserializationConfiguration.Default
-            )
-
             singleModuleClassResolver.resolver = javaDescriptorResolver
             deserializedDescriptorResolver.setComponents(deserializationComponentsForJava)
 
-            module.setDependencies(module)
-            module.initialize(CompositePackageFragmentProvider(listOf(javaDescriptorResolver.packageFragmentProvider, builtinsProvider)))
+            if (sharedBuiltInsModule != null) {
+                // Classes of this module are looked up first, so that a class loader which has its own copy of a class wins
+                module.setDependencies(module, sharedBuiltInsModule)
+                module.initialize(javaDescriptorResolver.packageFragmentProvider)
+            } else {
+                // .kotlin_builtins files should be found by the same class loader that loaded stdlib classes
+                val stdlibClassLoader = Unit::class.java.classLoader
+                val builtinsProvider = JvmBuiltInsPackageFragmentProvider(
+                    storageManager, ReflectKotlinClassFinder(stdlibClassLoader), module, notFoundClasses, builtIns.settings,
+                    builtIns.settings, DeserializationConfiguration.Default
+                )
+
+                module.setDependencies(module)
+                module.initialize(
+                    CompositePackageFragmentProvider(listOf(javaDescriptorResolver.packageFragmentProvider, builtinsProvider))
+                )
+            }
 
             return RuntimeModuleData(
                 deserializationComponentsForJava.components,
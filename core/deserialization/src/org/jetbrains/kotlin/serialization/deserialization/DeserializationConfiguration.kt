@@ -24,5 +24,8 @@ interface DeserializationConfiguration {
     val releaseCoroutines: Boolean
         get() = false
 
+    val lazyMemberProtos: Boolean
+        get() = false
+
     object Default : DeserializationConfiguration
 }
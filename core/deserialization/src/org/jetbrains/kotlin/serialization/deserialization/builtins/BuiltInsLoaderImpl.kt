@@ -21,8 +21,6 @@ import org.jetbrains.kotlin.storage.StorageManager
 import java.io.InputStream
 
 class BuiltInsLoaderImpl : BuiltInsLoader {
-    private val resourceLoader = BuiltInsResourceLoader()
-
     override fun createPackageFragmentProvider(
         storageManager: StorageManager,
         builtInsModule: ModuleDescriptor,
@@ -34,12 +32,11 @@ class BuiltInsLoaderImpl : BuiltInsLoader {
         return createBuiltInPackageFragmentProvider(
             storageManager,
             builtInsModule,
-            KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES,
+            classLoaderSnapshot,
             classDescriptorFactories,
             platformDependentDeclarationFilter,
             additionalClassPartsProvider,
-            isFallback,
-            resourceLoader::loadResource
+            isFallback
         )
     }
 
@@ -52,11 +49,28 @@ class BuiltInsLoaderImpl : BuiltInsLoader {
         additionalClassPartsProvider: AdditionalClassPartsProvider = AdditionalClassPartsProvider.None,
         isFallback: Boolean,
         loadResource: (String) -> InputStream?
+    ): PackageFragmentProvider =
+        createBuiltInPackageFragmentProvider(
+            storageManager,
+            module,
+            BuiltInsSnapshot.load(packageFqNames, loadResource),
+            classDescriptorFactories,
+            platformDependentDeclarationFilter,
+            additionalClassPartsProvider,
+            isFallback
+        )
+
+    private fun createBuiltInPackageFragmentProvider(
+        storageManager: StorageManager,
+        module: ModuleDescriptor,
+        snapshot: BuiltInsSnapshot,
+        classDescriptorFactories: Iterable<ClassDescriptorFactory>,
+        platformDependentDeclarationFilter: PlatformDependentDeclarationFilter,
+        additionalClassPartsProvider: AdditionalClassPartsProvider,
+        isFallback: Boolean
     ): PackageFragmentProvider {
-        val packageFragments = packageFqNames.map { fqName ->
-            val resourcePath = BuiltInSerializerProtocol.getBuiltInsFilePath(fqName)
-            val inputStream = loadResource(resourcePath) ?: throw IllegalStateException("Resource not found in classpath: $resourcePath")
-            BuiltInsPackageFragmentImpl.create(fqName, storageManager, module, inputStream, isFallback)
+        val packageFragments = snapshot.packageFqNames.map { fqName ->
+            BuiltInsPackageFragmentImpl.create(fqName, storageManager, module, snapshot[fqName], isFallback)
         }
         val provider = PackageFragmentProviderImpl(packageFragments)
 
@@ -87,4 +101,11 @@ class BuiltInsLoaderImpl : BuiltInsLoader {
 
         return provider
     }
+
+    companion object {
+        // Built-ins of the compiler class loader are read once per process and shared by all modules loading them
+        private val classLoaderSnapshot by lazy {
+            BuiltInsSnapshot.load(KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES, BuiltInsResourceLoader()::loadResource)
+        }
+    }
 }
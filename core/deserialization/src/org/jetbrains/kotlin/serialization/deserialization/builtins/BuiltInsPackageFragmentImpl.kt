@@ -31,25 +31,16 @@ class BuiltInsPackageFragmentImpl private constructor(
             module: ModuleDescriptor,
             inputStream: InputStream,
             isFallback: Boolean
-        ): BuiltInsPackageFragmentImpl {
-            lateinit var version: BuiltInsBinaryVersion
+        ): BuiltInsPackageFragmentImpl =
+            create(fqName, storageManager, module, BuiltInsSnapshot.PackageData.read(inputStream), isFallback)
 
-            val proto = inputStream.use { stream ->
-                version = BuiltInsBinaryVersion.readFrom(stream)
-
-                if (!version.isCompatible()) {
-                    // TODO: report a proper diagnostic
-                    throw UnsupportedOperationException(
-                        "Kotlin built-in definition format version is not supported: " +
-                                "expected ${BuiltInsBinaryVersion.INSTANCE}, actual $version. " +
-                                "Please update Kotlin"
-                    )
-                }
-
-                ProtoBuf.PackageFragment.parseFrom(stream, BuiltInSerializerProtocol.extensionRegistry)
-            }
-
-            return BuiltInsPackageFragmentImpl(fqName, storageManager, module, proto, version, isFallback)
-        }
+        fun create(
+            fqName: FqName,
+            storageManager: StorageManager,
+            module: ModuleDescriptor,
+            packageData: BuiltInsSnapshot.PackageData,
+            isFallback: Boolean
+        ): BuiltInsPackageFragmentImpl =
+            BuiltInsPackageFragmentImpl(fqName, storageManager, module, packageData.proto, packageData.version, isFallback)
     }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.serialization.deserialization.builtins
+
+import org.jetbrains.kotlin.metadata.ProtoBuf
+import org.jetbrains.kotlin.metadata.builtins.BuiltInsBinaryVersion
+import org.jetbrains.kotlin.name.FqName
+import java.io.InputStream
+
+/**
+ * Parsed contents of `.kotlin_builtins` files of several packages. Protos are immutable, so a snapshot can be shared by any number
+ * of built-ins modules, e.g. by all compilations in the same process, instead of reading and parsing the resources for each of them
+ */
+class BuiltInsSnapshot private constructor(private val packages: Map<FqName, PackageData>) {
+    class PackageData(val proto: ProtoBuf.PackageFragment, val version: BuiltInsBinaryVersion) {
+        companion object {
+            fun read(inputStream: InputStream): PackageData = inputStream.use { stream ->
+                val version = BuiltInsBinaryVersion.readFrom(stream)
+
+                if (!version.isCompatible()) {
+                    // TODO: report a proper diagnostic
+                    throw UnsupportedOperationException(
+                        "Kotlin built-in definition format version is not supported: " +
+                                "expected ${BuiltInsBinaryVersion.INSTANCE}, actual $version. " +
+                                "Please update Kotlin"
+                    )
+                }
+
+                PackageData(ProtoBuf.PackageFragment.parseFrom(stream, BuiltInSerializerProtocol.extensionRegistry), version)
+            }
+        }
+    }
+
+    val packageFqNames: Set<FqName>
+        get() = packages.keys
+
+    operator fun get(fqName: FqName): PackageData =
+        packages[fqName] ?: throw IllegalStateException("Package $fqName is not in the built-ins snapshot")
+
+    companion object {
+        fun load(packageFqNames: Set<FqName>, loadResource: (String) -> InputStream?): BuiltInsSnapshot =
+            BuiltInsSnapshot(packageFqNames.associate { fqName ->
+                val resourcePath = BuiltInSerializerProtocol.getBuiltInsFilePath(fqName)
+                val inputStream = loadResource(resourcePath) ?: throw IllegalStateException("Resource not found in classpath: $resourcePath")
+                fqName to PackageData.read(inputStream)
+            })
+    }
+}
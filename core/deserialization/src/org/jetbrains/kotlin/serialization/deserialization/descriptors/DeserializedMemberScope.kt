@@ -45,15 +45,25 @@ abstract class DeserializedMemberScope protected constructor(
     classNames: () -> Collection<Name>
 ) : MemberScopeImpl() {
 
-    private val functionProtosBytes = functionList.groupByName { it.name }.packToByteArray()
+    private val functionProtos = createProtosByName(functionList, ProtoBuf.Function.PARSER) { it.name }
 
-    private val propertyProtosBytes = propertyList.groupByName { it.name }.packToByteArray()
+    private val propertyProtos = createProtosByName(propertyList, ProtoBuf.Property.PARSER) { it.name }
 
-    private val typeAliasBytes =
+    private val typeAliasProtos =
         if (c.components.configuration.typeAliasesAllowed)
-            typeAliasList.groupByName { it.name }.packToByteArray()
+            createProtosByName(typeAliasList, ProtoBuf.TypeAlias.PARSER) { it.name }
         else
-            emptyMap()
+            EmptyProtosByName
+
+    private fun <M : AbstractMessageLite> createProtosByName(
+        protos: Collection<M>,
+        parser: Parser<M>,
+        getNameIndex: (M) -> Int
+    ): ProtosByName<M> =
+        if (c.components.configuration.lazyMemberProtos)
+            IndexedProtosByName(protos as? List<M> ?: protos.toList(), getNameIndex)
+        else
+            PackedProtosByName(protos.groupByName(getNameIndex).packToByteArray(), parser)
 
     private fun Map<Name, Collection<AbstractMessageLite>>.packToByteArray(): Map<Name, ByteArray> =
         mapValues { entry ->
@@ -62,6 +72,82 @@ abstract class DeserializedMemberScope protected constructor(
             byteArrayOutputStream.toByteArray()
         }
 
+    private interface ProtosByName<out M : MessageLite> {
+        val names: Set<Name>
+
+        fun getProtos(name: Name): List<M>
+
+        // Called when the descriptors of the name are loaded and stored, so its protos are not requested again
+        fun markLoaded(name: Name) {}
+    }
+
+    private object EmptyProtosByName : ProtosByName<Nothing> {
+        override val names: Set<Name> get() = emptySet()
+
+        override fun getProtos(name: Name): List<Nothing> = emptyList()
+    }
+
+    // Protos of each name are serialized to a separate byte array and parsed again when the name is requested
+    private inner class PackedProtosByName<M : MessageLite>(
+        private val bytesByName: Map<Name, ByteArray>,
+        private val parser: Parser<M>
+    ) : ProtosByName<M> {
+        override val names: Set<Name> get() = bytesByName.keys
+
+        override fun getProtos(name: Name): List<M> {
+            val inputStream = ByteArrayInputStream(bytesByName[name] ?: return emptyList())
+            return generateSequence {
+                parser.parseDelimitedFrom(inputStream, c.components.extensionRegistryLite)
+            }.toList()
+        }
+    }
+
+    // Only positions of protos in the original list are recorded for each name, and not before any of the names is requested.
+    // Nothing is serialized again, and classes which are loaded but not looked into don't pay for grouping their members by name.
+    // The list is released when descriptors of all names are loaded, as each descriptor references its own proto
+    private inner class IndexedProtosByName<M : MessageLite>(
+        protos: List<M>,
+        private val getNameIndex: (M) -> Int
+    ) : ProtosByName<M> {
+        @Volatile
+        private var protos: List<M>? = protos
+
+        // The lazy value retains its computation, so the computation doesn't capture the list
+        private val index by c.storageManager.createLazyValue {
+            val indices = LinkedHashMap<Name, IntArray>()
+            for ((index, proto) in this.protos!!.withIndex()) {
+                val name = c.nameResolver.getName(getNameIndex(proto))
+                val previous = indices[name]
+                indices[name] = if (previous == null) intArrayOf(index) else previous + index
+            }
+            ProtoIndex(indices.keys.toSet(), indices)
+        }
+
+        override val names: Set<Name> get() = index.names
+
+        override fun getProtos(name: Name): List<M> {
+            // Once the list is released, only a repeated computation of loaded descriptors may request protos, and its result is
+            // discarded in favor of the stored descriptors
+            val protos = protos ?: return emptyList()
+            val notLoaded = index.notLoadedIndicesByName
+            val indices = synchronized(notLoaded) { notLoaded[name] } ?: return emptyList()
+            return indices.map(protos::get)
+        }
+
+        override fun markLoaded(name: Name) {
+            if (protos == null) return
+            // The index is computed under the lock of the storage manager, so it's not computed under the lock of the map
+            val notLoaded = index.notLoadedIndicesByName
+            synchronized(notLoaded) {
+                if (notLoaded.remove(name) != null && notLoaded.isEmpty()) {
+                    protos = null
+                }
+            }
+        }
+    }
+
+    private class ProtoIndex(val names: Set<Name>, val notLoadedIndicesByName: MutableMap<Name, IntArray>)
+
     private val functions =
         c.storageManager.createMemoizedFunction<Name, Collection<SimpleFunctionDescriptor>> { computeFunctions(it) }
     private val properties =
@@ -70,14 +156,14 @@ abstract class DeserializedMemberScope protected constructor(
         c.storageManager.createMemoizedFunctionWithNullableValues<Name, TypeAliasDescriptor> { createTypeAlias(it) }
 
     private val functionNamesLazy by c.storageManager.createLazyValue {
-        functionProtosBytes.keys + getNonDeclaredFunctionNames()
+        functionProtos.names + getNonDeclaredFunctionNames()
     }
 
     private val variableNamesLazy by c.storageManager.createLazyValue {
-        propertyProtosBytes.keys + getNonDeclaredVariableNames()
+        propertyProtos.names + getNonDeclaredVariableNames()
     }
 
-    private val typeAliasNames: Set<Name> get() = typeAliasBytes.keys
+    private val typeAliasNames: Set<Name> get() = typeAliasProtos.names
 
     internal val classNames by c.storageManager.createLazyValue { classNames().toSet() }
 
@@ -95,31 +181,11 @@ abstract class DeserializedMemberScope protected constructor(
 
     private fun computeFunctions(name: Name) =
         computeDescriptors(
-            name,
-            functionProtosBytes,
-            ProtoBuf.Function.PARSER,
+            functionProtos.getProtos(name),
             { c.memberDeserializer.loadFunction(it) },
             { computeNonDeclaredFunctions(name, it) }
         )
 
-    private inline fun <M : MessageLite, D : DeclarationDescriptor> computeDescriptors(
-        name: Name,
-        bytesByName: Map<Name, ByteArray>,
-        parser: Parser<M>,
-        factory: (M) -> D,
-        computeNonDeclared: (MutableCollection<D>) -> Unit
-    ): Collection<D> =
-        computeDescriptors(
-            bytesByName[name]?.let {
-                val inputStream = ByteArrayInputStream(it)
-                generateSequence {
-                    parser.parseDelimitedFrom(inputStream, c.components.extensionRegistryLite)
-                }.toList()
-            } ?: emptyList(),
-            factory,
-            computeNonDeclared
-        )
-
     private inline fun <M : MessageLite, D : DeclarationDescriptor> computeDescriptors(
         protos: Collection<M>,
         factory: (M) -> D,
@@ -136,14 +202,12 @@ abstract class DeserializedMemberScope protected constructor(
 
     override fun getContributedFunctions(name: Name, location: LookupLocation): Collection<SimpleFunctionDescriptor> {
         if (name !in getFunctionNames()) return emptyList()
-        return functions(name)
+        return functions(name).also { functionProtos.markLoaded(name) }
     }
 
     private fun computeProperties(name: Name) =
         computeDescriptors(
-            name,
-            propertyProtosBytes,
-            ProtoBuf.Property.PARSER,
+            propertyProtos.getProtos(name),
             { c.memberDeserializer.loadProperty(it) },
             { computeNonDeclaredProperties(name, it) }
         )
@@ -151,18 +215,17 @@ abstract class DeserializedMemberScope protected constructor(
     protected open fun computeNonDeclaredProperties(name: Name, descriptors: MutableCollection<PropertyDescriptor>) {
     }
 
+    private fun getTypeAliasByName(name: Name): TypeAliasDescriptor? =
+        typeAliasByName(name).also { typeAliasProtos.markLoaded(name) }
+
     private fun createTypeAlias(name: Name): TypeAliasDescriptor? {
-        val byteArray = typeAliasBytes[name] ?: return null
-        val proto =
-            ProtoBuf.TypeAlias.parseDelimitedFrom(
-                ByteArrayInputStream(byteArray), c.components.extensionRegistryLite
-            ) ?: return null
+        val proto = typeAliasProtos.getProtos(name).firstOrNull() ?: return null
         return c.memberDeserializer.loadTypeAlias(proto)
     }
 
     override fun getContributedVariables(name: Name, location: LookupLocation): Collection<PropertyDescriptor> {
         if (name !in getVariableNames()) return emptyList()
-        return properties(name)
+        return properties(name).also { propertyProtos.markLoaded(name) }
     }
 
     protected fun computeDescriptors(
@@ -191,7 +254,7 @@ abstract class DeserializedMemberScope protected constructor(
         if (kindFilter.acceptsKinds(DescriptorKindFilter.TYPE_ALIASES_MASK)) {
             for (typeAliasName in typeAliasNames) {
                 if (nameFilter(typeAliasName)) {
-                    result.addIfNotNull(typeAliasByName(typeAliasName))
+                    result.addIfNotNull(getTypeAliasByName(typeAliasName))
                 }
             }
         }
@@ -242,7 +305,7 @@ abstract class DeserializedMemberScope protected constructor(
     override fun getContributedClassifier(name: Name, location: LookupLocation): ClassifierDescriptor? =
         when {
             hasClass(name) -> deserializeClass(name)
-            name in typeAliasNames -> typeAliasByName(name)
+            name in typeAliasNames -> getTypeAliasByName(name)
             else -> null
         }
 
@@ -70,6 +70,11 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
     override val parameters: List<KParameter>
         get() = _parameters()
 
+    // Checking whether a parameter declares or inherits a default value is expensive, so it's done once for all parameters
+    private val _defaultArguments = ReflectProperties.lazySoft {
+        DefaultArguments(parameters)
+    }
+
     private val _returnType = ReflectProperties.lazySoft {
         KTypeImpl(descriptor.returnType!!) {
             extractContinuationArgument() ?: caller.returnType
@@ -113,24 +118,27 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
     // See ArgumentGenerator#generate
     internal fun callDefaultMethod(args: Map<KParameter, Any?>, continuationArgument: Continuation<*>?): R {
         val parameters = parameters
+        val defaultArguments = _defaultArguments()
         val arguments = ArrayList<Any?>(parameters.size)
         var mask = 0
         val masks = ArrayList<Int>(1)
         var index = 0
         var anyOptional = false
 
-        for (parameter in parameters) {
+        for (i in parameters.indices) {
+            val parameter = parameters[i]
             if (index != 0 && index % Integer.SIZE == 0) {
                 masks.add(mask)
                 mask = 0
             }
 
+            val argument = args[parameter]
             when {
-                args.containsKey(parameter) -> {
-                    arguments.add(args[parameter])
+                argument != null || args.containsKey(parameter) -> {
+                    arguments.add(argument)
                 }
-                parameter.isOptional -> {
-                    arguments.add(defaultPrimitiveValue(parameter.type.javaType))
+                defaultArguments.isOptional[i] -> {
+                    arguments.add(defaultArguments[i])
                     mask = mask or (1 shl (index % Integer.SIZE))
                     anyOptional = true
                 }
@@ -217,3 +225,23 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
         return null
     }
 }
+
+/**
+ * Values passed in `callBy` for omitted optional parameters. The value of a parameter depends on its Java type, which is expensive
+ * to compute, so it's computed only when the parameter is omitted for the first time. Concurrent calls can compute the same value
+ * twice, which is harmless because the value is always the same.
+ */
+private class DefaultArguments(private val parameters: List<KParameter>) {
+    val isOptional = BooleanArray(parameters.size) { i -> parameters[i].isOptional }
+
+    private val values = Array<Any?>(parameters.size) { NOT_COMPUTED }
+
+    operator fun get(index: Int): Any? {
+        val value = values[index]
+        if (value !== NOT_COMPUTED) return value
+
+        return defaultPrimitiveValue(parameters[index].type.javaType).also { values[index] = it }
+    }
+}
+
+private val NOT_COMPUTED = Any()
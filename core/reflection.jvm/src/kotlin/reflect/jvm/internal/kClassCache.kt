@@ -16,54 +16,112 @@
 
 package kotlin.reflect.jvm.internal
 
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
-import kotlin.reflect.jvm.internal.pcollections.HashPMap
+import java.util.concurrent.ConcurrentHashMap
 
-// TODO: collect nulls periodically
-// Key of the map is Class.getName(), each value is either a WeakReference<KClassImpl<*>> or an Array<WeakReference<KClassImpl<*>>>.
+// Key of the map is Class.getName(), each value is either a KClassReference or an Array<KClassReference>.
 // Arrays are needed because the same class can be loaded by different class loaders, which results in different Class instances.
-// This variable is not volatile intentionally: we don't care if there's a data race on it and some KClass instances will be lost.
-// We do care however about general performance on read access to it, thus no synchronization is done here whatsoever
-private var K_CLASS_CACHE = HashPMap.empty<String, Any>()
+// Reads are not synchronized because lookups are performance-critical; values are never mutated, but replaced atomically,
+// so that concurrent insertions are not lost. ClassValue is not used because it's not available on Java 6 and old Android versions
+private val K_CLASS_CACHE = ConcurrentHashMap<String, Any>()
+
+// References to reclaimed KClass instances are enqueued here and are purged from the cache on the next insertion
+private val K_CLASS_REFERENCE_QUEUE = ReferenceQueue<KClassImpl<*>>()
+
+private class KClassReference(kClass: KClassImpl<*>, val name: String) : WeakReference<KClassImpl<*>>(kClass, K_CLASS_REFERENCE_QUEUE)
 
 // This function is invoked on each reflection access to Java classes, properties, etc. Performance is critical here.
 internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> {
     val name = jClass.name
-    val cached = K_CLASS_CACHE[name]
-    if (cached is WeakReference<*>) {
+    return findKotlinClass(K_CLASS_CACHE[name], jClass) ?: createKotlinClass(name, jClass)
+}
+
+private fun <T : Any> findKotlinClass(cached: Any?, jClass: Class<T>): KClassImpl<T>? {
+    if (cached is KClassReference) {
         @Suppress("UNCHECKED_CAST")
         val kClass = cached.get() as KClassImpl<T>?
         if (kClass?.jClass == jClass) {
             return kClass
         }
     } else if (cached != null) {
-        // If the cached value is not a weak reference, it's an array of weak references
+        // If the cached value is not a reference, it's an array of references
         @Suppress("UNCHECKED_CAST")
-        (cached as Array<WeakReference<KClassImpl<T>>>)
-        for (ref in cached) {
-            val kClass = ref.get()
+        for (ref in cached as Array<KClassReference>) {
+            @Suppress("UNCHECKED_CAST")
+            val kClass = ref.get() as KClassImpl<T>?
             if (kClass?.jClass == jClass) {
                 return kClass
             }
         }
+    }
+    return null
+}
+
+private fun <T : Any> createKotlinClass(name: String, jClass: Class<T>): KClassImpl<T> {
+    expungeStaleReferences()
+
+    val newKClass = KClassImpl(jClass)
+    val newReference = KClassReference(newKClass, name)
+    while (true) {
+        val cached = K_CLASS_CACHE[name]
+        if (cached == null) {
+            if (K_CLASS_CACHE.putIfAbsent(name, newReference) == null) return newKClass
+            continue
+        }
+
+        // Another thread could have created an instance for the same class in the meantime
+        findKotlinClass(cached, jClass)?.let { return it }
 
-        // This is the most unlikely case: we found a cached array of references of length at least 2 (can't be 1 because
-        // the single element would be cached instead), and none of those classes is the one we're looking for
-        val size = cached.size
-        val newArray = arrayOfNulls<WeakReference<KClassImpl<*>>>(size + 1)
+        // This is the most unlikely case: the same class name is loaded by several class loaders
+        val alive = aliveReferences(cached)
+        val newArray = arrayOfNulls<KClassReference>(alive.size + 1)
         // Don't use Arrays.copyOf because it works reflectively
-        System.arraycopy(cached, 0, newArray, 0, size)
-        val newKClass = KClassImpl(jClass)
-        newArray[size] = WeakReference(newKClass)
-        K_CLASS_CACHE = K_CLASS_CACHE.plus(name, newArray)
-        return newKClass
+        System.arraycopy(alive, 0, newArray, 0, alive.size)
+        newArray[alive.size] = newReference
+        if (K_CLASS_CACHE.replace(name, cached, if (alive.isEmpty()) newReference else newArray)) return newKClass
     }
+}
 
-    val newKClass = KClassImpl(jClass)
-    K_CLASS_CACHE = K_CLASS_CACHE.plus(name, WeakReference(newKClass))
-    return newKClass
+private fun expungeStaleReferences() {
+    while (true) {
+        val reference = K_CLASS_REFERENCE_QUEUE.poll() as KClassReference? ?: return
+        while (true) {
+            val cached = K_CLASS_CACHE[reference.name] ?: break
+            if (cached === reference) {
+                if (K_CLASS_CACHE.remove(reference.name, cached)) break
+                continue
+            }
+            if (cached !is Array<*>) break
+
+            val alive = aliveReferences(cached)
+            if (alive.size == cached.size) break
+            val replaced = when (alive.size) {
+                0 -> K_CLASS_CACHE.remove(reference.name, cached)
+                1 -> K_CLASS_CACHE.replace(reference.name, cached, alive[0])
+                else -> K_CLASS_CACHE.replace(reference.name, cached, alive)
+            }
+            if (replaced) break
+        }
+    }
+}
+
+private fun aliveReferences(cached: Any): Array<KClassReference> {
+    @Suppress("UNCHECKED_CAST")
+    val references = if (cached is KClassReference) arrayOf(cached) else cached as Array<KClassReference>
+    val alive = arrayOfNulls<KClassReference>(references.size)
+    var size = 0
+    for (ref in references) {
+        if (ref.get() != null) alive[size++] = ref
+    }
+    if (size == references.size) return references
+
+    val result = arrayOfNulls<KClassReference>(size)
+    System.arraycopy(alive, 0, result, 0, size)
+    @Suppress("UNCHECKED_CAST")
+    return result as Array<KClassReference>
 }
 
 internal fun clearKClassCache() {
-    K_CLASS_CACHE = HashPMap.empty()
+    K_CLASS_CACHE.clear()
 }
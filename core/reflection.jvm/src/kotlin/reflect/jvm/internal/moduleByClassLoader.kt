@@ -16,17 +16,26 @@
 
 package kotlin.reflect.jvm.internal
 
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
 import kotlin.reflect.jvm.internal.components.RuntimeModuleData
 import kotlin.reflect.jvm.internal.structure.safeClassLoader
 
-// TODO: collect nulls periodically
-private val moduleByClassLoader: ConcurrentMap<WeakClassLoaderBox, WeakReference<RuntimeModuleData>> = ConcurrentHashMap()
+private val moduleByClassLoader: ConcurrentMap<WeakClassLoaderBox, ModuleReference> = ConcurrentHashMap()
+
+// Both collected class loaders and collected modules are enqueued here, their entries are removed on the next module creation
+private val collectedReferences = ReferenceQueue<Any>()
+
+private class ClassLoaderReference(classLoader: ClassLoader, val box: WeakClassLoaderBox) :
+    WeakReference<ClassLoader>(classLoader, collectedReferences)
+
+private class ModuleReference(module: RuntimeModuleData, val box: WeakClassLoaderBox) :
+    WeakReference<RuntimeModuleData>(module, collectedReferences)
 
 private class WeakClassLoaderBox(classLoader: ClassLoader) {
-    val ref: WeakReference<ClassLoader> = WeakReference(classLoader)
+    val ref: WeakReference<ClassLoader> = ClassLoaderReference(classLoader, this)
 
     // Identity hash code is saved because otherwise once the weak reference is GC'd we cannot compute it anymore
     val identityHashCode: Int = System.identityHashCode(classLoader)
@@ -55,10 +64,16 @@ internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
         moduleByClassLoader.remove(key, cached)
     }
 
-    val module = RuntimeModuleData.create(classLoader)
+    removeCollectedEntries()
+
+    // Built-ins are always loaded by the class loader of stdlib, so they're deserialized once and shared by modules of other class loaders
+    val stdlibClass = Unit::class.java
+    val module =
+        if (stdlibClass.safeClassLoader === classLoader) RuntimeModuleData.create(classLoader)
+        else RuntimeModuleData.create(classLoader, stdlibClass.getOrCreateModule())
     try {
         while (true) {
-            val ref = moduleByClassLoader.putIfAbsent(key, WeakReference(module)) ?: return module
+            val ref = moduleByClassLoader.putIfAbsent(key, ModuleReference(module, key)) ?: return module
 
             val result = ref.get()
             if (result != null) return result
@@ -69,6 +84,17 @@ internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
     }
 }
 
+private fun removeCollectedEntries() {
+    while (true) {
+        val reference = collectedReferences.poll() ?: return
+        when (reference) {
+            // A box of a collected class loader is only equal to itself (and to other boxes with collected class loaders)
+            is ClassLoaderReference -> moduleByClassLoader.remove(reference.box)
+            is ModuleReference -> moduleByClassLoader.remove(reference.box, reference)
+        }
+    }
+}
+
 internal fun clearModuleByClassLoaderCache() {
     moduleByClassLoader.clear()
 }
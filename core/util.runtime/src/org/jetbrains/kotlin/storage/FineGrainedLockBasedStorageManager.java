@@ -0,0 +1,559 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
+import org.jetbrains.kotlin.utils.WrappedValues;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A storage manager which does not serialize all lazy computations on a single lock. Instead, every lazy value and every key
+ * of a memoized function is computed at most once under its own "computation" marker:
+ *
+ * - a thread which finds a value being computed by another thread waits for that computation to finish;
+ * - if waiting could lead to a deadlock (the owner of the computation is, directly or transitively, waiting for the current thread,
+ *   or the current thread is inside of a {@link #compute(Function0)} block), the current thread computes the value itself,
+ *   and the first published result wins;
+ * - recursion (a computation calling itself on the same thread) is detected exactly as in {@link LockBasedStorageManager}.
+ *
+ * {@link #compute(Function0)} blocks are still executed under the single lock of this storage manager.
+ *
+ * Note that postCompute of lazy values is executed after the value is published, and there's no lock which would prevent
+ * other threads from observing the value before postCompute is finished.
+ */
+public class FineGrainedLockBasedStorageManager extends LockBasedStorageManager {
+    // How often waiting threads re-check the wait-for graph, in case a deadlock was formed concurrently with the initial check
+    private static final long DEADLOCK_CHECK_INTERVAL_MS = 50;
+
+    // Computation which each blocked thread is waiting for; used to detect cycles in the wait-for graph
+    private static final ConcurrentMap<Thread, Computation> WAITING_FOR = new ConcurrentHashMap<Thread, Computation>();
+
+    // Values (or keys of memoized functions) which are computed by the current thread without a computation marker, see computeRacing
+    private static final ThreadLocal<Set<Object>> RACING_COMPUTATIONS = new ThreadLocal<Set<Object>>() {
+        @Override
+        protected Set<Object> initialValue() {
+            return new HashSet<Object>();
+        }
+    };
+
+    public FineGrainedLockBasedStorageManager(@NotNull String debugText) {
+        this(debugText, ExceptionHandlingStrategy.THROW);
+    }
+
+    public FineGrainedLockBasedStorageManager(@NotNull String debugText, @NotNull ExceptionHandlingStrategy exceptionHandlingStrategy) {
+        super(debugText, exceptionHandlingStrategy, new ReentrantLock());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new MemoizedFunctionToNotNullImpl<K, V>(map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new MemoizedFunction<K, V>(map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValue(@NotNull Function0<? extends T> computable) {
+        return new NotNullLazyValueImpl<T>(computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createRecursionTolerantLazyValue(
+            @NotNull Function0<? extends T> computable, @NotNull final T onRecursiveCall
+    ) {
+        return new NotNullLazyValueImpl<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                return onRecursiveCall;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable,
+            final Function1<? super Boolean, ? extends T> onRecursiveCall,
+            @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new NotNullLazyValueImpl<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                if (onRecursiveCall == null) {
+                    return super.recursionDetected(firstTime);
+                }
+                return onRecursiveCall.invoke(firstTime);
+            }
+
+            @Override
+            protected void postCompute(T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValue(@NotNull Function0<? extends T> computable) {
+        return new LazyValue<T>(computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createRecursionTolerantNullableLazyValue(@NotNull Function0<? extends T> computable, final T onRecursiveCall) {
+        return new LazyValue<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                return onRecursiveCall;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable, @NotNull final Function1<? super T, Unit> postCompute
+    ) {
+        return new LazyValue<T>(computable) {
+            @Override
+            protected void postCompute(T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <K, V> CacheWithNullableValues<K, V> createCacheWithNullableValues() {
+        return new CacheWithNullableValuesImpl<K, V>(new ConcurrentHashMap<KeyWithComputation<K, V>, Object>(3, 1, 2));
+    }
+
+    @NotNull
+    @Override
+    public <K, V> CacheWithNotNullValues<K, V> createCacheWithNotNullValues() {
+        return new CacheWithNotNullValuesImpl<K, V>(new ConcurrentHashMap<KeyWithComputation<K, V>, Object>(3, 1, 2));
+    }
+
+    /**
+     * Blocks until the given computation, started by another thread, is finished.
+     *
+     * @return {@code false} if waiting is not possible because it could lead to a deadlock; the caller should compute the value itself
+     */
+    private boolean awaitComputation(@NotNull Computation computation) {
+        if (((ReentrantLock) lock).isHeldByCurrentThread()) return false;
+
+        Thread currentThread = Thread.currentThread();
+        WAITING_FOR.put(currentThread, computation);
+        try {
+            while (!computation.isFinished()) {
+                if (isWaitingFor(computation.owner, currentThread)) return false;
+                computation.await(DEADLOCK_CHECK_INTERVAL_MS);
+            }
+            return true;
+        }
+        catch (InterruptedException e) {
+            currentThread.interrupt();
+            return false;
+        }
+        finally {
+            WAITING_FOR.remove(currentThread);
+        }
+    }
+
+    private static boolean isWaitingFor(@NotNull Thread thread, @NotNull Thread target) {
+        // The graph may change while we walk it, so the number of steps is bounded to avoid looping on a stale cycle
+        Thread current = thread;
+        for (int steps = WAITING_FOR.size() + 1; steps >= 0 && current != null; steps--) {
+            if (current == target) return true;
+            Computation computation = WAITING_FOR.get(current);
+            current = computation != null ? computation.owner : null;
+        }
+        return false;
+    }
+
+    @NotNull
+    private IllegalStateException recursiveCallInLazyValue() {
+        return sanitizeStackTrace(new IllegalStateException("Recursive call in a lazy value under " + this));
+    }
+
+    private static final class Computation {
+        private final Thread owner = Thread.currentThread();
+
+        // Only accessed by the owner thread
+        private boolean recursionDetected = false;
+
+        private boolean finished = false;
+
+        synchronized boolean isFinished() {
+            return finished;
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void await(long timeoutMs) throws InterruptedException {
+            if (!finished) {
+                wait(timeoutMs);
+            }
+        }
+    }
+
+    private enum NotValue {
+        NOT_COMPUTED,
+        RECURSION_WAS_DETECTED
+    }
+
+    private class LazyValue<T> implements NullableLazyValue<T> {
+        private final Function0<? extends T> computable;
+
+        // NotValue, Computation, or the computed value with exceptions escaped. Not private to be accessible by VALUE_UPDATER
+        @Nullable
+        volatile Object value = NotValue.NOT_COMPUTED;
+
+        LazyValue(@NotNull Function0<? extends T> computable) {
+            this.computable = computable;
+        }
+
+        @Override
+        public boolean isComputed() {
+            Object _value = value;
+            return _value != NotValue.NOT_COMPUTED && !(_value instanceof Computation);
+        }
+
+        @Override
+        public boolean isComputing() {
+            return value instanceof Computation;
+        }
+
+        @Override
+        public T invoke() {
+            while (true) {
+                Object _value = value;
+                if (!(_value instanceof NotValue) && !(_value instanceof Computation)) return WrappedValues.unescapeThrowable(_value);
+
+                if (_value instanceof Computation) {
+                    Computation computation = (Computation) _value;
+                    if (computation.owner == Thread.currentThread()) {
+                        boolean firstTime = !computation.recursionDetected;
+                        computation.recursionDetected = true;
+                        return recursionDetected(firstTime);
+                    }
+                    if (awaitComputation(computation)) continue;
+                    return computeRacing();
+                }
+
+                if (_value == NotValue.RECURSION_WAS_DETECTED) {
+                    return recursionDetected(/* firstTime = */ false);
+                }
+
+                Computation computation = new Computation();
+                if (VALUE_UPDATER.compareAndSet(this, _value, computation)) {
+                    return compute(computation);
+                }
+            }
+        }
+
+        private T compute(@NotNull Computation computation) {
+            try {
+                T typedValue = computable.invoke();
+                if (!VALUE_UPDATER.compareAndSet(this, computation, typedValue)) {
+                    // The value has been published by a thread which could not wait for this computation, see computeRacing
+                    return WrappedValues.unescapeThrowable(value);
+                }
+                postCompute(typedValue);
+                return typedValue;
+            }
+            catch (Throwable throwable) {
+                if (ExceptionUtilsKt.isProcessCanceledException(throwable)) {
+                    value = NotValue.NOT_COMPUTED;
+                    //noinspection ConstantConditions
+                    throw (RuntimeException) throwable;
+                }
+
+                // Store only if it's a genuine result, not something thrown through recursionDetected()
+                Object result = computation.recursionDetected ? NotValue.RECURSION_WAS_DETECTED : WrappedValues.escapeThrowable(throwable);
+                VALUE_UPDATER.compareAndSet(this, computation, result);
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                computation.finish();
+            }
+        }
+
+        // Computes the value without marking it as being computed by the current thread, and publishes it unless another thread
+        // has already done so. This is only used when waiting for the owner of the computation could lead to a deadlock
+        private T computeRacing() {
+            Set<Object> racingComputations = RACING_COMPUTATIONS.get();
+            if (!racingComputations.add(this)) {
+                return recursionDetected(/* firstTime = */ true);
+            }
+
+            T typedValue;
+            try {
+                typedValue = computable.invoke();
+            }
+            catch (Throwable throwable) {
+                if (ExceptionUtilsKt.isProcessCanceledException(throwable)) {
+                    //noinspection ConstantConditions
+                    throw (RuntimeException) throwable;
+                }
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                racingComputations.remove(this);
+            }
+
+            while (true) {
+                Object _value = value;
+                if (!(_value instanceof NotValue) && !(_value instanceof Computation)) return WrappedValues.unescapeThrowable(_value);
+                if (VALUE_UPDATER.compareAndSet(this, _value, typedValue)) {
+                    postCompute(typedValue);
+                    return typedValue;
+                }
+            }
+        }
+
+        /**
+         * @param firstTime {@code true} when recursion has been just detected, {@code false} otherwise
+         * @return a value to be returned on a recursive call or subsequent calls
+         */
+        protected T recursionDetected(boolean firstTime) {
+            throw recursiveCallInLazyValue();
+        }
+
+        protected void postCompute(T value) {
+            // Doing something in post-compute helps prevent infinite recursion
+        }
+
+        @NotNull
+        public String renderDebugInformation() {
+            return getClass().getName() + ", storageManager=" + FineGrainedLockBasedStorageManager.this;
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LazyValue, Object> VALUE_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(LazyValue.class, Object.class, "value");
+
+    private class NotNullLazyValueImpl<T> extends LazyValue<T> implements NotNullLazyValue<T> {
+        NotNullLazyValueImpl(@NotNull Function0<? extends T> computable) {
+            super(computable);
+        }
+
+        @Override
+        @NotNull
+        public T invoke() {
+            T result = super.invoke();
+            assert result != null : "compute() returned null";
+            return result;
+        }
+    }
+
+    private class MemoizedFunction<K, V> implements MemoizedFunctionToNullable<K, V> {
+        // Values are Computation markers, or the computed values with nulls and exceptions escaped
+        private final ConcurrentMap<K, Object> cache;
+        private final Function1<? super K, ? extends V> compute;
+
+        MemoizedFunction(@NotNull ConcurrentMap<K, Object> map, @NotNull Function1<? super K, ? extends V> compute) {
+            this.cache = map;
+            this.compute = compute;
+        }
+
+        @Override
+        @Nullable
+        public V invoke(K input) {
+            while (true) {
+                Object value = cache.get(input);
+                if (value != null && !(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+                if (value != null) {
+                    Computation computation = (Computation) value;
+                    if (computation.owner == Thread.currentThread()) {
+                        throw recursionDetected(input);
+                    }
+                    if (awaitComputation(computation)) continue;
+                    return computeRacing(input);
+                }
+
+                Computation computation = new Computation();
+                if (cache.putIfAbsent(input, computation) == null) {
+                    return compute(input, computation);
+                }
+            }
+        }
+
+        private V compute(K input, @NotNull Computation computation) {
+            try {
+                V typedValue = compute.invoke(input);
+                if (!cache.replace(input, computation, WrappedValues.escapeNull(typedValue))) {
+                    // The value has been published by a thread which could not wait for this computation, see computeRacing
+                    Object value = cache.get(input);
+                    if (value != null && !(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+                }
+                return typedValue;
+            }
+            catch (Throwable throwable) {
+                if (ExceptionUtilsKt.isProcessCanceledException(throwable)) {
+                    cache.remove(input, computation);
+                    //noinspection ConstantConditions
+                    throw (RuntimeException) throwable;
+                }
+
+                cache.replace(input, computation, WrappedValues.escapeThrowable(throwable));
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                computation.finish();
+            }
+        }
+
+        // See LazyValue.computeRacing
+        private V computeRacing(K input) {
+            Set<Object> racingComputations = RACING_COMPUTATIONS.get();
+            RacingKey racingKey = new RacingKey(this, input);
+            if (!racingComputations.add(racingKey)) {
+                throw recursionDetected(input);
+            }
+
+            V typedValue;
+            try {
+                typedValue = compute.invoke(input);
+            }
+            catch (Throwable throwable) {
+                if (ExceptionUtilsKt.isProcessCanceledException(throwable)) {
+                    //noinspection ConstantConditions
+                    throw (RuntimeException) throwable;
+                }
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                racingComputations.remove(racingKey);
+            }
+
+            Object escaped = WrappedValues.escapeNull(typedValue);
+            while (true) {
+                Object value = cache.get(input);
+                if (value == null) {
+                    if (cache.putIfAbsent(input, escaped) == null) return typedValue;
+                }
+                else if (value instanceof Computation) {
+                    if (cache.replace(input, value, escaped)) return typedValue;
+                }
+                else {
+                    return WrappedValues.unescapeExceptionOrNull(value);
+                }
+            }
+        }
+
+        @NotNull
+        private AssertionError recursionDetected(K input) {
+            return sanitizeStackTrace(
+                    new AssertionError("Recursion detected on input: " + input + " under " + FineGrainedLockBasedStorageManager.this)
+            );
+        }
+
+        @Override
+        public boolean isComputed(K key) {
+            Object value = cache.get(key);
+            return value != null && !(value instanceof Computation);
+        }
+    }
+
+    private class MemoizedFunctionToNotNullImpl<K, V> extends MemoizedFunction<K, V> implements MemoizedFunctionToNotNull<K, V> {
+        MemoizedFunctionToNotNullImpl(@NotNull ConcurrentMap<K, Object> map, @NotNull Function1<? super K, ? extends V> compute) {
+            super(map, compute);
+        }
+
+        @NotNull
+        @Override
+        public V invoke(K input) {
+            V result = super.invoke(input);
+            assert result != null : "compute() returned null under " + FineGrainedLockBasedStorageManager.this;
+            return result;
+        }
+    }
+
+    private class CacheWithNullableValuesImpl<K, V> extends MemoizedFunction<KeyWithComputation<K, V>, V>
+            implements CacheWithNullableValues<K, V> {
+        CacheWithNullableValuesImpl(@NotNull ConcurrentMap<KeyWithComputation<K, V>, Object> map) {
+            super(map, new Function1<KeyWithComputation<K, V>, V>() {
+                @Override
+                public V invoke(KeyWithComputation<K, V> computation) {
+                    return computation.computation.invoke();
+                }
+            });
+        }
+
+        @Nullable
+        @Override
+        public V computeIfAbsent(K key, @NotNull Function0<? extends V> computation) {
+            return invoke(new KeyWithComputation<K, V>(key, computation));
+        }
+    }
+
+    private class CacheWithNotNullValuesImpl<K, V> extends CacheWithNullableValuesImpl<K, V> implements CacheWithNotNullValues<K, V> {
+        CacheWithNotNullValuesImpl(@NotNull ConcurrentMap<KeyWithComputation<K, V>, Object> map) {
+            super(map);
+        }
+
+        @NotNull
+        @Override
+        public V computeIfAbsent(K key, @NotNull Function0<? extends V> computation) {
+            V result = super.computeIfAbsent(key, computation);
+            assert result != null : "computeIfAbsent() returned null under " + FineGrainedLockBasedStorageManager.this;
+            return result;
+        }
+    }
+
+    // Identifies a key of a particular memoized function in RACING_COMPUTATIONS
+    private static final class RacingKey {
+        private final Object function;
+        private final Object key;
+
+        RacingKey(@NotNull Object function, @Nullable Object key) {
+            this.function = function;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RacingKey)) return false;
+            RacingKey other = (RacingKey) o;
+            return function == other.function && (key == null ? other.key == null : key.equals(other.key));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(function) + (key != null ? key.hashCode() : 0);
+        }
+    }
+}
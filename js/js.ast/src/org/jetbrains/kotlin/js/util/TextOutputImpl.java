@@ -4,15 +4,21 @@
 
 package org.jetbrains.kotlin.js.util;
 
+import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
+
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 
 public class TextOutputImpl implements TextOutput {
+    private final static int flushThreshold = 1 << 16;
     private final boolean compact;
     private int identLevel = 0;
     private final static int indentGranularity = 2;
     private char[][] indents = new char[][] {new char[0]};
     private boolean justNewlined;
     private final StringBuilder out;
+    private final Writer writer;
     private int position = 0;
     private int line = 0;
     private int column = 0;
@@ -26,15 +32,50 @@ public class TextOutputImpl implements TextOutput {
     }
 
     public TextOutputImpl(boolean compact) {
+        this(compact, null);
+    }
+
+    /**
+     * Creates an output that passes the text to the writer in chunks, so that the whole text is never kept in memory.
+     * {@link #flush()} must be called when printing is finished, {@link #toString()} is not supported.
+     */
+    public TextOutputImpl(Writer writer, boolean compact) {
+        this(compact, writer);
+    }
+
+    private TextOutputImpl(boolean compact, Writer writer) {
         this.compact = compact;
-        out = new StringBuilder();
+        this.writer = writer;
+        out = new StringBuilder(writer != null ? flushThreshold * 2 : 16);
     }
 
     @Override
     public String toString() {
+        if (writer != null) {
+            throw new IllegalStateException("Text is written to the writer and is not kept by the output");
+        }
         return out.toString();
     }
 
+    public void flush() throws IOException {
+        if (writer == null) return;
+        writer.append(out);
+        writer.flush();
+        out.setLength(0);
+    }
+
+    private void flushIfNeeded() {
+        if (writer != null && out.length() >= flushThreshold) {
+            try {
+                writer.append(out);
+            }
+            catch (IOException e) {
+                throw ExceptionUtilsKt.rethrow(e);
+            }
+            out.setLength(0);
+        }
+    }
+
     @Override
     public int getPosition() {
         return position;
@@ -76,6 +117,7 @@ public class TextOutputImpl implements TextOutput {
         line++;
         column = 0;
         justNewlined = true;
+        flushIfNeeded();
     }
 
     @Override
@@ -137,6 +179,7 @@ public class TextOutputImpl implements TextOutput {
         position += charSequence.length();
         column += charSequence.length();
         out.append(charSequence);
+        flushIfNeeded();
     }
 
     private void printAndCount(char[] chars) {
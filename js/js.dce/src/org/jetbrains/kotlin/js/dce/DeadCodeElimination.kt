@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.js.dce
 
 import com.google.gwt.dev.js.rhino.CodePosition
 import com.google.gwt.dev.js.rhino.ErrorReporter
+import com.google.gwt.dev.js.rhino.Node as SyntaxNode
 import org.jetbrains.kotlin.js.backend.JsToStringGenerationVisitor
 import org.jetbrains.kotlin.js.backend.ast.JsBlock
 import org.jetbrains.kotlin.js.backend.ast.JsGlobalBlock
@@ -27,16 +28,19 @@ import org.jetbrains.kotlin.js.dce.Context.Node
 import org.jetbrains.kotlin.js.facade.SourceMapBuilderConsumer
 import org.jetbrains.kotlin.js.inline.util.collectDefinedNames
 import org.jetbrains.kotlin.js.inline.util.fixForwardNameReferences
-import org.jetbrains.kotlin.js.parser.parse
-import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapError
-import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapLocationRemapper
-import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapParser
-import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapSuccess
+import org.jetbrains.kotlin.js.parser.parseSyntax
+import org.jetbrains.kotlin.js.parser.sourcemaps.*
+import org.jetbrains.kotlin.js.parser.toJsStatements
 import org.jetbrains.kotlin.js.sourceMap.SourceFilePathResolver
 import org.jetbrains.kotlin.js.sourceMap.SourceMap3Builder
 import org.jetbrains.kotlin.js.util.TextOutputImpl
+import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus.withCurrentCanceledStatus
 import java.io.File
 import java.io.InputStreamReader
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
 
 class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit) {
     val moduleMapping = mutableMapOf<JsBlock, String>()
@@ -46,6 +50,10 @@ class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit
         private set
 
     fun apply(root: JsNode) {
+        Eliminator(analyze(root)).accept(root)
+    }
+
+    private fun analyze(root: JsNode): AnalysisResult {
         val context = Context()
 
         val topLevelVars = collectDefinedNames(root)
@@ -68,79 +76,189 @@ class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit
         }
         reachableNodes = usageFinder.reachableNodes
 
-        Eliminator(analyzer.analysisResult).accept(root)
+        return analyzer.analysisResult
     }
 
     companion object {
+        /**
+         * If [parallel] is true, input files are parsed, and output files are written, concurrently. The analysis is always
+         * performed in a single thread, and names are declared in the order of input files, so the result doesn't depend on the mode.
+         *
+         * If [incrementalStateDirectory] is not null, the state of the run is saved there, and the next run only rewrites output files
+         * for which either the input or the set of retained declarations has changed. Nothing is analyzed if no input has changed,
+         * unless [reachableNodesRequired] is true: reachable nodes are not persisted, so they're only reported by a full analysis
+         */
         fun run(
                 inputFiles: Collection<InputFile>,
                 rootReachableNames: Set<String>,
-                logConsumer: (DCELogLevel, String) -> Unit
+                logConsumer: (DCELogLevel, String) -> Unit,
+                parallel: Boolean = false,
+                incrementalStateDirectory: File? = null,
+                reachableNodesRequired: Boolean = false
+        ): DeadCodeEliminationResult {
+            val pool = if (parallel) ForkJoinPool() else null
+            try {
+                return run(inputFiles.toList(), rootReachableNames, logConsumer, pool, incrementalStateDirectory, reachableNodesRequired)
+            }
+            finally {
+                pool?.shutdown()
+            }
+        }
+
+        private class ParsedInput(
+                val node: SyntaxNode?,
+                val messages: List<Pair<DCELogLevel, String>>,
+                val sourceMapParse: SourceMapParseResult?
+        )
+
+        private fun run(
+                inputFiles: List<InputFile>,
+                rootReachableNames: Set<String>,
+                logConsumer: (DCELogLevel, String) -> Unit,
+                pool: ForkJoinPool?,
+                incrementalStateDirectory: File?,
+                reachableNodesRequired: Boolean
         ): DeadCodeEliminationResult {
+            val rootsHash = IncrementalDceState.hashRoots(rootReachableNames)
+            val inputHashes = incrementalStateDirectory?.let {
+                measurePhase("hashing", logConsumer) { inputFiles.mapConcurrently(pool) { IncrementalDceState.hashInput(it) } }
+            }
+            val previousState = incrementalStateDirectory?.let { IncrementalDceState.load(it) }
+            if (!reachableNodesRequired && inputHashes != null && previousState != null &&
+                previousState.isUpToDate(rootsHash, inputFiles.map { it.outputPath }.zip(inputHashes).toMap())
+            ) {
+                logConsumer(DCELogLevel.INFO, "DCE outputs are up to date")
+                return DeadCodeEliminationResult(emptySet(), DeadCodeEliminationStatus.OK)
+            }
+
             val program = JsProgram()
             val dce = DeadCodeElimination(logConsumer)
 
             var hasErrors = false
-            val blocks = inputFiles.map { file ->
-                val block = JsGlobalBlock()
-                val code = file.resource.reader().let { InputStreamReader(it, "UTF-8") }.use { it.readText() }
-                val statements = parse(code, Reporter(file.resource.name, logConsumer), program.scope, file.resource.name) ?: run {
-                    hasErrors = true
-                    return@map block
+            val blocks = measurePhase("parsing", logConsumer) {
+                // Messages are reported in the order of files after all of them are parsed
+                val parsedInputs = inputFiles.mapConcurrently(pool) { file ->
+                    val messages = mutableListOf<Pair<DCELogLevel, String>>()
+                    val code = file.resource.reader().let { InputStreamReader(it, "UTF-8") }.use { it.readText() }
+                    val node = parseSyntax(code, Reporter(file.resource.name) { level, message -> messages += level to message })
+                    val sourceMapParse = file.sourceMapResource
+                            ?.let { InputStreamReader(it.reader(), "UTF-8") }
+                            ?.use { SourceMapParser.parse(it) }
+                    ParsedInput(node, messages, sourceMapParse)
                 }
-                val sourceMapParse = file.sourceMapResource
-                        ?.let { InputStreamReader(it.reader(), "UTF-8") }
-                        ?.use { SourceMapParser.parse(it) }
-                when (sourceMapParse) {
-                    is SourceMapError -> {
+
+                val blocks = inputFiles.zip(parsedInputs).map { (file, parsedInput) ->
+                    parsedInput.messages.forEach { (level, message) -> logConsumer(level, message) }
+                    val block = JsGlobalBlock()
+                    if (parsedInput.node == null) {
+                        hasErrors = true
+                        return@map block
+                    }
+                    block.statements += toJsStatements(parsedInput.node, program.scope, file.resource.name)
+                    val sourceMapParse = parsedInput.sourceMapParse
+                    if (sourceMapParse is SourceMapError) {
                         logConsumer(
                                 DCELogLevel.WARN,
                                 "Error parsing source map file ${file.sourceMapResource}: ${sourceMapParse.message}")
                     }
-                    is SourceMapSuccess -> {
-                        val sourceMap = sourceMapParse.value
-                        val remapper = SourceMapLocationRemapper(sourceMap)
-                        statements.forEach { remapper.remap(it) }
+                    file.moduleName?.let { dce.moduleMapping[block] = it }
+                    block
+                }
+
+                parsedInputs.zip(blocks).mapConcurrently(pool) { (parsedInput, block) ->
+                    val sourceMapParse = parsedInput.sourceMapParse
+                    if (sourceMapParse is SourceMapSuccess) {
+                        val remapper = SourceMapLocationRemapper(sourceMapParse.value)
+                        block.statements.forEach { remapper.remap(it) }
                     }
                 }
-                block.statements += statements
-                file.moduleName?.let { dce.moduleMapping[block] = it }
-                block
+                blocks
             }
 
             if (hasErrors) return DeadCodeEliminationResult(emptySet(), DeadCodeEliminationStatus.FAILED)
 
-            program.globalBlock.statements += blocks
-            program.globalBlock.fixForwardNameReferences()
+            val eliminators = measurePhase("analysis", logConsumer) {
+                program.globalBlock.statements += blocks
+                program.globalBlock.fixForwardNameReferences()
 
-            dce.reachableNames += rootReachableNames
-            dce.apply(program.globalBlock)
+                dce.reachableNames += rootReachableNames
+                val analysisResult = dce.analyze(program.globalBlock)
+                blocks.map { block -> Eliminator(analysisResult).also { it.accept(block) } }
+            }
 
-            for ((file, block) in inputFiles.zip(blocks)) {
-                val sourceMapFile = File(file.outputPath + ".map")
-                val textOutput = TextOutputImpl()
-                val sourceMapBuilder = SourceMap3Builder(File(file.outputPath), textOutput, "")
+            measurePhase("writing", logConsumer) {
+                val retainedHashes = inputHashes?.zip(eliminators) { inputHash, eliminator ->
+                    IncrementalDceState.hashRetained(inputHash, eliminator)
+                }
+                val indicesToWrite = inputFiles.indices.filter { index ->
+                    val outputPath = inputFiles[index].outputPath
+                    val previousFileState = previousState?.files?.get(outputPath)
+                    retainedHashes == null || previousFileState == null || previousFileState.retainedHash != retainedHashes[index] ||
+                            previousFileState.outputStamp != IncrementalDceState.outputStamp(outputPath)
+                }
+                indicesToWrite.mapConcurrently(pool) { writeOutput(inputFiles[it], blocks[it]) }
 
-                val inputFile = File(file.resource.name)
-                val sourceBaseDir = if (inputFile.exists()) inputFile.parentFile else File(".")
+                if (incrementalStateDirectory != null && inputHashes != null && retainedHashes != null) {
+                    logConsumer(DCELogLevel.INFO, "DCE rewrote ${indicesToWrite.size} of ${inputFiles.size} output files")
+                    val fileStates = inputFiles.indices.associate { index ->
+                        val outputPath = inputFiles[index].outputPath
+                        outputPath to IncrementalDceState.FileState(
+                            inputHashes[index], retainedHashes[index], IncrementalDceState.outputStamp(outputPath)
+                        )
+                    }
+                    IncrementalDceState(rootsHash, fileStates).save(incrementalStateDirectory)
+                }
+            }
 
-                val sourcePathResolver = SourceFilePathResolver(emptyList(), File(file.outputPath).parentFile)
-                val consumer = SourceMapBuilderConsumer(sourceBaseDir, sourceMapBuilder, sourcePathResolver, true, true)
-                block.accept(JsToStringGenerationVisitor(textOutput, consumer))
-                val sourceMapContent = sourceMapBuilder.build()
-                sourceMapBuilder.addLink()
+            return DeadCodeEliminationResult(dce.reachableNodes, DeadCodeEliminationStatus.OK)
+        }
 
-                with(File(file.outputPath)) {
-                    parentFile.mkdirs()
-                    writeText(textOutput.toString())
-                }
+        private fun writeOutput(file: InputFile, block: JsBlock) {
+            val outputFile = File(file.outputPath)
+            outputFile.parentFile.mkdirs()
 
+            // Code and source map are written as they are generated, so that they are never kept in memory as a whole
+            outputFile.bufferedWriter().use { writer ->
+                val textOutput = TextOutputImpl(writer, false)
                 if (file.sourceMapResource != null) {
-                    sourceMapFile.writeText(sourceMapContent)
+                    File(file.outputPath + ".map").bufferedWriter().use { sourceMapWriter ->
+                        val sourceMapBuilder = SourceMap3Builder(outputFile, textOutput, "", sourceMapWriter)
+
+                        val inputFile = File(file.resource.name)
+                        val sourceBaseDir = if (inputFile.exists()) inputFile.parentFile else File(".")
+
+                        val sourcePathResolver = SourceFilePathResolver(emptyList(), outputFile.parentFile)
+                        val consumer = SourceMapBuilderConsumer(sourceBaseDir, sourceMapBuilder, sourcePathResolver, true, true)
+                        block.accept(JsToStringGenerationVisitor(textOutput, consumer))
+                        sourceMapBuilder.finish()
+                        sourceMapBuilder.addLink()
+                    }
+                }
+                else {
+                    block.accept(JsToStringGenerationVisitor(textOutput))
+                    SourceMap3Builder(outputFile, textOutput, "").addLink()
                 }
+                textOutput.flush()
             }
+        }
 
-            return DeadCodeEliminationResult(dce.reachableNodes, DeadCodeEliminationStatus.OK)
+        private inline fun <T> measurePhase(name: String, logConsumer: (DCELogLevel, String) -> Unit, phase: () -> T): T {
+            val start = System.nanoTime()
+            val result = phase()
+            logConsumer(DCELogLevel.INFO, "DCE $name took ${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)} ms")
+            return result
+        }
+
+        private fun <T, R> List<T>.mapConcurrently(pool: ForkJoinPool?, transform: (T) -> R): List<R> {
+            if (pool == null) return map(transform)
+            return pool.invokeAll(map { withCurrentCanceledStatus(Callable { transform(it) }) }).map { future ->
+                try {
+                    future.get()
+                }
+                catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
         }
 
         private class Reporter(private val fileName: String, private val logConsumer: (DCELogLevel, String) -> Unit) : ErrorReporter {
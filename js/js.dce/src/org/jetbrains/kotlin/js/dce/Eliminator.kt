@@ -17,8 +17,14 @@
 package org.jetbrains.kotlin.js.dce
 
 import org.jetbrains.kotlin.js.backend.ast.*
+import java.util.*
 
 class Eliminator(private val analysisResult: AnalysisResult) : JsVisitorWithContextImpl() {
+    // Decisions about visited statements in the order of visiting, the result of elimination in code is determined by them
+    val retained = BitSet()
+    var visitedCount = 0
+        private set
+
     override fun visit(x: JsVars.JsVar, ctx: JsContext<*>): Boolean = removeIfNecessary(x, ctx)
 
     override fun visit(x: JsExpressionStatement, ctx: JsContext<*>): Boolean = removeIfNecessary(x, ctx)
@@ -26,18 +32,16 @@ class Eliminator(private val analysisResult: AnalysisResult) : JsVisitorWithCont
     override fun visit(x: JsReturn, ctx: JsContext<*>): Boolean = removeIfNecessary(x, ctx)
 
     private fun removeIfNecessary(x: JsNode, ctx: JsContext<*>): Boolean {
-        if (x in analysisResult.astNodesToEliminate) {
-            ctx.removeMe()
-            return false
+        val used = x !in analysisResult.astNodesToEliminate && isUsed(analysisResult.nodeMap[x]?.original)
+        if (used) {
+            retained.set(visitedCount)
         }
-        val node = analysisResult.nodeMap[x]?.original
-        return if (!isUsed(node)) {
+        visitedCount++
+
+        if (!used) {
             ctx.removeMe()
-            false
-        }
-        else {
-            true
         }
+        return used
     }
 
     override fun endVisit(x: JsVars, ctx: JsContext<*>) {
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.dce
+
+import java.io.*
+import java.security.MessageDigest
+
+/**
+ * State of incremental DCE persisted between runs: a hash of names requested to be reachable and, by output paths,
+ * hashes of input files, fingerprints of their parts retained by DCE and stamps of the written output files.
+ * An output file is rewritten only if its fingerprint or stamp differs from the saved one
+ */
+class IncrementalDceState(val rootsHash: String, val files: Map<String, FileState>) {
+    class FileState(val inputHash: String, val retainedHash: String, val outputStamp: String)
+
+    fun isUpToDate(rootsHash: String, inputHashes: Map<String, String>): Boolean =
+        rootsHash == this.rootsHash && inputHashes.size == files.size &&
+                inputHashes.all { (outputPath, inputHash) ->
+                    val state = files[outputPath]
+                    state != null && state.inputHash == inputHash && state.outputStamp == outputStamp(outputPath)
+                }
+
+    fun save(directory: File) {
+        val bytes = ByteArrayOutputStream().also { bytes ->
+            DataOutputStream(bytes).use { output ->
+                output.writeInt(MAGIC)
+                output.writeInt(VERSION)
+                output.writeUTF(rootsHash)
+                output.writeInt(files.size)
+                for ((outputPath, state) in files) {
+                    output.writeUTF(outputPath)
+                    output.writeUTF(state.inputHash)
+                    output.writeUTF(state.retainedHash)
+                    output.writeUTF(state.outputStamp)
+                }
+            }
+        }.toByteArray()
+
+        // Written to a temporary file first, so that an interrupted run never leaves an incomplete state
+        directory.mkdirs()
+        val temporary = File.createTempFile(STATE_FILE_NAME, ".tmp", directory)
+        temporary.writeBytes(bytes)
+        val file = File(directory, STATE_FILE_NAME)
+        if (!temporary.renameTo(file)) {
+            file.delete()
+            if (!temporary.renameTo(file)) {
+                temporary.delete()
+            }
+        }
+    }
+
+    companion object {
+        private const val MAGIC = 0x4B444345
+        private const val VERSION = 2
+        private const val STATE_FILE_NAME = "dce-state.bin"
+
+        fun load(directory: File): IncrementalDceState? {
+            val file = File(directory, STATE_FILE_NAME)
+            if (!file.exists()) return null
+            return try {
+                DataInputStream(file.inputStream().buffered()).use { input ->
+                    if (input.readInt() != MAGIC || input.readInt() != VERSION) return null
+                    val rootsHash = input.readUTF()
+                    val files = LinkedHashMap<String, FileState>()
+                    repeat(input.readInt()) {
+                        files[input.readUTF()] = FileState(input.readUTF(), input.readUTF(), input.readUTF())
+                    }
+                    IncrementalDceState(rootsHash, files)
+                }
+            }
+            catch (e: IOException) {
+                // A broken state is discarded, all outputs are written then
+                null
+            }
+        }
+
+        fun hashRoots(rootReachableNames: Set<String>): String =
+            hash { digest -> rootReachableNames.sorted().forEach { digest.update("$it\n".toByteArray(Charsets.UTF_8)) } }
+
+        // Paths are hashed too, because they're written to the output: the output file refers to its source map,
+        // and paths of sources in the source map are resolved relative to the input source map
+        fun hashInput(file: InputFile): String =
+            hash { digest ->
+                digest.update("${file.moduleName}\n".toByteArray(Charsets.UTF_8))
+                digest.update("${file.outputPath}\n${file.resource.name}\n${file.sourceMapResource?.name}\n".toByteArray(Charsets.UTF_8))
+                val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+                for (resource in listOfNotNull(file.resource, file.sourceMapResource)) {
+                    resource.reader().use { input ->
+                        while (true) {
+                            val count = input.read(buffer)
+                            if (count < 0) break
+                            digest.update(buffer, 0, count)
+                        }
+                    }
+                    // Separates contents of code and source map
+                    digest.update(0.toByte())
+                }
+            }
+
+        // The output of DCE for a file is determined by the contents of the file and by decisions made by the eliminator
+        fun hashRetained(inputHash: String, eliminator: Eliminator): String =
+            hash { digest ->
+                digest.update(inputHash.toByteArray(Charsets.UTF_8))
+                digest.update(eliminator.visitedCount.toString().toByteArray(Charsets.UTF_8))
+                digest.update(eliminator.retained.toByteArray())
+            }
+
+        fun outputStamp(outputPath: String): String =
+            listOf(File(outputPath), File("$outputPath.map")).joinToString(";") {
+                if (it.exists()) "${it.length()}:${it.lastModified()}" else "-"
+            }
+
+        private inline fun hash(update: (MessageDigest) -> Unit): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            update(digest)
+            return digest.digest().joinToString("") { String.format("%02x", it) }
+        }
+    }
+}
@@ -69,4 +69,7 @@ public class JSConfigurationKeys {
 
     public static final CompilerConfigurationKey<List<String>> FRIEND_PATHS =
             CompilerConfigurationKey.create("friend module paths");
+
+    public static final CompilerConfigurationKey<File> INLINE_FUNCTION_INDEX_DIRECTORY =
+            CompilerConfigurationKey.create("directory for indexes of inline functions in libraries");
 }
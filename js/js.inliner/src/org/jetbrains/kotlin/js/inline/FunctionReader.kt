@@ -27,8 +27,9 @@ import org.jetbrains.kotlin.js.config.JSConfigurationKeys
 import org.jetbrains.kotlin.js.config.JsConfig
 import org.jetbrains.kotlin.js.inline.util.*
 import org.jetbrains.kotlin.js.parser.OffsetToSourceMapping
-import org.jetbrains.kotlin.js.parser.parseFunction
+import org.jetbrains.kotlin.js.parser.parseFunctionSyntax
 import org.jetbrains.kotlin.js.parser.sourcemaps.*
+import org.jetbrains.kotlin.js.parser.toJsFunction
 import org.jetbrains.kotlin.js.translate.context.Namer
 import org.jetbrains.kotlin.js.translate.expression.InlineMetadata
 import org.jetbrains.kotlin.js.translate.utils.JsAstUtils
@@ -77,10 +78,13 @@ class FunctionReader(
         val specialFunctions: Map<String, SpecialFunction>,
         offsetToSourceMappingProvider: () -> OffsetToSourceMapping,
         val sourceMap: SourceMap?,
-        val outputDir: File?
+        val outputDir: File?,
+        functionIndexProvider: () -> InlineFunctionIndex
     ) {
         val offsetToSourceMapping by lazy(offsetToSourceMappingProvider)
 
+        val functionIndex by lazy(functionIndexProvider)
+
         val wrapFunctionRegex = specialFunctions.entries
             .singleOrNull { (_, v) -> v == SpecialFunction.WRAP_FUNCTION }?.key
             ?.let { Regex("\\s*$it\\s*\\(\\s*").toPattern() }
@@ -89,59 +93,69 @@ class FunctionReader(
     private val moduleNameToInfo by lazy {
         val result = HashMultimap.create<String, ModuleInfo>()
 
-        JsLibraryUtils.traverseJsLibraries(config.libraries.map(::File)) { (content, path, sourceMapContent, file) ->
-            var current = 0
-
-            while (true) {
-                var index = content.indexOf(DEFINE_MODULE_FIND_PATTERN, current)
-                if (index < 0) break
-
-                current = index + 1
-                index = rewindToIdentifierStart(content, index)
-                val preciseMatcher = DEFINE_MODULE_PATTERN.matcher(offset(content, index))
-                if (!preciseMatcher.lookingAt()) continue
-
-                val moduleName = preciseMatcher.group(3)
-                val moduleVariable = preciseMatcher.group(4)
-                val kotlinVariable = preciseMatcher.group(1)
-
-                val matcher = SPECIAL_FUNCTION_PATTERN.matcher(content)
-                val specialFunctions = mutableMapOf<String, SpecialFunction>()
-                while (matcher.find()) {
-                    if (matcher.group(2) == kotlinVariable) {
-                        specialFunctions[matcher.group(1)] = specialFunctionsByName[matcher.group(3)]!!
-                    }
+        for (library in config.libraries.map(::File)) {
+            JsLibraryUtils.traverseJsLibrary(library) { (content, path, sourceMapContent, file) ->
+                // Shared by all modules defined in the file
+                val functionIndex = lazy {
+                    val libraryKey = InlineFunctionIndex.libraryKey(file ?: library, path, content.length)
+                    SharedInlineFunctionCache.getIndex(libraryKey, content, functionIndexDirectory)
                 }
+                var current = 0
+
+                while (true) {
+                    var index = content.indexOf(DEFINE_MODULE_FIND_PATTERN, current)
+                    if (index < 0) break
+
+                    current = index + 1
+                    index = rewindToIdentifierStart(content, index)
+                    val preciseMatcher = DEFINE_MODULE_PATTERN.matcher(offset(content, index))
+                    if (!preciseMatcher.lookingAt()) continue
+
+                    val moduleName = preciseMatcher.group(3)
+                    val moduleVariable = preciseMatcher.group(4)
+                    val kotlinVariable = preciseMatcher.group(1)
+
+                    val matcher = SPECIAL_FUNCTION_PATTERN.matcher(content)
+                    val specialFunctions = mutableMapOf<String, SpecialFunction>()
+                    while (matcher.find()) {
+                        if (matcher.group(2) == kotlinVariable) {
+                            specialFunctions[matcher.group(1)] = specialFunctionsByName[matcher.group(3)]!!
+                        }
+                    }
 
-                val sourceMap = sourceMapContent?.let {
-                    val sourceMapResult = SourceMapParser.parse(StringReader(it))
-                    when (sourceMapResult) {
-                        is SourceMapSuccess -> sourceMapResult.value
-                        is SourceMapError -> {
-                            reporter.warning("Error parsing source map file for $path: ${sourceMapResult.message}")
-                            null
+                    val sourceMap = sourceMapContent?.let {
+                        val sourceMapResult = SourceMapParser.parse(StringReader(it))
+                        when (sourceMapResult) {
+                            is SourceMapSuccess -> sourceMapResult.value
+                            is SourceMapError -> {
+                                reporter.warning("Error parsing source map file for $path: ${sourceMapResult.message}")
+                                null
+                            }
                         }
                     }
-                }
 
-                val moduleInfo = ModuleInfo(
-                    filePath = path,
-                    fileContent = content,
-                    moduleVariable = moduleVariable,
-                    kotlinVariable = kotlinVariable,
-                    specialFunctions = specialFunctions,
-                    offsetToSourceMappingProvider = { OffsetToSourceMapping(content) },
-                    sourceMap = sourceMap,
-                    outputDir = file?.parentFile
-                )
-
-                result.put(moduleName, moduleInfo)
+                    val moduleInfo = ModuleInfo(
+                        filePath = path,
+                        fileContent = content,
+                        moduleVariable = moduleVariable,
+                        kotlinVariable = kotlinVariable,
+                        specialFunctions = specialFunctions,
+                        offsetToSourceMappingProvider = { OffsetToSourceMapping(content) },
+                        sourceMap = sourceMap,
+                        outputDir = file?.parentFile,
+                        functionIndexProvider = { functionIndex.value }
+                    )
+
+                    result.put(moduleName, moduleInfo)
+                }
             }
         }
 
         result
     }
 
+    private val functionIndexDirectory = config.configuration[JSConfigurationKeys.INLINE_FUNCTION_INDEX_DIRECTORY]
+
     private val shouldRemapPathToRelativeForm = config.shouldGenerateRelativePathsInSourceMap()
     private val relativePathCalculator = config.configuration[JSConfigurationKeys.OUTPUT_DIR]?.let { RelativePathCalculator(it) }
 
@@ -226,13 +240,13 @@ class FunctionReader(
     private fun readFunctionFromSource(descriptor: CallableDescriptor, info: ModuleInfo): FunctionWithWrapper? {
         val source = info.fileContent
         var tag = Namer.getFunctionTag(descriptor, config)
-        var index = source.indexOf(tag)
+        var index = findTag(tag, info)
 
         // Hack for compatibility with old versions of stdlib
         // TODO: remove in 1.2
         if (index < 0 && tag == "kotlin.untypedCharArrayF") {
             tag = "kotlin.charArrayF"
-            index = source.indexOf(tag)
+            index = findTag(tag, info)
         }
 
         if (index < 0) return null
@@ -250,9 +264,12 @@ class FunctionReader(
             offset += wrapFunctionMatcher!!.end()
         }
 
-        val position = info.offsetToSourceMapping[offset]
+        val syntaxTree = SharedInlineFunctionCache.getParsedFunction(info.functionIndex, offset) {
+            val position = info.offsetToSourceMapping[offset]
+            parseFunctionSyntax(source, position, offset, ThrowExceptionOnErrorReporter)
+        } ?: return null
         val jsScope = JsRootScope(JsProgram())
-        val functionExpr = parseFunction(source, info.filePath, position, offset, ThrowExceptionOnErrorReporter, jsScope) ?: return null
+        val functionExpr = toJsFunction(syntaxTree, jsScope, info.filePath)
         functionExpr.fixForwardNameReferences()
         val (function, wrapper) = if (isWrapped) {
             InlineMetadata.decomposeWrapper(functionExpr) ?: return null
@@ -297,6 +314,17 @@ class FunctionReader(
         return FunctionWithWrapper(function, wrapper)
     }
 
+    // Tags are almost always found in the index, the content is only scanned for tags that are not passed to a call
+    private fun findTag(tag: String, info: ModuleInfo): Int {
+        val statistics = SharedInlineFunctionCache.statistics
+        info.functionIndex[tag]?.let {
+            statistics.indexHits.incrementAndGet()
+            return it
+        }
+        statistics.indexMisses.incrementAndGet()
+        return info.fileContent.indexOf(tag)
+    }
+
     private fun markSpecialFunctions(function: JsFunction, allDefinedNames: Set<JsName>, info: ModuleInfo, scope: JsScope) {
         for (externalName in (collectReferencedNames(function) - allDefinedNames)) {
             info.specialFunctions[externalName.ident]?.let {
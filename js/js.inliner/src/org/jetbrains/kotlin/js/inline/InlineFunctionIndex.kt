@@ -0,0 +1,172 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.inline
+
+import com.google.gwt.dev.js.rhino.Node
+import java.io.*
+import java.lang.ref.SoftReference
+import java.security.MessageDigest
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Offsets of string literals passed as the first argument of a call in the content of a JS library, e.g. of tags of inline functions
+ * in `defineInlineFunction('kotlin.kotlin.collections.map_b0v8$', ...)`. Only the first occurrence of each literal is kept
+ */
+class InlineFunctionIndex private constructor(val libraryKey: String, private val offsets: Map<String, Int>) {
+    val size: Int
+        get() = offsets.size
+
+    operator fun get(tag: String): Int? = offsets[tag]
+
+    fun save(file: File) {
+        val bytes = ByteArrayOutputStream().also { bytes ->
+            DataOutputStream(bytes).use { output ->
+                output.writeInt(MAGIC)
+                output.writeInt(VERSION)
+                output.writeUTF(libraryKey)
+                output.writeInt(offsets.size)
+                for ((tag, offset) in offsets) {
+                    output.writeUTF(tag)
+                    output.writeInt(offset)
+                }
+            }
+        }.toByteArray()
+
+        // Written to a temporary file first, so that a concurrent compilation never reads an incomplete index
+        val temporary = File.createTempFile(file.name, ".tmp", file.parentFile)
+        try {
+            temporary.writeBytes(bytes)
+            if (!temporary.renameTo(file)) {
+                temporary.delete()
+            }
+        }
+        catch (e: IOException) {
+            temporary.delete()
+            throw e
+        }
+    }
+
+    companion object {
+        private const val MAGIC = 0x4B4A5349
+        private const val VERSION = 2
+
+        private val FIRST_ARGUMENT_LITERAL_PATTERN = Regex("\\(\\s*(['\"])([^'\"\\\\\\s]+)\\1\\s*,").toPattern()
+
+        fun build(content: String, libraryKey: String): InlineFunctionIndex {
+            val offsets = HashMap<String, Int>()
+            val matcher = FIRST_ARGUMENT_LITERAL_PATTERN.matcher(content)
+            while (matcher.find()) {
+                offsets.putIfAbsent(matcher.group(2), matcher.start(2))
+            }
+            return InlineFunctionIndex(libraryKey, offsets)
+        }
+
+        fun load(file: File): InlineFunctionIndex? =
+            try {
+                DataInputStream(file.inputStream().buffered()).use { input ->
+                    if (input.readInt() != MAGIC || input.readInt() != VERSION) return null
+                    val libraryKey = input.readUTF()
+                    val count = input.readInt()
+                    val offsets = HashMap<String, Int>(count * 2)
+                    repeat(count) {
+                        offsets[input.readUTF()] = input.readInt()
+                    }
+                    InlineFunctionIndex(libraryKey, offsets)
+                }
+            }
+            catch (e: IOException) {
+                null
+            }
+
+        /**
+         * Identifies the content of a JS library without reading it: [file] is the library file or the archive that contains
+         * the library at [path], so it's assumed that the content doesn't change while the size and the modification time
+         * of the file stay the same. The length of the content distinguishes libraries that were read from the same archive
+         */
+        fun libraryKey(file: File, path: String, contentLength: Int): String =
+            "${file.absolutePath}:${file.length()}:${file.lastModified()}!$path:$contentLength"
+
+        fun fileName(libraryKey: String): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            return digest.digest(libraryKey.toByteArray(Charsets.UTF_8)).joinToString("") { String.format("%02x", it) } + ".inline-index"
+        }
+    }
+}
+
+/**
+ * Indexes and parsed inline functions of JS libraries shared by all compilations in the process, e.g. in the daemon.
+ * Libraries are identified by [InlineFunctionIndex.libraryKey]. Parsed functions are held softly, because there can be many of them
+ */
+object SharedInlineFunctionCache {
+    private const val MAX_INDEXES = 100
+    private const val MAX_PARSED_FUNCTIONS = 10000
+
+    // Tags of inline functions found in indexes or looked up in contents of libraries, and functions parsed or taken from the cache
+    class Statistics {
+        val indexHits = AtomicLong()
+        val indexMisses = AtomicLong()
+        val parsedFunctionHits = AtomicLong()
+        val parsedFunctionMisses = AtomicLong()
+
+        override fun toString(): String =
+            "inline function index: ${indexHits.get()} hits, ${indexMisses.get()} misses; " +
+                    "parsed functions: ${parsedFunctionHits.get()} hits, ${parsedFunctionMisses.get()} misses"
+    }
+
+    val statistics = Statistics()
+
+    // Contents of libraries being compiled change often, so only recently used libraries are kept. An index is built once
+    // by the first compilation that requests it, without holding the lock of the map, so that other libraries can be indexed meanwhile
+    private val indexes = lruMap<String, Lazy<InlineFunctionIndex>>(MAX_INDEXES)
+
+    // Syntax trees of functions by keys of libraries and offsets of functions
+    private val parsedFunctions = lruMap<Pair<String, Int>, SoftReference<Node>>(MAX_PARSED_FUNCTIONS)
+
+    /**
+     * Returns the index of [content] of the library identified by [libraryKey], which is loaded from or saved to [directory]
+     * if it's not null
+     */
+    fun getIndex(libraryKey: String, content: String, directory: File?): InlineFunctionIndex =
+        indexes.computeIfAbsent(libraryKey) { lazy { loadOrBuildIndex(libraryKey, content, directory) } }.value
+
+    private fun loadOrBuildIndex(libraryKey: String, content: String, directory: File?): InlineFunctionIndex {
+        val file = directory?.let { File(it, InlineFunctionIndex.fileName(libraryKey)) }
+        return file?.takeIf { it.exists() }?.let { InlineFunctionIndex.load(it) }?.takeIf { it.libraryKey == libraryKey }
+                ?: InlineFunctionIndex.build(content, libraryKey).also { index ->
+                    if (file != null) {
+                        try {
+                            file.parentFile.mkdirs()
+                            index.save(file)
+                        }
+                        catch (e: IOException) {
+                            // The index is built again by the next compilation
+                        }
+                    }
+                }
+    }
+
+    // A function parsed concurrently by several compilations is cached by the last one, which is harmless because trees are equal
+    fun getParsedFunction(index: InlineFunctionIndex, offset: Int, parse: () -> Node?): Node? {
+        val key = index.libraryKey to offset
+        parsedFunctions[key]?.get()?.let {
+            statistics.parsedFunctionHits.incrementAndGet()
+            return it
+        }
+        statistics.parsedFunctionMisses.incrementAndGet()
+        return parse()?.also { parsedFunctions[key] = SoftReference(it) }
+    }
+
+    fun clear() {
+        indexes.clear()
+        parsedFunctions.clear()
+    }
+
+    private fun <K, V> lruMap(maxSize: Int): MutableMap<K, V> =
+        Collections.synchronizedMap(object : LinkedHashMap<K, V>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>): Boolean = size > maxSize
+        })
+}
@@ -23,13 +23,22 @@ import java.io.Reader
 import java.io.StringReader
 
 fun parse(code: String, reporter: ErrorReporter, scope: JsScope, fileName: String): List<JsStatement>? {
-    val insideFunction = scope is JsFunctionScope
-    val node = parse(code, CodePosition(0, 0), 0, reporter, insideFunction, Parser::parse)
-    return node?.toJsAst(scope, fileName) {
-        mapStatements(it)
-    }
+    val node = parseSyntax(code, reporter, insideFunction = scope is JsFunctionScope)
+    return node?.let { toJsStatements(it, scope, fileName) }
 }
 
+/**
+ * The first step of [parse], which doesn't declare names in any scope. It can be performed concurrently for several files,
+ * that are converted to statements of the same scope by [toJsStatements] afterwards
+ */
+fun parseSyntax(code: String, reporter: ErrorReporter, insideFunction: Boolean = false): Node? =
+        parse(code, CodePosition(0, 0), 0, reporter, insideFunction, Parser::parse)
+
+fun toJsStatements(node: Node, scope: JsScope, fileName: String): List<JsStatement> =
+        node.toJsAst(scope, fileName) {
+            mapStatements(it)
+        }
+
 fun parseExpressionOrStatement(
         code: String,
         reporter: ErrorReporter, scope: JsScope,
@@ -67,13 +76,23 @@ fun parseExpressionOrStatement(
 }
 
 fun parseFunction(code: String, fileName: String, position: CodePosition, offset: Int, reporter: ErrorReporter, scope: JsScope): JsFunction? {
-    val rootNode = parse(code, position, offset, reporter, insideFunction = false) {
-        addListener(FunctionParsingObserver())
-        primaryExpr(it)
-    }
-    return rootNode?.toJsAst(scope, fileName, JsAstMapper::mapFunction)
+    val rootNode = parseFunctionSyntax(code, position, offset, reporter)
+    return rootNode?.let { toJsFunction(it, scope, fileName) }
 }
 
+/**
+ * The first step of [parseFunction], which doesn't declare names in any scope. The result is not modified by [toJsFunction],
+ * so it can be converted to functions of different scopes, including concurrently
+ */
+fun parseFunctionSyntax(code: String, position: CodePosition, offset: Int, reporter: ErrorReporter): Node? =
+        parse(code, position, offset, reporter, insideFunction = false) {
+            addListener(FunctionParsingObserver())
+            primaryExpr(it)
+        }
+
+fun toJsFunction(node: Node, scope: JsScope, fileName: String): JsFunction =
+        node.toJsAst(scope, fileName, JsAstMapper::mapFunction)
+
 private class FunctionParsingObserver : ParserListener {
     var functionsStarted = 0
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.backend.common.library.CombinedIrFileReader
+import org.jetbrains.kotlin.backend.common.library.CombinedIrFileWriter
+import org.jetbrains.kotlin.backend.common.library.DeclarationId
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.*
+
+class CombinedIrFileReaderTest : TestCase() {
+    private fun generateDeclarations(count: Int): Map<DeclarationId, ByteArray?> {
+        val random = Random(42)
+        return (0 until count).associate { i ->
+            val id = DeclarationId(random.nextLong(), isLocal = i % 3 == 0)
+            // Every tenth declaration is skipped by the writer, like expect declarations
+            id to if (i % 10 == 9) null else ByteArray(random.nextInt(100)) { random.nextInt().toByte() }
+        }
+    }
+
+    private fun checkDeclarations(file: File, declarations: Map<DeclarationId, ByteArray?>) {
+        val reader = CombinedIrFileReader(file)
+        for ((id, bytes) in declarations) {
+            if (bytes == null) {
+                assertNotFound(reader, id)
+                continue
+            }
+            assertTrue(Arrays.equals(bytes, reader.declarationBytes(id)))
+            val buffer = reader.declarationBuffer(id)
+            assertTrue(Arrays.equals(bytes, ByteArray(buffer.remaining()).also { buffer.get(it) }))
+        }
+        assertNotFound(reader, DeclarationId(Long.MIN_VALUE, isLocal = false))
+        assertNotFound(reader, DeclarationId(Long.MAX_VALUE, isLocal = true))
+    }
+
+    private fun assertNotFound(reader: CombinedIrFileReader, id: DeclarationId) {
+        try {
+            reader.declarationBytes(id)
+            fail("Declaration $id is not expected")
+        } catch (e: Error) {
+            if (e is AssertionError) throw e
+        }
+    }
+
+    fun testDeclarationsAreFoundInSortedIndex() {
+        val declarations = generateDeclarations(1000)
+        val writer = CombinedIrFileWriter(declarations.size)
+        for ((id, bytes) in declarations) {
+            if (bytes == null) writer.skipDeclaration() else writer.addDeclaration(id, bytes)
+        }
+        val file = writer.finishWriting()
+        try {
+            checkDeclarations(file, declarations)
+        } finally {
+            file.delete()
+        }
+    }
+
+    fun testDeclarationsAreFoundInIndexWrittenInDeclarationOrder() {
+        val declarations = generateDeclarations(1000)
+        val file = File.createTempFile("irCombined", "")
+        try {
+            // The layout written before the index was sorted
+            RandomAccessFile(file, "rw").use { output ->
+                output.writeInt(declarations.size)
+                var position = 4 + 20 * declarations.size
+                val data = declarations.values.filterNotNull()
+                for ((id, bytes) in declarations) {
+                    output.writeLong(if (bytes == null) -1 else id.id)
+                    output.writeInt(if (bytes == null) -1 else if (id.isLocal) 1 else 0)
+                    output.writeInt(if (bytes == null) -1 else position)
+                    output.writeInt(bytes?.size ?: -1)
+                    position += bytes?.size ?: 0
+                }
+                data.forEach { output.write(it) }
+            }
+            checkDeclarations(file, declarations)
+        } finally {
+            file.delete()
+        }
+    }
+}
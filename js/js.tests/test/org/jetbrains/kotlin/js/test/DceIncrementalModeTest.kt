@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.js.dce.DeadCodeElimination
+import org.jetbrains.kotlin.js.dce.InputFile
+import org.jetbrains.kotlin.js.dce.InputResource
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+
+class DceIncrementalModeTest : TestCase() {
+    private lateinit var inputDir: File
+    private lateinit var stateDir: File
+
+    override fun setUp() {
+        super.setUp()
+        val tmpdir = KotlinTestUtils.tmpDir(this::class.simpleName)
+        inputDir = File(tmpdir, "input")
+        stateDir = File(tmpdir, "state")
+        File("js/js.translator/testData/dce").listFiles { file -> file.extension == "js" }!!.forEach {
+            it.copyTo(File(inputDir, it.name))
+        }
+    }
+
+    private fun runDce(
+        outputDir: File,
+        incremental: Boolean,
+        reachableNodes: MutableSet<String>? = null,
+        inputDir: File = this.inputDir
+    ): List<String> {
+        val files = inputDir.listFiles()!!.sortedBy { it.name }.map {
+            InputFile(InputResource.file(it.path), null, File(outputDir, it.name).path, it.nameWithoutExtension)
+        }
+        val messages = mutableListOf<String>()
+        val result = DeadCodeElimination.run(
+            files, emptySet(), { _, message -> messages += message }, false, stateDir.takeIf { incremental },
+            reachableNodesRequired = reachableNodes != null
+        )
+        result.reachableNodes.mapTo(reachableNodes ?: mutableSetOf()) { it.toString() }
+        return messages.filter { it == "DCE outputs are up to date" || it.startsWith("DCE rewrote") }
+    }
+
+    private fun assertSameOutputs(expectedDir: File, actualDir: File) {
+        for (file in inputDir.listFiles()!!) {
+            assertEquals(file.name, File(expectedDir, file.name).readText(), File(actualDir, file.name).readText())
+        }
+    }
+
+    fun testOnlyChangedOutputsAreRewritten() {
+        val outputDir = File(inputDir.parentFile, "incremental")
+        val inputCount = inputDir.listFiles()!!.size
+        assertEquals(listOf("DCE rewrote $inputCount of $inputCount output files"), runDce(outputDir, incremental = true))
+        assertEquals(listOf("DCE outputs are up to date"), runDce(outputDir, incremental = true))
+
+        val changedFile = inputDir.listFiles()!!.first()
+        changedFile.appendText("\nfunction addedFunction() {}\n")
+        assertEquals(listOf("DCE rewrote 1 of $inputCount output files"), runDce(outputDir, incremental = true))
+        assertSameOutputs(File(inputDir.parentFile, "full").also { runDce(it, incremental = false) }, outputDir)
+
+        File(outputDir, changedFile.name).delete()
+        assertEquals(listOf("DCE rewrote 1 of $inputCount output files"), runDce(outputDir, incremental = true))
+        assertTrue(File(outputDir, changedFile.name).exists())
+    }
+
+    fun testReachableNodesAreReportedWhenUpToDate() {
+        val outputDir = File(inputDir.parentFile, "incremental")
+        val inputCount = inputDir.listFiles()!!.size
+        val firstNodes = mutableSetOf<String>()
+        runDce(outputDir, incremental = true, reachableNodes = firstNodes)
+        assertTrue(firstNodes.isNotEmpty())
+
+        val secondNodes = mutableSetOf<String>()
+        assertEquals(
+            listOf("DCE rewrote 0 of $inputCount output files"),
+            runDce(outputDir, incremental = true, reachableNodes = secondNodes)
+        )
+        assertEquals(firstNodes, secondNodes)
+    }
+
+    fun testOutputsAreRewrittenWhenInputsAreMoved() {
+        val outputDir = File(inputDir.parentFile, "incremental")
+        val inputCount = inputDir.listFiles()!!.size
+        runDce(outputDir, incremental = true)
+
+        // Contents of inputs are the same, but their paths, which are written to source maps, are not
+        val movedInputDir = File(inputDir.parentFile, "moved")
+        inputDir.copyRecursively(movedInputDir)
+        assertEquals(
+            listOf("DCE rewrote $inputCount of $inputCount output files"),
+            runDce(outputDir, incremental = true, inputDir = movedInputDir)
+        )
+    }
+}
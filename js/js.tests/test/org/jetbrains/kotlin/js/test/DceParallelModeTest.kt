@@ -0,0 +1,31 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.js.dce.DeadCodeElimination
+import org.jetbrains.kotlin.js.dce.InputFile
+import org.jetbrains.kotlin.js.dce.InputResource
+import java.io.File
+
+class DceParallelModeTest : TestCase() {
+    private val inputFiles = File("js/js.translator/testData/dce").listFiles { file -> file.extension == "js" }!!.sortedBy { it.name }
+
+    private fun runDce(parallel: Boolean): Pair<Set<String>, List<String>> {
+        val outputDir = File("js/js.translator/testData/out/dceParallelMode/$parallel")
+        val files = inputFiles.map { InputFile(InputResource.file(it.path), null, File(outputDir, it.name).path, it.nameWithoutExtension) }
+        val result = DeadCodeElimination.run(files, emptySet(), { _, _ -> }, parallel)
+        val reachableNodes = result.reachableNodes.mapTo(mutableSetOf()) { it.toString() }
+        return reachableNodes to files.map { File(it.outputPath).readText() }
+    }
+
+    fun testParallelModeHasSameResult() {
+        val (sequentialNodes, sequentialOutputs) = runDce(parallel = false)
+        val (parallelNodes, parallelOutputs) = runDce(parallel = true)
+        assertEquals(sequentialNodes, parallelNodes)
+        assertEquals(sequentialOutputs, parallelOutputs)
+    }
+}
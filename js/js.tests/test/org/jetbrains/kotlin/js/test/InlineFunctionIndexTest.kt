@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import com.google.gwt.dev.js.ThrowExceptionOnErrorReporter
+import com.google.gwt.dev.js.rhino.CodePosition
+import junit.framework.TestCase
+import org.jetbrains.kotlin.js.config.JsConfig
+import org.jetbrains.kotlin.js.inline.InlineFunctionIndex
+import org.jetbrains.kotlin.js.inline.SharedInlineFunctionCache
+import org.jetbrains.kotlin.js.parser.parseFunctionSyntax
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.utils.JsLibraryUtils
+import java.io.File
+
+class InlineFunctionIndexTest : TestCase() {
+    private val tagPattern = Regex("defineInlineFunction\\('([^']+)'")
+
+    private val stdlibContent: String by lazy {
+        var result: String? = null
+        JsLibraryUtils.traverseJsLibraries(JsConfig.JS_STDLIB.map(::File)) { library ->
+            if (File(library.path).name == "kotlin.js") {
+                result = library.content
+            }
+        }
+        result ?: throw AssertionError("kotlin.js is not found in ${JsConfig.JS_STDLIB}")
+    }
+
+    fun testIndexedOffsetsOfTags() {
+        val index = InlineFunctionIndex.build(stdlibContent, "kotlin.js")
+        val tags = tagPattern.findAll(stdlibContent).map { it.groupValues[1] }.toList()
+        assertTrue("No inline functions found", tags.isNotEmpty())
+        for (tag in tags) {
+            assertEquals(tag, stdlibContent.indexOf(tag), index[tag])
+        }
+
+        val file = File(KotlinTestUtils.tmpDir(this::class.simpleName), "kotlin.inline-index")
+        index.save(file)
+        val loaded = InlineFunctionIndex.load(file)!!
+        assertEquals(index.libraryKey, loaded.libraryKey)
+        assertEquals(index.size, loaded.size)
+        for (tag in tags) {
+            assertEquals(tag, index[tag], loaded[tag])
+        }
+    }
+
+    fun testParsedFunctionsAreShared() {
+        val directory = KotlinTestUtils.tmpDir(this::class.simpleName)
+        val libraryFile = File(directory, "kotlin.js").apply { writeText(stdlibContent) }
+        val libraryKey = InlineFunctionIndex.libraryKey(libraryFile, "kotlin.js", stdlibContent.length)
+        val index = SharedInlineFunctionCache.getIndex(libraryKey, stdlibContent, directory)
+        assertSame(index, SharedInlineFunctionCache.getIndex(libraryKey, stdlibContent, directory))
+        assertTrue("Index is not saved", File(directory, InlineFunctionIndex.fileName(libraryKey)).exists())
+
+        val tag = tagPattern.find(stdlibContent)!!.groupValues[1]
+        val offset = stdlibContent.indexOf("function", index[tag]!!)
+        val parse = { parseFunctionSyntax(stdlibContent, CodePosition(0, 0), offset, ThrowExceptionOnErrorReporter) }
+        val first = SharedInlineFunctionCache.getParsedFunction(index, offset, parse)
+        assertNotNull(first)
+
+        val statistics = SharedInlineFunctionCache.statistics
+        val missesBefore = statistics.parsedFunctionMisses.get()
+        val hitsBefore = statistics.parsedFunctionHits.get()
+        assertSame(first, SharedInlineFunctionCache.getParsedFunction(index, offset, parse))
+        assertEquals(missesBefore, statistics.parsedFunctionMisses.get())
+        assertEquals(hitsBefore + 1, statistics.parsedFunctionHits.get())
+
+        // A modified library gets another key, so it's indexed again
+        libraryFile.appendText("\n")
+        libraryFile.setLastModified(libraryFile.lastModified() + 2000)
+        val modifiedKey = InlineFunctionIndex.libraryKey(libraryFile, "kotlin.js", stdlibContent.length + 1)
+        assertNotSame(index, SharedInlineFunctionCache.getIndex(modifiedKey, stdlibContent + "\n", directory))
+    }
+}
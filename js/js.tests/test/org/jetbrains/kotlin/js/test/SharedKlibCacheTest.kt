@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.backend.common.library.DeclarationId
+import org.jetbrains.kotlin.backend.common.serialization.KotlinIr
+import org.jetbrains.kotlin.ir.backend.js.SharedKlibCache
+import org.jetbrains.kotlin.ir.backend.js.lower.serialization.metadata.JsKlibMetadataParts
+import org.jetbrains.kotlin.ir.backend.js.lower.serialization.metadata.JsKlibMetadataProtoBuf
+import java.io.File
+
+class SharedKlibCacheTest : TestCase() {
+    private lateinit var tempDir: File
+
+    override fun setUp() {
+        super.setUp()
+        tempDir = createTempDir("sharedKlibCache")
+        SharedKlibCache.isEnabled = true
+        SharedKlibCache.clear()
+    }
+
+    override fun tearDown() {
+        SharedKlibCache.clear()
+        SharedKlibCache.isEnabled = false
+        tempDir.deleteRecursively()
+        super.tearDown()
+    }
+
+    private fun createKlib(name: String, irContent: String): File =
+        File(tempDir, name).also { klibDir ->
+            File(klibDir, "ir").mkdirs()
+            File(klibDir, "module.kji").writeText("header")
+            File(klibDir, "$name.klm").writeText("metadata")
+            File(klibDir, "ir/irCombined.knd").writeText(irContent)
+        }
+
+    fun testKlibsAreIdentifiedByPathAndFileStamps() {
+        val klibDir = createKlib("lib", "declarations")
+        val klib = SharedKlibCache.getKlib(klibDir)
+        assertSame(klib, SharedKlibCache.getKlib(File(tempDir, "lib")))
+
+        val copy = File(tempDir, "copy").also { klibDir.copyRecursively(it) }
+        assertNotSame(klib, SharedKlibCache.getKlib(copy))
+
+        File(klibDir, "ir/irCombined.knd").writeText("other declarations")
+        assertNotSame(klib, SharedKlibCache.getKlib(klibDir))
+    }
+
+    fun testDeclarationsAreParsedOnce() {
+        val klibDir = createKlib("lib", "declarations")
+        val first = SharedKlibCache.Statistics()
+        val second = SharedKlibCache.Statistics()
+        val id = DeclarationId(42, isLocal = false)
+        var parsed = 0
+        val parse = {
+            parsed++
+            KotlinIr.IrDeclaration.getDefaultInstance() to 100
+        }
+
+        val declaration = SharedKlibCache.getDeclaration(SharedKlibCache.getKlib(klibDir), id, first, parse)
+        assertSame(declaration, SharedKlibCache.getDeclaration(SharedKlibCache.getKlib(klibDir), id, first, parse))
+        assertSame(declaration, SharedKlibCache.getDeclaration(SharedKlibCache.getKlib(klibDir), id, second, parse))
+        assertEquals(1, parsed)
+        assertEquals(100L * SharedKlibCache.RETAINED_SIZE_FACTOR, SharedKlibCache.cachedSize)
+
+        assertEquals(1, first.declarationMisses.get())
+        assertEquals(1, first.declarationHits.get())
+        assertEquals(0, second.declarationMisses.get())
+        assertEquals(1, second.declarationHits.get())
+    }
+
+    fun testMetadataIsCountedInCachedSize() {
+        val klibDir = createKlib("lib", "declarations")
+        val header = JsKlibMetadataProtoBuf.Header.newBuilder().setPackageFqName("a".repeat(1000)).build()
+        var loaded = 0
+        val load = {
+            loaded++
+            JsKlibMetadataParts(header, emptyList(), emptyList())
+        }
+
+        val metadataParts = SharedKlibCache.getMetadataParts(SharedKlibCache.getKlib(klibDir), null, load)
+        assertSame(metadataParts, SharedKlibCache.getMetadataParts(SharedKlibCache.getKlib(klibDir), null, load))
+        assertEquals(1, loaded)
+        assertEquals(header.serializedSize.toLong() * SharedKlibCache.RETAINED_SIZE_FACTOR, SharedKlibCache.cachedSize)
+
+        SharedKlibCache.clear()
+        assertEquals(0, SharedKlibCache.cachedSize)
+    }
+
+    fun testEvictedKlibIsLoadedAgain() {
+        val klibDir = createKlib("lib", "declarations")
+        val klib = SharedKlibCache.getKlib(klibDir)
+        val id = DeclarationId(42, isLocal = true)
+        SharedKlibCache.getDeclaration(klib, id, null) { KotlinIr.IrDeclaration.getDefaultInstance() to 100 }
+
+        SharedKlibCache.clear()
+        assertEquals(0, SharedKlibCache.cachedSize)
+
+        // A compilation in progress still uses the evicted klib, but its declarations are not cached anymore
+        SharedKlibCache.getDeclaration(klib, DeclarationId(43, isLocal = true), null) { KotlinIr.IrDeclaration.getDefaultInstance() to 100 }
+        assertEquals(0, SharedKlibCache.cachedSize)
+
+        val statistics = SharedKlibCache.Statistics()
+        val reloaded = SharedKlibCache.getKlib(klibDir)
+        assertNotSame(klib, reloaded)
+        SharedKlibCache.getDeclaration(reloaded, id, statistics) { KotlinIr.IrDeclaration.getDefaultInstance() to 100 }
+        assertEquals(1, statistics.declarationMisses.get())
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import com.google.gwt.dev.js.ThrowExceptionOnErrorReporter
+import org.jetbrains.kotlin.js.backend.JsToStringGenerationVisitor
+import org.jetbrains.kotlin.js.backend.ast.JsProgram
+import org.jetbrains.kotlin.js.facade.SourceMapBuilderConsumer
+import org.jetbrains.kotlin.js.parser.parse
+import org.jetbrains.kotlin.js.parser.sourcemaps.parseJson
+import org.jetbrains.kotlin.js.sourceMap.SourceFilePathResolver
+import org.jetbrains.kotlin.js.sourceMap.SourceMap3Builder
+import org.jetbrains.kotlin.js.util.TextOutputImpl
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import java.io.StringWriter
+
+class StreamingTextOutputTest {
+    private val outputFile = File("out/test.js")
+
+    // Large enough for both the code and the mappings to be flushed several times
+    private val program = JsProgram().apply {
+        val code = (1..3000).joinToString("\n") {
+            "function foo$it(a, b) {\n  if (a > $it) {\n    return b + a * 2.5;\n  }\n  return bar$it(a);\n}"
+        }
+        globalBlock.statements += parse(code, ThrowExceptionOnErrorReporter, scope, "src/test.js")!!
+    }
+
+    private fun consumer(sourceMapBuilder: SourceMap3Builder) =
+        SourceMapBuilderConsumer(File("."), sourceMapBuilder, SourceFilePathResolver(emptyList()), false, false)
+
+    @Test
+    fun streamingOutputIsSameAsInMemory() {
+        val expectedOutput = TextOutputImpl()
+        val expectedBuilder = SourceMap3Builder(outputFile, expectedOutput, "")
+        program.globalBlock.accept(JsToStringGenerationVisitor(expectedOutput, consumer(expectedBuilder)))
+        val expectedSourceMap = expectedBuilder.build()
+        expectedBuilder.addLink()
+
+        val writer = StringWriter()
+        val sourceMapWriter = StringWriter()
+        val actualOutput = TextOutputImpl(writer, false)
+        val actualBuilder = SourceMap3Builder(outputFile, actualOutput, "", sourceMapWriter)
+        program.globalBlock.accept(JsToStringGenerationVisitor(actualOutput, consumer(actualBuilder)))
+        actualBuilder.finish()
+        actualBuilder.addLink()
+        actualOutput.flush()
+
+        assertEquals(expectedOutput.toString(), writer.toString())
+        // Properties are written in a different order, which doesn't matter for JSON objects
+        assertEquals(parseJson(expectedSourceMap), parseJson(sourceMapWriter.toString()))
+    }
+}
@@ -23,18 +23,26 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.js.parser.sourcemaps.*;
 import org.jetbrains.kotlin.js.util.TextOutput;
+import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Supplier;
 
 public class SourceMap3Builder implements SourceMapBuilder {
+    private static final int FLUSH_THRESHOLD = 1 << 16;
+
     private final StringBuilder out = new StringBuilder(8192);
     private final File generatedFile;
     private final TextOutput textOutput;
     private final String pathPrefix;
+    private final Writer writer;
+    private int linesToSkip;
+    private boolean mappingsFlushed;
 
     private final TObjectIntHashMap<SourceKey> sources = new TObjectIntHashMap<SourceKey>() {
         @Override
@@ -58,9 +66,19 @@ public class SourceMap3Builder implements SourceMapBuilder {
     private boolean currentMappingIsEmpty = true;
 
     public SourceMap3Builder(File generatedFile, TextOutput textOutput, String pathPrefix) {
+        this(generatedFile, textOutput, pathPrefix, null);
+    }
+
+    /**
+     * Creates a builder that writes completed lines of mappings to {@code writer} while the code is generated, so that
+     * the mappings are never kept in memory. Since sources are only known in the end, "mappings" precede "sources" in such
+     * a source map. {@link #finish()} must be called instead of {@link #build()}.
+     */
+    public SourceMap3Builder(File generatedFile, TextOutput textOutput, String pathPrefix, @Nullable Writer writer) {
         this.generatedFile = generatedFile;
         this.textOutput = textOutput;
         this.pathPrefix = pathPrefix;
+        this.writer = writer;
     }
 
     @Override
@@ -70,6 +88,10 @@ public class SourceMap3Builder implements SourceMapBuilder {
 
     @Override
     public String build() {
+        if (writer != null) {
+            throw new IllegalStateException("Mappings are written to the writer, use finish() to complete the source map");
+        }
+
         @SuppressWarnings("unchecked")
         JsonObject json = new JsonObject();
         json.getProperties().put("version", new JsonNumber(3));
@@ -77,16 +99,58 @@ public class SourceMap3Builder implements SourceMapBuilder {
         appendSources(json);
         appendSourcesContent(json);
         json.getProperties().put("names", new JsonArray());
-        json.getProperties().put("mappings", new JsonString(out.toString()));
+        json.getProperties().put("mappings", new JsonString(StringUtil.repeatSymbol(';', linesToSkip) + out));
         return json.toString();
     }
 
+    /**
+     * Writes the rest of the source map to the writer passed to the constructor. Contents of sources are read and written
+     * one by one.
+     */
+    public void finish() throws IOException {
+        if (writer == null) {
+            throw new IllegalStateException("Source map is not written to a writer, use build() to get it");
+        }
+
+        flushMappings();
+        writer.write("\",\"sources\":");
+        sourcesArray().write(writer);
+        writer.write(",\"sourcesContent\":[");
+        for (int i = 0; i < orderedSourceContentSuppliers.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Reader reader = orderedSourceContentSuppliers.get(i).get();
+            (reader != null ? new JsonString(TextStreamsKt.readText(reader)) : JsonNull.INSTANCE).write(writer);
+        }
+        writer.write("],\"names\":[]}");
+        writer.flush();
+    }
+
+    private void flushMappings() throws IOException {
+        if (!mappingsFlushed) {
+            // Characters of mappings don't need escaping, so the string is written as is
+            writer.write("{\"version\":3,\"file\":");
+            new JsonString(generatedFile.getName()).write(writer);
+            writer.write(",\"mappings\":\"");
+            writer.write(StringUtil.repeatSymbol(';', linesToSkip));
+            mappingsFlushed = true;
+        }
+        writer.append(out);
+        out.setLength(0);
+        previousMappingOffset = 0;
+    }
+
     private void appendSources(JsonObject json) {
+        json.getProperties().put("sources", sourcesArray());
+    }
+
+    private JsonArray sourcesArray() {
         JsonArray array = new JsonArray();
         for (String source : orderedSources) {
             array.getElements().add(new JsonString(pathPrefix + source));
         }
-        json.getProperties().put("sources", array);
+        return array;
     }
 
     private void appendSourcesContent(JsonObject json) {
@@ -102,11 +166,24 @@ public class SourceMap3Builder implements SourceMapBuilder {
     public void newLine() {
         out.append(';');
         previousGeneratedColumn = -1;
+
+        // Mappings of the previous lines are never rolled back by startMapping, so they can be written
+        if (writer != null && out.length() >= FLUSH_THRESHOLD) {
+            try {
+                flushMappings();
+            }
+            catch (IOException e) {
+                throw ExceptionUtilsKt.rethrow(e);
+            }
+        }
     }
 
     @Override
     public void skipLinesAtBeginning(int count) {
-        out.insert(0, StringUtil.repeatSymbol(';', count));
+        if (mappingsFlushed) {
+            throw new IllegalStateException("Mappings of the first lines are already written");
+        }
+        linesToSkip += count;
     }
 
     private int getSourceIndex(String source, Object identityObject, Supplier<Reader> contentSupplier) {